@@ -1,5 +1,6 @@
 package com.cffreedom.integrations.stripe;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -21,9 +22,12 @@ import com.stripe.exception.InvalidRequestException;
 import com.stripe.exception.StripeException;
 import com.stripe.model.Card;
 import com.stripe.model.Charge;
+import com.stripe.model.ChargeCollection;
 import com.stripe.model.Customer;
 import com.stripe.model.CustomerCardCollection;
+import com.stripe.model.CustomerCollection;
 import com.stripe.model.Plan;
+import com.stripe.model.PlanCollection;
 import com.stripe.model.Subscription;
 import com.stripe.model.Token;
 
@@ -45,6 +49,15 @@ import com.stripe.model.Token;
  * 2013-10-05 	markjacobsen.net 	Added chargeCustomer()
  * 2013-10-07   markjacobsen.net 	Renamed createCardToken to getCreditCardToken()
  * 2013-10-07   markjacobsen.net 	Renamed createPlan() to addPlan()
+ * 2026-10-17 	MarkJacobsen.net 	Optional CFStripeCache for Customer and Plan lookups
+ * 2026-10-17 	MarkJacobsen.net 	Fewer round trips in chargeCustomer(), addCreditCardToCust(), deleteCreditCardForCust(), etc. and getRoundTrips()
+ * 2026-10-17 	MarkJacobsen.net 	chargeCustomer() with metadata and getCustomerCharges()
+ * 2026-10-17 	MarkJacobsen.net 	Pass the API key on each request instead of setting Stripe.apiKey
+ * 2026-10-17 	MarkJacobsen.net 	listCustomers(), listCharges(), listPlans(), listCustomerCards() and all cards from getCustomerCards()
+ * 2026-10-17 	MarkJacobsen.net 	getCustomerCards() keeps interrupts instead of failing on a ClassCastException
+ * 2026-10-17 	MarkJacobsen.net 	listCharges() created since a date
+ * 2026-10-17 	MarkJacobsen.net 	deleteCreditCardForCust() only returns false for a missing card
+ * 2026-10-17 	MarkJacobsen.net 	deleteCreditCardForCust() tells a missing card from a missing customer by looking the customer up
  */
 public class CFStripe
 {
@@ -54,22 +67,57 @@ public class CFStripe
 	public final static String INTERVAL_MONTHLY = "month";
 	public final static String CURRENCY_USD = "usd";
 	
-	//private String apiKey = null;
+	private final String apiKey;
+	private CFStripeCache cache = null;
+	private final CFStripeRoundTrips roundTrips = new CFStripeRoundTrips();
 	
 	public CFStripe(String apiKey)
+	{
+		this(apiKey, null);
+	}
+	
+	/**
+	 * The key is only used by this instance (it's passed on every request rather than set in
+	 * Stripe.apiKey), so instances for different accounts can be used at the same time.
+	 * @param apiKey
+	 * @param cache Serve getCustomer() and getPlan() from this cache (null to always go to Stripe).
+	 * A cache can only be shared by instances for the same account.
+	 */
+	public CFStripe(String apiKey, CFStripeCache cache)
 	{
 		logger.debug("Initializing");
-		//this.apiKey = apiKey;
-		Stripe.apiKey = apiKey;
+		this.apiKey = apiKey;
+		if (cache != null)
+		{
+			cache.setApiKey(apiKey);
+		}
+		this.cache = cache;
 		logger.debug("Initialized");
 	}
+	
+	/**
+	 * @return The cache in use or null
+	 */
+	public CFStripeCache getCache()
+	{
+		return this.cache;
+	}
+	
+	/**
+	 * @return Requests made to Stripe so far, by method
+	 */
+	public CFStripeRoundTrips getRoundTrips()
+	{
+		return this.roundTrips;
+	}
 
-	/*
-	private String getApiKey()
+	/**
+	 * @return The key every request from this instance is made with
+	 */
+	public String getApiKey()
 	{
 		return this.apiKey;
 	}
-	*/
 	
 	/**
 	 * @return Stripe.apiVersion
@@ -83,8 +131,12 @@ public class CFStripe
 	{
 		try
 		{
-			//Stripe.apiKey = this.getApiKey();
-			return Plan.retrieve(planCode);
+			if (this.cache != null)
+			{
+				return this.cache.getPlan(planCode, this.roundTrips, "getPlan");
+			}
+			this.roundTrips.record("getPlan");
+			return Plan.retrieve(planCode, this.apiKey);
 		}
 		catch (Exception e)
 		{
@@ -118,22 +170,27 @@ public class CFStripe
 	public Plan addPlan(String planCode, String name, int amountInCents, String interval, String currency) throws StripeException
 	{
 		logger.info("Adding plan {} named {}", planCode, name);
-		//Stripe.apiKey = this.getApiKey();
 		Map<String, Object> planParams = new HashMap<String, Object>();
 		planParams.put("interval", interval);
 		planParams.put("id", planCode);
 		planParams.put("currency", currency);
 		planParams.put("name", name);
 		planParams.put("amount", amountInCents);
-		return Plan.create(planParams);
+		this.roundTrips.record("addPlan");
+		Plan plan = Plan.create(planParams, this.apiKey);
+		invalidatePlan(planCode);
+		return plan;
 	}
 
 	public void deletePlan(String planCode) throws StripeException
 	{
 		logger.warn("Deleting plan: {}", planCode);
-		//Stripe.apiKey = this.getApiKey();
-		Plan plan = Plan.retrieve(planCode);
-		plan.delete();
+		// No need to retrieve the plan just to delete it
+		Plan plan = new Plan();
+		plan.setId(planCode);
+		this.roundTrips.record("deletePlan");
+		plan.delete(this.apiKey);
+		invalidatePlan(planCode);
 	}
 
 	/**
@@ -149,7 +206,6 @@ public class CFStripe
 	public Token getCreditCardToken(String cardholderName, String cardNum, String secCode, int expMonth, int expYear) throws StripeException
 	{
 		logger.info("Getting CC token for {} with {}/{} exp", cardholderName, expMonth, expYear);
-		//Stripe.apiKey = this.getApiKey();
 		Map<String, Object> tokenParams = new HashMap<String, Object>();
 		Map<String, Object> cardParams = new HashMap<String, Object>();
 		cardParams.put("name", cardholderName);
@@ -158,7 +214,8 @@ public class CFStripe
 		cardParams.put("exp_month", expMonth);
 		cardParams.put("exp_year", expYear);
 		tokenParams.put("card", cardParams);
-		return Token.create(tokenParams);
+		this.roundTrips.record("getCreditCardToken");
+		return Token.create(tokenParams, this.apiKey);
 	}
 	
 	/**
@@ -193,7 +250,6 @@ public class CFStripe
 		Date today = Convert.toDateNoTime(new Date());
 		planStartDate = Convert.toDateNoTime(planStartDate);
 		
-		//Stripe.apiKey = this.getApiKey();
 		Map<String, Object> customerParams = new HashMap<String, Object>();
 		customerParams.put("card", cardToken.getId());
 		customerParams.put("email", email);
@@ -203,7 +259,8 @@ public class CFStripe
 		{
 			customerParams.put("trial_end", DateTimeUtils.dateAsEpoc(planStartDate));
 		}
-		return Customer.create(customerParams);
+		this.roundTrips.record("order");
+		return Customer.create(customerParams, this.apiKey);
 	}
 
 	/**
@@ -218,13 +275,13 @@ public class CFStripe
 	public Charge orderOneTime(Token cardToken, String email, String desc, int amountInCents) throws StripeException
 	{
 		logger.info("Creating one time charge in the amount of {} cents for {}", amountInCents, email);
-		//Stripe.apiKey = this.getApiKey();
 		
 		logger.info("Creating customer: {}", email);
 		Map<String, Object> customerParams = new HashMap<String, Object>();
 		customerParams.put("card", cardToken.getId());
 		customerParams.put("email", email);
-		Customer cust = Customer.create(customerParams);
+		this.roundTrips.record("orderOneTime");
+		Customer cust = Customer.create(customerParams, this.apiKey);
 		
 		logger.info("Creating charge: {} ({})", amountInCents, desc);
 		Map<String, Object> chargeParams = new HashMap<String, Object>();
@@ -232,7 +289,8 @@ public class CFStripe
 		chargeParams.put("description", desc);
 		chargeParams.put("currency", "usd");
 		chargeParams.put("customer", cust.getId());
-		return Charge.create(chargeParams);
+		this.roundTrips.record("orderOneTime");
+		return Charge.create(chargeParams, this.apiKey);
 	}
 	
 	/**
@@ -244,16 +302,50 @@ public class CFStripe
 	 * @throws StripeException
 	 */
 	public Charge chargeCustomer(String custCode, String desc, int amountInCents) throws StripeException
+	{
+		return chargeCustomer(custCode, desc, amountInCents, null);
+	}
+	
+	/**
+	 * Same as chargeCustomer(custCode, desc, amountInCents) but stores metadata with the charge
+	 * @param custCode
+	 * @param desc
+	 * @param amountInCents
+	 * @param metadata Key/value pairs to keep with the charge (ex: an order or batch number)
+	 * @return Charge object
+	 * @throws StripeException
+	 */
+	public Charge chargeCustomer(String custCode, String desc, int amountInCents, Map<String, String> metadata) throws StripeException
 	{
 		logger.info("Creating one time charge in the amount of {} cents for {}: {}", amountInCents, custCode, desc);
-		//Stripe.apiKey = this.getApiKey();
-		Customer cust = getCustomer(custCode);
 		Map<String, Object> chargeParams = new HashMap<String, Object>();
 		chargeParams.put("amount", amountInCents);
 		chargeParams.put("description", desc);
 		chargeParams.put("currency", "usd");
-		chargeParams.put("customer", cust.getId());
-		return Charge.create(chargeParams);
+		chargeParams.put("customer", custCode);
+		if ((metadata != null) && (metadata.isEmpty() == false))
+		{
+			chargeParams.put("metadata", metadata);
+		}
+		this.roundTrips.record("chargeCustomer");
+		return Charge.create(chargeParams, this.apiKey);
+	}
+	
+	/**
+	 * Get the customer's most recent charges, newest first
+	 * @param custCode
+	 * @param count Max charges to return (Stripe allows up to 100)
+	 * @return Charges for the customer
+	 * @throws StripeException
+	 */
+	public List<Charge> getCustomerCharges(String custCode, int count) throws StripeException
+	{
+		logger.debug("Getting last {} charges for cust: {}", count, custCode);
+		Map<String, Object> chargeParams = new HashMap<String, Object>();
+		chargeParams.put("customer", custCode);
+		chargeParams.put("count", count);
+		this.roundTrips.record("getCustomerCharges");
+		return Charge.all(chargeParams, this.apiKey).getData();
 	}
 	
 	/**
@@ -266,16 +358,18 @@ public class CFStripe
 	public Subscription updateOrderPlan(String custCode, String newPlanCode) throws StripeException
 	{
 		logger.info("Updating order plan to {} for cust {}", newPlanCode, custCode);
-		//Stripe.apiKey = this.getApiKey();
-		Customer c = Customer.retrieve(custCode);
 		Map<String, Object> subscriptionParams = new HashMap<String, Object>();
 		subscriptionParams.put("plan", newPlanCode);
 		subscriptionParams.put("prorate", "true");
-		return c.updateSubscription(subscriptionParams);
+		this.roundTrips.record("updateOrderPlan");
+		Subscription subscription = customerRef(custCode).updateSubscription(subscriptionParams, this.apiKey);
+		invalidateCustomer(custCode);
+		return subscription;
 	}
 	
 	/**
-	 * Get a specific credit card for a specific customer
+	 * Get a specific credit card for a specific customer. The customer comes with (the first
+	 * page of) their cards, so the card is only retrieved separately if it isn't in there.
 	 * @param custCode
 	 * @param cardCode
 	 * @return Card for the passed information
@@ -284,12 +378,20 @@ public class CFStripe
 	public Card getCustomerCard(String custCode, String cardCode) throws StripeException
 	{
 		logger.debug("Getting cust {} card {}", custCode, cardCode);
-		Customer cu = this.getCustomer(custCode);
-		return cu.getCards().retrieve(cardCode);
+		Customer cu = this.getCustomer(custCode, "getCustomerCard");
+		for (Card card : cu.getCards().getData())
+		{
+			if (card.getId().equals(cardCode))
+			{
+				return card;
+			}
+		}
+		this.roundTrips.record("getCustomerCard");
+		return cu.getCards().retrieve(cardCode, this.apiKey);
 	}
 	
 	/**
-	 * Add a credit card to an existing customer
+	 * Add a credit card to an existing customer. One request, two if it's made the default.
 	 * @param cardToken
 	 * @param custCode
 	 * @param makeDefault
@@ -298,43 +400,86 @@ public class CFStripe
 	public void addCreditCardToCust(Token cardToken, String custCode, boolean makeDefault) throws StripeException
 	{
 		logger.info("Adding card {} to cust {}", cardToken.getId(), custCode);
-		//Stripe.apiKey = this.getApiKey();
-		Customer cu = this.getCustomer(custCode); //Customer.retrieve(custCode);
+		Customer cu = customerRef(custCode);
 		Map<String, Object> params = new HashMap<String, Object>();
 		params.put("card", cardToken.getId());
 		logger.debug("Creating CC");
-		Card card = cu.createCard(params);
+		this.roundTrips.record("addCreditCardToCust");
+		Card card = cu.createCard(params, this.apiKey);
 		if (makeDefault == true)
 		{
+			// Not "card" on the customer update, that would also delete the old default card
 			logger.debug("Making new CC the default");
 			params = new HashMap<String, Object>();
 			params.put("default_card", card.getId());
-			cu.update(params);
+			this.roundTrips.record("addCreditCardToCust");
+			cu.update(params, this.apiKey);
 		}
+		invalidateCustomer(custCode);
 		logger.info("Added CC to cust {}", custCode);
 	}
 	
 	/**
-	 * Remove an existing card on a customer
+	 * Remove an existing card on a customer. The card is deleted directly rather than looked
+	 * for in the customer's cards first, so this is a single request (two if it isn't found).
 	 * @param cardCode
 	 * @param custCode
-	 * @return True if successful, false otherwise
-	 * @throws StripeException
+	 * @return True if successful, false if the customer has no such card
+	 * @throws StripeException Anything else that goes wrong, including a customer that doesn't exist
 	 */
 	public boolean deleteCreditCardForCust(String cardCode, String custCode) throws StripeException
 	{
 		logger.info("Deleting CC {} for cust {}", cardCode, custCode);
-		//Stripe.apiKey = this.getApiKey();
-		Customer cu = Customer.retrieve(custCode);
-		for(Card card : cu.getCards().getData())
+		Card card = new Card();
+		card.setId(cardCode);
+		card.setCustomer(custCode);
+		try
+		{
+			this.roundTrips.record("deleteCreditCardForCust");
+			card.delete(this.apiKey);
+		}
+		catch (InvalidRequestException e)
 		{
-			if(card.getId().equals(cardCode))
+			if (isNoSuchCard(e, custCode) == false)
 			{
-				card.delete();
-				return true;
+				throw e;
 			}
+			logger.debug("Unable to delete CC {} for cust {}: {}", cardCode, custCode, e.getMessage());
+			return false;
+		}
+		invalidateCustomer(custCode);
+		return true;
+	}
+	
+	/**
+	 * Stripe answers a 404 on the "id" param when either the card or the customer isn't there.
+	 * stripe-java doesn't pass the status on, and the two only differ in the message text, so
+	 * the customer is looked up (uncached) to tell them apart. If that lookup can't answer,
+	 * Stripe's wording ("No such card: ..." or "Customer ... does not have card with ID ...")
+	 * is the fallback.
+	 */
+	private boolean isNoSuchCard(InvalidRequestException e, String custCode)
+	{
+		if ("id".equals(e.getParam()) == false)
+		{
+			return false;
+		}
+		try
+		{
+			this.roundTrips.record("deleteCreditCardForCust");
+			Customer customer = Customer.retrieve(custCode, this.apiKey);
+			return Boolean.TRUE.equals(customer.getDeleted()) == false;
+		}
+		catch (InvalidRequestException customerError)
+		{
+			return false;
+		}
+		catch (StripeException lookupError)
+		{
+			logger.debug("Couldn't look up cust {}, going by the error message: {}", custCode, lookupError.getMessage());
+			String message = e.getMessage();
+			return (message != null) && (message.startsWith("No such card") || message.contains("does not have card"));
 		}
-		return false;
 	}
 	
 	/**
@@ -348,36 +493,205 @@ public class CFStripe
 	public Subscription updateOrderCreditCard(Token cardToken, String custCode, String planCode) throws StripeException
 	{
 		logger.info("Updating order CC for plan {}, cust {} to {}", planCode, custCode, cardToken.getId());
-		//Stripe.apiKey = this.getApiKey();
-		Customer c = Customer.retrieve(custCode);
 		Map<String, Object> subscriptionParams = new HashMap<String, Object>();
 		subscriptionParams.put("plan", planCode);
 		subscriptionParams.put("prorate", "true");
 		subscriptionParams.put("card", cardToken.getId());
-		return c.updateSubscription(subscriptionParams);
+		this.roundTrips.record("updateOrderCreditCard");
+		Subscription subscription = customerRef(custCode).updateSubscription(subscriptionParams, this.apiKey);
+		invalidateCustomer(custCode);
+		return subscription;
 	}
 	
 	public Subscription cancelOrder(String custCode) throws StripeException
 	{
 		logger.info("Canceling order for {}", custCode);
-		//Stripe.apiKey = this.getApiKey();
-		Customer cu = this.getCustomer(custCode);
-		return cu.cancelSubscription();
+		this.roundTrips.record("cancelOrder");
+		Subscription subscription = customerRef(custCode).cancelSubscription(this.apiKey);
+		invalidateCustomer(custCode);
+		return subscription;
 	}
 
 	public Customer getCustomer(String custCode) throws StripeException
 	{
 		logger.debug("Getting cust: {}", custCode);
-		return Customer.retrieve(custCode);
+		return getCustomer(custCode, "getCustomer");
 	}
 	
+	/**
+	 * Get all of the customer's cards. They come embedded in the customer, so they are
+	 * only listed separately if the customer has more cards than came with it.
+	 * @param custCode
+	 * @return Cards for the customer
+	 * @throws StripeException
+	 */
 	public List<Card> getCustomerCards(String custCode) throws StripeException
 	{
 		logger.debug("Getting cust cards: {}", custCode);
-		Customer inv = Customer.retrieve(custCode);
-		Map<String, Object> cardParams = new HashMap<String, Object>();
-		cardParams.put("count", 10);
-		CustomerCardCollection cards = inv.getCards().all(cardParams);
-		return cards.getData();
+		Customer inv = this.getCustomer(custCode, "getCustomerCards");
+		CustomerCardCollection embedded = inv.getCards();
+		if ((embedded.getCount() != null) && (embedded.getCount() <= embedded.getData().size()))
+		{
+			return embedded.getData();
+		}
+		List<Card> cards = new ArrayList<Card>();
+		CFStripePages<Card> pages = listCards(embedded, CFStripePages.MAX_PAGE_SIZE, "getCustomerCards");
+		try
+		{
+			while (pages.hasNext())
+			{
+				cards.add(pages.next());
+			}
+		}
+		catch (CFStripePages.PageException e)
+		{
+			throw e.toStripeException();
+		}
+		return cards;
+	}
+	
+	/**
+	 * Walk all of the account's customers, newest first, a page at a time
+	 * @param pageSize Customers per request (max 100)
+	 * @return Iterator that fetches the next page while the current one is used
+	 */
+	public CFStripePages<Customer> listCustomers(int pageSize)
+	{
+		return new CFStripePages<Customer>(new CFStripePages.Source<Customer>() {
+			public CFStripePages.Page<Customer> fetch(int offset, int count) throws StripeException {
+				roundTrips.record("listCustomers");
+				CustomerCollection customers = Customer.all(pageParams(null, offset, count), apiKey);
+				return new CFStripePages.Page<Customer>(customers.getData(), customers.getCount());
+			}
+		}, pageSize);
+	}
+	
+	/**
+	 * Walk charges, newest first, a page at a time
+	 * @param custCode Only this customer's charges (null for all of the account's charges)
+	 * @param pageSize Charges per request (max 100)
+	 * @return Iterator that fetches the next page while the current one is used
+	 */
+	public CFStripePages<Charge> listCharges(String custCode, int pageSize)
+	{
+		return listCharges(custCode, null, pageSize);
+	}
+	
+	/**
+	 * Walk charges created since a point in time, newest first, a page at a time
+	 * @param custCode Only this customer's charges (null for all of the account's charges)
+	 * @param createdSince Only charges created at or after this (null for all)
+	 * @param pageSize Charges per request (max 100)
+	 * @return Iterator that fetches the next page while the current one is used
+	 */
+	public CFStripePages<Charge> listCharges(final String custCode, Date createdSince, int pageSize)
+	{
+		final Long since = (createdSince == null) ? null : Long.valueOf(createdSince.getTime() / 1000);
+		return new CFStripePages<Charge>(new CFStripePages.Source<Charge>() {
+			public CFStripePages.Page<Charge> fetch(int offset, int count) throws StripeException {
+				roundTrips.record("listCharges");
+				Map<String, Object> params = pageParams(custCode, offset, count);
+				if (since != null)
+				{
+					Map<String, Object> created = new HashMap<String, Object>();
+					created.put("gte", since);
+					params.put("created", created);
+				}
+				ChargeCollection charges = Charge.all(params, apiKey);
+				return new CFStripePages.Page<Charge>(charges.getData(), charges.getCount());
+			}
+		}, pageSize);
+	}
+	
+	/**
+	 * Walk all of the account's plans a page at a time
+	 * @param pageSize Plans per request (max 100)
+	 * @return Iterator that fetches the next page while the current one is used
+	 */
+	public CFStripePages<Plan> listPlans(int pageSize)
+	{
+		return new CFStripePages<Plan>(new CFStripePages.Source<Plan>() {
+			public CFStripePages.Page<Plan> fetch(int offset, int count) throws StripeException {
+				roundTrips.record("listPlans");
+				PlanCollection plans = Plan.all(pageParams(null, offset, count), apiKey);
+				return new CFStripePages.Page<Plan>(plans.getData(), plans.getCount());
+			}
+		}, pageSize);
+	}
+	
+	/**
+	 * Walk a customer's cards a page at a time
+	 * @param custCode
+	 * @param pageSize Cards per request (max 100)
+	 * @return Iterator that fetches the next page while the current one is used
+	 * @throws StripeException If the customer can't be retrieved
+	 */
+	public CFStripePages<Card> listCustomerCards(String custCode, int pageSize) throws StripeException
+	{
+		// The customer's card collection knows where to list them from
+		Customer cu = this.getCustomer(custCode, "listCustomerCards");
+		return listCards(cu.getCards(), pageSize, "listCustomerCards");
+	}
+	
+	private CFStripePages<Card> listCards(final CustomerCardCollection cards, int pageSize, final String method)
+	{
+		return new CFStripePages<Card>(new CFStripePages.Source<Card>() {
+			public CFStripePages.Page<Card> fetch(int offset, int count) throws StripeException {
+				roundTrips.record(method);
+				CustomerCardCollection page = cards.all(pageParams(null, offset, count), apiKey);
+				return new CFStripePages.Page<Card>(page.getData(), page.getCount());
+			}
+		}, pageSize);
+	}
+	
+	private static Map<String, Object> pageParams(String custCode, int offset, int count)
+	{
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("count", count);
+		params.put("offset", offset);
+		if (custCode != null)
+		{
+			params.put("customer", custCode);
+		}
+		return params;
+	}
+	
+	/**
+	 * Get a customer on behalf of method, from the cache if there is one
+	 */
+	private Customer getCustomer(String custCode, String method) throws StripeException
+	{
+		if (this.cache != null)
+		{
+			return this.cache.getCustomer(custCode, this.roundTrips, method);
+		}
+		this.roundTrips.record(method);
+		return Customer.retrieve(custCode, this.apiKey);
+	}
+	
+	/**
+	 * @return Customer with only the id set, enough to act on it without retrieving it first
+	 */
+	private static Customer customerRef(String custCode)
+	{
+		Customer cu = new Customer();
+		cu.setId(custCode);
+		return cu;
+	}
+	
+	private void invalidateCustomer(String custCode)
+	{
+		if (this.cache != null)
+		{
+			this.cache.invalidateCustomer(custCode);
+		}
+	}
+	
+	private void invalidatePlan(String planCode)
+	{
+		if (this.cache != null)
+		{
+			this.cache.invalidatePlan(planCode);
+		}
 	}
 }
@@ -0,0 +1,397 @@
+package com.cffreedom.integrations.stripe;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.stripe.exception.APIConnectionException;
+import com.stripe.exception.APIException;
+import com.stripe.exception.CardException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Charge;
+
+/**
+ * Charges a batch of customers with CFStripe.chargeCustomer() several at a time. Every entry
+ * gets an idempotency key derived from the batch id and the entry, stored in the charge's
+ * metadata. Before a retry (and, by default, before the first try) the customer's charges
+ * are checked for that key, so a charge whose response was lost isn't made twice and running
+ * the same batch again only charges the entries that didn't go through. By default every one
+ * of the customer's charges is checked; setChargedSince() keeps that to the charges made
+ * since the batch first ran.
+ * Transient failures (network errors, Stripe 5xx) are retried with backoff.
+ * <pre>
+ * List&lt;CFStripeBatchCharger.ChargeRequest&gt; requests = ...
+ * for (ChargeResult result : new CFStripeBatchCharger(stripe).charge("usage-2026-10", requests)) { ... }
+ * </pre>
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ * 2026-10-17 	MarkJacobsen.net 	Check all of a customer's charges by default, setChargedSince()
+ * 2026-10-17 	MarkJacobsen.net 	A retry only reports a decline from this run, not an earlier one
+ */
+public class CFStripeBatchCharger
+{
+	private static final Logger logger = LoggerFactory.getLogger(CFStripeBatchCharger.class);
+	public static final int DEFAULT_PARALLELISM = 8;
+	public static final int DEFAULT_MAX_ATTEMPTS = 4;
+	public static final long DEFAULT_BACKOFF_MILLIS = 250;
+	/** Check all of the customer's charges for an entry's key */
+	public static final int DEFAULT_LOOKBACK = 0;
+	/** Charge metadata key holding the entry's idempotency key */
+	public static final String METADATA_KEY = "cf_idempotency_key";
+	/** Charged by this run */
+	public static final String CHARGED = "Charged";
+	/** A paid charge with the entry's key already existed, so it wasn't charged again */
+	public static final String ALREADY_CHARGED = "AlreadyCharged";
+	/** A try reported an error but the charge went through */
+	public static final String RECONCILED = "Reconciled";
+	/** The card was declined */
+	public static final String DECLINED = "Declined";
+	/** Not charged */
+	public static final String FAILED = "Failed";
+
+	private final CFStripe stripe;
+	private final int parallelism;
+	private final int maxAttempts;
+	private final long backoffMillis;
+	private int lookback = DEFAULT_LOOKBACK;
+	private Date chargedSince = null;
+	private boolean checkFirst = true;
+
+	public CFStripeBatchCharger(CFStripe stripe)
+	{
+		this(stripe, DEFAULT_PARALLELISM, DEFAULT_MAX_ATTEMPTS, DEFAULT_BACKOFF_MILLIS);
+	}
+
+	/**
+	 * @param stripe
+	 * @param parallelism Max charges in flight at once
+	 * @param maxAttempts Max tries for an entry when the failure is transient
+	 * @param backoffMillis Wait before the first retry. Doubles (plus jitter) on each retry after that.
+	 */
+	public CFStripeBatchCharger(CFStripe stripe, int parallelism, int maxAttempts, long backoffMillis)
+	{
+		this.stripe = stripe;
+		this.parallelism = parallelism;
+		this.maxAttempts = maxAttempts;
+		this.backoffMillis = backoffMillis;
+	}
+
+	/**
+	 * @param lookback How many of the customer's most recent charges to check for an entry's key,
+	 * or 0 (the default) for all of them. Has to cover everything charged to a customer since the
+	 * batch first ran or a rerun can charge twice.
+	 */
+	public void setLookback(int lookback) { this.lookback = lookback; }
+
+	/**
+	 * @param chargedSince Only check charges created at or after this, e.g. when the batch first ran
+	 * (null, the default, for all). Keeps the check to a page for customers with a long history.
+	 */
+	public void setChargedSince(Date chargedSince) { this.chargedSince = chargedSince; }
+
+	/**
+	 * @param checkFirst false to skip checking for an existing charge before the first try.
+	 * Saves a request per entry on a batch that has never run, but a rerun could then charge twice.
+	 */
+	public void setCheckFirst(boolean checkFirst) { this.checkFirst = checkFirst; }
+
+	/**
+	 * Charge every entry that hasn't been charged under batchId yet
+	 * @param batchId Identifies the run (ex: "usage-2026-10"). Reuse it to safely rerun the batch.
+	 * @param requests
+	 * @return One result per request, in request order
+	 */
+	public List<ChargeResult> charge(String batchId, List<ChargeRequest> requests)
+	{
+		long start = System.currentTimeMillis();
+		List<String> keys = getIdempotencyKeys(batchId, requests);
+		List<Future<ChargeResult>> futures = new ArrayList<Future<ChargeResult>>(requests.size());
+		List<ChargeResult> results = new ArrayList<ChargeResult>(requests.size());
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(this.parallelism, requests.size())), threadFactory());
+		try {
+			for (int x = 0; x < requests.size(); x++) {
+				final ChargeRequest request = requests.get(x);
+				final String key = keys.get(x);
+				futures.add(executor.submit(new Callable<ChargeResult>() {
+					public ChargeResult call() {
+						return charge(request, key);
+					}
+				}));
+			}
+			for (int x = 0; x < futures.size(); x++) {
+				results.add(get(futures.get(x), requests.get(x), keys.get(x)));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		Map<String, Integer> outcomes = new TreeMap<String, Integer>();
+		for (ChargeResult result : results) {
+			Integer count = outcomes.get(result.getOutcome());
+			outcomes.put(result.getOutcome(), (count == null) ? 1 : count + 1);
+		}
+		logger.info("Batch {}: {} charges in {}ms {}", batchId, requests.size(), System.currentTimeMillis() - start, outcomes);
+		return Collections.unmodifiableList(results);
+	}
+
+	/**
+	 * The key for each entry: a hash of the batch id, customer, amount, description and how many
+	 * identical entries came before it, so the same list always gets the same keys
+	 * @param batchId
+	 * @param requests
+	 * @return One key per request, in request order
+	 */
+	public static List<String> getIdempotencyKeys(String batchId, List<ChargeRequest> requests)
+	{
+		Map<String, Integer> seen = new HashMap<String, Integer>();
+		List<String> keys = new ArrayList<String>(requests.size());
+		for (ChargeRequest request : requests) {
+			String entry = request.getCustCode() + "\n" + request.getAmountInCents() + "\n" + request.getDesc();
+			Integer repeat = seen.get(entry);
+			repeat = (repeat == null) ? 0 : repeat + 1;
+			seen.put(entry, repeat);
+			keys.add(hash(batchId + "\n" + entry + "\n" + repeat));
+		}
+		return keys;
+	}
+
+	private ChargeResult charge(ChargeRequest request, String key)
+	{
+		Map<String, String> metadata = new HashMap<String, String>();
+		metadata.put(METADATA_KEY, key);
+		int attempt = 0;
+		String error = null;
+		String priorUnpaid = null;
+		long firstTrySecs = System.currentTimeMillis() / 1000;
+		while (true) {
+			attempt++;
+			try {
+				if ((attempt > 1) || this.checkFirst) {
+					Charge existing = findCharge(request.getCustCode(), key);
+					if ((existing != null) && Boolean.TRUE.equals(existing.getPaid())) {
+						return new ChargeResult(request, key, (attempt > 1) ? RECONCILED : ALREADY_CHARGED, existing.getId(), attempt - 1, error);
+					}
+					if ((existing != null) && (attempt == 1)) {
+						priorUnpaid = existing.getId();
+					} else if ((existing != null) && fromThisRun(existing, priorUnpaid, firstTrySecs)) {
+						// The earlier try was declined, its response just never made it back
+						return new ChargeResult(request, key, DECLINED, existing.getId(), attempt - 1, existing.getFailureMessage());
+					}
+				}
+				Charge charge = this.stripe.chargeCustomer(request.getCustCode(), request.getDesc(), request.getAmountInCents(), metadata);
+				return new ChargeResult(request, key, CHARGED, charge.getId(), attempt, null);
+			} catch (CardException e) {
+				return new ChargeResult(request, key, DECLINED, null, attempt, e.getMessage());
+			} catch (StripeException e) {
+				error = e.getMessage();
+				if (!isTransient(e)) {
+					return new ChargeResult(request, key, FAILED, null, attempt, error);
+				}
+			} catch (RuntimeException e) {
+				error = e.getMessage();
+				return new ChargeResult(request, key, FAILED, null, attempt, error);
+			}
+
+			if (attempt >= this.maxAttempts) {
+				return new ChargeResult(request, key, FAILED, null, attempt, error);
+			}
+			long wait = this.backoffMillis << (attempt - 1);
+			wait += ThreadLocalRandom.current().nextLong(wait / 2 + 1);
+			logger.debug("Transient error charging {} (attempt {}). Retrying in {}ms: {}", request.getCustCode(), attempt, wait, error);
+			try {
+				Thread.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return new ChargeResult(request, key, FAILED, null, attempt, "Interrupted: " + error);
+			}
+		}
+	}
+
+	/**
+	 * @return The customer's most recent charge with the key (paid ones first) or null
+	 */
+	private Charge findCharge(String custCode, String key) throws StripeException
+	{
+		Charge unpaid = null;
+		int pageSize = (this.lookback > 0) ? Math.min(this.lookback, CFStripePages.MAX_PAGE_SIZE) : CFStripePages.MAX_PAGE_SIZE;
+		CFStripePages<Charge> charges = this.stripe.listCharges(custCode, this.chargedSince, pageSize);
+		try {
+			int checked = 0;
+			while (((this.lookback <= 0) || (checked < this.lookback)) && charges.hasNext()) {
+				Charge charge = charges.next();
+				checked++;
+				if ((charge.getMetadata() != null) && key.equals(charge.getMetadata().get(METADATA_KEY))) {
+					if (Boolean.TRUE.equals(charge.getPaid())) {
+						return charge;
+					}
+					if (unpaid == null) {
+						unpaid = charge;
+					}
+				}
+			}
+		} catch (CFStripePages.PageException e) {
+			throw e.toStripeException();
+		} finally {
+			charges.close();
+		}
+		return unpaid;
+	}
+
+	/**
+	 * An unpaid charge with the key can be a decline from an earlier run of the batch, which
+	 * says nothing about this run. It's this run's if it wasn't there before the first try: a
+	 * different charge than the one found then or, when nothing was checked first, one created
+	 * since the first try started.
+	 */
+	private boolean fromThisRun(Charge unpaid, String priorUnpaid, long firstTrySecs)
+	{
+		if (this.checkFirst) {
+			return !unpaid.getId().equals(priorUnpaid);
+		}
+		return (unpaid.getCreated() != null) && (unpaid.getCreated() >= firstTrySecs);
+	}
+
+	private static boolean isTransient(StripeException e)
+	{
+		return (e instanceof APIConnectionException) || (e instanceof APIException);
+	}
+
+	private static String hash(String value)
+	{
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder(32);
+			for (int x = 0; x < 16; x++) {
+				hex.append(Character.forDigit((digest[x] >> 4) & 0xf, 16)).append(Character.forDigit(digest[x] & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static ChargeResult get(Future<ChargeResult> future, ChargeRequest request, String key)
+	{
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new ChargeResult(request, key, FAILED, null, 0, "Interrupted");
+		} catch (ExecutionException e) {
+			return new ChargeResult(request, key, FAILED, null, 0, e.getCause().getMessage());
+		}
+	}
+
+	private static ThreadFactory threadFactory()
+	{
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "CFStripeBatchCharger-" + count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * A customer to charge
+	 */
+	public static class ChargeRequest
+	{
+		private final String custCode;
+		private final int amountInCents;
+		private final String desc;
+
+		public ChargeRequest(String custCode, int amountInCents, String desc)
+		{
+			this.custCode = custCode;
+			this.amountInCents = amountInCents;
+			this.desc = desc;
+		}
+
+		public String getCustCode() { return this.custCode; }
+		public int getAmountInCents() { return this.amountInCents; }
+		public String getDesc() { return this.desc; }
+	}
+
+	/**
+	 * What happened to one entry
+	 */
+	public static class ChargeResult
+	{
+		private final ChargeRequest request;
+		private final String idempotencyKey;
+		private final String outcome;
+		private final String chargeId;
+		private final int attempts;
+		private final String error;
+
+		ChargeResult(ChargeRequest request, String idempotencyKey, String outcome, String chargeId, int attempts, String error)
+		{
+			this.request = request;
+			this.idempotencyKey = idempotencyKey;
+			this.outcome = outcome;
+			this.chargeId = chargeId;
+			this.attempts = attempts;
+			this.error = error;
+		}
+
+		public ChargeRequest getRequest() { return this.request; }
+		public String getIdempotencyKey() { return this.idempotencyKey; }
+		/** @return One of CHARGED, ALREADY_CHARGED, RECONCILED, DECLINED or FAILED */
+		public String getOutcome() { return this.outcome; }
+		/** @return Stripe charge id when there is one */
+		public String getChargeId() { return this.chargeId; }
+		/** @return Charges attempted by this run */
+		public int getAttempts() { return this.attempts; }
+		/** @return Last error seen, if any */
+		public String getError() { return this.error; }
+
+		/** @return true if the customer ended up paying for the entry */
+		public boolean isPaid()
+		{
+			return CHARGED.equals(this.outcome) || ALREADY_CHARGED.equals(this.outcome) || RECONCILED.equals(this.outcome);
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.request.getCustCode() + " " + this.request.getAmountInCents() + " " + this.outcome
+					+ ((this.chargeId != null) ? " " + this.chargeId : "") + ((this.error != null) ? " (" + this.error + ")" : "");
+		}
+	}
+}
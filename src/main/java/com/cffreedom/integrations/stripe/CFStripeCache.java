@@ -0,0 +1,357 @@
+package com.cffreedom.integrations.stripe;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.stripe.exception.StripeException;
+import com.stripe.model.Customer;
+import com.stripe.model.Plan;
+
+/**
+ * Read through cache for Stripe Customer and Plan objects so repeated lookups for the same
+ * customer (getCustomerCard() then chargeCustomer() then ...) don't each cost a round trip
+ * to api.stripe.com.
+ *
+ * Each type is held in its own access ordered map capped at maxEntries, and an entry is
+ * reloaded once it is older than the TTL. Entries are dropped as soon as Stripe tells us
+ * they changed: pass every web hook to invalidate() and customer.* / plan.* events remove
+ * exactly the customer or plan they are about. CFStripe also drops an entry itself after
+ * any change it makes through the API.
+ *
+ * Cached objects are shared, so treat them as read only. Lookups are done outside the lock,
+ * and a result isn't cached if an invalidation came in while it was being fetched.
+ * <pre>
+ * CFStripeCache cache = new CFStripeCache();
+ * CFStripe stripe = new CFStripe(apiKey, cache);
+ * ...
+ * // In the web hook endpoint
+ * cache.invalidate(CFStripeWebHook.getWebHook(jsonText));
+ * </pre>
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ * 2026-10-17 	MarkJacobsen.net 	Retrieve with the API key of the CFStripe using the cache
+ */
+public class CFStripeCache
+{
+	private static final Logger logger = LoggerFactory.getLogger(CFStripeCache.class);
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+	/** Web hooks keep entries current, the TTL only covers events that never arrive */
+	public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+	public static final String EVENT_PREFIX_CUSTOMER = "customer.";
+	public static final String EVENT_PREFIX_PLAN = "plan.";
+
+	private final Entries<Customer> customers;
+	private final Entries<Plan> plans;
+	private final long ttlNanos;
+	private final LongSupplier clock;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder expired = new LongAdder();
+	private final LongAdder evicted = new LongAdder();
+	private final LongAdder invalidated = new LongAdder();
+	private String apiKey;
+
+	public CFStripeCache()
+	{
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+	}
+
+	/**
+	 * @param maxEntries Max customers (and separately plans) held at once
+	 * @param ttlMillis Reload an entry once it is this old
+	 */
+	public CFStripeCache(int maxEntries, long ttlMillis)
+	{
+		this(maxEntries, ttlMillis, new LongSupplier() {
+			public long getAsLong() {
+				return System.nanoTime();
+			}
+		});
+	}
+
+	CFStripeCache(int maxEntries, long ttlMillis, LongSupplier clock)
+	{
+		if (maxEntries <= 0) { throw new IllegalArgumentException("maxEntries must be > 0"); }
+		this.customers = new Entries<Customer>(maxEntries);
+		this.plans = new Entries<Plan>(maxEntries);
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		this.clock = clock;
+	}
+
+	/**
+	 * Customers and plans are only cached for one account. CFStripe sets this for its key.
+	 * @param apiKey Key to retrieve customers and plans with (null for Stripe.apiKey)
+	 * @throws IllegalArgumentException If the cache is already in use for a different key
+	 */
+	public synchronized void setApiKey(String apiKey)
+	{
+		if ((this.apiKey != null) && !this.apiKey.equals(apiKey)) {
+			throw new IllegalArgumentException("CFStripeCache is already in use for another account");
+		}
+		this.apiKey = apiKey;
+	}
+
+	/**
+	 * @param custCode
+	 * @return The cached Customer or the one just retrieved from Stripe
+	 * @throws StripeException
+	 */
+	public Customer getCustomer(String custCode) throws StripeException
+	{
+		return getCustomer(custCode, null, null);
+	}
+
+	/**
+	 * @param roundTrips Record the request here (against method) if the customer has to be retrieved
+	 */
+	Customer getCustomer(String custCode, CFStripeRoundTrips roundTrips, String method) throws StripeException
+	{
+		Customer customer = lookup(this.customers, custCode);
+		if (customer != null) {
+			return customer;
+		}
+		long generation = this.customers.generation;
+		if (roundTrips != null) {
+			roundTrips.record(method);
+		}
+		customer = Customer.retrieve(custCode, this.apiKey);
+		store(this.customers, custCode, customer, generation);
+		return customer;
+	}
+
+	/**
+	 * @param planCode
+	 * @return The cached Plan or the one just retrieved from Stripe
+	 * @throws StripeException
+	 */
+	public Plan getPlan(String planCode) throws StripeException
+	{
+		return getPlan(planCode, null, null);
+	}
+
+	/**
+	 * @param roundTrips Record the request here (against method) if the plan has to be retrieved
+	 */
+	Plan getPlan(String planCode, CFStripeRoundTrips roundTrips, String method) throws StripeException
+	{
+		Plan plan = lookup(this.plans, planCode);
+		if (plan != null) {
+			return plan;
+		}
+		long generation = this.plans.generation;
+		if (roundTrips != null) {
+			roundTrips.record(method);
+		}
+		plan = Plan.retrieve(planCode, this.apiKey);
+		store(this.plans, planCode, plan, generation);
+		return plan;
+	}
+
+	/**
+	 * @param custCode
+	 * @return true if the customer was cached
+	 */
+	public boolean invalidateCustomer(String custCode)
+	{
+		return remove(this.customers, custCode);
+	}
+
+	/**
+	 * @param planCode
+	 * @return true if the plan was cached
+	 */
+	public boolean invalidatePlan(String planCode)
+	{
+		return remove(this.plans, planCode);
+	}
+
+	/**
+	 * Drop whatever a web hook says has changed. customer.created/updated/deleted carry the
+	 * customer itself, customer.card.*, customer.subscription.* and customer.discount.* carry
+	 * an object with a "customer" field, and plan.* carry the plan. Other events are ignored.
+	 * @param webHook Web hook from CFStripeWebHook.getWebHook()
+	 * @return true if an entry was dropped
+	 */
+	public boolean invalidate(JSONObject webHook)
+	{
+		String type = CFStripeWebHook.getType(webHook);
+		if (type == null) {
+			return false;
+		}
+		if (type.startsWith(EVENT_PREFIX_CUSTOMER)) {
+			String custCode = CFStripeWebHook.getCustomerCode(webHook);
+			return (custCode != null) && invalidateCustomer(custCode);
+		}
+		if (type.startsWith(EVENT_PREFIX_PLAN)) {
+			String planCode = CFStripeWebHook.getObjectId(webHook);
+			return (planCode != null) && invalidatePlan(planCode);
+		}
+		return false;
+	}
+
+	/**
+	 * Drop everything
+	 */
+	public void clear()
+	{
+		clear(this.customers);
+		clear(this.plans);
+	}
+
+	/**
+	 * @return Number of cached customers and plans
+	 */
+	public int size()
+	{
+		int size;
+		synchronized (this.customers) {
+			size = this.customers.map.size();
+		}
+		synchronized (this.plans) {
+			size += this.plans.map.size();
+		}
+		return size;
+	}
+
+	public long getHitCount() { return this.hits.sum(); }
+	public long getMissCount() { return this.misses.sum(); }
+	public long getExpiredCount() { return this.expired.sum(); }
+	public long getEvictedCount() { return this.evicted.sum(); }
+	public long getInvalidatedCount() { return this.invalidated.sum(); }
+
+	/**
+	 * @return Share of lookups answered from the cache (0 when there haven't been any)
+	 */
+	public double getHitRate()
+	{
+		long hits = this.hits.sum();
+		long total = hits + this.misses.sum();
+		return (total == 0) ? 0 : (double) hits / total;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("CFStripeCache[size=%d, hits=%d, misses=%d, hitRate=%.3f, expired=%d, evicted=%d, invalidated=%d]",
+				size(), getHitCount(), getMissCount(), getHitRate(), getExpiredCount(), getEvictedCount(), getInvalidatedCount());
+	}
+
+	private <T> T lookup(Entries<T> entries, String id)
+	{
+		if (id == null) { throw new IllegalArgumentException("id is required"); }
+		long now = this.clock.getAsLong();
+		synchronized (entries) {
+			Entry<T> entry = entries.map.get(id);
+			if (entry != null) {
+				if (now - entry.loaded < this.ttlNanos) {
+					this.hits.increment();
+					return entry.value;
+				}
+				entries.map.remove(id);
+				this.expired.increment();
+			}
+		}
+		this.misses.increment();
+		return null;
+	}
+
+	private <T> void store(Entries<T> entries, String id, T value, long generation)
+	{
+		long now = this.clock.getAsLong();
+		synchronized (entries) {
+			if (entries.generation != generation) {
+				// Something was invalidated while we were fetching, this copy may be stale
+				logger.trace("Not caching {}, invalidated during load", id);
+				return;
+			}
+			entries.map.put(id, new Entry<T>(value, now));
+			if (entries.map.size() > entries.maxEntries) {
+				trim(entries, now);
+			}
+		}
+	}
+
+	/**
+	 * Make room by dropping expired entries, then the least recently used. Caller holds the lock.
+	 */
+	private <T> void trim(Entries<T> entries, long now)
+	{
+		Iterator<Entry<T>> it = entries.map.values().iterator();
+		while (it.hasNext() && (entries.map.size() > entries.maxEntries)) {
+			Entry<T> entry = it.next();
+			it.remove();
+			if (now - entry.loaded >= this.ttlNanos) {
+				this.expired.increment();
+			} else {
+				this.evicted.increment();
+			}
+		}
+	}
+
+	private <T> boolean remove(Entries<T> entries, String id)
+	{
+		boolean removed;
+		synchronized (entries) {
+			entries.generation++;
+			removed = (entries.map.remove(id) != null);
+		}
+		if (removed) {
+			this.invalidated.increment();
+			logger.debug("Invalidated {}", id);
+		}
+		return removed;
+	}
+
+	private <T> void clear(Entries<T> entries)
+	{
+		synchronized (entries) {
+			entries.generation++;
+			entries.map.clear();
+		}
+	}
+
+	private static final class Entries<T>
+	{
+		final Map<String, Entry<T>> map = new LinkedHashMap<String, Entry<T>>(16, 0.75f, true);
+		final int maxEntries;
+		/** Bumped (under the lock) on every invalidation so a load that raced one isn't cached */
+		volatile long generation = 0;
+
+		Entries(int maxEntries)
+		{
+			this.maxEntries = maxEntries;
+		}
+	}
+
+	private static final class Entry<T>
+	{
+		final T value;
+		final long loaded;
+
+		Entry(T value, long loaded)
+		{
+			this.value = value;
+			this.loaded = loaded;
+		}
+	}
+}
@@ -0,0 +1,507 @@
+package com.cffreedom.integrations.stripe;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cffreedom.exceptions.InfrastructureException;
+
+/**
+ * Stripe delivers web hooks at least once, so the same evt_ id can arrive several times when
+ * a delivery is retried. Ask isFirstDelivery() before acting on an event and skip it if the
+ * answer is false.
+ *
+ * Event ids seen in the last window (3 days by default, how long Stripe keeps retrying) are
+ * held as 64 bit fingerprints in an open addressed hash set, so a check is constant time and
+ * costs under 100 bytes per event. Older ids are dropped in arrival order as new ones come in.
+ * Every new id is also appended (16 bytes) to a file that is read back when the filter is
+ * opened again, so a restart doesn't forget what was already handled. The file is rewritten
+ * with only the live ids once it is mostly expired ones.
+ *
+ * Writes go straight to the file, so they survive the process dying; call sync() if they
+ * need to survive the machine dying too. Two different ids sharing a fingerprint would make
+ * the second look like a repeat, but with a million ids in the window the odds of that are
+ * about 1 in 37 million.
+ * <pre>
+ * CFStripeEventFilter events = new CFStripeEventFilter(new File("/var/lib/app/stripe-events.dat"));
+ * ...
+ * JSONObject webHook = CFStripeWebHook.getWebHook(jsonText);
+ * if (events.isFirstDelivery(webHook) == true) {
+ *     process(webHook);
+ * }
+ * </pre>
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ * 2026-10-17 	MarkJacobsen.net 	A failed compaction no longer fails isFirstDelivery()
+ */
+public class CFStripeEventFilter
+{
+	private static final Logger logger = LoggerFactory.getLogger(CFStripeEventFilter.class);
+	public static final long DEFAULT_WINDOW_MILLIS = TimeUnit.DAYS.toMillis(3);
+	private static final int MAGIC = 0x43465345;
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 8;
+	private static final int RECORD_BYTES = 16;
+	/** Seen time written for forget() */
+	private static final long FORGOTTEN = 0;
+	/** Don't bother compacting a file with fewer records than this */
+	static final int COMPACT_MIN_RECORDS = 1024;
+
+	private final File file;
+	private final long windowMillis;
+	private final LongSupplier clock;
+	private final ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+	private FileChannel channel;
+	private long fileRecords;
+	/** Records the file needs before compacting again after a failed compaction */
+	private long compactRetryAt;
+
+	// Open addressed set of fingerprints (0 = empty) and when each was seen
+	private long[] keys;
+	private long[] seenAt;
+	private int mask;
+	private int size;
+
+	// Fingerprints in the order they arrived, for dropping them once they are out of the window
+	private long[] ringKeys;
+	private long[] ringTimes;
+	private int ringHead;
+	private int ringCount;
+
+	private long accepted;
+	private long duplicates;
+	private long expired;
+
+	/**
+	 * @param file Where seen event ids are kept (created if it doesn't exist)
+	 * @throws InfrastructureException
+	 */
+	public CFStripeEventFilter(File file) throws InfrastructureException
+	{
+		this(file, DEFAULT_WINDOW_MILLIS);
+	}
+
+	/**
+	 * @param file Where seen event ids are kept (created if it doesn't exist)
+	 * @param windowMillis How long to remember an event id
+	 * @throws InfrastructureException
+	 */
+	public CFStripeEventFilter(File file, long windowMillis) throws InfrastructureException
+	{
+		this(file, windowMillis, new LongSupplier() {
+			public long getAsLong() {
+				return System.currentTimeMillis();
+			}
+		});
+	}
+
+	CFStripeEventFilter(File file, long windowMillis, LongSupplier clock) throws InfrastructureException
+	{
+		if (windowMillis <= 0) { throw new IllegalArgumentException("windowMillis must be > 0"); }
+		this.file = file;
+		this.windowMillis = windowMillis;
+		this.clock = clock;
+		this.keys = new long[1024];
+		this.seenAt = new long[1024];
+		this.mask = 1023;
+		this.ringKeys = new long[1024];
+		this.ringTimes = new long[1024];
+		try {
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			load();
+		} catch (IOException e) {
+			close();
+			throw new InfrastructureException("Error opening event filter " + file + ": " + e.getMessage(), e);
+		}
+		logger.debug("Opened {} with {} events in the window", file, this.size);
+	}
+
+	/**
+	 * Record the event and say if this is the first time it has been seen
+	 * @param eventId evt_ id from CFStripeWebHook.getId() or StripeWebHookReader.getId()
+	 * @return true the first time, false for a repeat delivery within the window
+	 * @throws InfrastructureException If the event couldn't be written to the file (compacting
+	 * the file afterwards only logs a failure)
+	 */
+	public synchronized boolean isFirstDelivery(String eventId) throws InfrastructureException
+	{
+		long key = fingerprint(eventId);
+		long now = this.clock.getAsLong();
+		expire(now);
+		if (find(key) >= 0) {
+			this.duplicates++;
+			logger.debug("Repeat delivery of {}", eventId);
+			return false;
+		}
+		append(key, now);
+		insert(key, now);
+		this.accepted++;
+		if ((this.fileRecords >= COMPACT_MIN_RECORDS) && (this.fileRecords > 2L * this.size) && (this.fileRecords >= this.compactRetryAt)) {
+			try {
+				compact();
+			} catch (InfrastructureException e) {
+				// The event is recorded in the old file, which is still appended to. Throwing
+				// would have the caller skip it and Stripe's retry be dropped as a repeat.
+				this.compactRetryAt = 2 * this.fileRecords;
+				logger.warn("{}. Retrying at {} records", e.getMessage(), this.compactRetryAt);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param webHook Web hook from CFStripeWebHook.getWebHook()
+	 * @return true the first time, false for a repeat delivery within the window
+	 * @throws InfrastructureException
+	 */
+	public boolean isFirstDelivery(JSONObject webHook) throws InfrastructureException
+	{
+		return isFirstDelivery(CFStripeWebHook.getId(webHook));
+	}
+
+	/**
+	 * @param eventId
+	 * @return true if the event has been seen within the window (doesn't record it)
+	 */
+	public synchronized boolean contains(String eventId)
+	{
+		long key = fingerprint(eventId);
+		int slot = find(key);
+		return (slot >= 0) && (this.clock.getAsLong() - this.seenAt[slot] < this.windowMillis);
+	}
+
+	/**
+	 * Forget an event, e.g. because handling it failed and Stripe's retry should be processed
+	 * @param eventId
+	 * @return true if the event had been seen
+	 * @throws InfrastructureException
+	 */
+	public synchronized boolean forget(String eventId) throws InfrastructureException
+	{
+		long key = fingerprint(eventId);
+		int slot = find(key);
+		if (slot < 0) {
+			return false;
+		}
+		append(key, FORGOTTEN);
+		removeAt(slot);
+		return true;
+	}
+
+	/**
+	 * @return Number of event ids in the window
+	 */
+	public synchronized int size()
+	{
+		expire(this.clock.getAsLong());
+		return this.size;
+	}
+
+	public long getWindowMillis() { return this.windowMillis; }
+	public synchronized long getAcceptedCount() { return this.accepted; }
+	public synchronized long getDuplicateCount() { return this.duplicates; }
+	public synchronized long getExpiredCount() { return this.expired; }
+
+	/**
+	 * Force everything written so far out to disk
+	 * @throws InfrastructureException
+	 */
+	public synchronized void sync() throws InfrastructureException
+	{
+		try {
+			this.channel.force(false);
+		} catch (IOException e) {
+			throw new InfrastructureException("Error syncing event filter " + this.file + ": " + e.getMessage(), e);
+		}
+	}
+
+	public synchronized void close()
+	{
+		if (this.channel != null) {
+			try {
+				this.channel.close();
+			} catch (IOException e) {
+				logger.warn("Error closing {}", this.file);
+			}
+		}
+	}
+
+	/**
+	 * Replay the file, keeping whatever is still in the window
+	 */
+	private void load() throws IOException
+	{
+		long length = this.channel.size();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		if (length < HEADER_BYTES) {
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			this.channel.truncate(0);
+			this.channel.write(header, 0);
+			this.channel.position(HEADER_BYTES);
+			return;
+		}
+		this.channel.read(header, 0);
+		header.flip();
+		if ((header.getInt() != MAGIC) || (header.getInt() != VERSION)) {
+			throw new IOException("Not an event filter file");
+		}
+		long whole = (length - HEADER_BYTES) / RECORD_BYTES;
+		long now = this.clock.getAsLong();
+		ByteBuffer chunk = ByteBuffer.allocate(RECORD_BYTES * 4096);
+		long position = HEADER_BYTES;
+		long remaining = whole * RECORD_BYTES;
+		while (remaining > 0) {
+			chunk.clear();
+			chunk.limit((int) Math.min(chunk.capacity(), remaining));
+			while (chunk.hasRemaining()) {
+				if (this.channel.read(chunk, position + chunk.position()) < 0) {
+					throw new IOException("Event filter file is truncated");
+				}
+			}
+			chunk.flip();
+			while (chunk.hasRemaining()) {
+				long key = chunk.getLong();
+				long time = chunk.getLong();
+				int slot = find(key);
+				if (slot >= 0) {
+					removeAt(slot);
+				}
+				if ((time != FORGOTTEN) && (now - time < this.windowMillis)) {
+					insert(key, time);
+				}
+			}
+			position += chunk.limit();
+			remaining -= chunk.limit();
+		}
+		this.fileRecords = whole;
+		long end = HEADER_BYTES + whole * RECORD_BYTES;
+		if (end != length) {
+			// Part of a record left by a crash mid write
+			logger.warn("Dropping {} trailing bytes from {}", length - end, this.file);
+			this.channel.truncate(end);
+		}
+		this.channel.position(end);
+	}
+
+	private void append(long key, long time) throws InfrastructureException
+	{
+		this.record.clear();
+		this.record.putLong(key).putLong(time).flip();
+		try {
+			while (this.record.hasRemaining()) {
+				this.channel.write(this.record);
+			}
+		} catch (IOException e) {
+			throw new InfrastructureException("Error writing event filter " + this.file + ": " + e.getMessage(), e);
+		}
+		this.fileRecords++;
+	}
+
+	/**
+	 * Rewrite the file with only the ids still in the window
+	 */
+	private void compact() throws InfrastructureException
+	{
+		File tmp = new File(this.file.getPath() + ".tmp");
+		try {
+			FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try {
+				ByteBuffer chunk = ByteBuffer.allocate(RECORD_BYTES * 4096);
+				chunk.putInt(MAGIC).putInt(VERSION);
+				for (int x = 0; x < this.ringCount; x++) {
+					int at = (this.ringHead + x) & (this.ringKeys.length - 1);
+					if (!isLive(this.ringKeys[at], this.ringTimes[at])) {
+						continue;
+					}
+					if (chunk.remaining() < RECORD_BYTES) {
+						chunk.flip();
+						while (chunk.hasRemaining()) { out.write(chunk); }
+						chunk.clear();
+					}
+					chunk.putLong(this.ringKeys[at]).putLong(this.ringTimes[at]);
+				}
+				chunk.flip();
+				while (chunk.hasRemaining()) { out.write(chunk); }
+				out.force(false);
+				out.position(out.size());
+				Files.move(tmp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				// Keep appending to the old file
+				out.close();
+				throw e;
+			}
+			FileChannel old = this.channel;
+			this.channel = out;
+			try {
+				old.close();
+			} catch (IOException e) {
+				logger.warn("Error closing {}", this.file);
+			}
+			long before = this.fileRecords;
+			this.fileRecords = this.size;
+			logger.debug("Compacted {} from {} to {} records", this.file, before, this.fileRecords);
+		} catch (IOException e) {
+			tmp.delete();
+			throw new InfrastructureException("Error compacting event filter " + this.file + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Drop ids that have aged out of the window, oldest first
+	 */
+	private void expire(long now)
+	{
+		int ringMask = this.ringKeys.length - 1;
+		while ((this.ringCount > 0) && (now - this.ringTimes[this.ringHead] >= this.windowMillis)) {
+			long key = this.ringKeys[this.ringHead];
+			long time = this.ringTimes[this.ringHead];
+			this.ringHead = (this.ringHead + 1) & ringMask;
+			this.ringCount--;
+			int slot = find(key);
+			// Skip ring entries for ids that were forgotten (and maybe seen again since)
+			if ((slot >= 0) && (this.seenAt[slot] == time)) {
+				removeAt(slot);
+				this.expired++;
+			}
+		}
+	}
+
+	private boolean isLive(long key, long time)
+	{
+		int slot = find(key);
+		return (slot >= 0) && (this.seenAt[slot] == time);
+	}
+
+	private int find(long key)
+	{
+		int slot = (int) key & this.mask;
+		while (true) {
+			long k = this.keys[slot];
+			if (k == key) {
+				return slot;
+			}
+			if (k == 0) {
+				return -1;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+	}
+
+	private void insert(long key, long time)
+	{
+		if ((this.size + 1) * 2 > this.keys.length) {
+			resize(this.keys.length * 2);
+		}
+		int slot = (int) key & this.mask;
+		while (this.keys[slot] != 0) {
+			slot = (slot + 1) & this.mask;
+		}
+		this.keys[slot] = key;
+		this.seenAt[slot] = time;
+		this.size++;
+
+		if (this.ringCount == this.ringKeys.length) {
+			growRing();
+		}
+		int at = (this.ringHead + this.ringCount) & (this.ringKeys.length - 1);
+		this.ringKeys[at] = key;
+		this.ringTimes[at] = time;
+		this.ringCount++;
+	}
+
+	/**
+	 * Linear probing delete: shift later entries of the cluster back so lookups never need tombstones
+	 */
+	private void removeAt(int slot)
+	{
+		int gap = slot;
+		int x = (slot + 1) & this.mask;
+		while (this.keys[x] != 0) {
+			int home = (int) this.keys[x] & this.mask;
+			if (((x - home) & this.mask) >= ((x - gap) & this.mask)) {
+				this.keys[gap] = this.keys[x];
+				this.seenAt[gap] = this.seenAt[x];
+				gap = x;
+			}
+			x = (x + 1) & this.mask;
+		}
+		this.keys[gap] = 0;
+		this.seenAt[gap] = 0;
+		this.size--;
+	}
+
+	private void resize(int capacity)
+	{
+		long[] oldKeys = this.keys;
+		long[] oldSeenAt = this.seenAt;
+		this.keys = new long[capacity];
+		this.seenAt = new long[capacity];
+		this.mask = capacity - 1;
+		for (int x = 0; x < oldKeys.length; x++) {
+			if (oldKeys[x] != 0) {
+				int slot = (int) oldKeys[x] & this.mask;
+				while (this.keys[slot] != 0) {
+					slot = (slot + 1) & this.mask;
+				}
+				this.keys[slot] = oldKeys[x];
+				this.seenAt[slot] = oldSeenAt[x];
+			}
+		}
+	}
+
+	private void growRing()
+	{
+		int length = this.ringKeys.length;
+		long[] keys = new long[length * 2];
+		long[] times = new long[length * 2];
+		for (int x = 0; x < this.ringCount; x++) {
+			keys[x] = this.ringKeys[(this.ringHead + x) & (length - 1)];
+			times[x] = this.ringTimes[(this.ringHead + x) & (length - 1)];
+		}
+		this.ringKeys = keys;
+		this.ringTimes = times;
+		this.ringHead = 0;
+	}
+
+	/**
+	 * 64 bit FNV-1a over the id's chars, then the murmur3 finalizer so the low bits used for
+	 * the slot are well mixed. Never 0 since that marks an empty slot.
+	 */
+	static long fingerprint(String eventId)
+	{
+		if (eventId == null) { throw new IllegalArgumentException("eventId is required"); }
+		long h = 0xcbf29ce484222325L;
+		for (int x = 0; x < eventId.length(); x++) {
+			h ^= eventId.charAt(x);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (h == 0) ? 1 : h;
+	}
+}
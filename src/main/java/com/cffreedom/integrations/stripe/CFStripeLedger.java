@@ -0,0 +1,578 @@
+package com.cffreedom.integrations.stripe;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cffreedom.beans.Payment;
+import com.cffreedom.exceptions.InfrastructureException;
+
+/**
+ * Append only, in memory ledger of payments (ex: from CFStripeWebHook.getPayment() for each
+ * charge event) for revenue rollups. Payments are stored as primitive columns - epoch seconds,
+ * gross cents, fee cents, flags and interned customer and currency ids - so a rollup is a scan
+ * over a few arrays instead of over objects, split across the cores of a ForkJoinPool.
+ *
+ * Rollups only count paid payments and cover [fromSeconds, toSeconds). Days are UTC days.
+ * Appends are serialized, rollups and snapshots can run at the same time as appends and see
+ * every payment appended before they started.
+ * <pre>
+ * CFStripeLedger ledger = CFStripeLedger.load(file);  // or new CFStripeLedger()
+ * ledger.append(CFStripeWebHook.getPayment(webHook));
+ * Map&lt;String, CFStripeLedger.Totals&gt; revenue = ledger.sumByCustomer(monthStart, monthEnd);
+ * ledger.snapshot(file);
+ * </pre>
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ */
+public class CFStripeLedger
+{
+	private static final Logger logger = LoggerFactory.getLogger(CFStripeLedger.class);
+	private static final int MAGIC = 0x4346534c; // "CFSL"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long SECONDS_PER_DAY = TimeUnit.DAYS.toSeconds(1);
+	private static final int INITIAL_CAPACITY = 1024;
+	/** Rows below which a rollup isn't split any further */
+	static final int MIN_LEAF_ROWS = 16 * 1024;
+	private static final byte FLAG_PAID = 1;
+	private static final byte FLAG_REFUNDED = 2;
+
+	private final ForkJoinPool pool;
+	private final Dictionary customers = new Dictionary();
+	private final Dictionary currencies = new Dictionary();
+	private volatile Columns columns = new Columns(INITIAL_CAPACITY);
+	private volatile int size = 0;
+
+	public CFStripeLedger()
+	{
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param pool Rollups are split into one part per thread of the pool
+	 */
+	CFStripeLedger(ForkJoinPool pool)
+	{
+		this.pool = pool;
+	}
+
+	/**
+	 * @param payment Payment from CFStripeWebHook.getPayment() or StripeWebHookReader.getPayment()
+	 */
+	public void append(Payment payment)
+	{
+		long seconds = (payment.getPaymentDate() == null) ? 0 : TimeUnit.MILLISECONDS.toSeconds(payment.getPaymentDate().getTime());
+		append(seconds, payment.getCustomerCode(), payment.getCurrency(), toCents(payment.getGross()), toCents(payment.getFees()), payment.isPaid(), payment.isRefunded());
+	}
+
+	/**
+	 * @param epochSeconds When the payment was made
+	 * @param custCode Customer code (null if none)
+	 * @param currency Currency code (null if unknown)
+	 * @param grossCents
+	 * @param feeCents
+	 * @param paid
+	 * @param refunded
+	 */
+	public synchronized void append(long epochSeconds, String custCode, String currency, long grossCents, long feeCents, boolean paid, boolean refunded)
+	{
+		Columns cols = this.columns;
+		int row = this.size;
+		if (row == cols.capacity) {
+			cols = cols.grow(row, Math.max(INITIAL_CAPACITY, row + (row >> 1)));
+			this.columns = cols;
+		}
+		cols.seconds[row] = epochSeconds;
+		cols.gross[row] = grossCents;
+		cols.fees[row] = feeCents;
+		cols.customers[row] = this.customers.intern(custCode);
+		cols.currencies[row] = this.currencies.intern(currency);
+		cols.flags[row] = (byte) ((paid ? FLAG_PAID : 0) | (refunded ? FLAG_REFUNDED : 0));
+		// Publishes the row
+		this.size = row + 1;
+	}
+
+	/** @return Payments in the ledger */
+	public int size() { return this.size; }
+	public int getCustomerCount() { return this.customers.size; }
+	public int getCurrencyCount() { return this.currencies.size; }
+
+	/**
+	 * @param fromSeconds Inclusive
+	 * @param toSeconds Exclusive
+	 * @return Totals for paid payments in the range
+	 */
+	public Totals sum(long fromSeconds, long toSeconds)
+	{
+		long[] sums = rollup(fromSeconds, toSeconds, Rollup.ALL, 1);
+		return new Totals(sums[0], sums[1], sums[2], sums[3]);
+	}
+
+	/**
+	 * @return Totals per UTC day (keyed by the day's start in epoch seconds), days without payments left out
+	 */
+	public Map<Long, Totals> sumByDay(long fromSeconds, long toSeconds)
+	{
+		long firstDay = Math.floorDiv(fromSeconds, SECONDS_PER_DAY);
+		long days = Math.max(0, Math.floorDiv(toSeconds - 1, SECONDS_PER_DAY) - firstDay + 1);
+		if (days > Integer.MAX_VALUE / Rollup.COLUMNS) {
+			throw new IllegalArgumentException("Range is too long to roll up by day");
+		}
+		long[] sums = rollup(fromSeconds, toSeconds, Rollup.DAY, (int) days);
+		Map<Long, Totals> byDay = new TreeMap<Long, Totals>();
+		for (int x = 0; x < days; x++) {
+			Totals totals = totals(sums, x);
+			if (totals != null) {
+				byDay.put((firstDay + x) * SECONDS_PER_DAY, totals);
+			}
+		}
+		return Collections.unmodifiableMap(byDay);
+	}
+
+	/**
+	 * @return Totals per customer code (null key for payments without a customer)
+	 */
+	public Map<String, Totals> sumByCustomer(long fromSeconds, long toSeconds)
+	{
+		return byName(this.customers, rollup(fromSeconds, toSeconds, Rollup.CUSTOMER, 0));
+	}
+
+	/**
+	 * @return Totals per currency code
+	 */
+	public Map<String, Totals> sumByCurrency(long fromSeconds, long toSeconds)
+	{
+		return byName(this.currencies, rollup(fromSeconds, toSeconds, Rollup.CURRENCY, 0));
+	}
+
+	/**
+	 * Write the ledger to a file load() can read back. The file is written next to the
+	 * destination and moved over it, so a crash mid snapshot leaves the last one intact.
+	 * @param file
+	 * @throws InfrastructureException
+	 */
+	public void snapshot(File file) throws InfrastructureException
+	{
+		long start = System.currentTimeMillis();
+		int rows;
+		Columns cols;
+		String[] customerNames;
+		String[] currencyNames;
+		synchronized (this) {
+			rows = this.size;
+			cols = this.columns;
+			customerNames = this.customers.copy();
+			currencyNames = this.currencies.copy();
+		}
+
+		File tmp = new File(file.getPath() + ".tmp");
+		try {
+			RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+			try {
+				raf.setLength(0);
+				FileChannel channel = raf.getChannel();
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(customerNames.length).putInt(currencyNames.length).putInt(0);
+				header.flip();
+				channel.write(header, 0);
+				long offset = HEADER_SIZE;
+				channel.map(FileChannel.MapMode.READ_WRITE, offset, 8L * rows).asLongBuffer().put(cols.seconds, 0, rows);
+				offset += 8L * rows;
+				channel.map(FileChannel.MapMode.READ_WRITE, offset, 8L * rows).asLongBuffer().put(cols.gross, 0, rows);
+				offset += 8L * rows;
+				channel.map(FileChannel.MapMode.READ_WRITE, offset, 8L * rows).asLongBuffer().put(cols.fees, 0, rows);
+				offset += 8L * rows;
+				channel.map(FileChannel.MapMode.READ_WRITE, offset, 4L * rows).asIntBuffer().put(cols.customers, 0, rows);
+				offset += 4L * rows;
+				channel.map(FileChannel.MapMode.READ_WRITE, offset, 4L * rows).asIntBuffer().put(cols.currencies, 0, rows);
+				offset += 4L * rows;
+				channel.map(FileChannel.MapMode.READ_WRITE, offset, rows).put(cols.flags, 0, rows);
+				offset += rows;
+				offset = writeNames(channel, offset, customerNames);
+				writeNames(channel, offset, currencyNames);
+				channel.force(true);
+			} finally {
+				raf.close();
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			tmp.delete();
+			throw new InfrastructureException("Error writing ledger snapshot " + file + ": " + e.getMessage(), e);
+		}
+		logger.debug("Wrote {} payments to {} in {}ms", rows, file, System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * @param file Written by snapshot(). If it doesn't exist the ledger starts out empty.
+	 * @return Ledger holding everything in the snapshot
+	 * @throws InfrastructureException If the file can't be read or isn't a ledger snapshot
+	 */
+	public static CFStripeLedger load(File file) throws InfrastructureException
+	{
+		CFStripeLedger ledger = new CFStripeLedger();
+		if (file.exists()) {
+			ledger.read(file);
+		}
+		return ledger;
+	}
+
+	private synchronized void read(File file) throws InfrastructureException
+	{
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				if (raf.length() < HEADER_SIZE) {
+					throw new IOException("Not a ledger snapshot");
+				}
+				ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+				if ((header.getInt(0) != MAGIC) || (header.getInt(4) != VERSION)) {
+					throw new IOException("Not a ledger snapshot");
+				}
+				int rows = header.getInt(8);
+				int customerCount = header.getInt(12);
+				int currencyCount = header.getInt(16);
+				if ((rows < 0) || (HEADER_SIZE + 29L * rows > raf.length())) {
+					throw new IOException("Ledger snapshot is truncated");
+				}
+
+				Columns cols = new Columns(Math.max(INITIAL_CAPACITY, rows));
+				long offset = HEADER_SIZE;
+				channel.map(FileChannel.MapMode.READ_ONLY, offset, 8L * rows).asLongBuffer().get(cols.seconds, 0, rows);
+				offset += 8L * rows;
+				channel.map(FileChannel.MapMode.READ_ONLY, offset, 8L * rows).asLongBuffer().get(cols.gross, 0, rows);
+				offset += 8L * rows;
+				channel.map(FileChannel.MapMode.READ_ONLY, offset, 8L * rows).asLongBuffer().get(cols.fees, 0, rows);
+				offset += 8L * rows;
+				channel.map(FileChannel.MapMode.READ_ONLY, offset, 4L * rows).asIntBuffer().get(cols.customers, 0, rows);
+				offset += 4L * rows;
+				channel.map(FileChannel.MapMode.READ_ONLY, offset, 4L * rows).asIntBuffer().get(cols.currencies, 0, rows);
+				offset += 4L * rows;
+				channel.map(FileChannel.MapMode.READ_ONLY, offset, rows).get(cols.flags, 0, rows);
+				offset += rows;
+				offset = readNames(channel, offset, customerCount, this.customers);
+				readNames(channel, offset, currencyCount, this.currencies);
+
+				this.columns = cols;
+				this.size = rows;
+				logger.debug("Loaded {} payments from {}", rows, file);
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			throw new InfrastructureException("Error reading ledger snapshot " + file + ": " + e.getMessage(), e);
+		} catch (RuntimeException e) {
+			// Ids or lengths pointing outside the file
+			throw new InfrastructureException("Ledger snapshot " + file + " is corrupt: " + e, e);
+		}
+	}
+
+	/**
+	 * @param groups Number of groups, or 0 to use the number of customers/currencies
+	 * @return Sums for each group, Rollup.COLUMNS longs per group
+	 */
+	private long[] rollup(long fromSeconds, long toSeconds, int groupBy, int groups)
+	{
+		// Read the size before the columns and dictionaries so they cover at least that many rows
+		int rows = this.size;
+		Columns cols = this.columns;
+		if (groupBy == Rollup.CUSTOMER) {
+			groups = this.customers.size + 1;
+		} else if (groupBy == Rollup.CURRENCY) {
+			groups = this.currencies.size + 1;
+		}
+		if (rows == 0) {
+			return new long[Rollup.COLUMNS * groups];
+		}
+		int leafRows = Math.max(MIN_LEAF_ROWS, (rows + this.pool.getParallelism() - 1) / this.pool.getParallelism());
+		long firstDay = Math.floorDiv(fromSeconds, SECONDS_PER_DAY);
+		return this.pool.invoke(new Rollup(cols, 0, rows, leafRows, fromSeconds, toSeconds, firstDay, groupBy, groups));
+	}
+
+	private static Map<String, Totals> byName(Dictionary dictionary, long[] sums)
+	{
+		String[] names = dictionary.names;
+		Map<String, Totals> byName = new HashMap<String, Totals>();
+		for (int x = 0; x < sums.length / Rollup.COLUMNS; x++) {
+			Totals totals = totals(sums, x);
+			if (totals != null) {
+				// Id 0 is "none"
+				byName.put((x == 0) ? null : names[x - 1], totals);
+			}
+		}
+		return Collections.unmodifiableMap(byName);
+	}
+
+	private static Totals totals(long[] sums, int group)
+	{
+		int at = group * Rollup.COLUMNS;
+		return (sums[at] == 0) ? null : new Totals(sums[at], sums[at + 1], sums[at + 2], sums[at + 3]);
+	}
+
+	private static long toCents(BigDecimal amount)
+	{
+		return (amount == null) ? 0 : amount.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValue();
+	}
+
+	private static long writeNames(FileChannel channel, long offset, String[] names) throws IOException
+	{
+		byte[][] encoded = new byte[names.length][];
+		long length = 0;
+		for (int x = 0; x < names.length; x++) {
+			encoded[x] = names[x].getBytes(UTF8);
+			length += 4 + encoded[x].length;
+		}
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, offset, length);
+		for (byte[] name : encoded) {
+			buffer.putInt(name.length).put(name);
+		}
+		return offset + length;
+	}
+
+	private static long readNames(FileChannel channel, long offset, int count, Dictionary dictionary) throws IOException
+	{
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, channel.size() - offset);
+		for (int x = 0; x < count; x++) {
+			byte[] name = new byte[buffer.getInt()];
+			buffer.get(name);
+			dictionary.intern(new String(name, UTF8));
+		}
+		return offset + buffer.position();
+	}
+
+	/**
+	 * Totals for a set of paid payments
+	 */
+	public static final class Totals
+	{
+		private final long count;
+		private final long grossCents;
+		private final long feeCents;
+		private final long refundedCount;
+
+		Totals(long count, long grossCents, long feeCents, long refundedCount)
+		{
+			this.count = count;
+			this.grossCents = grossCents;
+			this.feeCents = feeCents;
+			this.refundedCount = refundedCount;
+		}
+
+		public long getCount() { return this.count; }
+		public long getGrossCents() { return this.grossCents; }
+		public long getFeeCents() { return this.feeCents; }
+		/** @return Gross less fees */
+		public long getNetCents() { return this.grossCents - this.feeCents; }
+		/** @return How many of the payments have since been refunded */
+		public long getRefundedCount() { return this.refundedCount; }
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Totals)) {
+				return false;
+			}
+			Totals other = (Totals) obj;
+			return (this.count == other.count) && (this.grossCents == other.grossCents) && (this.feeCents == other.feeCents) && (this.refundedCount == other.refundedCount);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Arrays.hashCode(new long[] { this.count, this.grossCents, this.feeCents, this.refundedCount });
+		}
+
+		@Override
+		public String toString()
+		{
+			return "count=" + this.count + " gross=" + this.grossCents + " fees=" + this.feeCents + " refunded=" + this.refundedCount;
+		}
+	}
+
+	/**
+	 * The column arrays. Replaced (copied into bigger arrays) when full, rows below the
+	 * ledger's size are never changed.
+	 */
+	private static final class Columns
+	{
+		final int capacity;
+		final long[] seconds;
+		final long[] gross;
+		final long[] fees;
+		final int[] customers;
+		final int[] currencies;
+		final byte[] flags;
+
+		Columns(int capacity)
+		{
+			this.capacity = capacity;
+			this.seconds = new long[capacity];
+			this.gross = new long[capacity];
+			this.fees = new long[capacity];
+			this.customers = new int[capacity];
+			this.currencies = new int[capacity];
+			this.flags = new byte[capacity];
+		}
+
+		Columns grow(int rows, int capacity)
+		{
+			Columns grown = new Columns(capacity);
+			System.arraycopy(this.seconds, 0, grown.seconds, 0, rows);
+			System.arraycopy(this.gross, 0, grown.gross, 0, rows);
+			System.arraycopy(this.fees, 0, grown.fees, 0, rows);
+			System.arraycopy(this.customers, 0, grown.customers, 0, rows);
+			System.arraycopy(this.currencies, 0, grown.currencies, 0, rows);
+			System.arraycopy(this.flags, 0, grown.flags, 0, rows);
+			return grown;
+		}
+	}
+
+	/**
+	 * Strings to dense ids starting at 1 (0 is null). intern() is only called under the
+	 * ledger's lock; names is published before any row using a new id.
+	 */
+	private static final class Dictionary
+	{
+		private final Map<String, Integer> ids = new HashMap<String, Integer>();
+		volatile String[] names = new String[16];
+		volatile int size = 0;
+
+		int intern(String name)
+		{
+			if (name == null) {
+				return 0;
+			}
+			Integer id = this.ids.get(name);
+			if (id == null) {
+				String[] current = this.names;
+				if (this.size == current.length) {
+					current = Arrays.copyOf(current, current.length * 2);
+				}
+				current[this.size] = name;
+				this.names = current;
+				id = ++this.size;
+				this.ids.put(name, id);
+			}
+			return id;
+		}
+
+		String[] copy()
+		{
+			return Arrays.copyOf(this.names, this.size);
+		}
+	}
+
+	/**
+	 * Sums a range of rows into count, gross, fees and refunded per group, splitting the range
+	 * until it's leafRows or less
+	 */
+	private static final class Rollup extends RecursiveTask<long[]>
+	{
+		private static final long serialVersionUID = 1L;
+		static final int COLUMNS = 4;
+		static final int ALL = 0;
+		static final int DAY = 1;
+		static final int CUSTOMER = 2;
+		static final int CURRENCY = 3;
+
+		private final Columns cols;
+		private final int from;
+		private final int to;
+		private final int leafRows;
+		private final long fromSeconds;
+		private final long toSeconds;
+		private final long firstDay;
+		private final int groupBy;
+		private final int groups;
+
+		Rollup(Columns cols, int from, int to, int leafRows, long fromSeconds, long toSeconds, long firstDay, int groupBy, int groups)
+		{
+			this.cols = cols;
+			this.from = from;
+			this.to = to;
+			this.leafRows = leafRows;
+			this.fromSeconds = fromSeconds;
+			this.toSeconds = toSeconds;
+			this.firstDay = firstDay;
+			this.groupBy = groupBy;
+			this.groups = groups;
+		}
+
+		@Override
+		protected long[] compute()
+		{
+			if (this.to - this.from > this.leafRows) {
+				int middle = (this.from + this.to) >>> 1;
+				Rollup left = new Rollup(this.cols, this.from, middle, this.leafRows, this.fromSeconds, this.toSeconds, this.firstDay, this.groupBy, this.groups);
+				Rollup right = new Rollup(this.cols, middle, this.to, this.leafRows, this.fromSeconds, this.toSeconds, this.firstDay, this.groupBy, this.groups);
+				left.fork();
+				long[] sums = right.compute();
+				long[] leftSums = left.join();
+				for (int x = 0; x < sums.length; x++) {
+					sums[x] += leftSums[x];
+				}
+				return sums;
+			}
+
+			long[] sums = new long[COLUMNS * this.groups];
+			long[] seconds = this.cols.seconds;
+			long[] gross = this.cols.gross;
+			long[] fees = this.cols.fees;
+			int[] customers = this.cols.customers;
+			int[] currencies = this.cols.currencies;
+			byte[] flags = this.cols.flags;
+			for (int row = this.from; row < this.to; row++) {
+				long when = seconds[row];
+				if ((when < this.fromSeconds) || (when >= this.toSeconds) || ((flags[row] & FLAG_PAID) == 0)) {
+					continue;
+				}
+				int group;
+				switch (this.groupBy) {
+					case DAY: group = (int) (Math.floorDiv(when, SECONDS_PER_DAY) - this.firstDay); break;
+					case CUSTOMER: group = customers[row]; break;
+					case CURRENCY: group = currencies[row]; break;
+					default: group = 0;
+				}
+				int at = group * COLUMNS;
+				sums[at]++;
+				sums[at + 1] += gross[row];
+				sums[at + 2] += fees[row];
+				sums[at + 3] += (flags[row] & FLAG_REFUNDED) >>> 1;
+			}
+			return sums;
+		}
+	}
+}
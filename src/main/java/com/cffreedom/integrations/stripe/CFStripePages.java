@@ -0,0 +1,237 @@
+package com.cffreedom.integrations.stripe;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.stripe.exception.APIConnectionException;
+import com.stripe.exception.StripeException;
+
+/**
+ * Lazily walks a Stripe list (customers, charges, plans, a customer's cards) a page at a time
+ * using count/offset. While the current page is being consumed the next one is already being
+ * fetched in the background, so a long export isn't waiting on Stripe between pages, and no
+ * more than two pages are held at once however big the list is.
+ * <pre>
+ * CFStripePages&lt;Customer&gt; customers = stripe.listCustomers(100);
+ * try {
+ *     while (customers.hasNext()) { export(customers.next()); }
+ * } finally {
+ *     customers.close();
+ * }
+ * </pre>
+ * Stripe lists newest first, so objects created while the list is being walked shift the
+ * offsets and can make an object show up twice. A StripeException while fetching a page is
+ * thrown from hasNext()/next() as a PageException.
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ * 2026-10-17 	MarkJacobsen.net 	PageException.toStripeException()
+ */
+public final class CFStripePages<T> implements Iterator<T>
+{
+	private static final Logger logger = LoggerFactory.getLogger(CFStripePages.class);
+	/** Most Stripe will return in one page */
+	public static final int MAX_PAGE_SIZE = 100;
+	public static final int DEFAULT_PAGE_SIZE = MAX_PAGE_SIZE;
+	private static final ExecutorService prefetcher = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "CFStripePages-" + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final Source<T> source;
+	private final int pageSize;
+	private List<T> page = Collections.emptyList();
+	private int index = 0;
+	private int nextOffset = 0;
+	private Future<Page<T>> nextPage;
+	private int pages = 0;
+
+	/**
+	 * Fetches one page of a list
+	 */
+	interface Source<T>
+	{
+		Page<T> fetch(int offset, int count) throws StripeException;
+	}
+
+	/**
+	 * @param source
+	 * @param pageSize Objects per request (1 - MAX_PAGE_SIZE)
+	 */
+	CFStripePages(Source<T> source, int pageSize)
+	{
+		if ((pageSize <= 0) || (pageSize > MAX_PAGE_SIZE)) {
+			throw new IllegalArgumentException("pageSize must be 1 - " + MAX_PAGE_SIZE);
+		}
+		this.source = source;
+		this.pageSize = pageSize;
+		this.nextPage = prefetch(0);
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		while (this.index >= this.page.size()) {
+			if (this.nextPage == null) {
+				return false;
+			}
+			Page<T> fetched = await(this.nextPage);
+			this.pages++;
+			this.page = fetched.data;
+			this.index = 0;
+			this.nextOffset += fetched.data.size();
+			// A short page, or reaching the total Stripe reported, means there's nothing after it
+			boolean lastPage = (fetched.data.size() < this.pageSize) || ((fetched.totalCount != null) && (this.nextOffset >= fetched.totalCount));
+			this.nextPage = lastPage ? null : prefetch(this.nextOffset);
+		}
+		return true;
+	}
+
+	@Override
+	public T next()
+	{
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return this.page.get(this.index++);
+	}
+
+	@Override
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * @return The rest of the list as a sequential Stream. Closing the Stream closes this.
+	 */
+	public Stream<T> stream()
+	{
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(new Runnable() {
+					public void run() {
+						close();
+					}
+				});
+	}
+
+	/**
+	 * Stop any fetch in progress. Only needed when the list isn't walked to the end.
+	 */
+	public void close()
+	{
+		if (this.nextPage != null) {
+			this.nextPage.cancel(true);
+			this.nextPage = null;
+		}
+		this.page = Collections.emptyList();
+	}
+
+	/** @return Pages fetched so far */
+	public int getPageCount() { return this.pages; }
+	public int getPageSize() { return this.pageSize; }
+
+	private Future<Page<T>> prefetch(final int offset)
+	{
+		logger.trace("Fetching {} from {}", this.pageSize, offset);
+		return prefetcher.submit(new Callable<Page<T>>() {
+			public Page<T> call() throws StripeException {
+				return source.fetch(offset, pageSize);
+			}
+		});
+	}
+
+	private static <T> Page<T> await(Future<Page<T>> future)
+	{
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PageException("Interrupted waiting for a page", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new PageException("Error fetching a page: " + e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * One page of a list
+	 */
+	static final class Page<T>
+	{
+		final List<T> data;
+		final Integer totalCount;
+
+		/**
+		 * @param data
+		 * @param totalCount Size of the whole list if Stripe reported it, else null
+		 */
+		Page(List<T> data, Integer totalCount)
+		{
+			this.data = (data == null) ? Collections.<T>emptyList() : data;
+			this.totalCount = totalCount;
+		}
+	}
+
+	/**
+	 * A page couldn't be fetched. getCause() is the StripeException, or the InterruptedException
+	 * if the thread was interrupted waiting for the page.
+	 */
+	public static class PageException extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+
+		public PageException(String message, Throwable cause)
+		{
+			super(message, cause);
+		}
+
+		/**
+		 * @return The StripeException behind this, or an APIConnectionException carrying the cause
+		 * when it was something else. An interrupt is kept set on the current thread.
+		 */
+		public StripeException toStripeException()
+		{
+			if (getCause() instanceof StripeException) {
+				return (StripeException) getCause();
+			}
+			if (getCause() instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+			}
+			return new APIConnectionException(getMessage(), getCause());
+		}
+	}
+}
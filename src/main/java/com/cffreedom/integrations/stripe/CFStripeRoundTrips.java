@@ -0,0 +1,92 @@
+package com.cffreedom.integrations.stripe;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the HTTP round trips to api.stripe.com made by each public CFStripe method, so a
+ * change that adds a request to, say, chargeCustomer() shows up as a number that moved.
+ * Lookups answered by a CFStripeCache aren't round trips and aren't counted.
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ */
+public class CFStripeRoundTrips
+{
+	private final ConcurrentMap<String, LongAdder> counts = new ConcurrentHashMap<String, LongAdder>();
+
+	/**
+	 * Record one request made on behalf of method
+	 * @param method Public CFStripe method name
+	 */
+	public void record(String method)
+	{
+		LongAdder count = this.counts.get(method);
+		if (count == null) {
+			LongAdder added = this.counts.putIfAbsent(method, count = new LongAdder());
+			if (added != null) {
+				count = added;
+			}
+		}
+		count.increment();
+	}
+
+	/**
+	 * @param method Public CFStripe method name
+	 * @return Requests made by method so far
+	 */
+	public long get(String method)
+	{
+		LongAdder count = this.counts.get(method);
+		return (count == null) ? 0 : count.sum();
+	}
+
+	/**
+	 * @return Requests made by all methods so far
+	 */
+	public long getTotal()
+	{
+		long total = 0;
+		for (LongAdder count : this.counts.values()) {
+			total += count.sum();
+		}
+		return total;
+	}
+
+	/**
+	 * @return Method name to requests made, sorted by name
+	 */
+	public Map<String, Long> getCounts()
+	{
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> entry : this.counts.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().sum());
+		}
+		return counts;
+	}
+
+	public void reset()
+	{
+		this.counts.clear();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "CFStripeRoundTrips" + getCounts();
+	}
+}
@@ -62,6 +62,48 @@ public class CFStripeWebHook
 		return Convert.toDate(JsonUtils.getLong(webHook, "created")*1000);
 	}
 	
+	/**
+	 * Get the "data" -> "object" the event is about
+	 * @param webHook
+	 * @return The object (charge, customer, plan, ...)
+	 */
+	public static JSONObject getObject(JSONObject webHook)
+	{
+		JSONObject data = JsonUtils.getJsonObject(webHook, "data");
+		return (data == null) ? null : JsonUtils.getJsonObject(data, "object");
+	}
+	
+	/**
+	 * Get the "id" of the object the event is about
+	 * @param webHook
+	 * @return Value of "data" -> "object" -> "id"
+	 */
+	public static String getObjectId(JSONObject webHook)
+	{
+		JSONObject obj = getObject(webHook);
+		return (obj == null) ? null : JsonUtils.getString(obj, "id");
+	}
+	
+	/**
+	 * Get the customer an event is about, either the customer object itself (customer.created,
+	 * customer.updated, ...) or the "customer" the object belongs to (charges, cards, subscriptions, ...)
+	 * @param webHook
+	 * @return Customer code or null if the event isn't tied to a customer
+	 */
+	public static String getCustomerCode(JSONObject webHook)
+	{
+		JSONObject obj = getObject(webHook);
+		if (obj == null)
+		{
+			return null;
+		}
+		if ("customer".equals(JsonUtils.getString(obj, "object")) == true)
+		{
+			return JsonUtils.getString(obj, "id");
+		}
+		return JsonUtils.getString(obj, "customer");
+	}
+	
 	public static Payment getPayment(JSONObject webHook)
 	{
 		Payment payment = new Payment();
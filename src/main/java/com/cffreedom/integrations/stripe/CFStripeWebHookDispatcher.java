@@ -0,0 +1,460 @@
+package com.cffreedom.integrations.stripe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cffreedom.exceptions.InfrastructureException;
+
+/**
+ * Takes Stripe web hooks off the request thread. dispatch() only looks up the handler for the
+ * event's type (CFStripeWebHook.getType()) and queues it, so the endpoint can answer Stripe
+ * right away instead of holding the connection while the event is processed, and a burst
+ * after a billing run doesn't turn into timeouts and retries.
+ *
+ * Events are spread over a fixed number of lanes by customer (CFStripeWebHook.getCustomerCode(),
+ * falling back to the object id for events that aren't tied to a customer). Each lane has a
+ * single worker, so events for one customer are handled strictly in the order they were
+ * dispatched while different customers are handled in parallel. At most queueCapacity events
+ * wait across all lanes; past that dispatch() returns false and the endpoint should answer
+ * with an error so Stripe delivers the event again later.
+ * <pre>
+ * CFStripeWebHookDispatcher dispatcher = new CFStripeWebHookDispatcher(8, 10000);
+ * dispatcher.on("invoice.payment_succeeded", invoicePaid);
+ * dispatcher.on("charge.*", charges);
+ * ...
+ * // In the web hook endpoint
+ * if (dispatcher.dispatch(jsonText) == false) { respond 503 } else { respond 200 }
+ * </pre>
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ * 2026-10-17 	MarkJacobsen.net 	Don't lose events dispatched while close() is running
+ */
+public class CFStripeWebHookDispatcher
+{
+	private static final Logger logger = LoggerFactory.getLogger(CFStripeWebHookDispatcher.class);
+	public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+	/** Handler for every event type that doesn't have a more specific one */
+	public static final String ALL_TYPES = "*";
+	private static final long POLL_MILLIS = 250;
+
+	private final Map<String, Handler> handlers = new ConcurrentHashMap<String, Handler>();
+	private final List<String> prefixes = new CopyOnWriteArrayList<String>();
+	private final Lane[] lanes;
+	private final int queueCapacity;
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger maxQueued = new AtomicInteger();
+	private final AtomicLong dispatched = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong unhandled = new AtomicLong();
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final Latency handlerLatency = new Latency();
+	private final Latency queueLatency = new Latency();
+	private volatile boolean running = true;
+
+	/**
+	 * Processes one web hook
+	 */
+	public static interface Handler
+	{
+		/**
+		 * @param webHook Web hook as from CFStripeWebHook.getWebHook()
+		 * @throws Exception Logged and counted, the lane moves on to the next event
+		 */
+		void handle(JSONObject webHook) throws Exception;
+	}
+
+	public CFStripeWebHookDispatcher(int lanes)
+	{
+		this(lanes, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	public CFStripeWebHookDispatcher(int lanes, int queueCapacity)
+	{
+		this(lanes, queueCapacity, defaultThreadFactory());
+	}
+
+	/**
+	 * @param lanes Number of events handled in parallel (one worker per lane)
+	 * @param queueCapacity Max events waiting across all lanes before dispatch() turns them away
+	 * @param threadFactory Used to create the lane workers
+	 */
+	public CFStripeWebHookDispatcher(int lanes, int queueCapacity, ThreadFactory threadFactory)
+	{
+		if (lanes <= 0) { throw new IllegalArgumentException("lanes must be > 0"); }
+		if (queueCapacity <= 0) { throw new IllegalArgumentException("queueCapacity must be > 0"); }
+
+		logger.debug("Starting {} lanes with a queue of {}", lanes, queueCapacity);
+		this.queueCapacity = queueCapacity;
+		this.lanes = new Lane[lanes];
+		for (int x = 0; x < lanes; x++) {
+			final Lane lane = new Lane();
+			lane.worker = threadFactory.newThread(new Runnable() {
+				public void run() {
+					work(lane);
+				}
+			});
+			this.lanes[x] = lane;
+			lane.worker.start();
+		}
+	}
+
+	/**
+	 * Register the handler for an event type
+	 * @param type Exact type ("charge.succeeded"), a prefix ending in ".*" ("charge.*") or ALL_TYPES.
+	 * An exact type wins over a prefix, and a longer prefix over a shorter one.
+	 * @param handler
+	 * @return this
+	 */
+	public CFStripeWebHookDispatcher on(String type, Handler handler)
+	{
+		if ((type == null) || (handler == null)) { throw new IllegalArgumentException("type and handler are required"); }
+		this.handlers.put(type, handler);
+		if (type.endsWith("*") && !this.prefixes.contains(type)) {
+			// Kept longest first so the most specific prefix matches
+			synchronized (this.prefixes) {
+				int at = 0;
+				while ((at < this.prefixes.size()) && (this.prefixes.get(at).length() >= type.length())) {
+					at++;
+				}
+				this.prefixes.add(at, type);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Queue a web hook for its handler
+	 * @param webHook Web hook from CFStripeWebHook.getWebHook()
+	 * @return true if the event was queued (or there is no handler for it, so nothing to do),
+	 * false if the queue is full or the dispatcher closed while the event was being queued, and
+	 * Stripe should deliver it again later
+	 * @throws InfrastructureException If the dispatcher is closed
+	 */
+	public boolean dispatch(JSONObject webHook) throws InfrastructureException
+	{
+		if (!this.running) {
+			throw new InfrastructureException("Dispatcher is closed");
+		}
+		String type = CFStripeWebHook.getType(webHook);
+		Handler handler = getHandler(type);
+		if (handler == null) {
+			this.unhandled.incrementAndGet();
+			logger.trace("No handler for {}", type);
+			return true;
+		}
+
+		int depth = this.queued.incrementAndGet();
+		if (depth > this.queueCapacity) {
+			this.queued.decrementAndGet();
+			this.rejected.incrementAndGet();
+			logger.debug("Queue full, turning away {} {}", type, CFStripeWebHook.getId(webHook));
+			return false;
+		}
+		int max;
+		while ((depth > (max = this.maxQueued.get())) && !this.maxQueued.compareAndSet(max, depth)) { }
+
+		Task task = new Task(webHook, type, handler);
+		BlockingQueue<Task> queue = this.lanes[laneFor(orderingKey(webHook))].queue;
+		queue.add(task);
+		if (!this.running && queue.remove(task)) {
+			// close() started after the check above and the lane's worker may already be gone
+			this.queued.decrementAndGet();
+			this.rejected.incrementAndGet();
+			logger.debug("Closed while queueing {} {}", type, CFStripeWebHook.getId(webHook));
+			return false;
+		}
+		this.dispatched.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * @param jsonText Web hook body
+	 * @return Same as dispatch(JSONObject)
+	 * @throws ParseException If the body isn't JSON
+	 * @throws InfrastructureException If the dispatcher is closed
+	 */
+	public boolean dispatch(String jsonText) throws ParseException, InfrastructureException
+	{
+		return dispatch(CFStripeWebHook.getWebHook(jsonText));
+	}
+
+	/**
+	 * @param type Event type
+	 * @return Handler that would get the event or null
+	 */
+	public Handler getHandler(String type)
+	{
+		if (type == null) {
+			return this.handlers.get(ALL_TYPES);
+		}
+		Handler handler = this.handlers.get(type);
+		if (handler != null) {
+			return handler;
+		}
+		for (String prefix : this.prefixes) {
+			if (type.startsWith(prefix.substring(0, prefix.length() - 1))) {
+				return this.handlers.get(prefix);
+			}
+		}
+		return null;
+	}
+
+	/** @return Events waiting for a lane right now */
+	public int getQueueDepth() { return this.queued.get(); }
+	/** @return Most events that have been waiting at once */
+	public int getMaxQueueDepth() { return this.maxQueued.get(); }
+	public int getLaneCount() { return this.lanes.length; }
+	public long getDispatchedCount() { return this.dispatched.get(); }
+	public long getRejectedCount() { return this.rejected.get(); }
+	public long getUnhandledCount() { return this.unhandled.get(); }
+	/** @return Events whose handler has finished, including ones that threw */
+	public long getProcessedCount() { return this.processed.get(); }
+	public long getFailedCount() { return this.failed.get(); }
+	/** @return How long handlers take */
+	public Latency getHandlerLatency() { return this.handlerLatency; }
+	/** @return How long events wait between dispatch() and their handler starting */
+	public Latency getQueueLatency() { return this.queueLatency; }
+
+	/**
+	 * Stop accepting events and wait for the lanes to finish what is queued
+	 * @param timeout
+	 * @param unit
+	 * @return true if everything queued was handled
+	 */
+	public boolean close(long timeout, TimeUnit unit)
+	{
+		logger.debug("Closing with {} queued", this.queued.get());
+		this.running = false;
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (Lane lane : this.lanes) {
+			long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			try {
+				if (remaining > 0) { lane.worker.join(remaining); }
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		boolean drained = true;
+		for (Lane lane : this.lanes) {
+			if (lane.worker.isAlive()) {
+				drained = false;
+				lane.worker.interrupt();
+			}
+			int leftover = lane.queue.size();
+			if (leftover > 0) {
+				drained = false;
+				logger.warn("Closed with {} events not handled", leftover);
+			}
+		}
+		return drained;
+	}
+
+	/**
+	 * Events for the same customer need to land in the same lane
+	 */
+	private static String orderingKey(JSONObject webHook)
+	{
+		String key = CFStripeWebHook.getCustomerCode(webHook);
+		if (key == null) {
+			key = CFStripeWebHook.getObjectId(webHook);
+		}
+		if (key == null) {
+			key = CFStripeWebHook.getId(webHook);
+		}
+		return (key == null) ? "" : key;
+	}
+
+	int laneFor(String key)
+	{
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return (h & 0x7fffffff) % this.lanes.length;
+	}
+
+	private void work(Lane lane)
+	{
+		while (true) {
+			Task task;
+			try {
+				task = lane.queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (task == null) {
+				if (this.running) {
+					continue;
+				}
+				// Closing, but dispatch() may have queued something since the poll. Anything it
+				// queues after this sees running == false and takes the event back itself.
+				task = lane.queue.poll();
+				if (task == null) {
+					return;
+				}
+			}
+			this.queued.decrementAndGet();
+			long start = System.nanoTime();
+			this.queueLatency.record(start - task.dispatchedAt);
+			try {
+				task.handler.handle(task.webHook);
+			} catch (Exception e) {
+				this.failed.incrementAndGet();
+				logger.error("Error handling {} {}: {}", task.type, CFStripeWebHook.getId(task.webHook), e.getMessage(), e);
+			}
+			this.handlerLatency.record(System.nanoTime() - start);
+			this.processed.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Daemon platform threads named after the dispatcher
+	 */
+	private static ThreadFactory defaultThreadFactory()
+	{
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "CFStripeWebHookDispatcher-" + count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Latency histogram with buckets a quarter of a power of 2 wide, so percentiles are
+	 * within 25% without keeping every sample
+	 */
+	public static final class Latency
+	{
+		private static final int SUB_BUCKET_BITS = 2;
+		private final LongAdder[] buckets = new LongAdder[64 << SUB_BUCKET_BITS];
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		Latency()
+		{
+			for (int x = 0; x < this.buckets.length; x++) {
+				this.buckets[x] = new LongAdder();
+			}
+		}
+
+		void record(long nanos)
+		{
+			nanos = Math.max(nanos, 0);
+			this.buckets[bucket(nanos)].increment();
+			this.count.increment();
+			this.totalNanos.add(nanos);
+			long max;
+			while ((nanos > (max = this.maxNanos.get())) && !this.maxNanos.compareAndSet(max, nanos)) { }
+		}
+
+		public long getCount() { return this.count.sum(); }
+		public long getMaxMicros() { return TimeUnit.NANOSECONDS.toMicros(this.maxNanos.get()); }
+
+		public long getMeanMicros()
+		{
+			long count = this.count.sum();
+			return (count == 0) ? 0 : TimeUnit.NANOSECONDS.toMicros(this.totalNanos.sum() / count);
+		}
+
+		/**
+		 * @param percentile 0 - 100
+		 * @return Upper bound of the bucket the percentile falls in, in microseconds
+		 */
+		public long getPercentileMicros(double percentile)
+		{
+			long count = this.count.sum();
+			if (count == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(count * Math.min(Math.max(percentile, 0), 100) / 100.0);
+			long seen = 0;
+			for (int x = 0; x < this.buckets.length; x++) {
+				seen += this.buckets[x].sum();
+				if (seen >= Math.max(rank, 1)) {
+					return TimeUnit.NANOSECONDS.toMicros(Math.min(upperBound(x), this.maxNanos.get()));
+				}
+			}
+			return getMaxMicros();
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("count=%d mean=%dus p50=%dus p99=%dus max=%dus", getCount(), getMeanMicros(),
+					getPercentileMicros(50), getPercentileMicros(99), getMaxMicros());
+		}
+
+		private static int bucket(long nanos)
+		{
+			if (nanos < (1 << SUB_BUCKET_BITS)) {
+				return (int) nanos;
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+			int sub = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+			return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) | sub;
+		}
+
+		private static long upperBound(int bucket)
+		{
+			if (bucket < (1 << SUB_BUCKET_BITS)) {
+				return bucket;
+			}
+			int exponent = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+			long sub = bucket & ((1 << SUB_BUCKET_BITS) - 1);
+			return ((((1L << SUB_BUCKET_BITS) | sub) + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+		}
+	}
+
+	private static final class Lane
+	{
+		final BlockingQueue<Task> queue = new LinkedBlockingQueue<Task>();
+		Thread worker;
+	}
+
+	private static final class Task
+	{
+		final JSONObject webHook;
+		final String type;
+		final Handler handler;
+		final long dispatchedAt = System.nanoTime();
+
+		Task(JSONObject webHook, String type, Handler handler)
+		{
+			this.webHook = webHook;
+			this.type = type;
+			this.handler = handler;
+		}
+	}
+}
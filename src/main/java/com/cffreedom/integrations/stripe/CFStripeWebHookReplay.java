@@ -0,0 +1,319 @@
+package com.cffreedom.integrations.stripe;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cffreedom.exceptions.InfrastructureException;
+
+/**
+ * Reprocesses an archive of Stripe web hooks (NDJSON: one raw web hook body per line) through
+ * a CFStripeWebHookDispatcher, e.g. after changing what the handlers do with them.
+ *
+ * The archive is memory mapped a window at a time and cut into batches of whole lines that
+ * are parsed (CFStripeWebHook.getWebHook()) in parallel. Parsed batches are handed to the
+ * dispatcher strictly in file order, and the dispatcher keeps each customer's events in
+ * order within its lane, so events for one customer are handled in the order they appear in
+ * the archive while different customers are handled in parallel. An archive appended to as
+ * web hooks arrive (or sorted by "created") therefore replays chronologically per customer.
+ * When the dispatcher's queue is full the replay waits for it rather than dropping events.
+ * <pre>
+ * CFStripeWebHookDispatcher dispatcher = new CFStripeWebHookDispatcher(16);
+ * dispatcher.on("charge.*", charges);
+ * CFStripeWebHookReplay.Result result = new CFStripeWebHookReplay(dispatcher).replay(new File("events.ndjson"));
+ * dispatcher.close(1, TimeUnit.MINUTES);
+ * </pre>
+ * Lines that aren't a JSON object are skipped and counted. StripeWebHookReplayHarness (in the
+ * test sources) replays a file through handlers that do nothing and prints the events/sec.
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ * 2026-10-17 	MarkJacobsen.net 	main() moved to StripeWebHookReplayHarness in the test sources
+ */
+public class CFStripeWebHookReplay
+{
+	private static final Logger logger = LoggerFactory.getLogger(CFStripeWebHookReplay.class);
+	static final int DEFAULT_WINDOW_BYTES = 256 * 1024 * 1024;
+	static final int DEFAULT_BATCH_BYTES = 1024 * 1024;
+	private static final long FULL_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+	private final CFStripeWebHookDispatcher dispatcher;
+	private final int parsers;
+	private final int windowBytes;
+	private final int batchBytes;
+
+	/**
+	 * Parse on as many threads as there are processors
+	 * @param dispatcher Where the events go. Should only be fed by the replay while it runs.
+	 */
+	public CFStripeWebHookReplay(CFStripeWebHookDispatcher dispatcher)
+	{
+		this(dispatcher, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param dispatcher Where the events go. Should only be fed by the replay while it runs.
+	 * @param parsers Threads parsing batches
+	 */
+	public CFStripeWebHookReplay(CFStripeWebHookDispatcher dispatcher, int parsers)
+	{
+		this(dispatcher, parsers, DEFAULT_WINDOW_BYTES, DEFAULT_BATCH_BYTES);
+	}
+
+	/**
+	 * @param windowBytes Most of the file mapped at once (also the longest line allowed)
+	 * @param batchBytes About how much of the file one parse task takes
+	 */
+	CFStripeWebHookReplay(CFStripeWebHookDispatcher dispatcher, int parsers, int windowBytes, int batchBytes)
+	{
+		if (dispatcher == null) { throw new IllegalArgumentException("dispatcher is required"); }
+		if (parsers <= 0) { throw new IllegalArgumentException("parsers must be > 0"); }
+		if ((batchBytes <= 0) || (windowBytes < batchBytes)) { throw new IllegalArgumentException("windowBytes must be >= batchBytes > 0"); }
+		this.dispatcher = dispatcher;
+		this.parsers = parsers;
+		this.windowBytes = windowBytes;
+		this.batchBytes = batchBytes;
+	}
+
+	/**
+	 * Dispatch every event in the archive and wait for the handlers to finish with them
+	 * @param archive NDJSON file of web hook bodies
+	 * @return Counts and rate
+	 * @throws InfrastructureException If the archive can't be read or the dispatcher is closed
+	 */
+	public Result replay(File archive) throws InfrastructureException
+	{
+		logger.debug("Replaying {} with {} parsers", archive, this.parsers);
+		long start = System.nanoTime();
+		long dispatchedBefore = this.dispatcher.getDispatchedCount();
+		long processedBefore = this.dispatcher.getProcessedCount();
+		long[] counts = new long[2]; // events, malformed
+		long bytes = 0;
+		Deque<Future<Batch>> inFlight = new ArrayDeque<Future<Batch>>();
+		ExecutorService pool = Executors.newFixedThreadPool(this.parsers, threadFactory());
+		try {
+			RandomAccessFile raf = new RandomAccessFile(archive, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				bytes = channel.size();
+				long position = 0;
+				while (position < bytes) {
+					long size = Math.min(this.windowBytes, bytes - position);
+					MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+					int end = (int) size;
+					if (position + size < bytes) {
+						// A line running past the window starts the next one
+						while ((end > 0) && (window.get(end - 1) != '\n')) {
+							end--;
+						}
+						if (end == 0) {
+							throw new IOException("Line at byte " + position + " is longer than " + this.windowBytes + " bytes");
+						}
+					}
+					for (int from = 0; from < end; ) {
+						int to = Math.min(end, from + this.batchBytes);
+						while ((to < end) && (window.get(to - 1) != '\n')) {
+							to++;
+						}
+						ByteBuffer slice = window.duplicate();
+						slice.position(from);
+						slice.limit(to);
+						inFlight.add(pool.submit(new Parse(slice.slice(), position + from)));
+						// Keep the parsers busy without holding the whole archive in memory
+						if (inFlight.size() >= 2 * this.parsers) {
+							dispatch(inFlight.poll(), counts);
+						}
+						from = to;
+					}
+					position += end;
+				}
+			} finally {
+				raf.close();
+			}
+			while (!inFlight.isEmpty()) {
+				dispatch(inFlight.poll(), counts);
+			}
+			// The replay is done when the handlers are
+			while ((this.dispatcher.getProcessedCount() - processedBefore) < (this.dispatcher.getDispatchedCount() - dispatchedBefore)) {
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+		} catch (IOException e) {
+			throw new InfrastructureException("Error replaying web hooks from " + archive + ": " + e.getMessage(), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InfrastructureException("Interrupted replaying web hooks from " + archive, e);
+		} finally {
+			for (Future<Batch> batch : inFlight) {
+				batch.cancel(true);
+			}
+			pool.shutdownNow();
+		}
+
+		Result result = new Result(counts[0], counts[1], bytes, System.nanoTime() - start);
+		if (result.getMalformed() > 0) {
+			logger.warn("Skipped {} malformed lines in {}", result.getMalformed(), archive);
+		}
+		logger.debug("{}", result);
+		return result;
+	}
+
+	/**
+	 * Hand a parsed batch to the dispatcher in order, waiting whenever its queue is full
+	 */
+	private void dispatch(Future<Batch> future, long[] counts) throws InterruptedException, InfrastructureException
+	{
+		Batch batch;
+		try {
+			batch = future.get();
+		} catch (ExecutionException e) {
+			throw new InfrastructureException("Error parsing web hooks: " + e.getCause().getMessage(), e.getCause());
+		}
+		for (JSONObject webHook : batch.events) {
+			while (!this.dispatcher.dispatch(webHook)) {
+				LockSupport.parkNanos(FULL_WAIT_NANOS);
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+		}
+		counts[0] += batch.events.size();
+		counts[1] += batch.malformed;
+	}
+
+	private static ThreadFactory threadFactory()
+	{
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "CFStripeWebHookReplay-" + count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Parses the lines in one slice of the mapped file
+	 */
+	private static final class Parse implements Callable<Batch>
+	{
+		private final ByteBuffer slice;
+		private final long fileOffset;
+
+		Parse(ByteBuffer slice, long fileOffset)
+		{
+			this.slice = slice;
+			this.fileOffset = fileOffset;
+		}
+
+		public Batch call()
+		{
+			byte[] bytes = new byte[this.slice.remaining()];
+			this.slice.get(bytes);
+			Batch batch = new Batch();
+			int start = 0;
+			while (start < bytes.length) {
+				int end = start;
+				while ((end < bytes.length) && (bytes[end] != '\n')) {
+					end++;
+				}
+				int next = end + 1;
+				while ((end > start) && (bytes[end - 1] <= ' ')) {
+					end--;
+				}
+				while ((start < end) && (bytes[start] <= ' ')) {
+					start++;
+				}
+				if (start < end) {
+					try {
+						batch.events.add(CFStripeWebHook.getWebHook(new String(bytes, start, end - start, StandardCharsets.UTF_8)));
+					} catch (Exception e) {
+						// ParseException, or ClassCastException for JSON that isn't an object
+						batch.malformed++;
+						logger.debug("Malformed web hook at byte {}: {}", this.fileOffset + start, e.toString());
+					}
+				}
+				start = next;
+			}
+			return batch;
+		}
+	}
+
+	private static final class Batch
+	{
+		final List<JSONObject> events = new ArrayList<JSONObject>();
+		int malformed = 0;
+	}
+
+	/**
+	 * What a replay did
+	 */
+	public static final class Result
+	{
+		private final long events;
+		private final long malformed;
+		private final long bytes;
+		private final long elapsedNanos;
+
+		Result(long events, long malformed, long bytes, long elapsedNanos)
+		{
+			this.events = events;
+			this.malformed = malformed;
+			this.bytes = bytes;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		/** @return Events parsed and dispatched (including ones with no handler) */
+		public long getEvents() { return this.events; }
+		/** @return Lines skipped because they weren't a JSON object */
+		public long getMalformed() { return this.malformed; }
+		public long getBytes() { return this.bytes; }
+		public long getElapsedMillis() { return TimeUnit.NANOSECONDS.toMillis(this.elapsedNanos); }
+
+		public double getEventsPerSecond()
+		{
+			return (this.elapsedNanos == 0) ? 0 : this.events / (this.elapsedNanos / 1e9);
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("Replayed %d events (%d malformed, %d bytes) in %.3f sec (%.0f/sec)", this.events, this.malformed, this.bytes, this.elapsedNanos / 1e9, getEventsPerSecond());
+		}
+	}
+}
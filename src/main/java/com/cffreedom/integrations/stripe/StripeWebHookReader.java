@@ -0,0 +1,533 @@
+package com.cffreedom.integrations.stripe;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.json.simple.parser.ParseException;
+
+import com.cffreedom.beans.Payment;
+import com.cffreedom.utils.Convert;
+
+/**
+ * Pulls the fields CFStripeWebHook is normally used for (id, type, livemode, created and the
+ * payment fields of data.object) out of a web hook body in a single pass over its bytes,
+ * without building a JSONObject tree. Everything else (the embedded card, fee_details,
+ * metadata, ...) is skipped over without being decoded, and getPayment() fills a Payment the
+ * caller can reuse from one event to the next.
+ *
+ * Missing fields read the same as they do through CFStripeWebHook/JsonUtils: null for
+ * strings, 0 for numbers and false for booleans. Only the structure around the fields that
+ * are read is checked, so this isn't a validating parser.
+ *
+ * A reader holds the last event it read, so use one per thread:
+ * <pre>
+ * StripeWebHookReader reader = new StripeWebHookReader();
+ * Payment payment = new Payment();
+ * ...
+ * reader.read(body, 0, length);
+ * if ("charge.succeeded".equals(reader.getType())) {
+ *     save(reader.getPayment(payment));
+ * }
+ * </pre>
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ */
+public final class StripeWebHookReader
+{
+	private static final int LEVEL_EVENT = 0;
+	private static final int LEVEL_DATA = 1;
+	private static final int LEVEL_OBJECT = 2;
+	private static final byte[] KEY_ID = ascii("id");
+	private static final byte[] KEY_TYPE = ascii("type");
+	private static final byte[] KEY_LIVEMODE = ascii("livemode");
+	private static final byte[] KEY_CREATED = ascii("created");
+	private static final byte[] KEY_DATA = ascii("data");
+	private static final byte[] KEY_OBJECT = ascii("object");
+	private static final byte[] KEY_CUSTOMER = ascii("customer");
+	private static final byte[] KEY_DESCRIPTION = ascii("description");
+	private static final byte[] KEY_CURRENCY = ascii("currency");
+	private static final byte[] KEY_AMOUNT = ascii("amount");
+	private static final byte[] KEY_FEE = ascii("fee");
+	private static final byte[] KEY_PAID = ascii("paid");
+	private static final byte[] KEY_REFUNDED = ascii("refunded");
+
+	private byte[] buf;
+	private int pos;
+	private int end;
+	private int keyStart;
+	private int keyLength;
+	private char[] chars = new char[64];
+
+	private String id;
+	private String type;
+	private boolean live;
+	private long created;
+	private String objectId;
+	private String objectType;
+	private long objectCreated;
+	private String customer;
+	private String description;
+	private String currency;
+	private long amount;
+	private long fee;
+	private boolean paid;
+	private boolean refunded;
+
+	/**
+	 * @param json Web hook body (UTF-8)
+	 * @return this
+	 * @throws ParseException
+	 */
+	public StripeWebHookReader read(byte[] json) throws ParseException
+	{
+		return read(json, 0, json.length);
+	}
+
+	/**
+	 * @param json Buffer holding the web hook body (UTF-8)
+	 * @param offset Where the body starts in json
+	 * @param length Body length
+	 * @return this
+	 * @throws ParseException
+	 */
+	public StripeWebHookReader read(byte[] json, int offset, int length) throws ParseException
+	{
+		this.buf = json;
+		this.pos = offset;
+		this.end = offset + length;
+		this.id = null;
+		this.type = null;
+		this.live = false;
+		this.created = 0;
+		this.objectId = null;
+		this.objectType = null;
+		this.objectCreated = 0;
+		this.customer = null;
+		this.description = null;
+		this.currency = null;
+		this.amount = 0;
+		this.fee = 0;
+		this.paid = false;
+		this.refunded = false;
+		try {
+			skipWhitespace();
+			readObject(LEVEL_EVENT);
+			skipWhitespace();
+			if (this.pos != this.end) {
+				throw unexpected();
+			}
+		} finally {
+			this.buf = null;
+		}
+		return this;
+	}
+
+	/** @return Value of "id" */
+	public String getId() { return this.id; }
+	/** @return Value of "type" */
+	public String getType() { return this.type; }
+	/** @return Value of "livemode" */
+	public boolean getIsLive() { return this.live; }
+	/** @return Value of "created" (seconds since the epoch, GMT) */
+	public long getCreatedSeconds() { return this.created; }
+	/** @return Value of "data" -> "object" -> "id" */
+	public String getObjectId() { return this.objectId; }
+	/** @return Value of "data" -> "object" -> "object" (charge, customer, ...) */
+	public String getObjectType() { return this.objectType; }
+
+	/**
+	 * Get the "created" date in GMT, like CFStripeWebHook.getCreated()
+	 * @return Created date in GMT
+	 */
+	public Date getCreated()
+	{
+		return Convert.toDate(this.created * 1000);
+	}
+
+	/**
+	 * Same as CFStripeWebHook.getCustomerCode(): the customer itself for customer events,
+	 * otherwise the "customer" the object belongs to
+	 * @return Customer code or null
+	 */
+	public String getCustomerCode()
+	{
+		return "customer".equals(this.objectType) ? this.objectId : this.customer;
+	}
+
+	/**
+	 * Fill payment with the same fields CFStripeWebHook.getPayment() sets
+	 * @param payment Payment to overwrite (can be reused between events)
+	 * @return payment
+	 */
+	public Payment getPayment(Payment payment)
+	{
+		payment.setPaymentDate(Convert.toDate(this.objectCreated * 1000));
+		payment.setPaymentCode(this.objectId);
+		payment.setCustomerCode(this.customer);
+		payment.setMemo(this.description);
+		payment.setCurrency(this.currency);
+		payment.setGross(Convert.toBigDecimalFromCents(this.amount));
+		payment.setFees(Convert.toBigDecimalFromCents(this.fee));
+		payment.setPaid(this.paid);
+		payment.setRefunded(this.refunded);
+		return payment;
+	}
+
+	private void readObject(int level) throws ParseException
+	{
+		expect('{');
+		skipWhitespace();
+		if (peek() == '}') {
+			this.pos++;
+			return;
+		}
+		while (true) {
+			readKey();
+			skipWhitespace();
+			expect(':');
+			skipWhitespace();
+			readField(level);
+			skipWhitespace();
+			byte b = next();
+			if (b == '}') {
+				return;
+			}
+			if (b != ',') {
+				this.pos--;
+				throw unexpected();
+			}
+			skipWhitespace();
+		}
+	}
+
+	private void readField(int level) throws ParseException
+	{
+		if (level == LEVEL_EVENT) {
+			if (isKey(KEY_ID)) { this.id = readString(); }
+			else if (isKey(KEY_TYPE)) { this.type = readString(); }
+			else if (isKey(KEY_LIVEMODE)) { this.live = readBoolean(); }
+			else if (isKey(KEY_CREATED)) { this.created = readLong(); }
+			else if (isKey(KEY_DATA) && (peek() == '{')) { readObject(LEVEL_DATA); }
+			else { skipValue(); }
+		} else if (level == LEVEL_DATA) {
+			if (isKey(KEY_OBJECT) && (peek() == '{')) { readObject(LEVEL_OBJECT); }
+			else { skipValue(); }
+		} else {
+			if (isKey(KEY_ID)) { this.objectId = readString(); }
+			else if (isKey(KEY_OBJECT)) { this.objectType = readString(); }
+			else if (isKey(KEY_CREATED)) { this.objectCreated = readLong(); }
+			else if (isKey(KEY_CUSTOMER)) { this.customer = readString(); }
+			else if (isKey(KEY_DESCRIPTION)) { this.description = readString(); }
+			else if (isKey(KEY_CURRENCY)) { this.currency = readString(); }
+			else if (isKey(KEY_AMOUNT)) { this.amount = readLong(); }
+			else if (isKey(KEY_FEE)) { this.fee = readLong(); }
+			else if (isKey(KEY_PAID)) { this.paid = readBoolean(); }
+			else if (isKey(KEY_REFUNDED)) { this.refunded = readBoolean(); }
+			else { skipValue(); }
+		}
+	}
+
+	/**
+	 * Note where the key's bytes are without decoding it. Keys with escapes won't match any
+	 * of the names above, which is fine as Stripe doesn't escape plain ASCII names.
+	 */
+	private void readKey() throws ParseException
+	{
+		expect('"');
+		this.keyStart = this.pos;
+		skipStringBody();
+		this.keyLength = this.pos - 1 - this.keyStart;
+	}
+
+	private boolean isKey(byte[] name)
+	{
+		if (this.keyLength != name.length) {
+			return false;
+		}
+		for (int x = 0; x < name.length; x++) {
+			if (this.buf[this.keyStart + x] != name[x]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The string, or null for a JSON null. Other values are read as their text, like JSONObject.toString() would.
+	 */
+	private String readString() throws ParseException
+	{
+		byte b = peek();
+		if (b != '"') {
+			if (b == 'n') {
+				expectLiteral("null");
+				return null;
+			}
+			int start = this.pos;
+			skipValue();
+			return new String(this.buf, start, this.pos - start, StandardCharsets.UTF_8);
+		}
+		this.pos++;
+		int start = this.pos;
+		// Fast path, plain ASCII without escapes is copied straight out of the buffer
+		while (this.pos < this.end) {
+			b = this.buf[this.pos];
+			if (b == '"') {
+				String value = new String(this.buf, start, this.pos - start, StandardCharsets.ISO_8859_1);
+				this.pos++;
+				return value;
+			}
+			if ((b == '\\') || (b < 0x20)) {
+				break;
+			}
+			this.pos++;
+		}
+		this.pos = start;
+		return decodeString();
+	}
+
+	/**
+	 * Slow path for strings with escapes or multi byte characters
+	 */
+	private String decodeString() throws ParseException
+	{
+		int length = 0;
+		while (true) {
+			int b = next() & 0xff;
+			if (b == '"') {
+				return new String(this.chars, 0, length);
+			}
+			if (length + 2 > this.chars.length) {
+				char[] bigger = new char[this.chars.length * 2];
+				System.arraycopy(this.chars, 0, bigger, 0, length);
+				this.chars = bigger;
+			}
+			if (b == '\\') {
+				this.chars[length++] = readEscape();
+			} else if (b < 0x20) {
+				this.pos--;
+				throw unexpected();
+			} else if (b < 0x80) {
+				this.chars[length++] = (char) b;
+			} else if ((b >> 5) == 0x06) {
+				this.chars[length++] = (char) (((b & 0x1f) << 6) | continuation());
+			} else if ((b >> 4) == 0x0e) {
+				this.chars[length++] = (char) (((b & 0x0f) << 12) | (continuation() << 6) | continuation());
+			} else if ((b >> 3) == 0x1e) {
+				int codePoint = ((b & 0x07) << 18) | (continuation() << 12) | (continuation() << 6) | continuation();
+				this.chars[length++] = Character.highSurrogate(codePoint);
+				this.chars[length++] = Character.lowSurrogate(codePoint);
+			} else {
+				this.pos--;
+				throw unexpected();
+			}
+		}
+	}
+
+	private int continuation() throws ParseException
+	{
+		byte b = next();
+		if ((b & 0xc0) != 0x80) {
+			this.pos--;
+			throw unexpected();
+		}
+		return b & 0x3f;
+	}
+
+	private char readEscape() throws ParseException
+	{
+		byte b = next();
+		switch (b) {
+			case '"': return '"';
+			case '\\': return '\\';
+			case '/': return '/';
+			case 'b': return '\b';
+			case 'f': return '\f';
+			case 'n': return '\n';
+			case 'r': return '\r';
+			case 't': return '\t';
+			case 'u':
+				int c = 0;
+				for (int x = 0; x < 4; x++) {
+					int digit = Character.digit(next(), 16);
+					if (digit < 0) {
+						this.pos--;
+						throw unexpected();
+					}
+					c = (c << 4) | digit;
+				}
+				return (char) c;
+			default:
+				this.pos--;
+				throw unexpected();
+		}
+	}
+
+	/**
+	 * @return The number, 0 for null. Fractions are truncated like Number.longValue().
+	 */
+	private long readLong() throws ParseException
+	{
+		byte b = peek();
+		if (b == 'n') {
+			expectLiteral("null");
+			return 0;
+		}
+		int start = this.pos;
+		boolean negative = (b == '-');
+		if (negative) {
+			this.pos++;
+		}
+		long value = 0;
+		int digits = 0;
+		while ((this.pos < this.end) && (this.buf[this.pos] >= '0') && (this.buf[this.pos] <= '9')) {
+			value = value * 10 + (this.buf[this.pos++] - '0');
+			digits++;
+		}
+		if (digits == 0) {
+			throw unexpected();
+		}
+		if ((this.pos < this.end) && ((this.buf[this.pos] == '.') || (this.buf[this.pos] == 'e') || (this.buf[this.pos] == 'E'))) {
+			this.pos = start;
+			skipValue();
+			return (long) Double.parseDouble(new String(this.buf, start, this.pos - start, StandardCharsets.ISO_8859_1));
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * @return The boolean, false for null
+	 */
+	private boolean readBoolean() throws ParseException
+	{
+		byte b = peek();
+		if (b == 't') {
+			expectLiteral("true");
+			return true;
+		}
+		expectLiteral((b == 'n') ? "null" : "false");
+		return false;
+	}
+
+	/**
+	 * Step over a value of any type, nested objects and arrays included
+	 */
+	private void skipValue() throws ParseException
+	{
+		int depth = 0;
+		do {
+			byte b = next();
+			if (b == '"') {
+				skipStringBody();
+			} else if ((b == '{') || (b == '[')) {
+				depth++;
+			} else if ((b == '}') || (b == ']')) {
+				if (--depth < 0) {
+					this.pos--;
+					throw unexpected();
+				}
+			} else if ((b == ',') || (b == ':') || isWhitespace(b)) {
+				if (depth == 0) {
+					this.pos--;
+					throw unexpected();
+				}
+			} else {
+				// Number or literal, runs until the next delimiter
+				while ((this.pos < this.end) && !isDelimiter(this.buf[this.pos])) {
+					this.pos++;
+				}
+			}
+		} while (depth > 0);
+	}
+
+	/**
+	 * Step past the closing quote of a string whose opening quote has been read
+	 */
+	private void skipStringBody() throws ParseException
+	{
+		while (true) {
+			byte b = next();
+			if (b == '"') {
+				return;
+			}
+			if (b == '\\') {
+				next();
+			}
+		}
+	}
+
+	private void expectLiteral(String literal) throws ParseException
+	{
+		for (int x = 0; x < literal.length(); x++) {
+			if (next() != literal.charAt(x)) {
+				this.pos--;
+				throw unexpected();
+			}
+		}
+	}
+
+	private void expect(char c) throws ParseException
+	{
+		if (next() != c) {
+			this.pos--;
+			throw unexpected();
+		}
+	}
+
+	private byte peek() throws ParseException
+	{
+		if (this.pos >= this.end) {
+			throw new ParseException(this.pos, ParseException.ERROR_UNEXPECTED_TOKEN, null);
+		}
+		return this.buf[this.pos];
+	}
+
+	private byte next() throws ParseException
+	{
+		byte b = peek();
+		this.pos++;
+		return b;
+	}
+
+	private void skipWhitespace()
+	{
+		while ((this.pos < this.end) && isWhitespace(this.buf[this.pos])) {
+			this.pos++;
+		}
+	}
+
+	private ParseException unexpected()
+	{
+		if (this.pos >= this.end) {
+			return new ParseException(this.pos, ParseException.ERROR_UNEXPECTED_TOKEN, null);
+		}
+		return new ParseException(this.pos, ParseException.ERROR_UNEXPECTED_CHAR, Character.valueOf((char) (this.buf[this.pos] & 0xff)));
+	}
+
+	private static boolean isWhitespace(byte b)
+	{
+		return (b == ' ') || (b == '\n') || (b == '\r') || (b == '\t');
+	}
+
+	private static boolean isDelimiter(byte b)
+	{
+		return (b == ',') || (b == '}') || (b == ']') || (b == ':') || isWhitespace(b);
+	}
+
+	private static byte[] ascii(String s)
+	{
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,469 @@
+package com.cffreedom.integrations.twilio;
+
+import java.io.IOException;
+
+import com.cffreedom.utils.Format;
+import com.cffreedom.utils.Utils;
+
+/**
+ * Precompiled equivalents of the CFTwilio.twiml*() builders. Every verb shape those
+ * methods can produce is compiled once into a TwiMLTemplate so a webhook only pays for
+ * escaping and copying its values instead of building and serializing a verb tree.
+ *
+ * Output is the same TwiML document as the CFTwilio builders (attribute order aside) except
+ * that element text and attribute values are XML escaped. Because of that the default input
+ * Redirect in twimlGetInput() takes afterInputUrl unescaped rather than adding "&amp;amp;" itself.
+ *
+ * Each method also has an overload that streams the document to a TwiMLWriter instead of
+ * returning it. Those write numbers as digits and values straight from the arguments, so
+ * they don't allocate beyond what Format.phoneNumber() needs for a forwarding number. They
+ * leave flushing the writer to the caller.
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ * 2026-10-17 	MarkJacobsen.net 	Added TwiMLWriter overloads
+ * 2026-10-17 	MarkJacobsen.net 	TwiMLWriter overloads no longer build value arrays or Strings
+ */
+public class CFTwiMLTemplates
+{
+	private static final String DEFAULT_RECORD_PROMPT = "Please make your recording and press any key when finished.";
+	private static final String DEFAULT_VM_PROMPT = "Please leave a message.";
+	/** What the default input Redirect adds to afterInputUrl, already escaped */
+	private static final String DIGITS_PARAM = "&amp;Digits=";
+
+	private static final TwiMLTemplate EMPTY = TwiMLTemplate.compileResponse("");
+	private static final TwiMLTemplate REJECT = TwiMLTemplate.compileResponse("<Reject></Reject>");
+	private static final TwiMLTemplate SAY_AND_HANG_UP = TwiMLTemplate.compileResponse("<Say>{0}</Say><Hangup></Hangup>");
+	private static final TwiMLTemplate SMS = TwiMLTemplate.compileResponse("<Sms>{0}</Sms>");
+	private static final TwiMLTemplate DIAL = TwiMLTemplate.compileResponse("<Dial>{0}</Dial>");
+	private static final TwiMLTemplate RECORD = TwiMLTemplate.compileResponse(
+			"<Say>{0}</Say><Record action=\"{1}\" playBeep=\"true\" transcribe=\"false\" finishOnKey=\"1234567890*#\"></Record>");
+
+	// twimlGetInput() shapes: 1 = Play instead of Say, 2 = numDigits, 4 = default input Redirect instead of Hangup
+	private static final int INPUT_PLAY = 1;
+	private static final int INPUT_DIGITS = 2;
+	private static final int INPUT_REDIRECT = 4;
+	private static final TwiMLTemplate[] GET_INPUT = new TwiMLTemplate[8];
+
+	// twimlForwardWithVoicemail() shapes: 1 = Dial, 2 = Play instead of Say
+	private static final int FWD_DIAL = 1;
+	private static final int FWD_PLAY = 2;
+	private static final TwiMLTemplate[] FORWARD_WITH_VM = new TwiMLTemplate[4];
+
+	// twiml() shapes: msgKind * 6 + forward * 3 + vmKind where kinds are 0 = nothing, 1 = Play, 2 = Say
+	private static final TwiMLTemplate[] GENERIC = new TwiMLTemplate[18];
+
+	static {
+		for (int shape = 0; shape < GET_INPUT.length; shape++) {
+			StringBuilder sb = new StringBuilder("<Gather action=\"{0}\" method=\"GET\" timeout=\"{1}\"");
+			if ((shape & INPUT_DIGITS) != 0) { sb.append(" numDigits=\"{2}\""); }
+			sb.append('>');
+			sb.append(((shape & INPUT_PLAY) != 0) ? "<Play>{3}</Play>" : "<Say>{3}</Say>");
+			sb.append("</Gather>");
+			sb.append(((shape & INPUT_REDIRECT) != 0) ? "<Redirect method=\"POST\">{4}</Redirect>" : "<Hangup></Hangup>");
+			GET_INPUT[shape] = TwiMLTemplate.compileResponse(sb.toString());
+		}
+
+		for (int shape = 0; shape < FORWARD_WITH_VM.length; shape++) {
+			StringBuilder sb = new StringBuilder();
+			if ((shape & FWD_DIAL) != 0) { sb.append("<Dial timeout=\"{0}\" timeLimit=\"{1}\">{2}</Dial>"); }
+			sb.append(((shape & FWD_PLAY) != 0) ? "<Play>{3}</Play>" : "<Say>{3}</Say>");
+			sb.append("<Record action=\"{4}\" transcribe=\"false\"></Record>");
+			FORWARD_WITH_VM[shape] = TwiMLTemplate.compileResponse(sb.toString());
+		}
+
+		for (int shape = 0; shape < GENERIC.length; shape++) {
+			StringBuilder sb = new StringBuilder();
+			appendMsg(sb, shape / 6, "{0}");
+			if (((shape / 3) % 2) != 0) { sb.append("<Dial timeout=\"{1}\" timeLimit=\"3600\">{2}</Dial>"); }
+			appendMsg(sb, shape % 3, "{3}");
+			sb.append("<Record action=\"{4}\" maxLength=\"{5}\" transcribe=\"{6}\"></Record>");
+			GENERIC[shape] = TwiMLTemplate.compileResponse(sb.toString());
+		}
+	}
+
+	private static void appendMsg(StringBuilder sb, int kind, String slot)
+	{
+		if (kind == 1) {
+			sb.append("<Play>").append(slot).append("</Play>");
+		} else if (kind == 2) {
+			sb.append("<Say>").append(slot).append("</Say>");
+		}
+	}
+
+	private static int msgKind(String mp3Url, String tts)
+	{
+		if (Utils.hasLength(mp3Url)) { return 1; }
+		if (Utils.hasLength(tts)) { return 2; }
+		return 0;
+	}
+
+	/**
+	 * Stream a template whose slots are {0} and {1} without building a values array
+	 */
+	private static void stream(TwiMLWriter out, TwiMLTemplate template, String value0, String value1) throws IOException
+	{
+		int holes = template.getHoleCount();
+		for (int x = 0; x < holes; x++) {
+			template.writeSegment(out, x);
+			value(out, (template.getSlot(x) == 0) ? value0 : value1);
+		}
+		template.writeSegment(out, holes);
+	}
+
+	private static void value(TwiMLWriter out, String value) throws IOException
+	{
+		if (value != null) {
+			out.escape(value);
+		}
+	}
+
+	/**
+	 * @return TWIML XML, same as CFTwilio.twimlEmptyResponse()
+	 */
+	public static String twimlEmptyResponse() {
+		return EMPTY.render();
+	}
+
+	/**
+	 * Stream twimlEmptyResponse()
+	 */
+	public static void twimlEmptyResponse(TwiMLWriter out) throws IOException {
+		stream(out, EMPTY, null, null);
+	}
+
+	/**
+	 * @return TWIML XML, same as CFTwilio.twimlRejectCall()
+	 */
+	public static String twimlRejectCall() {
+		return REJECT.render();
+	}
+
+	/**
+	 * Stream twimlRejectCall()
+	 */
+	public static void twimlRejectCall(TwiMLWriter out) throws IOException {
+		stream(out, REJECT, null, null);
+	}
+
+	/**
+	 * Say something and then hang up / disconnect the call
+	 * @param msg
+	 * @return TWIML XML
+	 */
+	public static String twimlSayAndHangUp(String msg) {
+		return SAY_AND_HANG_UP.render(msg);
+	}
+
+	/**
+	 * Stream twimlSayAndHangUp()
+	 */
+	public static void twimlSayAndHangUp(TwiMLWriter out, String msg) throws IOException {
+		stream(out, SAY_AND_HANG_UP, msg, null);
+	}
+
+	/**
+	 * Send an SMS to the caller
+	 * @param msg
+	 * @return TWIML XML
+	 */
+	public static String twimlSms(String msg) {
+		return SMS.render(msg);
+	}
+
+	/**
+	 * Stream twimlSms()
+	 */
+	public static void twimlSms(TwiMLWriter out, String msg) throws IOException {
+		stream(out, SMS, msg, null);
+	}
+
+	/**
+	 * Place a call from within an existing call
+	 * @param number Number to dial
+	 * @return TWIML XML
+	 */
+	public static String twimlDial(String number) {
+		return DIAL.render(number);
+	}
+
+	/**
+	 * Stream twimlDial()
+	 */
+	public static void twimlDial(TwiMLWriter out, String number) throws IOException {
+		stream(out, DIAL, number, null);
+	}
+
+	/**
+	 * Prompt the user to make a recording and press any key
+	 * @param processUrl
+	 * @param prompt
+	 * @return TWIML XML
+	 */
+	public static String twimlRecord(String processUrl, String prompt) {
+		if (!Utils.hasLength(prompt)) { prompt = DEFAULT_RECORD_PROMPT; }
+		return RECORD.render(prompt, processUrl);
+	}
+
+	/**
+	 * Stream twimlRecord()
+	 */
+	public static void twimlRecord(TwiMLWriter out, String processUrl, String prompt) throws IOException {
+		if (!Utils.hasLength(prompt)) { prompt = DEFAULT_RECORD_PROMPT; }
+		stream(out, RECORD, prompt, processUrl);
+	}
+
+	/**
+	 * Use for menus. See CFTwilio.twimlGetInput()
+	 * @param msgMp3Url URL of recording to play to to the caller
+	 * @param tts If there is no msgMp3Url, this text will be read to the caller
+	 * @param digits Number of digits we're expecting the caller to enter (<= 0 for arbitrary)
+	 * @param timeout How long to wait in seconds
+	 * @param afterInputUrl URL Twilio should call after getting input (not XML escaped)
+	 * @param defaultInput If no input is entered, use this. If < 0, and no input then hangup.
+	 * @return TWIML XML
+	 */
+	public static String twimlGetInput(String msgMp3Url, String tts, int digits, int timeout, String afterInputUrl, int defaultInput) {
+		return getInput(msgMp3Url, tts, digits, timeout, afterInputUrl, defaultInput).render();
+	}
+
+	/**
+	 * Stream twimlGetInput()
+	 */
+	public static void twimlGetInput(TwiMLWriter out, String msgMp3Url, String tts, int digits, int timeout, String afterInputUrl, int defaultInput) throws IOException {
+		TwiMLTemplate template = GET_INPUT[inputShape(msgMp3Url, digits, defaultInput)];
+		String msg = Utils.hasLength(msgMp3Url) ? msgMp3Url : tts;
+		int holes = template.getHoleCount();
+		for (int x = 0; x < holes; x++) {
+			template.writeSegment(out, x);
+			switch (template.getSlot(x)) {
+				case 0: value(out, afterInputUrl); break;
+				case 1: out.number(timeout); break;
+				case 2: out.number(digits); break;
+				case 3: value(out, msg); break;
+				default:
+					out.escape(String.valueOf(afterInputUrl));
+					out.literal(DIGITS_PARAM);
+					out.number(defaultInput);
+			}
+		}
+		template.writeSegment(out, holes);
+	}
+
+	private static int inputShape(String msgMp3Url, int digits, int defaultInput) {
+		int shape = 0;
+		if (Utils.hasLength(msgMp3Url)) { shape |= INPUT_PLAY; }
+		if (digits > 0) { shape |= INPUT_DIGITS; }
+		if (defaultInput >= 0) { shape |= INPUT_REDIRECT; }
+		return shape;
+	}
+
+	private static Prepared getInput(String msgMp3Url, String tts, int digits, int timeout, String afterInputUrl, int defaultInput) {
+		return new Prepared(GET_INPUT[inputShape(msgMp3Url, digits, defaultInput)],
+				afterInputUrl,
+				Integer.toString(timeout),
+				(digits > 0) ? Integer.toString(digits) : null,
+				Utils.hasLength(msgMp3Url) ? msgMp3Url : tts,
+				(defaultInput >= 0) ? afterInputUrl + "&Digits=" + defaultInput : null);
+	}
+
+	/**
+	 * See CFTwilio.twimlForwardWithVoicemail()
+	 * @param number Phone number to forward to
+	 * @param msgMp3Url
+	 * @param tts If there is no msgMp3Url, this text will be read to the caller prior to them leaving a voicemail
+	 * @param voicemailHandlerUrl
+	 * @param secondsForForwarding Defaults to 15 if <= 0
+	 * @param secondsToRecord Defaults to 3600 if <= 0
+	 * @return TWIML XML
+	 */
+	public static String twimlForwardWithVoicemail(String number, String msgMp3Url, String tts, String voicemailHandlerUrl, int secondsForForwarding, int secondsToRecord) {
+		return forwardWithVoicemail(number, msgMp3Url, tts, voicemailHandlerUrl, secondsForForwarding, secondsToRecord).render();
+	}
+
+	/**
+	 * Stream twimlForwardWithVoicemail()
+	 */
+	public static void twimlForwardWithVoicemail(TwiMLWriter out, String number, String msgMp3Url, String tts, String voicemailHandlerUrl, int secondsForForwarding, int secondsToRecord) throws IOException {
+		TwiMLTemplate template = FORWARD_WITH_VM[forwardShape(number, msgMp3Url)];
+		int holes = template.getHoleCount();
+		for (int x = 0; x < holes; x++) {
+			template.writeSegment(out, x);
+			switch (template.getSlot(x)) {
+				case 0: out.number((secondsForForwarding <= 0) ? 15 : secondsForForwarding); break;
+				case 1: out.number((secondsToRecord <= 0) ? 3600 : secondsToRecord); break;
+				case 2: value(out, Format.phoneNumber(Format.PHONE_INT, number)); break;
+				case 3: value(out, forwardMsg(msgMp3Url, tts)); break;
+				default: value(out, voicemailHandlerUrl);
+			}
+		}
+		template.writeSegment(out, holes);
+	}
+
+	private static int forwardShape(String number, String msgMp3Url) {
+		int shape = 0;
+		if (Utils.hasLength(number)) { shape |= FWD_DIAL; }
+		if (Utils.hasLength(msgMp3Url)) { shape |= FWD_PLAY; }
+		return shape;
+	}
+
+	private static String forwardMsg(String msgMp3Url, String tts) {
+		if (Utils.hasLength(msgMp3Url)) { return msgMp3Url; }
+		return Utils.hasLength(tts) ? tts : DEFAULT_VM_PROMPT;
+	}
+
+	private static Prepared forwardWithVoicemail(String number, String msgMp3Url, String tts, String voicemailHandlerUrl, int secondsForForwarding, int secondsToRecord) {
+		if (secondsForForwarding <= 0) { secondsForForwarding = 15; }
+		if (secondsToRecord <= 0) { secondsToRecord = 3600; }
+		int shape = forwardShape(number, msgMp3Url);
+		if (Utils.hasLength(number)) {
+			number = Format.phoneNumber(Format.PHONE_INT, number);
+		}
+		return new Prepared(FORWARD_WITH_VM[shape], Integer.toString(secondsForForwarding), Integer.toString(secondsToRecord), number, forwardMsg(msgMp3Url, tts), voicemailHandlerUrl);
+	}
+
+	/**
+	 * Just take a voicemail
+	 * @param vmMsgMp3Url
+	 * @param vmMsgTTS
+	 * @param vmSecondsToRecord
+	 * @param vmHandlerUrl
+	 * @param transcribe
+	 * @return TWIML XML
+	 */
+	public static String twimlVoicemailOnly(String vmMsgMp3Url, String vmMsgTTS, int vmSecondsToRecord, String vmHandlerUrl, boolean transcribe) {
+		return twiml(null, null, null, -1, vmMsgMp3Url, vmMsgTTS, vmSecondsToRecord, vmHandlerUrl, transcribe);
+	}
+
+	/**
+	 * Stream twimlVoicemailOnly()
+	 */
+	public static void twimlVoicemailOnly(TwiMLWriter out, String vmMsgMp3Url, String vmMsgTTS, int vmSecondsToRecord, String vmHandlerUrl, boolean transcribe) throws IOException {
+		twiml(out, null, null, null, -1, vmMsgMp3Url, vmMsgTTS, vmSecondsToRecord, vmHandlerUrl, transcribe);
+	}
+
+	/**
+	 * Forward the caller (and that's it)
+	 * @param forwardingNumber
+	 * @param forwardingSeconds
+	 * @return TWIML XML
+	 */
+	public static String twimlForwardOnly(String forwardingNumber, int forwardingSeconds) {
+		if (forwardingSeconds <= 0) { forwardingSeconds = 15; }
+		return twiml(null, null, forwardingNumber, forwardingSeconds, null, null, -1, null, false);
+	}
+
+	/**
+	 * Stream twimlForwardOnly()
+	 */
+	public static void twimlForwardOnly(TwiMLWriter out, String forwardingNumber, int forwardingSeconds) throws IOException {
+		if (forwardingSeconds <= 0) { forwardingSeconds = 15; }
+		twiml(out, null, null, forwardingNumber, forwardingSeconds, null, null, -1, null, false);
+	}
+
+	/**
+	 * Generic method for handling of just about any type of call. See CFTwilio.twiml()
+	 * @param msgMp3Url Message to immediately play to the caller
+	 * @param msgTTS If no msgMp3Url and this has a value, read this text to the caller immidiately
+	 * @param forwardingNumber After any immediate message, forward to this phone number if applicable
+	 * @param forwardingSeconds If forwarding, forward for this many seconds
+	 * @param vmMsgMp3Url Play this message to the caller before taking a VM if a value is provided
+	 * @param vmMsgTTS Read this text to the caller if no Mp3 URL is provided.
+	 * @param vmSecondsToRecord Record up to this many seconds of voicemail
+	 * @param vmHandlerUrl URL to redirect to for handling of any voicemail message
+	 * @param transcribe true/false for if you want to transcribe
+	 * @return TWIML XML
+	 */
+	public static String twiml(String msgMp3Url, String msgTTS, String forwardingNumber, int forwardingSeconds,
+								String vmMsgMp3Url, String vmMsgTTS, int vmSecondsToRecord, String vmHandlerUrl,
+								boolean transcribe) {
+		return generic(msgMp3Url, msgTTS, forwardingNumber, forwardingSeconds, vmMsgMp3Url, vmMsgTTS, vmSecondsToRecord, vmHandlerUrl, transcribe).render();
+	}
+
+	/**
+	 * Stream twiml()
+	 */
+	public static void twiml(TwiMLWriter out, String msgMp3Url, String msgTTS, String forwardingNumber, int forwardingSeconds,
+								String vmMsgMp3Url, String vmMsgTTS, int vmSecondsToRecord, String vmHandlerUrl,
+								boolean transcribe) throws IOException {
+		int msgKind = msgKind(msgMp3Url, msgTTS);
+		int vmKind = msgKind(vmMsgMp3Url, vmMsgTTS);
+		int forward = Utils.hasLength(forwardingNumber) ? 1 : 0;
+		TwiMLTemplate template = GENERIC[msgKind * 6 + forward * 3 + vmKind];
+		int holes = template.getHoleCount();
+		for (int x = 0; x < holes; x++) {
+			template.writeSegment(out, x);
+			switch (template.getSlot(x)) {
+				case 0: value(out, (msgKind == 1) ? msgMp3Url : msgTTS); break;
+				case 1: out.number((forwardingSeconds <= 0) ? 15 : forwardingSeconds); break;
+				case 2: value(out, Format.phoneNumber(Format.PHONE_INT, forwardingNumber)); break;
+				case 3: value(out, (vmKind == 1) ? vmMsgMp3Url : vmMsgTTS); break;
+				case 4: value(out, vmHandlerUrl); break;
+				case 5: out.number((vmSecondsToRecord <= 0) ? 3600 : vmSecondsToRecord); break;
+				default: out.literal(transcribe ? "true" : "false");
+			}
+		}
+		template.writeSegment(out, holes);
+	}
+
+	private static Prepared generic(String msgMp3Url, String msgTTS, String forwardingNumber, int forwardingSeconds,
+								String vmMsgMp3Url, String vmMsgTTS, int vmSecondsToRecord, String vmHandlerUrl,
+								boolean transcribe) {
+		if (vmSecondsToRecord <= 0) { vmSecondsToRecord = 3600; }
+
+		int msgKind = msgKind(msgMp3Url, msgTTS);
+		int vmKind = msgKind(vmMsgMp3Url, vmMsgTTS);
+		int forward = 0;
+		if (Utils.hasLength(forwardingNumber)) {
+			forward = 1;
+			if (forwardingSeconds <= 0) { forwardingSeconds = 15; }
+			forwardingNumber = Format.phoneNumber(Format.PHONE_INT, forwardingNumber);
+		}
+
+		return new Prepared(GENERIC[msgKind * 6 + forward * 3 + vmKind],
+				(msgKind == 1) ? msgMp3Url : msgTTS,
+				Integer.toString(forwardingSeconds),
+				forwardingNumber,
+				(vmKind == 1) ? vmMsgMp3Url : vmMsgTTS,
+				vmHandlerUrl,
+				Integer.toString(vmSecondsToRecord),
+				Boolean.toString(transcribe));
+	}
+
+	/**
+	 * A template picked for the arguments plus its values, so the String and streaming
+	 * overloads share the argument handling
+	 */
+	private static class Prepared
+	{
+		private final TwiMLTemplate template;
+		private final String[] values;
+
+		Prepared(TwiMLTemplate template, String... values)
+		{
+			this.template = template;
+			this.values = values;
+		}
+
+		String render()
+		{
+			return this.template.render(this.values);
+		}
+
+		void render(TwiMLWriter out) throws IOException
+		{
+			this.template.render(out, this.values);
+		}
+	}
+}
@@ -2,6 +2,7 @@ package com.cffreedom.integrations.twilio;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -61,26 +62,51 @@ import com.twilio.sdk.verbs.Say;
  * 2013-09-30 	markjacobsen.net 	Added sendMms(), twimlRejectCall(), and twimlSayAndHangUp()
  * 2013-10-28 	MarkJacobsen.net	Added getAvailableTollFreeNumbers(), getAvailableLocalNumbers(), and getAvailableNumbers()
  * 2013-12-13 	MarkJacobsen.net 	Added addPhoneNumber()
+ * 2026-10-17 	MarkJacobsen.net 	Added CFTwilio(accountSID, authToken, endpoint)
+ * 2026-10-17 	MarkJacobsen.net 	Added getIncomingPhoneNumbers()
+ * 2026-10-17 	MarkJacobsen.net 	Split getAvailablePhoneNumbers() and toPhoneNumber() out of getAvailableNumbers() for CFTwilioNumberSearch
+ * 2026-10-17 	MarkJacobsen.net 	TwilioRestClient and Account now come from the shared TwilioClientRegistry
+ * 2026-10-17 	MarkJacobsen.net 	Added makeCall() with a status callback URL
+ * 2026-10-17 	MarkJacobsen.net 	Added setSuppressionList(). sendSms(), sendTextMsg() and makeCall() skip suppressed numbers
+ * 2026-10-17 	MarkJacobsen.net 	Added isTransient() for callers that decide whether to retry
+ * 2026-10-17 	MarkJacobsen.net 	TwilioRestClient and Account come from one registry lookup
  */
 public class CFTwilio
 {
 	private static final Logger logger = LoggerFactory.getLogger(CFTwilio.class);
+	/** Returned instead of a SID when the recipient is on the suppression list */
+	public static final String SUPPRESSED = "Suppressed";
+	private static final int ERROR_TOO_MANY_REQUESTS = 20429;
+	private static final int ERROR_INTERNAL = 20500;
+	private static final int ERROR_UNAVAILABLE = 20503;
 	private String accountSID = null;
 	private String authToken = null;
 	private TwilioRestClient restClient = null;
 	private Account account = null;
+	private volatile CFTwilioSuppressionList suppressionList = null;
 
 	public CFTwilio(String accountSID, String authToken)
+	{
+		this(accountSID, authToken, null);
+	}
+	
+	/**
+	 * @param accountSID
+	 * @param authToken
+	 * @param endpoint Base URL of the Twilio API (ex: http://localhost:8080). Null for the default https://api.twilio.com
+	 * @throws IllegalArgumentException If accountSID or authToken is missing
+	 */
+	public CFTwilio(String accountSID, String authToken, String endpoint)
 	{
 		logger.debug("Initializing account: {}", accountSID);
 		this.accountSID = accountSID;
 		this.authToken = authToken;
-		logger.trace("Getting TwilioRestClient");
-		this.restClient = new TwilioRestClient(this.accountSID, this.authToken);
-
-		// Get the main account (The one we used to authenticate the client)
-		logger.trace("Getting Account from TwilioRestClient");
-		this.account = this.restClient.getAccount();
+		// One lookup so the client and the main account (the one we used to authenticate the
+		// client) come from the same auth token even if it is being rotated
+		logger.trace("Getting shared TwilioRestClient and Account");
+		TwilioClientRegistry.Entry entry = TwilioClientRegistry.getInstance().getEntry(this.accountSID, this.authToken, endpoint);
+		this.restClient = entry.getClient();
+		this.account = entry.getAccount();
 		logger.debug("Initialized");
 	}
 
@@ -88,6 +114,29 @@ public class CFTwilio
 	{
 		return this.account;
 	}
+
+	/**
+	 * @param suppressionList Numbers to never text or call (null for none)
+	 */
+	public void setSuppressionList(CFTwilioSuppressionList suppressionList)
+	{
+		this.suppressionList = suppressionList;
+	}
+
+	public CFTwilioSuppressionList getSuppressionList()
+	{
+		return this.suppressionList;
+	}
+
+	private boolean isSuppressed(String to)
+	{
+		CFTwilioSuppressionList list = this.suppressionList;
+		if ((list != null) && list.contains(to)) {
+			logger.debug("{} is suppressed. Not sending anything.", to);
+			return true;
+		}
+		return false;
+	}
 	
 	public ArrayList<PhoneNumber> getAvailableTollFreeNumbers(String contains)
 	{
@@ -117,19 +166,65 @@ public class CFTwilio
 			params.put("Contains", contains);
 		}
 		
-		AvailablePhoneNumberList numbers = this.getAccount().getAvailablePhoneNumbers(params, isoCountry, type);
+		AvailablePhoneNumberList numbers = this.getAvailablePhoneNumbers(params, isoCountry, type);
 		
 		for (AvailablePhoneNumber num : numbers.getPageData())
 		{
-			PhoneNumber number = new PhoneNumber();
-			number.setDisplay(num.getFriendlyName());
-			number.setCode(num.getPhoneNumber());
-			number.setIsoCountry(num.getIsoCountry());
-			results.add(number);
+			results.add(toPhoneNumber(num));
 		}
 		
 		return results;
 	}
+	
+	/**
+	 * Raw (lazily paged) list of available numbers
+	 * @param params Search criteria like "Contains" or "AreaCode"
+	 * @param isoCountry
+	 * @param type One of "Local" or "TollFree"
+	 * @return SDK list that fetches further pages while being iterated
+	 */
+	AvailablePhoneNumberList getAvailablePhoneNumbers(Map<String, String> params, String isoCountry, String type)
+	{
+		return this.getAccount().getAvailablePhoneNumbers(params, isoCountry, type);
+	}
+	
+	static PhoneNumber toPhoneNumber(AvailablePhoneNumber num)
+	{
+		PhoneNumber number = new PhoneNumber();
+		number.setDisplay(num.getFriendlyName());
+		number.setCode(num.getPhoneNumber());
+		number.setIsoCountry(num.getIsoCountry());
+		return number;
+	}
+	
+	/**
+	 * @param cause Cause of an InfrastructureException from this class
+	 * @return true if the same request may work later: Twilio was rate limiting or had a
+	 * server error, or it never answered at all. false if Twilio refused the request itself.
+	 */
+	static boolean isTransient(Throwable cause)
+	{
+		if (!(cause instanceof TwilioRestException)) {
+			return true;
+		}
+		int code = ((TwilioRestException) cause).getErrorCode();
+		return (code == ERROR_TOO_MANY_REQUESTS) || (code == ERROR_INTERNAL) || (code == ERROR_UNAVAILABLE) || (code == 0);
+	}
+	
+	/**
+	 * Get the phone numbers owned by the account
+	 * @return Map of phone number (ex: +15555550100) to its SID, in the order Twilio returns them
+	 */
+	public LinkedHashMap<String, String> getIncomingPhoneNumbers()
+	{
+		LinkedHashMap<String, String> results = new LinkedHashMap<String, String>();
+		for (IncomingPhoneNumber num : this.getAccount().getIncomingPhoneNumbers())
+		{
+			results.put(num.getPhoneNumber(), num.getSid());
+		}
+		logger.debug("Found {} incoming phone numbers", results.size());
+		return results;
+	}
 
 	/**
 	 * Make/initiate an outbound call
@@ -140,6 +235,22 @@ public class CFTwilio
 	 * @throws InfrastructureException
 	 */
 	public String makeCall(String systemNumber, String to, String afterConnectedUrl) throws InfrastructureException {
+		return this.makeCall(systemNumber, to, afterConnectedUrl, null);
+	}
+
+	/**
+	 * Make/initiate an outbound call
+	 * @param systemNumber
+	 * @param to
+	 * @param afterConnectedUrl URL Twilio should call after the call is connected
+	 * @param statusCallbackUrl URL Twilio should post to when the call ends (null for none)
+	 * @return Call SID or SUPPRESSED
+	 * @throws InfrastructureException
+	 */
+	public String makeCall(String systemNumber, String to, String afterConnectedUrl, String statusCallbackUrl) throws InfrastructureException {
+		if (isSuppressed(to)) {
+			return SUPPRESSED;
+		}
 		logger.debug("Making call from {} to {} : {}", systemNumber, to, afterConnectedUrl);
 		
 		try {
@@ -148,6 +259,9 @@ public class CFTwilio
 			callParams.put("To", to);
 			callParams.put("From", systemNumber);
 			callParams.put("Url", afterConnectedUrl);
+			if (Utils.hasLength(statusCallbackUrl)) {
+				callParams.put("StatusCallback", statusCallbackUrl);
+			}
 			final Call call = callFactory.create(callParams);
 			return call.getSid();
 		} catch (TwilioRestException e) {
@@ -229,6 +343,8 @@ public class CFTwilio
 		if (Utils.hasLength(msg) == false) {
 			logger.warn("No text supplied. Not sending anything {}/{}", systemNumber, to);
 			retMsg = "Nothing to send";
+		} else if (isSuppressed(to)) {
+			retMsg = SUPPRESSED;
 		} else {
 			logger.debug("Sending SMS: {}/{}/{}", systemNumber, to, msg);
 			
@@ -254,7 +370,7 @@ public class CFTwilio
 	 * @param to
 	 * @param msg
 	 * @imageUrl
-	 * @return MMS SID
+	 * @return MMS SID or SUPPRESSED
 	 * @throws InfrastructureException
 	 */
 	public String sendTextMsg(String systemNumber, String to, String msg, String imageUrl) throws InfrastructureException {
@@ -264,6 +380,8 @@ public class CFTwilio
 		if (!Utils.hasLength(msg)) {
 			logger.warn("No text supplied. Not sending anything {}/{}", systemNumber, to);
 			retMsg = "Nothing to send";
+		} else if (isSuppressed(to)) {
+			retMsg = SUPPRESSED;
 		} else {
 			logger.debug("Sending text msg: {}/{}/{}/{}", systemNumber, to, msg, imageUrl);
 			
@@ -0,0 +1,416 @@
+package com.cffreedom.integrations.twilio;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In memory state for live calls keyed by CallSid, so multi step IVR flows (twimlGetInput()
+ * redirecting to afterInputUrl, twimlRecord() posting to processUrl, ...) can carry state
+ * from one webhook to the next without a database round trip.
+ *
+ * Sessions are split over lock stripes by CallSid. Each stripe is an access ordered map
+ * holding at most maxSessions / stripes sessions, so memory stays bounded. Sessions are
+ * dropped when the call ends (see callEnded() and statusCallbackHandler()), when they
+ * haven't been touched for the TTL, or (least recently used first) when a stripe is full.
+ * Expired sessions are cleared out as new ones are added, so there is no sweeper thread.
+ *
+ * Use handler() to wrap a SessionHandler for CFTwilioWebhookServer:
+ * <pre>
+ * server.route("/ivr/menu", sessions.handler(new CFTwilioCallSessions.SessionHandler() {
+ *     public void handle(TwilioWebhookRequest request, CallSession session, TwiMLWriter out) throws Exception {
+ *         session.setAttribute("department", request.getDigits());
+ *         CFTwiMLTemplates.twimlGetInput(out, null, "Enter your account number", 6, 10, "http://example.com/ivr/account", -1);
+ *     }
+ * }));
+ * server.route("/ivr/status", sessions.statusCallbackHandler());
+ * </pre>
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ */
+public class CFTwilioCallSessions
+{
+	private static final Logger logger = LoggerFactory.getLogger(CFTwilioCallSessions.class);
+	public static final int DEFAULT_MAX_SESSIONS = 100000;
+	public static final int DEFAULT_STRIPES = 64;
+	/** Twilio calls are limited to 4 hours, but a session is only kept that long idle if nobody ends it */
+	public static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+	/** CallStatus values Twilio sends once a call is over */
+	private static final String[] CALL_OVER = { "completed", "busy", "failed", "no-answer", "canceled" };
+
+	private final Stripe[] stripes;
+	private final int mask;
+	private final int stripeCapacity;
+	private final long ttlNanos;
+	private final LongSupplier clock;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder created = new LongAdder();
+	private final LongAdder ended = new LongAdder();
+	private final LongAdder expired = new LongAdder();
+	private final LongAdder evicted = new LongAdder();
+
+	/**
+	 * Writes the TwiML for one step of a call
+	 */
+	public static interface SessionHandler
+	{
+		/**
+		 * @param request Webhook Twilio made
+		 * @param session State for the call (created on the first step)
+		 * @param out Write the TwiML here
+		 * @throws Exception
+		 */
+		void handle(TwilioWebhookRequest request, CallSession session, TwiMLWriter out) throws Exception;
+	}
+
+	public CFTwilioCallSessions()
+	{
+		this(DEFAULT_MAX_SESSIONS, DEFAULT_STRIPES, DEFAULT_TTL_MILLIS);
+	}
+
+	/**
+	 * @param maxSessions Max sessions held at once
+	 * @param stripes Lock stripes (rounded up to a power of 2)
+	 * @param ttlMillis Drop a session after it hasn't been used for this long
+	 */
+	public CFTwilioCallSessions(int maxSessions, int stripes, long ttlMillis)
+	{
+		this(maxSessions, stripes, ttlMillis, new LongSupplier() {
+			public long getAsLong() {
+				return System.nanoTime();
+			}
+		});
+	}
+
+	CFTwilioCallSessions(int maxSessions, int stripes, long ttlMillis, LongSupplier clock)
+	{
+		if (maxSessions <= 0) { throw new IllegalArgumentException("maxSessions must be > 0"); }
+		if (stripes <= 0) { throw new IllegalArgumentException("stripes must be > 0"); }
+		int count = Integer.highestOneBit(stripes);
+		if (count < stripes) { count <<= 1; }
+		count = Math.min(count, Integer.highestOneBit(maxSessions));
+		this.stripes = new Stripe[count];
+		for (int x = 0; x < count; x++) {
+			this.stripes[x] = new Stripe();
+		}
+		this.mask = count - 1;
+		this.stripeCapacity = maxSessions / count;
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		this.clock = clock;
+	}
+
+	/**
+	 * @param callSid
+	 * @return Session for the call, created if there isn't a live one
+	 */
+	public CallSession getSession(String callSid)
+	{
+		if (callSid == null) { throw new IllegalArgumentException("callSid is required"); }
+		Stripe stripe = stripe(callSid);
+		long now = this.clock.getAsLong();
+		synchronized (stripe) {
+			CallSession session = stripe.sessions.get(callSid);
+			if ((session != null) && !isExpired(session, now)) {
+				this.hits.increment();
+				session.lastAccess = now;
+				return session;
+			}
+			if (session != null) {
+				stripe.sessions.remove(callSid);
+				this.expired.increment();
+			}
+			trim(stripe, now);
+			session = new CallSession(callSid, now);
+			stripe.sessions.put(callSid, session);
+			this.created.increment();
+			return session;
+		}
+	}
+
+	/**
+	 * @param callSid
+	 * @return Live session for the call or null
+	 */
+	public CallSession getIfPresent(String callSid)
+	{
+		Stripe stripe = stripe(callSid);
+		long now = this.clock.getAsLong();
+		synchronized (stripe) {
+			CallSession session = stripe.sessions.get(callSid);
+			if (session == null) {
+				return null;
+			}
+			if (isExpired(session, now)) {
+				stripe.sessions.remove(callSid);
+				this.expired.increment();
+				return null;
+			}
+			this.hits.increment();
+			session.lastAccess = now;
+			return session;
+		}
+	}
+
+	/**
+	 * Drop the session for a call that is over
+	 * @param callSid
+	 * @return The session that was dropped or null if there wasn't one
+	 */
+	public CallSession callEnded(String callSid)
+	{
+		Stripe stripe = stripe(callSid);
+		CallSession session;
+		synchronized (stripe) {
+			session = stripe.sessions.remove(callSid);
+		}
+		if (session != null) {
+			this.ended.increment();
+			logger.trace("Ended session for {}", callSid);
+		}
+		return session;
+	}
+
+	/**
+	 * @param callStatus CallStatus Twilio sent
+	 * @return true if the call is over
+	 */
+	public static boolean isCallOver(String callStatus)
+	{
+		for (String status : CALL_OVER) {
+			if (status.equals(callStatus)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Wrap a step of an IVR flow for CFTwilioWebhookServer.route(). The session for the
+	 * request's CallSid is passed to the step, and is dropped if the request says the
+	 * call is already over.
+	 * @param step
+	 * @return Handler
+	 */
+	public CFTwilioWebhookServer.Handler handler(final SessionHandler step)
+	{
+		return new CFTwilioWebhookServer.Handler() {
+			public void handle(TwilioWebhookRequest request, TwiMLWriter out) throws Exception {
+				String callSid = request.getCallSid();
+				if (callSid == null) {
+					throw new IllegalArgumentException("No CallSid in request to " + request.getPath());
+				}
+				step.handle(request, getSession(callSid), out);
+				if (isCallOver(request.getParameter("CallStatus"))) {
+					callEnded(callSid);
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return Handler for the calls' StatusCallback URL that drops sessions when calls end
+	 */
+	public CFTwilioWebhookServer.Handler statusCallbackHandler()
+	{
+		return new CFTwilioWebhookServer.Handler() {
+			public void handle(TwilioWebhookRequest request, TwiMLWriter out) {
+				String callSid = request.getCallSid();
+				if ((callSid != null) && isCallOver(request.getParameter("CallStatus"))) {
+					callEnded(callSid);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Drop every expired session now. Expired sessions are also dropped as new ones are added.
+	 * @return Sessions dropped
+	 */
+	public int evictExpired()
+	{
+		long now = this.clock.getAsLong();
+		int count = 0;
+		for (Stripe stripe : this.stripes) {
+			synchronized (stripe) {
+				count += trim(stripe, now);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return Sessions held (including any that expired but haven't been cleared out yet)
+	 */
+	public int size()
+	{
+		int size = 0;
+		for (Stripe stripe : this.stripes) {
+			synchronized (stripe) {
+				size += stripe.sessions.size();
+			}
+		}
+		return size;
+	}
+
+	public int getMaxSessions() { return this.stripeCapacity * this.stripes.length; }
+	/** @return Lookups that found a live session */
+	public long getHitCount() { return this.hits.sum(); }
+	public long getCreatedCount() { return this.created.sum(); }
+	/** @return Sessions dropped because their call ended */
+	public long getEndedCount() { return this.ended.sum(); }
+	/** @return Sessions dropped because they weren't used within the TTL */
+	public long getExpiredCount() { return this.expired.sum(); }
+	/** @return Sessions dropped to make room */
+	public long getEvictedCount() { return this.evicted.sum(); }
+
+	@Override
+	public String toString()
+	{
+		return "size=" + size() + " created=" + getCreatedCount() + " hits=" + getHitCount() + " ended=" + getEndedCount() + " expired=" + getExpiredCount() + " evicted=" + getEvictedCount();
+	}
+
+	private Stripe stripe(String callSid)
+	{
+		int h = callSid.hashCode();
+		return this.stripes[(h ^ (h >>> 16)) & this.mask];
+	}
+
+	private boolean isExpired(CallSession session, long now)
+	{
+		return now - session.lastAccess > this.ttlNanos;
+	}
+
+	/**
+	 * Drop expired sessions from the least recently used end of the stripe, then the least
+	 * recently used live ones until there is room for one more. Hold the stripe's lock.
+	 * @return Sessions dropped
+	 */
+	private int trim(Stripe stripe, long now)
+	{
+		int count = 0;
+		Iterator<CallSession> it = stripe.sessions.values().iterator();
+		while (it.hasNext()) {
+			CallSession session = it.next();
+			if (isExpired(session, now)) {
+				this.expired.increment();
+			} else if (stripe.sessions.size() >= this.stripeCapacity) {
+				this.evicted.increment();
+				logger.debug("Evicting session for {} to make room", session.getCallSid());
+			} else {
+				break;
+			}
+			it.remove();
+			count++;
+		}
+		return count;
+	}
+
+	private static class Stripe
+	{
+		private final LinkedHashMap<String, CallSession> sessions = new LinkedHashMap<String, CallSession>(16, 0.75f, true);
+	}
+
+	/**
+	 * State for one call. Attributes can be read and written from any thread.
+	 */
+	public static class CallSession
+	{
+		private final String callSid;
+		private volatile long lastAccess;
+		private final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+
+		CallSession(String callSid, long now)
+		{
+			this.callSid = callSid;
+			this.lastAccess = now;
+		}
+
+		public String getCallSid() { return this.callSid; }
+
+		/**
+		 * @param name
+		 * @return Value or null if it isn't set
+		 */
+		public Object getAttribute(String name)
+		{
+			return this.attributes.get(name);
+		}
+
+		/**
+		 * @param name
+		 * @return Value as a String or null if it isn't set
+		 */
+		public String getString(String name)
+		{
+			Object value = this.attributes.get(name);
+			return (value == null) ? null : value.toString();
+		}
+
+		/**
+		 * @param name
+		 * @param value null removes the attribute
+		 */
+		public void setAttribute(String name, Object value)
+		{
+			if (value == null) {
+				this.attributes.remove(name);
+			} else {
+				this.attributes.put(name, value);
+			}
+		}
+
+		/**
+		 * Add to a counter attribute (ex: failed PIN attempts)
+		 * @param name
+		 * @param delta
+		 * @return New value
+		 */
+		public int increment(String name, int delta)
+		{
+			while (true) {
+				Object current = this.attributes.get(name);
+				if (current == null) {
+					if (this.attributes.putIfAbsent(name, delta) == null) {
+						return delta;
+					}
+				} else {
+					int value = (Integer) current + delta;
+					if (this.attributes.replace(name, current, value)) {
+						return value;
+					}
+				}
+			}
+		}
+
+		public Map<String, Object> getAttributes()
+		{
+			return this.attributes;
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.callSid + " " + this.attributes;
+		}
+	}
+}
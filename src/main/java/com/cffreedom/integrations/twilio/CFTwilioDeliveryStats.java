@@ -0,0 +1,212 @@
+package com.cffreedom.integrations.twilio;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cffreedom.exceptions.InfrastructureException;
+
+/**
+ * Aggregates message status callbacks into counts per sender + status and per error code.
+ * Counters are LongAdders (striped, so webhook threads never contend on a lock or a single
+ * CAS) and the per sender rows are created once and then only read from the map.
+ *
+ * Use accept() from the StatusCallback webhook handler or replay() to feed it a file of
+ * recorded callback bodies (one form encoded body per line). TwilioDeliveryStatsHarness (in
+ * the test sources) replays a file and prints the totals and callbacks/sec.
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ * 2026-10-17 	MarkJacobsen.net 	main() moved to TwilioDeliveryStatsHarness in the test sources
+ */
+public class CFTwilioDeliveryStats
+{
+	private static final Logger logger = LoggerFactory.getLogger(CFTwilioDeliveryStats.class);
+	/** Sender used for callbacks that don't say who sent the message */
+	public static final String UNKNOWN_SENDER = "unknown";
+
+	private final ConcurrentMap<String, LongAdder[]> bySender = new ConcurrentHashMap<String, LongAdder[]>();
+	private final ConcurrentMap<Integer, LongAdder> byErrorCode = new ConcurrentHashMap<Integer, LongAdder>();
+	private final LongAdder[] totals = newCounters();
+	private final LongAdder ignored = new LongAdder();
+
+	/**
+	 * Parse and count one callback body
+	 * @param body Form encoded body Twilio posted
+	 * @return The parsed callback or null if it wasn't a message status callback
+	 */
+	public TwilioStatusCallback accept(CharSequence body)
+	{
+		TwilioStatusCallback callback = TwilioStatusCallback.parse(body);
+		if (callback == null) {
+			this.ignored.increment();
+		} else {
+			record(callback);
+		}
+		return callback;
+	}
+
+	public void record(TwilioStatusCallback callback)
+	{
+		String sender = (callback.getFrom() == null) ? UNKNOWN_SENDER : callback.getFrom();
+		LongAdder[] counters = this.bySender.get(sender);
+		if (counters == null) {
+			LongAdder[] created = newCounters();
+			counters = this.bySender.putIfAbsent(sender, created);
+			if (counters == null) { counters = created; }
+		}
+		counters[callback.getStatus()].increment();
+		this.totals[callback.getStatus()].increment();
+
+		if (callback.getErrorCode() != 0) {
+			Integer code = callback.getErrorCode();
+			LongAdder errors = this.byErrorCode.get(code);
+			if (errors == null) {
+				LongAdder created = new LongAdder();
+				errors = this.byErrorCode.putIfAbsent(code, created);
+				if (errors == null) { errors = created; }
+			}
+			errors.increment();
+		}
+	}
+
+	/**
+	 * Feed every line of a file to accept()
+	 * @param file One form encoded callback body per line
+	 * @return Number of lines read
+	 * @throws InfrastructureException
+	 */
+	public long replay(File file) throws InfrastructureException
+	{
+		long lines = 0;
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), 64 * 1024);
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.length() > 0) {
+					accept(line);
+					lines++;
+				}
+			}
+		} catch (IOException e) {
+			throw new InfrastructureException("Error replaying status callbacks from " + file + ": " + e.getMessage(), e);
+		} finally {
+			if (reader != null) {
+				try { reader.close(); } catch (IOException e) { logger.warn("Error closing {}", file); }
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * @param status One of the TwilioStatusCallback.STATUS_ codes
+	 * @return Callbacks with that status from every sender
+	 */
+	public long getTotal(int status)
+	{
+		return this.totals[status].sum();
+	}
+
+	/**
+	 * @param sender
+	 * @param status One of the TwilioStatusCallback.STATUS_ codes
+	 * @return Callbacks with that status for messages from the sender
+	 */
+	public long getCount(String sender, int status)
+	{
+		LongAdder[] counters = this.bySender.get(sender);
+		return (counters == null) ? 0 : counters[status].sum();
+	}
+
+	/**
+	 * @return Counts of each status name for each sender
+	 */
+	public Map<String, Map<String, Long>> getSenderCounts()
+	{
+		Map<String, Map<String, Long>> counts = new TreeMap<String, Map<String, Long>>();
+		for (Map.Entry<String, LongAdder[]> entry : this.bySender.entrySet()) {
+			counts.put(entry.getKey(), toMap(entry.getValue()));
+		}
+		return Collections.unmodifiableMap(counts);
+	}
+
+	/**
+	 * @return Count of callbacks for each Twilio error code
+	 */
+	public Map<Integer, Long> getErrorCounts()
+	{
+		Map<Integer, Long> counts = new TreeMap<Integer, Long>();
+		for (Map.Entry<Integer, LongAdder> entry : this.byErrorCode.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().sum());
+		}
+		return Collections.unmodifiableMap(counts);
+	}
+
+	/**
+	 * @return Bodies passed to accept() that weren't message status callbacks
+	 */
+	public long getIgnored()
+	{
+		return this.ignored.sum();
+	}
+
+	public void reset()
+	{
+		this.bySender.clear();
+		this.byErrorCode.clear();
+		for (LongAdder total : this.totals) {
+			total.reset();
+		}
+		this.ignored.reset();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "delivered=" + getTotal(TwilioStatusCallback.STATUS_DELIVERED) + " undelivered=" + getTotal(TwilioStatusCallback.STATUS_UNDELIVERED) + " failed=" + getTotal(TwilioStatusCallback.STATUS_FAILED) + " errors=" + getErrorCounts();
+	}
+
+	private static Map<String, Long> toMap(LongAdder[] counters)
+	{
+		Map<String, Long> map = new TreeMap<String, Long>();
+		for (int x = 0; x < counters.length; x++) {
+			long count = counters[x].sum();
+			if (count > 0) {
+				map.put(TwilioStatusCallback.STATUS_NAMES[x], count);
+			}
+		}
+		return map;
+	}
+
+	private static LongAdder[] newCounters()
+	{
+		LongAdder[] counters = new LongAdder[TwilioStatusCallback.STATUS_COUNT];
+		for (int x = 0; x < counters.length; x++) {
+			counters[x] = new LongAdder();
+		}
+		return counters;
+	}
+}
@@ -0,0 +1,361 @@
+package com.cffreedom.integrations.twilio;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cffreedom.exceptions.InfrastructureException;
+
+/**
+ * Outbound call campaigns. Recipients are read lazily and each call is placed with
+ * CFTwilio.makeCall() paced by a TokenBucket with a burst of 1, so calls go out evenly
+ * spaced at the calls per second allowed for the account. A semaphore caps the calls in
+ * flight: by default a call is in flight until Twilio answers the create request. When the
+ * campaign has a status callback URL the call stays in flight until callEnded() is called
+ * with its SID (from the status callback handler), which caps concurrent live calls. A status
+ * callback can beat Twilio's answer to the create request, so the SIDs of calls that end before
+ * they are known are remembered (up to MAX_ENDED_EARLY) and released as soon as they show up.
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ * 2026-10-17 	MarkJacobsen.net 	Count calls CFTwilio skipped because the number is suppressed
+ * 2026-10-17 	MarkJacobsen.net 	Handle calls that end before makeCall() returns, finish campaigns on close()
+ */
+public class CFTwilioDialer
+{
+	private static final Logger logger = LoggerFactory.getLogger(CFTwilioDialer.class);
+	/** Twilio's default outbound calls per second for an account */
+	public static final double DEFAULT_CALLS_PER_SECOND = 1.0;
+	/** Most SIDs of calls that ended before makeCall() returned that are remembered at once */
+	static final int MAX_ENDED_EARLY = 10000;
+
+	private final CFTwilio twilio;
+	private final TokenBucket governor;
+	private final Semaphore inFlight;
+	private final int maxInFlight;
+	private final ExecutorService executor;
+	private final Map<String, Campaign> liveCalls = new ConcurrentHashMap<String, Campaign>();
+	private final Set<Campaign> campaigns = ConcurrentHashMap.newKeySet();
+	// Guarded by itself, together with the liveCalls updates that check it
+	private final Map<String, Boolean> endedEarly = new LinkedHashMap<String, Boolean>() {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > MAX_ENDED_EARLY;
+		}
+	};
+
+	/**
+	 * @param twilio
+	 * @param callsPerSecond Calls per second allowed for the account (shared by every campaign on this dialer)
+	 * @param maxInFlight Max calls in flight at once
+	 */
+	public CFTwilioDialer(CFTwilio twilio, double callsPerSecond, int maxInFlight)
+	{
+		if (maxInFlight <= 0) { throw new IllegalArgumentException("maxInFlight must be > 0"); }
+		this.twilio = twilio;
+		this.governor = new TokenBucket(callsPerSecond, 1);
+		this.maxInFlight = maxInFlight;
+		this.inFlight = new Semaphore(maxInFlight, true);
+		this.executor = Executors.newCachedThreadPool(CFTwilioMessenger.defaultThreadFactory());
+	}
+
+	/**
+	 * Start calling everyone in recipients
+	 * @param systemNumber Number to call from
+	 * @param recipients Read lazily as calls are placed
+	 * @param afterConnectedUrl URL Twilio should call after each call is connected
+	 * @return Running campaign
+	 */
+	public Campaign dial(String systemNumber, Iterator<String> recipients, String afterConnectedUrl)
+	{
+		return dial(systemNumber, recipients, afterConnectedUrl, null);
+	}
+
+	/**
+	 * Same as dial(systemNumber, recipients.iterator(), afterConnectedUrl, statusCallbackUrl)
+	 */
+	public Campaign dial(String systemNumber, Stream<String> recipients, String afterConnectedUrl, String statusCallbackUrl)
+	{
+		return dial(systemNumber, recipients.iterator(), afterConnectedUrl, statusCallbackUrl);
+	}
+
+	/**
+	 * Start calling everyone in recipients
+	 * @param systemNumber Number to call from
+	 * @param recipients Read lazily as calls are placed
+	 * @param afterConnectedUrl URL Twilio should call after each call is connected
+	 * @param statusCallbackUrl URL Twilio posts to when each call ends. When set, call callEnded() from that handler.
+	 * @return Running campaign
+	 */
+	public Campaign dial(String systemNumber, Iterator<String> recipients, String afterConnectedUrl, String statusCallbackUrl)
+	{
+		final Campaign campaign = new Campaign(systemNumber, recipients, afterConnectedUrl, statusCallbackUrl);
+		for (Iterator<Campaign> it = this.campaigns.iterator(); it.hasNext(); ) {
+			if (it.next().isDone()) {
+				it.remove();
+			}
+		}
+		this.campaigns.add(campaign);
+		logger.info("Starting campaign from {} at {} calls/sec", systemNumber, this.governor.getPermitsPerSecond());
+		this.executor.execute(new Runnable() {
+			public void run() {
+				runCampaign(campaign);
+			}
+		});
+		return campaign;
+	}
+
+	/**
+	 * Let the dialer know a call placed with a status callback URL has ended
+	 * @param callSid CallSid from the status callback
+	 * @return true if the call belonged to a campaign on this dialer, false if it doesn't (or
+	 * makeCall() hasn't returned it yet, in which case it is released when it does)
+	 */
+	public boolean callEnded(String callSid)
+	{
+		Campaign campaign;
+		synchronized (this.endedEarly) {
+			campaign = this.liveCalls.remove(callSid);
+			if (campaign == null) {
+				this.endedEarly.put(callSid, Boolean.TRUE);
+				return false;
+			}
+		}
+		campaign.ended.incrementAndGet();
+		release(campaign);
+		return true;
+	}
+
+	/**
+	 * @return Calls in flight across every campaign
+	 */
+	public int getInFlight()
+	{
+		return this.maxInFlight - this.inFlight.availablePermits();
+	}
+
+	/**
+	 * Cancel anything still running and stop the dialer threads. Open campaigns are cancelled
+	 * and finished so await() returns.
+	 */
+	public void close()
+	{
+		this.executor.shutdownNow();
+		for (Campaign campaign : this.campaigns) {
+			if (!campaign.isDone()) {
+				campaign.cancel();
+				if (campaign.lastError == null) {
+					campaign.lastError = "Dialer closed";
+				}
+				campaign.finish();
+			}
+		}
+		this.campaigns.clear();
+	}
+
+	private void runCampaign(final Campaign campaign)
+	{
+		try {
+			while (!campaign.cancelled && campaign.recipients.hasNext()) {
+				final String to = campaign.recipients.next();
+				this.inFlight.acquire();
+				campaign.inFlight.incrementAndGet();
+				if (campaign.cancelled) {
+					release(campaign);
+					break;
+				}
+				this.governor.acquire();
+				campaign.dialed.incrementAndGet();
+				campaign.running.incrementAndGet();
+				this.executor.execute(new Runnable() {
+					public void run() {
+						placeCall(campaign, to);
+					}
+				});
+			}
+		} catch (InterruptedException e) {
+			logger.debug("Campaign from {} interrupted", campaign.systemNumber);
+			campaign.cancelled = true;
+		} catch (RuntimeException e) {
+			logger.error("Error reading campaign recipients: {}", e.getMessage());
+			campaign.lastError = e.getMessage();
+			campaign.cancelled = true;
+		}
+		campaign.queuedAll.countDown();
+		campaign.checkDone();
+	}
+
+	private void placeCall(Campaign campaign, String to)
+	{
+		boolean holdUntilEnded = false;
+		try {
+			String sid = this.twilio.makeCall(campaign.systemNumber, to, campaign.afterConnectedUrl, campaign.statusCallbackUrl);
+			if (CFTwilio.SUPPRESSED.equals(sid)) {
+				campaign.suppressed.incrementAndGet();
+				return;
+			}
+			campaign.placed.incrementAndGet();
+			if (campaign.statusCallbackUrl != null) {
+				synchronized (this.endedEarly) {
+					// The status callback may already have been and gone
+					if (this.endedEarly.remove(sid) != null) {
+						campaign.ended.incrementAndGet();
+					} else {
+						holdUntilEnded = true;
+						this.liveCalls.put(sid, campaign);
+					}
+				}
+			}
+		} catch (Exception e) {
+			logger.warn("Error calling {}: {}", to, e.getMessage());
+			campaign.failed.incrementAndGet();
+			campaign.lastError = e.getMessage();
+		} finally {
+			campaign.running.decrementAndGet();
+			if (!holdUntilEnded) {
+				release(campaign);
+			}
+			campaign.checkDone();
+		}
+	}
+
+	private void release(Campaign campaign)
+	{
+		campaign.inFlight.decrementAndGet();
+		this.inFlight.release();
+		campaign.checkDone();
+	}
+
+	/**
+	 * One run through a list of recipients with live progress counters
+	 */
+	public static class Campaign
+	{
+		private final String systemNumber;
+		private final Iterator<String> recipients;
+		private final String afterConnectedUrl;
+		private final String statusCallbackUrl;
+		private final long startNanos = System.nanoTime();
+		private final AtomicLong dialed = new AtomicLong();
+		private final AtomicLong placed = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private final AtomicLong ended = new AtomicLong();
+		private final AtomicLong suppressed = new AtomicLong();
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicInteger running = new AtomicInteger();
+		private final CountDownLatch queuedAll = new CountDownLatch(1);
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile long endNanos = 0;
+		private volatile boolean cancelled = false;
+		private volatile String lastError = null;
+
+		Campaign(String systemNumber, Iterator<String> recipients, String afterConnectedUrl, String statusCallbackUrl)
+		{
+			this.systemNumber = systemNumber;
+			this.recipients = recipients;
+			this.afterConnectedUrl = afterConnectedUrl;
+			this.statusCallbackUrl = statusCallbackUrl;
+		}
+
+		/** @return Create requests sent to Twilio */
+		public long getDialed() { return this.dialed.get(); }
+		/** @return Calls Twilio accepted */
+		public long getPlaced() { return this.placed.get(); }
+		/** @return Calls Twilio refused or that errored */
+		public long getFailed() { return this.failed.get(); }
+		/** @return Calls skipped because the number is on CFTwilio's suppression list */
+		public long getSuppressed() { return this.suppressed.get(); }
+		/** @return Calls reported through CFTwilioDialer.callEnded() */
+		public long getEnded() { return this.ended.get(); }
+		/** @return Calls holding an in flight slot right now */
+		public int getInFlight() { return this.inFlight.get(); }
+		public String getLastError() { return this.lastError; }
+		public boolean isCancelled() { return this.cancelled; }
+
+		public boolean isDone()
+		{
+			return this.done.getCount() == 0;
+		}
+
+		/**
+		 * @return Average calls dialed per second since the campaign started
+		 */
+		public double getCallsPerSecond()
+		{
+			long end = (this.endNanos != 0) ? this.endNanos : System.nanoTime();
+			double seconds = (end - this.startNanos) / 1e9;
+			return (seconds <= 0) ? 0 : this.dialed.get() / seconds;
+		}
+
+		/**
+		 * Stop dialing. Calls already placed are not affected.
+		 */
+		public void cancel()
+		{
+			this.cancelled = true;
+		}
+
+		/**
+		 * Wait for every recipient to be dialed and every call to leave flight
+		 * @param timeout
+		 * @param unit
+		 * @return true if the campaign finished
+		 * @throws InfrastructureException If interrupted
+		 */
+		public boolean await(long timeout, TimeUnit unit) throws InfrastructureException
+		{
+			try {
+				return this.done.await(timeout, unit);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InfrastructureException("Interrupted waiting for campaign", e);
+			}
+		}
+
+		private void checkDone()
+		{
+			if ((this.queuedAll.getCount() == 0) && (this.running.get() == 0) && (this.inFlight.get() == 0) && (this.done.getCount() > 0)) {
+				finish();
+			}
+		}
+
+		private synchronized void finish()
+		{
+			if (this.done.getCount() > 0) {
+				this.endNanos = System.nanoTime();
+				this.done.countDown();
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			return "dialed=" + getDialed() + " placed=" + getPlaced() + " failed=" + getFailed() + " suppressed=" + getSuppressed() + " ended=" + getEnded() + " inFlight=" + getInFlight() + " cps=" + String.format("%.2f", getCallsPerSecond());
+		}
+	}
+}
@@ -0,0 +1,284 @@
+package com.cffreedom.integrations.twilio;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cffreedom.exceptions.InfrastructureException;
+
+/**
+ * Submit-and-forget front end for CFTwilio.sendTextMsg(). Messages go onto a bounded
+ * queue and a fixed set of workers make the blocking Twilio calls, so throughput follows
+ * the worker count instead of the number of caller threads. When the queue is full
+ * sendTextMsg() blocks until there is room (backpressure).
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ * 2026-10-17 	MarkJacobsen.net 	Don't strand msgs queued while close() is running
+ */
+public class CFTwilioMessenger
+{
+	private static final Logger logger = LoggerFactory.getLogger(CFTwilioMessenger.class);
+	public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+	private static final int BATCH_SIZE = 32;
+	private static final long POLL_MILLIS = 250;
+
+	private final CFTwilio twilio;
+	private final BlockingQueue<OutboundMsg> queue;
+	private final List<Thread> workers = new ArrayList<Thread>();
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private volatile boolean running = true;
+
+	public CFTwilioMessenger(CFTwilio twilio, int workers)
+	{
+		this(twilio, workers, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	public CFTwilioMessenger(CFTwilio twilio, int workers, int queueCapacity)
+	{
+		this(twilio, workers, queueCapacity, defaultThreadFactory());
+	}
+
+	/**
+	 * @param twilio Instance used to do the actual sending
+	 * @param workers Number of messages that can be in flight to Twilio at once
+	 * @param queueCapacity Max messages waiting to be sent before callers block
+	 * @param threadFactory Used to create the worker threads
+	 */
+	public CFTwilioMessenger(CFTwilio twilio, int workers, int queueCapacity, ThreadFactory threadFactory)
+	{
+		if (workers <= 0) { throw new IllegalArgumentException("workers must be > 0"); }
+		if (queueCapacity <= 0) { throw new IllegalArgumentException("queueCapacity must be > 0"); }
+
+		logger.debug("Starting {} workers with a queue of {}", workers, queueCapacity);
+		this.twilio = twilio;
+		this.queue = new ArrayBlockingQueue<OutboundMsg>(queueCapacity);
+		for (int x = 0; x < workers; x++) {
+			Thread worker = threadFactory.newThread(new Runnable() {
+				public void run() {
+					work();
+				}
+			});
+			this.workers.add(worker);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Queue a text message, blocking while the queue is full
+	 * @param systemNumber
+	 * @param to
+	 * @param msg
+	 * @param imageUrl
+	 * @return Future completed with the message SID (or the CFTwilio.sendTextMsg() return value if nothing was sent)
+	 * @throws InfrastructureException If the messenger is closed or the caller is interrupted
+	 */
+	public CompletableFuture<String> sendTextMsg(String systemNumber, String to, String msg, String imageUrl) throws InfrastructureException {
+		OutboundMsg outbound = new OutboundMsg(systemNumber, to, msg, imageUrl);
+		checkRunning();
+		try {
+			this.queue.put(outbound);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InfrastructureException("Interrupted queuing text msg to " + to, e);
+		}
+		checkStillRunning(outbound);
+		return outbound.future;
+	}
+
+	/**
+	 * Queue a text message, waiting at most timeout for room in the queue
+	 * @param systemNumber
+	 * @param to
+	 * @param msg
+	 * @param imageUrl
+	 * @param timeout
+	 * @param unit
+	 * @return Future completed with the message SID
+	 * @throws InfrastructureException If the queue stayed full, the messenger is closed, or the caller is interrupted
+	 */
+	public CompletableFuture<String> sendTextMsg(String systemNumber, String to, String msg, String imageUrl, long timeout, TimeUnit unit) throws InfrastructureException {
+		OutboundMsg outbound = new OutboundMsg(systemNumber, to, msg, imageUrl);
+		checkRunning();
+		try {
+			if (!this.queue.offer(outbound, timeout, unit)) {
+				throw new InfrastructureException("Queue full. Text msg to " + to + " not accepted");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InfrastructureException("Interrupted queuing text msg to " + to, e);
+		}
+		checkStillRunning(outbound);
+		return outbound.future;
+	}
+
+	public int getQueueDepth() {
+		return this.queue.size();
+	}
+
+	public int getWorkerCount() {
+		return this.workers.size();
+	}
+
+	public long getSentCount() {
+		return this.sent.get();
+	}
+
+	public long getFailedCount() {
+		return this.failed.get();
+	}
+
+	/**
+	 * Stop accepting messages and wait for the queue to drain. Anything still queued after
+	 * the timeout is completed exceptionally.
+	 * @param timeout
+	 * @param unit
+	 * @return true if everything queued was sent (or failed on its own)
+	 */
+	public boolean close(long timeout, TimeUnit unit) {
+		logger.debug("Closing with {} queued", this.queue.size());
+		this.running = false;
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (Thread worker : this.workers) {
+			long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			try {
+				if (remaining > 0) { worker.join(remaining); }
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		boolean drained = true;
+		for (Thread worker : this.workers) {
+			if (worker.isAlive()) {
+				drained = false;
+				worker.interrupt();
+			}
+		}
+
+		OutboundMsg leftover;
+		while ((leftover = this.queue.poll()) != null) {
+			drained = false;
+			leftover.future.completeExceptionally(new InfrastructureException("Messenger closed before text msg to " + leftover.to + " was sent"));
+		}
+		return drained;
+	}
+
+	/**
+	 * Virtual threads when running on a JDK that has them, daemon platform threads otherwise
+	 * @return ThreadFactory for messenger workers
+	 */
+	public static ThreadFactory defaultThreadFactory() {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method name = builderClass.getMethod("name", String.class, long.class);
+			builder = name.invoke(builder, "CFTwilioMessenger-", 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (Exception e) {
+			logger.trace("Virtual threads not available, using platform threads");
+		}
+
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "CFTwilioMessenger-" + count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	private void checkRunning() throws InfrastructureException {
+		if (!this.running) {
+			throw new InfrastructureException("Messenger is closed");
+		}
+	}
+
+	/**
+	 * close() may have finished with the queue (workers gone, leftovers drained) while the
+	 * caller was blocked queuing. Take the msg back then, or its future would never complete.
+	 * If it's already gone a worker or close() has it and will complete the future.
+	 */
+	private void checkStillRunning(OutboundMsg outbound) throws InfrastructureException {
+		if (!this.running && this.queue.remove(outbound)) {
+			throw new InfrastructureException("Messenger closed before text msg to " + outbound.to + " was queued");
+		}
+	}
+
+	private void work() {
+		List<OutboundMsg> batch = new ArrayList<OutboundMsg>(BATCH_SIZE);
+		while (true) {
+			try {
+				OutboundMsg first = this.queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					if (!this.running) { return; }
+					continue;
+				}
+				batch.add(first);
+				// Only grab what this worker can handle alone so the others stay busy too
+				this.queue.drainTo(batch, Math.max(0, Math.min(BATCH_SIZE, this.queue.size() / this.workers.size()) - 1));
+				for (OutboundMsg outbound : batch) {
+					send(outbound);
+				}
+				batch.clear();
+			} catch (InterruptedException e) {
+				for (OutboundMsg outbound : batch) {
+					outbound.future.completeExceptionally(new InfrastructureException("Interrupted before text msg to " + outbound.to + " was sent", e));
+				}
+				return;
+			}
+		}
+	}
+
+	private void send(OutboundMsg outbound) {
+		try {
+			String sid = this.twilio.sendTextMsg(outbound.systemNumber, outbound.to, outbound.msg, outbound.imageUrl);
+			this.sent.incrementAndGet();
+			outbound.future.complete(sid);
+		} catch (Exception e) {
+			logger.warn("Error sending text msg to {}: {}", outbound.to, e.getMessage());
+			this.failed.incrementAndGet();
+			outbound.future.completeExceptionally(e);
+		}
+	}
+
+	private static class OutboundMsg
+	{
+		final String systemNumber;
+		final String to;
+		final String msg;
+		final String imageUrl;
+		final CompletableFuture<String> future = new CompletableFuture<String>();
+
+		OutboundMsg(String systemNumber, String to, String msg, String imageUrl) {
+			this.systemNumber = systemNumber;
+			this.to = to;
+			this.msg = msg;
+			this.imageUrl = imageUrl;
+		}
+	}
+}
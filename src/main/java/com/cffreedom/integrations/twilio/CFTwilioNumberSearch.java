@@ -0,0 +1,374 @@
+package com.cffreedom.integrations.twilio;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cffreedom.beans.PhoneNumber;
+import com.cffreedom.exceptions.InfrastructureException;
+import com.cffreedom.utils.Utils;
+import com.twilio.sdk.resource.instance.AvailablePhoneNumber;
+
+/**
+ * Available phone number search for provisioning UIs. Compared to CFTwilio.getAvailableNumbers()
+ * this walks every page of results (fetching one page ahead of the caller), can fan a search
+ * out over several area codes or patterns in parallel, and keeps identical queries in a short
+ * TTL cache so typing into a search box doesn't hit Twilio on every keystroke.
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ */
+public class CFTwilioNumberSearch
+{
+	private static final Logger logger = LoggerFactory.getLogger(CFTwilioNumberSearch.class);
+	public static final String TYPE_LOCAL = "Local";
+	public static final String TYPE_TOLL_FREE = "TollFree";
+	public static final String PARAM_CONTAINS = "Contains";
+	public static final String PARAM_AREA_CODE = "AreaCode";
+	public static final long DEFAULT_TTL_MILLIS = 30 * 1000;
+	public static final int DEFAULT_MAX_CACHED = 500;
+	public static final int DEFAULT_PAGE_SIZE = 50;
+
+	private final CFTwilio twilio;
+	private final long ttlMillis;
+	private final ExecutorService executor;
+	private final Map<Query, CachedResult> cache;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public CFTwilioNumberSearch(CFTwilio twilio)
+	{
+		this(twilio, DEFAULT_TTL_MILLIS, DEFAULT_MAX_CACHED);
+	}
+
+	/**
+	 * @param twilio
+	 * @param ttlMillis How long a search result is reused for the same query
+	 * @param maxCached Max number of queries kept in the cache (least recently used are dropped first)
+	 */
+	public CFTwilioNumberSearch(CFTwilio twilio, long ttlMillis, final int maxCached)
+	{
+		this.twilio = twilio;
+		this.ttlMillis = ttlMillis;
+		this.executor = Executors.newCachedThreadPool(CFTwilioMessenger.defaultThreadFactory());
+		this.cache = new LinkedHashMap<Query, CachedResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Query, CachedResult> eldest) {
+				return size() > maxCached;
+			}
+		};
+	}
+
+	/**
+	 * Lazily walk every result for the search, fetching the next page in the background
+	 * while the current one is consumed. Not cached.
+	 * @param type One of TYPE_LOCAL or TYPE_TOLL_FREE
+	 * @param isoCountry Option like "US", "GB", etc
+	 * @param contains Send null or ZLS for random numbers. No need to use wildcards
+	 * @return Iterator over the results
+	 */
+	public Iterator<PhoneNumber> iterator(String type, String isoCountry, String contains)
+	{
+		return iterator(new Query(type, isoCountry, PARAM_CONTAINS, contains), DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * Same as iterator() as a Stream
+	 * @param type
+	 * @param isoCountry
+	 * @param contains
+	 * @return Sequential stream over the results
+	 */
+	public Stream<PhoneNumber> stream(String type, String isoCountry, String contains)
+	{
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(type, isoCountry, contains), Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * All results for the search, from the cache when the same search was run within the TTL
+	 * @param type
+	 * @param isoCountry
+	 * @param contains
+	 * @return Unmodifiable list of results
+	 * @throws InfrastructureException
+	 */
+	public List<PhoneNumber> search(String type, String isoCountry, String contains) throws InfrastructureException
+	{
+		return search(new Query(type, isoCountry, PARAM_CONTAINS, contains));
+	}
+
+	/**
+	 * Run one search per pattern in parallel and merge the results
+	 * @param type
+	 * @param isoCountry
+	 * @param containsPatterns
+	 * @return Unique numbers in pattern order
+	 * @throws InfrastructureException
+	 */
+	public List<PhoneNumber> searchContaining(String type, String isoCountry, Collection<String> containsPatterns) throws InfrastructureException
+	{
+		return searchAll(type, isoCountry, PARAM_CONTAINS, containsPatterns);
+	}
+
+	/**
+	 * Run one search per area code in parallel and merge the results
+	 * @param isoCountry
+	 * @param areaCodes
+	 * @return Unique local numbers in area code order
+	 * @throws InfrastructureException
+	 */
+	public List<PhoneNumber> searchAreaCodes(String isoCountry, Collection<String> areaCodes) throws InfrastructureException
+	{
+		return searchAll(TYPE_LOCAL, isoCountry, PARAM_AREA_CODE, areaCodes);
+	}
+
+	public long getCacheHits()
+	{
+		return this.hits.get();
+	}
+
+	public long getCacheMisses()
+	{
+		return this.misses.get();
+	}
+
+	public void clearCache()
+	{
+		synchronized (this.cache) {
+			this.cache.clear();
+		}
+	}
+
+	/**
+	 * Stop the background fetch threads
+	 */
+	public void close()
+	{
+		this.executor.shutdownNow();
+	}
+
+	private List<PhoneNumber> searchAll(String type, String isoCountry, String param, Collection<String> values) throws InfrastructureException
+	{
+		List<Future<List<PhoneNumber>>> futures = new ArrayList<Future<List<PhoneNumber>>>(values.size());
+		for (String value : values) {
+			final Query query = new Query(type, isoCountry, param, value);
+			futures.add(this.executor.submit(new Callable<List<PhoneNumber>>() {
+				public List<PhoneNumber> call() throws Exception {
+					return search(query);
+				}
+			}));
+		}
+
+		Map<String, PhoneNumber> merged = new LinkedHashMap<String, PhoneNumber>();
+		for (Future<List<PhoneNumber>> future : futures) {
+			for (PhoneNumber number : get(future)) {
+				if (!merged.containsKey(number.getCode())) {
+					merged.put(number.getCode(), number);
+				}
+			}
+		}
+		return Collections.unmodifiableList(new ArrayList<PhoneNumber>(merged.values()));
+	}
+
+	private List<PhoneNumber> search(Query query) throws InfrastructureException
+	{
+		long now = System.currentTimeMillis();
+		synchronized (this.cache) {
+			CachedResult cached = this.cache.get(query);
+			if ((cached != null) && (cached.expires > now)) {
+				this.hits.incrementAndGet();
+				return cached.numbers;
+			}
+		}
+		this.misses.incrementAndGet();
+
+		List<PhoneNumber> numbers = new ArrayList<PhoneNumber>();
+		try {
+			Iterator<PhoneNumber> it = iterator(query, DEFAULT_PAGE_SIZE);
+			while (it.hasNext()) {
+				numbers.add(it.next());
+			}
+		} catch (RuntimeException e) {
+			throw new InfrastructureException("Error searching for available numbers " + query + ": " + e.getMessage(), e);
+		}
+		numbers = Collections.unmodifiableList(numbers);
+
+		synchronized (this.cache) {
+			this.cache.put(query, new CachedResult(numbers, now + this.ttlMillis));
+		}
+		return numbers;
+	}
+
+	private Iterator<PhoneNumber> iterator(Query query, int pageSize)
+	{
+		logger.debug("Searching for available numbers: {}", query);
+		Map<String, String> params = new HashMap<String, String>();
+		if (Utils.hasLength(query.value)) {
+			params.put(query.param, query.value);
+		}
+		Iterator<AvailablePhoneNumber> source = this.twilio.getAvailablePhoneNumbers(params, query.isoCountry, query.type).iterator();
+		return new PrefetchingIterator(source, pageSize, this.executor);
+	}
+
+	private static <T> T get(Future<T> future) throws InfrastructureException
+	{
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InfrastructureException("Interrupted searching for available numbers", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof InfrastructureException) {
+				throw (InfrastructureException) e.getCause();
+			}
+			throw new InfrastructureException("Error searching for available numbers: " + e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * Reads the SDK iterator (which fetches a page from Twilio whenever it runs dry) one
+	 * page ahead of the caller on a background thread
+	 */
+	private static class PrefetchingIterator implements Iterator<PhoneNumber>
+	{
+		private final Iterator<AvailablePhoneNumber> source;
+		private final int pageSize;
+		private final ExecutorService executor;
+		private Future<List<PhoneNumber>> nextPage;
+		private Iterator<PhoneNumber> page = Collections.<PhoneNumber>emptyList().iterator();
+
+		PrefetchingIterator(Iterator<AvailablePhoneNumber> source, int pageSize, ExecutorService executor)
+		{
+			this.source = source;
+			this.pageSize = pageSize;
+			this.executor = executor;
+			this.nextPage = fetch();
+		}
+
+		private Future<List<PhoneNumber>> fetch()
+		{
+			return this.executor.submit(new Callable<List<PhoneNumber>>() {
+				public List<PhoneNumber> call() {
+					List<PhoneNumber> numbers = new ArrayList<PhoneNumber>(pageSize);
+					while ((numbers.size() < pageSize) && source.hasNext()) {
+						numbers.add(CFTwilio.toPhoneNumber(source.next()));
+					}
+					return numbers;
+				}
+			});
+		}
+
+		public boolean hasNext()
+		{
+			while (!this.page.hasNext()) {
+				if (this.nextPage == null) {
+					return false;
+				}
+				List<PhoneNumber> numbers;
+				try {
+					numbers = get(this.nextPage);
+				} catch (InfrastructureException e) {
+					this.nextPage = null;
+					throw new IllegalStateException(e.getMessage(), e.getCause());
+				}
+				// A short page means the source ran out
+				this.nextPage = (numbers.size() == this.pageSize) ? fetch() : null;
+				this.page = numbers.iterator();
+			}
+			return true;
+		}
+
+		public PhoneNumber next()
+		{
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return this.page.next();
+		}
+
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private static class CachedResult
+	{
+		final List<PhoneNumber> numbers;
+		final long expires;
+
+		CachedResult(List<PhoneNumber> numbers, long expires)
+		{
+			this.numbers = numbers;
+			this.expires = expires;
+		}
+	}
+
+	private static class Query
+	{
+		final String type;
+		final String isoCountry;
+		final String param;
+		final String value;
+
+		Query(String type, String isoCountry, String param, String value)
+		{
+			this.type = type;
+			this.isoCountry = isoCountry;
+			this.param = param;
+			this.value = (value == null) ? "" : value;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Query)) { return false; }
+			Query q = (Query) o;
+			return this.type.equals(q.type) && this.isoCountry.equals(q.isoCountry) && this.param.equals(q.param) && this.value.equals(q.value);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return ((this.type.hashCode() * 31 + this.isoCountry.hashCode()) * 31 + this.param.hashCode()) * 31 + this.value.hashCode();
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.type + "/" + this.isoCountry + "/" + this.param + "=" + this.value;
+		}
+	}
+}
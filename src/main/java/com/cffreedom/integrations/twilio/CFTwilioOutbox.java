@@ -0,0 +1,529 @@
+package com.cffreedom.integrations.twilio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cffreedom.exceptions.InfrastructureException;
+
+/**
+ * Durable outbox for text messages. Every message is appended to a memory mapped log
+ * before it is handed to CFTwilio and acknowledged with its SID once Twilio accepts it, so
+ * after a crash replay() resends only the messages that never got an acknowledgement.
+ * Delivery is at least once: a message Twilio accepted right before the crash (ack not yet
+ * written) is sent again.
+ *
+ * The log is a directory of fixed size segment files. Records are
+ * [int length][int crc32][byte type][long id][fields] and a zero length marks the end of
+ * the written data. Appends only copy into the mapped buffer; how often the buffer is
+ * forced to disk is configurable (every N records and/or every X millis). Segments are
+ * deleted once every message in them (and everything before them) is acknowledged.
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ * 2026-10-17 	MarkJacobsen.net 	Rate limited and 5xx sends stay pending for replay() instead of being REJECTED
+ */
+public class CFTwilioOutbox
+{
+	private static final Logger logger = LoggerFactory.getLogger(CFTwilioOutbox.class);
+	public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+	public static final int DEFAULT_SYNC_EVERY = 0;
+	public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 100;
+	/** Outcome recorded for a message Twilio rejected (so replay doesn't retry it) */
+	public static final String REJECTED = "Rejected";
+	private static final String SEGMENT_PREFIX = "outbox-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final byte TYPE_SEND = 1;
+	private static final byte TYPE_ACK = 2;
+	private static final int HEADER_SIZE = 8;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final CFTwilio twilio;
+	private final File dir;
+	private final int segmentSize;
+	private final int syncEvery;
+	private final Map<Long, PendingMsg> pending = new LinkedHashMap<Long, PendingMsg>();
+	private final Deque<Segment> segments = new ArrayDeque<Segment>();
+	private final CRC32 crc = new CRC32();
+	private final ScheduledExecutorService syncer;
+	private Segment current;
+	private MappedByteBuffer buffer;
+	private ByteBuffer scratch = ByteBuffer.allocate(1024);
+	private long nextId = 1;
+	private int unsynced = 0;
+	private boolean closed = false;
+
+	public CFTwilioOutbox(CFTwilio twilio, File dir) throws InfrastructureException
+	{
+		this(twilio, dir, DEFAULT_SEGMENT_SIZE, DEFAULT_SYNC_EVERY, DEFAULT_SYNC_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * Open (recovering anything already in the directory) or create an outbox
+	 * @param twilio Instance used to do the actual sending
+	 * @param dir Directory for the segment files
+	 * @param segmentSize Size of each segment file in bytes
+	 * @param syncEvery Force the log to disk after this many records. 1 for every record, 0 to only sync on the interval.
+	 * @param syncIntervalMillis Force the log to disk this often when there are unsynced records. 0 to turn off.
+	 * @throws InfrastructureException If the log can't be read or created
+	 */
+	public CFTwilioOutbox(CFTwilio twilio, File dir, int segmentSize, int syncEvery, long syncIntervalMillis) throws InfrastructureException
+	{
+		this.twilio = twilio;
+		this.dir = dir;
+		this.segmentSize = segmentSize;
+		this.syncEvery = syncEvery;
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new InfrastructureException("Unable to create outbox directory " + dir);
+		}
+		try {
+			recover();
+		} catch (IOException e) {
+			throw new InfrastructureException("Error opening outbox in " + dir + ": " + e.getMessage(), e);
+		}
+
+		if (syncIntervalMillis > 0) {
+			this.syncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "CFTwilioOutbox-sync");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			this.syncer.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					sync();
+				}
+			}, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+		} else {
+			this.syncer = null;
+		}
+	}
+
+	/**
+	 * Log the message, send it and log the SID
+	 * @param systemNumber
+	 * @param to
+	 * @param msg
+	 * @param imageUrl
+	 * @return MMS SID
+	 * @throws InfrastructureException If the message couldn't be logged or sent. Unless Twilio rejected it, it stays pending for replay().
+	 */
+	public String sendTextMsg(String systemNumber, String to, String msg, String imageUrl) throws InfrastructureException
+	{
+		long id = append(systemNumber, to, msg, imageUrl);
+		return send(id, systemNumber, to, msg, imageUrl);
+	}
+
+	/**
+	 * Log a message without sending it
+	 * @return Id to pass to ack()
+	 * @throws InfrastructureException
+	 */
+	public synchronized long append(String systemNumber, String to, String msg, String imageUrl) throws InfrastructureException
+	{
+		ensureOpen();
+		long id = this.nextId++;
+		ByteBuffer record = startRecord(TYPE_SEND, id);
+		record = putString(record, systemNumber);
+		record = putString(record, to);
+		record = putString(record, msg);
+		record = putString(record, imageUrl);
+		write(record);
+		this.pending.put(id, new PendingMsg(id, this.current, systemNumber, to, msg, imageUrl));
+		this.current.pending++;
+		return id;
+	}
+
+	/**
+	 * Mark a logged message as done
+	 * @param id From append()
+	 * @param sid SID Twilio returned (or another outcome like REJECTED)
+	 * @throws InfrastructureException
+	 */
+	public synchronized void ack(long id, String sid) throws InfrastructureException
+	{
+		ensureOpen();
+		PendingMsg msg = this.pending.remove(id);
+		if (msg == null) {
+			logger.warn("Ack for unknown outbox entry {}", id);
+			return;
+		}
+		ByteBuffer record = startRecord(TYPE_ACK, id);
+		record = putString(record, sid);
+		write(record);
+		msg.segment.pending--;
+		deleteAckedSegments();
+	}
+
+	/**
+	 * Resend every message that was logged but never acknowledged (oldest first)
+	 * @return Number of messages sent
+	 * @throws InfrastructureException On the first message that couldn't be sent because of a network error,
+	 * rate limiting or a Twilio server error (it and the rest stay pending). Messages Twilio refused are
+	 * acknowledged as REJECTED and skipped.
+	 */
+	public int replay() throws InfrastructureException
+	{
+		List<PendingMsg> msgs = getPending();
+		logger.info("Replaying {} unacknowledged text msgs", msgs.size());
+		int sent = 0;
+		for (PendingMsg msg : msgs) {
+			try {
+				send(msg.id, msg.systemNumber, msg.to, msg.msg, msg.imageUrl);
+				sent++;
+			} catch (InfrastructureException e) {
+				if (CFTwilio.isTransient(e.getCause())) {
+					throw e;
+				}
+			}
+		}
+		return sent;
+	}
+
+	/**
+	 * @return Messages logged but not acknowledged, oldest first
+	 */
+	public synchronized List<PendingMsg> getPending()
+	{
+		return Collections.unmodifiableList(new ArrayList<PendingMsg>(this.pending.values()));
+	}
+
+	public synchronized int getPendingCount()
+	{
+		return this.pending.size();
+	}
+
+	/**
+	 * @return Number of segment files in use
+	 */
+	public synchronized int getSegmentCount()
+	{
+		return this.segments.size();
+	}
+
+	/**
+	 * Force everything appended so far to disk
+	 */
+	public void sync()
+	{
+		MappedByteBuffer toSync;
+		synchronized (this) {
+			if (this.closed || (this.unsynced == 0)) { return; }
+			toSync = this.buffer;
+			this.unsynced = 0;
+		}
+		// msync outside the lock so appends aren't held up by the disk
+		toSync.force();
+	}
+
+	/**
+	 * Sync and close the log. Pending messages stay in it for the next open.
+	 */
+	public void close()
+	{
+		if (this.syncer != null) {
+			this.syncer.shutdownNow();
+		}
+		synchronized (this) {
+			if (this.closed) { return; }
+			this.buffer.force();
+			this.closed = true;
+		}
+	}
+
+	private String send(long id, String systemNumber, String to, String msg, String imageUrl) throws InfrastructureException
+	{
+		String sid;
+		try {
+			sid = this.twilio.sendTextMsg(systemNumber, to, msg, imageUrl);
+		} catch (InfrastructureException e) {
+			if (!CFTwilio.isTransient(e.getCause())) {
+				// Twilio answered and said no. Sending it again won't change that.
+				ack(id, REJECTED);
+			}
+			throw e;
+		}
+		ack(id, sid);
+		return sid;
+	}
+
+	private void ensureOpen() throws InfrastructureException
+	{
+		if (this.closed) {
+			throw new InfrastructureException("Outbox is closed");
+		}
+	}
+
+	private ByteBuffer startRecord(byte type, long id)
+	{
+		this.scratch.clear();
+		this.scratch.position(HEADER_SIZE);
+		this.scratch.put(type);
+		this.scratch.putLong(id);
+		return this.scratch;
+	}
+
+	private ByteBuffer putString(ByteBuffer record, String value)
+	{
+		if (value == null) {
+			return ensureRoom(record, 4).putInt(-1);
+		}
+		byte[] bytes = value.getBytes(UTF8);
+		return ensureRoom(record, 4 + bytes.length).putInt(bytes.length).put(bytes);
+	}
+
+	private ByteBuffer ensureRoom(ByteBuffer record, int needed)
+	{
+		if (record.remaining() >= needed) {
+			return record;
+		}
+		ByteBuffer bigger = ByteBuffer.allocate(Math.max(record.capacity() * 2, record.position() + needed));
+		record.flip();
+		bigger.put(record);
+		this.scratch = bigger;
+		return bigger;
+	}
+
+	/**
+	 * Fill in the header and copy the record into the current segment
+	 */
+	private void write(ByteBuffer record) throws InfrastructureException
+	{
+		int length = record.position() - HEADER_SIZE;
+		this.crc.reset();
+		this.crc.update(record.array(), HEADER_SIZE, length);
+		record.putInt(0, length);
+		record.putInt(4, (int) this.crc.getValue());
+		record.flip();
+
+		// Leave room for the zero length end marker
+		if (record.remaining() + 4 > this.buffer.remaining()) {
+			if (record.remaining() + 4 > this.segmentSize) {
+				throw new InfrastructureException("Outbox record of " + record.remaining() + " bytes is bigger than the segment size");
+			}
+			rotate();
+		}
+		this.buffer.put(record);
+		this.unsynced++;
+		if ((this.syncEvery > 0) && (this.unsynced >= this.syncEvery)) {
+			this.buffer.force();
+			this.unsynced = 0;
+		}
+	}
+
+	private void rotate() throws InfrastructureException
+	{
+		this.buffer.force();
+		try {
+			openSegment(this.current.index + 1, 0);
+		} catch (IOException e) {
+			throw new InfrastructureException("Error creating outbox segment: " + e.getMessage(), e);
+		}
+		deleteAckedSegments();
+	}
+
+	/**
+	 * Delete segments from the oldest forward while they have nothing pending. Going in
+	 * order matters: a segment can hold acks for messages in older segments.
+	 */
+	private void deleteAckedSegments()
+	{
+		while ((this.segments.size() > 1) && (this.segments.peekFirst().pending == 0)) {
+			Segment segment = this.segments.removeFirst();
+			logger.debug("Deleting acknowledged outbox segment {}", segment.file);
+			if (!segment.file.delete()) {
+				logger.warn("Unable to delete outbox segment {}", segment.file);
+			}
+		}
+	}
+
+	private void openSegment(long index, int position) throws IOException
+	{
+		Segment segment = new Segment(index, new File(this.dir, String.format("%s%012d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX)));
+		this.buffer = map(segment.file);
+		this.buffer.position(position);
+		this.current = segment;
+		this.segments.addLast(segment);
+	}
+
+	private MappedByteBuffer map(File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			// The mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Read every segment, rebuild the pending messages and position the log after the last good record
+	 */
+	private void recover() throws IOException
+	{
+		File[] files = this.dir.listFiles();
+		List<File> segmentFiles = new ArrayList<File>();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().startsWith(SEGMENT_PREFIX) && file.getName().endsWith(SEGMENT_SUFFIX)) {
+					segmentFiles.add(file);
+				}
+			}
+		}
+		File[] sorted = segmentFiles.toArray(new File[segmentFiles.size()]);
+		Arrays.sort(sorted);
+
+		long maxId = 0;
+		for (int x = 0; x < sorted.length; x++) {
+			String name = sorted[x].getName();
+			long index = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+			Segment segment = new Segment(index, sorted[x]);
+			MappedByteBuffer mapped = map(sorted[x]);
+			int end = readSegment(segment, mapped);
+			maxId = Math.max(maxId, segment.maxId);
+			this.segments.addLast(segment);
+
+			if (x == sorted.length - 1) {
+				// Clear anything a crash left half written after the last good record
+				for (int pos = end; pos < mapped.limit(); pos++) {
+					mapped.put(pos, (byte) 0);
+				}
+				this.current = segment;
+				this.buffer = mapped;
+				this.buffer.position(end);
+			}
+		}
+		this.nextId = maxId + 1;
+
+		if (this.current == null) {
+			openSegment(1, 0);
+		}
+		deleteAckedSegments();
+		logger.debug("Outbox {} recovered with {} pending msgs in {} segments", this.dir, this.pending.size(), this.segments.size());
+	}
+
+	/**
+	 * @return Position after the last good record
+	 */
+	private int readSegment(Segment segment, MappedByteBuffer mapped)
+	{
+		int pos = 0;
+		while (pos + HEADER_SIZE <= mapped.limit()) {
+			int length = mapped.getInt(pos);
+			if ((length < 9) || (pos + HEADER_SIZE + length > mapped.limit())) {
+				break;
+			}
+			byte[] body = new byte[length];
+			mapped.position(pos + HEADER_SIZE);
+			mapped.get(body);
+			this.crc.reset();
+			this.crc.update(body, 0, length);
+			if ((int) this.crc.getValue() != mapped.getInt(pos + 4)) {
+				logger.warn("Bad checksum in outbox segment {} at {}. Ignoring the rest of it.", segment.file, pos);
+				break;
+			}
+
+			ByteBuffer record = ByteBuffer.wrap(body);
+			byte type = record.get();
+			long id = record.getLong();
+			segment.maxId = Math.max(segment.maxId, id);
+			if (type == TYPE_SEND) {
+				this.pending.put(id, new PendingMsg(id, segment, getString(record), getString(record), getString(record), getString(record)));
+				segment.pending++;
+			} else if (type == TYPE_ACK) {
+				PendingMsg msg = this.pending.remove(id);
+				if (msg != null) {
+					msg.segment.pending--;
+				}
+			}
+			pos += HEADER_SIZE + length;
+		}
+		return pos;
+	}
+
+	private static String getString(ByteBuffer record)
+	{
+		int len = record.getInt();
+		if (len < 0) { return null; }
+		String value = new String(record.array(), record.position(), len, UTF8);
+		record.position(record.position() + len);
+		return value;
+	}
+
+	private static class Segment
+	{
+		final long index;
+		final File file;
+		int pending = 0;
+		long maxId = 0;
+
+		Segment(long index, File file)
+		{
+			this.index = index;
+			this.file = file;
+		}
+	}
+
+	/**
+	 * A message that was logged but not acknowledged
+	 */
+	public static class PendingMsg
+	{
+		private final long id;
+		private final Segment segment;
+		private final String systemNumber;
+		private final String to;
+		private final String msg;
+		private final String imageUrl;
+
+		PendingMsg(long id, Segment segment, String systemNumber, String to, String msg, String imageUrl)
+		{
+			this.id = id;
+			this.segment = segment;
+			this.systemNumber = systemNumber;
+			this.to = to;
+			this.msg = msg;
+			this.imageUrl = imageUrl;
+		}
+
+		public long getId() { return this.id; }
+		public String getSystemNumber() { return this.systemNumber; }
+		public String getTo() { return this.to; }
+		public String getMsg() { return this.msg; }
+		public String getImageUrl() { return this.imageUrl; }
+	}
+}
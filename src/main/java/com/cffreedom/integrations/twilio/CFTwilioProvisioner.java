@@ -0,0 +1,266 @@
+package com.cffreedom.integrations.twilio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cffreedom.exceptions.InfrastructureException;
+import com.cffreedom.utils.Format;
+
+/**
+ * Buys a batch of phone numbers with CFTwilio.addPhoneNumber() several at a time. Transient
+ * failures (rate limiting, Twilio 5xx, network errors) are retried with backoff. Afterwards
+ * the account's incoming numbers are read back so every number gets an outcome that
+ * matches what is really on the account, even when a purchase went through but its
+ * response was lost.
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ * 2026-10-17 	MarkJacobsen.net 	Transient error check moved to CFTwilio.isTransient()
+ */
+public class CFTwilioProvisioner
+{
+	private static final Logger logger = LoggerFactory.getLogger(CFTwilioProvisioner.class);
+	public static final int DEFAULT_PARALLELISM = 8;
+	public static final int DEFAULT_MAX_ATTEMPTS = 4;
+	public static final long DEFAULT_BACKOFF_MILLIS = 250;
+	/** Bought by this run */
+	public static final String PROVISIONED = "Provisioned";
+	/** Already on the account before this run, so it wasn't bought again */
+	public static final String ALREADY_OWNED = "AlreadyOwned";
+	/** The purchase reported an error but the number is on the account */
+	public static final String RECONCILED = "Reconciled";
+	/** Not bought */
+	public static final String FAILED = "Failed";
+	/** The purchase reported success but the number isn't on the account */
+	public static final String MISSING = "Missing";
+
+	private final CFTwilio twilio;
+	private final int parallelism;
+	private final int maxAttempts;
+	private final long backoffMillis;
+
+	public CFTwilioProvisioner(CFTwilio twilio)
+	{
+		this(twilio, DEFAULT_PARALLELISM, DEFAULT_MAX_ATTEMPTS, DEFAULT_BACKOFF_MILLIS);
+	}
+
+	/**
+	 * @param twilio
+	 * @param parallelism Max purchases in flight at once
+	 * @param maxAttempts Max tries for a number when the failure is transient
+	 * @param backoffMillis Wait before the first retry. Doubles (plus jitter) on each retry after that.
+	 */
+	public CFTwilioProvisioner(CFTwilio twilio, int parallelism, int maxAttempts, long backoffMillis)
+	{
+		this.twilio = twilio;
+		this.parallelism = parallelism;
+		this.maxAttempts = maxAttempts;
+		this.backoffMillis = backoffMillis;
+	}
+
+	/**
+	 * Buy every number that isn't already on the account
+	 * @param requests
+	 * @return One result per request, in request order
+	 * @throws InfrastructureException If the account's numbers couldn't be read
+	 */
+	public List<ProvisionResult> provision(List<NumberRequest> requests) throws InfrastructureException
+	{
+		long start = System.currentTimeMillis();
+		Map<String, String> before = getIncomingPhoneNumbers();
+		List<ProvisionResult> results = new ArrayList<ProvisionResult>(requests.size());
+		List<Future<ProvisionResult>> futures = new ArrayList<Future<ProvisionResult>>(requests.size());
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(this.parallelism, requests.size())), CFTwilioMessenger.defaultThreadFactory());
+		try {
+			for (final NumberRequest request : requests) {
+				final String number = Format.phoneNumber(Format.PHONE_INT, request.getNumber());
+				if (before.containsKey(number)) {
+					futures.add(null);
+					results.add(new ProvisionResult(number, ALREADY_OWNED, before.get(number), 0, null));
+				} else {
+					results.add(null);
+					futures.add(executor.submit(new Callable<ProvisionResult>() {
+						public ProvisionResult call() {
+							return buy(number, request);
+						}
+					}));
+				}
+			}
+
+			for (int x = 0; x < futures.size(); x++) {
+				if (futures.get(x) != null) {
+					results.set(x, get(futures.get(x), requests.get(x)));
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		List<ProvisionResult> reconciled = reconcile(results, getIncomingPhoneNumbers());
+		logger.info("Provisioned {} numbers in {}ms", requests.size(), System.currentTimeMillis() - start);
+		return reconciled;
+	}
+
+	private ProvisionResult buy(String number, NumberRequest request)
+	{
+		int attempt = 0;
+		while (true) {
+			attempt++;
+			String error;
+			try {
+				String sid = this.twilio.addPhoneNumber(number, request.getName(), request.getVoiceUrl(), request.getSmsUrl(), request.isCnamLookup());
+				return new ProvisionResult(number, PROVISIONED, sid, attempt, null);
+			} catch (InfrastructureException e) {
+				error = e.getMessage();
+				if (!CFTwilio.isTransient(e.getCause())) {
+					return new ProvisionResult(number, FAILED, null, attempt, error);
+				}
+			} catch (RuntimeException e) {
+				// The SDK wraps network errors in RuntimeExceptions
+				error = e.getMessage();
+			}
+
+			if (attempt >= this.maxAttempts) {
+				return new ProvisionResult(number, FAILED, null, attempt, error);
+			}
+			long wait = this.backoffMillis << (attempt - 1);
+			wait += ThreadLocalRandom.current().nextLong(wait / 2 + 1);
+			logger.debug("Transient error buying {} (attempt {}). Retrying in {}ms: {}", number, attempt, wait, error);
+			try {
+				Thread.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return new ProvisionResult(number, FAILED, null, attempt, "Interrupted: " + error);
+			}
+		}
+	}
+
+	private static List<ProvisionResult> reconcile(List<ProvisionResult> results, Map<String, String> after)
+	{
+		List<ProvisionResult> reconciled = new ArrayList<ProvisionResult>(results.size());
+		for (ProvisionResult result : results) {
+			String sid = after.get(result.getNumber());
+			if (FAILED.equals(result.getOutcome()) && (sid != null)) {
+				reconciled.add(new ProvisionResult(result.getNumber(), RECONCILED, sid, result.getAttempts(), result.getError()));
+			} else if (PROVISIONED.equals(result.getOutcome()) && (sid == null)) {
+				reconciled.add(new ProvisionResult(result.getNumber(), MISSING, result.getSid(), result.getAttempts(), null));
+			} else {
+				reconciled.add(result);
+			}
+		}
+		return Collections.unmodifiableList(reconciled);
+	}
+
+	private Map<String, String> getIncomingPhoneNumbers() throws InfrastructureException
+	{
+		try {
+			return this.twilio.getIncomingPhoneNumbers();
+		} catch (RuntimeException e) {
+			throw new InfrastructureException("Error reading the account's phone numbers: " + e.getMessage(), e);
+		}
+	}
+
+	private static ProvisionResult get(Future<ProvisionResult> future, NumberRequest request)
+	{
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new ProvisionResult(request.getNumber(), FAILED, null, 0, "Interrupted");
+		} catch (ExecutionException e) {
+			return new ProvisionResult(request.getNumber(), FAILED, null, 0, e.getCause().getMessage());
+		}
+	}
+
+	/**
+	 * A number to buy and how to set it up
+	 */
+	public static class NumberRequest
+	{
+		private final String number;
+		private final String name;
+		private final String voiceUrl;
+		private final String smsUrl;
+		private final boolean cnamLookup;
+
+		public NumberRequest(String number, String name, String voiceUrl, String smsUrl, boolean cnamLookup)
+		{
+			this.number = number;
+			this.name = name;
+			this.voiceUrl = voiceUrl;
+			this.smsUrl = smsUrl;
+			this.cnamLookup = cnamLookup;
+		}
+
+		public String getNumber() { return this.number; }
+		public String getName() { return this.name; }
+		public String getVoiceUrl() { return this.voiceUrl; }
+		public String getSmsUrl() { return this.smsUrl; }
+		public boolean isCnamLookup() { return this.cnamLookup; }
+	}
+
+	/**
+	 * What happened to one number
+	 */
+	public static class ProvisionResult
+	{
+		private final String number;
+		private final String outcome;
+		private final String sid;
+		private final int attempts;
+		private final String error;
+
+		ProvisionResult(String number, String outcome, String sid, int attempts, String error)
+		{
+			this.number = number;
+			this.outcome = outcome;
+			this.sid = sid;
+			this.attempts = attempts;
+			this.error = error;
+		}
+
+		public String getNumber() { return this.number; }
+		/** @return One of PROVISIONED, ALREADY_OWNED, RECONCILED, FAILED or MISSING */
+		public String getOutcome() { return this.outcome; }
+		/** @return Incoming phone number SID when the number is on the account */
+		public String getSid() { return this.sid; }
+		public int getAttempts() { return this.attempts; }
+		/** @return Last error seen, if any */
+		public String getError() { return this.error; }
+
+		/** @return true if the number ended up on the account */
+		public boolean isOnAccount()
+		{
+			return PROVISIONED.equals(this.outcome) || ALREADY_OWNED.equals(this.outcome) || RECONCILED.equals(this.outcome);
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.number + " " + this.outcome + ((this.sid != null) ? " " + this.sid : "") + ((this.error != null) ? " (" + this.error + ")" : "");
+		}
+	}
+}
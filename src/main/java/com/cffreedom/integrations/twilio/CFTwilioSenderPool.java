@@ -0,0 +1,327 @@
+package com.cffreedom.integrations.twilio;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cffreedom.exceptions.InfrastructureException;
+import com.cffreedom.utils.Format;
+
+/**
+ * Spreads text messages across a pool of sending numbers. Twilio throttles each long code
+ * on its own, so every sender gets its own queue, worker and TokenBucket and the aggregate
+ * rate grows with the size of the pool. A recipient always gets messages from the same
+ * sender (rendezvous hashing, so adding or removing a sender only moves that sender's
+ * recipients).
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ * 2026-10-17 	MarkJacobsen.net 	Recipient keys come from E164.parse()
+ * 2026-10-17 	MarkJacobsen.net 	Don't strand msgs queued while close() is running
+ */
+public class CFTwilioSenderPool
+{
+	private static final Logger logger = LoggerFactory.getLogger(CFTwilioSenderPool.class);
+	/** Twilio's documented limit for a US long code */
+	public static final double DEFAULT_MSGS_PER_SECOND = 1.0;
+	public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+	private static final long POLL_MILLIS = 250;
+
+	private final CFTwilio twilio;
+	private final Sender[] senders;
+	private volatile boolean running = true;
+
+	/**
+	 * Use every number owned by the account as a sender
+	 * @param twilio
+	 * @param msgsPerSecond Rate allowed for each sender
+	 * @return New pool
+	 * @throws InfrastructureException If the account has no phone numbers
+	 */
+	public static CFTwilioSenderPool fromAccount(CFTwilio twilio, double msgsPerSecond) throws InfrastructureException {
+		return new CFTwilioSenderPool(twilio, twilio.getIncomingPhoneNumbers().keySet(), msgsPerSecond, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	public CFTwilioSenderPool(CFTwilio twilio, Collection<String> senderNumbers) throws InfrastructureException {
+		this(twilio, senderNumbers, DEFAULT_MSGS_PER_SECOND, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * @param twilio Instance used to do the actual sending
+	 * @param senderNumbers Numbers (owned by the account) to send from
+	 * @param msgsPerSecond Rate allowed for each sender
+	 * @param queueCapacity Max messages waiting on each sender before callers block
+	 * @throws InfrastructureException If no sender numbers are passed
+	 */
+	public CFTwilioSenderPool(CFTwilio twilio, Collection<String> senderNumbers, double msgsPerSecond, int queueCapacity) throws InfrastructureException {
+		if ((senderNumbers == null) || senderNumbers.isEmpty()) {
+			throw new InfrastructureException("At least one sender number is required");
+		}
+		logger.debug("Starting pool of {} senders at {} msgs/sec each", senderNumbers.size(), msgsPerSecond);
+		this.twilio = twilio;
+		this.senders = new Sender[senderNumbers.size()];
+		ThreadFactory threadFactory = CFTwilioMessenger.defaultThreadFactory();
+		int x = 0;
+		for (String number : senderNumbers) {
+			final Sender sender = new Sender(Format.phoneNumber(Format.PHONE_INT, number), msgsPerSecond, queueCapacity);
+			this.senders[x++] = sender;
+			threadFactory.newThread(new Runnable() {
+				public void run() {
+					work(sender);
+				}
+			}).start();
+		}
+	}
+
+	/**
+	 * Queue a text message on the sender assigned to the recipient, blocking while that sender's queue is full
+	 * @param to
+	 * @param msg
+	 * @param imageUrl
+	 * @return Future completed with the message SID
+	 * @throws InfrastructureException If the pool is closed or the caller is interrupted
+	 */
+	public CompletableFuture<String> sendTextMsg(String to, String msg, String imageUrl) throws InfrastructureException {
+		if (!this.running) {
+			throw new InfrastructureException("Sender pool is closed");
+		}
+		Sender sender = getSenderFor(to);
+		PooledMsg pooled = new PooledMsg(to, msg, imageUrl);
+		try {
+			sender.queue.put(pooled);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InfrastructureException("Interrupted queuing text msg to " + to, e);
+		}
+		// close() may have finished with this queue (sender done, leftovers drained) while we were
+		// blocked in put(). Take the msg back then, or its future would never complete. If it's
+		// already gone the sender or close() has it and will complete the future.
+		if (!this.running && sender.queue.remove(pooled)) {
+			throw new InfrastructureException("Sender pool closed before text msg to " + to + " was queued");
+		}
+		return pooled.future;
+	}
+
+	/**
+	 * @param to Recipient
+	 * @return The number that does (or would) send to the recipient
+	 */
+	public String getSenderNumberFor(String to) {
+		return getSenderFor(to).number;
+	}
+
+	/**
+	 * @return Queue depth, counts and recent send rate for each sender
+	 */
+	public List<SenderStats> getStats() {
+		List<SenderStats> stats = new ArrayList<SenderStats>(this.senders.length);
+		for (Sender sender : this.senders) {
+			stats.add(new SenderStats(sender.number, sender.queue.size(), sender.sent.get(), sender.failed.get(), sender.rate.getRate()));
+		}
+		return Collections.unmodifiableList(stats);
+	}
+
+	/**
+	 * Stop accepting messages and give the senders up to timeout to drain their queues.
+	 * Anything left after that is completed exceptionally.
+	 * @param timeout
+	 * @param unit
+	 * @return true if every queue drained
+	 */
+	public boolean close(long timeout, TimeUnit unit) {
+		this.running = false;
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		boolean drained = true;
+		for (Sender sender : this.senders) {
+			try {
+				drained &= sender.done.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				drained = false;
+				break;
+			}
+		}
+		for (Sender sender : this.senders) {
+			PooledMsg leftover;
+			while ((leftover = sender.queue.poll()) != null) {
+				drained = false;
+				leftover.future.completeExceptionally(new InfrastructureException("Sender pool closed before text msg to " + leftover.to + " was sent"));
+			}
+		}
+		return drained;
+	}
+
+	private Sender getSenderFor(String to) {
+		long recipient = recipientKey(to);
+		Sender best = this.senders[0];
+		long bestScore = Long.MIN_VALUE;
+		for (Sender sender : this.senders) {
+			long score = mix(recipient ^ sender.key);
+			if (score > bestScore) {
+				bestScore = score;
+				best = sender;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * E.164 digits of the number so formatting differences don't move a recipient to another sender
+	 */
+	private static long recipientKey(String number) {
+		long key = E164.parse(number);
+		return (key == E164.INVALID) ? 0 : key;
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+
+	private void work(Sender sender) {
+		try {
+			while (true) {
+				PooledMsg pooled = sender.queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (pooled == null) {
+					if (!this.running) { return; }
+					continue;
+				}
+				sender.bucket.acquire();
+				try {
+					String sid = this.twilio.sendTextMsg(sender.number, pooled.to, pooled.msg, pooled.imageUrl);
+					sender.sent.incrementAndGet();
+					sender.rate.mark();
+					pooled.future.complete(sid);
+				} catch (Exception e) {
+					logger.warn("Error sending text msg from {} to {}: {}", sender.number, pooled.to, e.getMessage());
+					sender.failed.incrementAndGet();
+					pooled.future.completeExceptionally(e);
+				}
+			}
+		} catch (InterruptedException e) {
+			logger.debug("Sender {} interrupted", sender.number);
+		} finally {
+			sender.done.countDown();
+		}
+	}
+
+	/**
+	 * Point in time metrics for one sender
+	 */
+	public static class SenderStats
+	{
+		private final String number;
+		private final int queueDepth;
+		private final long sent;
+		private final long failed;
+		private final double sendRate;
+
+		SenderStats(String number, int queueDepth, long sent, long failed, double sendRate) {
+			this.number = number;
+			this.queueDepth = queueDepth;
+			this.sent = sent;
+			this.failed = failed;
+			this.sendRate = sendRate;
+		}
+
+		public String getNumber() { return this.number; }
+		public int getQueueDepth() { return this.queueDepth; }
+		public long getSent() { return this.sent; }
+		public long getFailed() { return this.failed; }
+		/** @return Msgs/sec over the last few seconds */
+		public double getSendRate() { return this.sendRate; }
+
+		@Override
+		public String toString() {
+			return this.number + " queued=" + this.queueDepth + " sent=" + this.sent + " failed=" + this.failed + " rate=" + String.format("%.2f", this.sendRate) + "/s";
+		}
+	}
+
+	private static class Sender
+	{
+		final String number;
+		final long key;
+		final TokenBucket bucket;
+		final BlockingQueue<PooledMsg> queue;
+		final AtomicLong sent = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		final RateMeter rate = new RateMeter();
+		final CountDownLatch done = new CountDownLatch(1);
+
+		Sender(String number, double msgsPerSecond, int queueCapacity) {
+			this.number = number;
+			this.key = mix(recipientKey(number));
+			this.bucket = new TokenBucket(msgsPerSecond, 1);
+			this.queue = new ArrayBlockingQueue<PooledMsg>(queueCapacity);
+		}
+	}
+
+	private static class PooledMsg
+	{
+		final String to;
+		final String msg;
+		final String imageUrl;
+		final CompletableFuture<String> future = new CompletableFuture<String>();
+
+		PooledMsg(String to, String msg, String imageUrl) {
+			this.to = to;
+			this.msg = msg;
+			this.imageUrl = imageUrl;
+		}
+	}
+
+	/**
+	 * Counts events in one second buckets and reports the average over the last WINDOW full seconds
+	 */
+	static class RateMeter
+	{
+		private static final int WINDOW = 5;
+		private final long[] seconds = new long[WINDOW + 1];
+		private final long[] counts = new long[WINDOW + 1];
+
+		synchronized void mark() {
+			long now = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+			int slot = (int) Math.floorMod(now, (long) this.seconds.length);
+			if (this.seconds[slot] != now) {
+				this.seconds[slot] = now;
+				this.counts[slot] = 0;
+			}
+			this.counts[slot]++;
+		}
+
+		synchronized double getRate() {
+			long now = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+			long total = 0;
+			for (int x = 0; x < this.seconds.length; x++) {
+				long age = now - this.seconds[x];
+				if ((age >= 1) && (age <= WINDOW)) {
+					total += this.counts[x];
+				}
+			}
+			return total / (double) WINDOW;
+		}
+	}
+}
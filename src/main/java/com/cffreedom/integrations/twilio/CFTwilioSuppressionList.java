@@ -0,0 +1,508 @@
+package com.cffreedom.integrations.twilio;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cffreedom.exceptions.InfrastructureException;
+
+/**
+ * Opt-out list of numbers that must not be texted or called. Numbers are held as E164
+ * longs in an open addressing hash table inside a memory mapped file, so the list costs
+ * no heap (about 16 bytes of page cache per number at the max load of 50%), survives
+ * restarts without being re-read, and opening it is just mapping the file.
+ *
+ * contains() is lock free: it hashes the number and probes the mapped table, which takes
+ * nanoseconds. add() and remove() (from STOP / START replies) are synchronized. When the
+ * table gets too full it is rehashed into a new file twice the size, which then replaces
+ * the old one, so readers never wait on a resize.
+ *
+ * Set it on CFTwilio with setSuppressionList() and sendTextMsg() / makeCall() skip
+ * suppressed numbers and return CFTwilio.SUPPRESSED. Route inbound SMS to replyHandler()
+ * to keep it up to date.
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ * 2026-10-17 	MarkJacobsen.net 	add() and remove() publish changes the same way
+ */
+public class CFTwilioSuppressionList
+{
+	private static final Logger logger = LoggerFactory.getLogger(CFTwilioSuppressionList.class);
+	public static final int DEFAULT_EXPECTED_NUMBERS = 1024 * 1024;
+	/** Replies Twilio treats as an opt-out */
+	public static final String[] OPT_OUT_KEYWORDS = { "STOP", "STOPALL", "UNSUBSCRIBE", "CANCEL", "END", "QUIT" };
+	/** Replies Twilio treats as opting back in */
+	public static final String[] OPT_IN_KEYWORDS = { "START", "YES", "UNSTOP" };
+
+	private static final int MAGIC = 0x43465355;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int CAPACITY_OFFSET = 8;
+	private static final int SIZE_OFFSET = 12;
+	private static final int TOMBSTONES_OFFSET = 16;
+	private static final long EMPTY = 0;
+	/** E.164 numbers are positive, so a negative slot can't collide with one */
+	private static final long TOMBSTONE = -1;
+	private static final int MIN_CAPACITY = 1024;
+	/** Largest power of 2 slot count that fits in one mapping */
+	private static final int MAX_CAPACITY = 1 << 27;
+
+	private final File file;
+	/**
+	 * Lock free contains() depends on this being volatile: add() and remove() write the table
+	 * they changed back here after their plain writes to its slots, and contains() reads it
+	 * before probing, so it sees every change made before that write. A rehash publishes
+	 * the new table the same way.
+	 */
+	private volatile Table table;
+
+	/**
+	 * Open the list in file, creating it if it doesn't exist
+	 * @param file
+	 * @throws InfrastructureException
+	 */
+	public CFTwilioSuppressionList(File file) throws InfrastructureException
+	{
+		this(file, DEFAULT_EXPECTED_NUMBERS);
+	}
+
+	/**
+	 * @param file Created if it doesn't exist
+	 * @param expectedNumbers Used to size a new file so it doesn't need to grow while loading
+	 * @throws InfrastructureException
+	 */
+	public CFTwilioSuppressionList(File file, int expectedNumbers) throws InfrastructureException
+	{
+		this.file = file;
+		try {
+			if (file.exists() && (file.length() > 0)) {
+				this.table = Table.open(file);
+				logger.info("Opened suppression list {} with {} numbers", file, this.table.size);
+			} else {
+				this.table = Table.create(file, capacityFor(expectedNumbers));
+				logger.info("Created suppression list {} with room for {} numbers", file, this.table.capacity / 2);
+			}
+		} catch (IOException e) {
+			throw new InfrastructureException("Error opening suppression list " + file + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @param number E.164 digits as a long (see E164.parse())
+	 * @return true if the number has opted out
+	 */
+	public boolean contains(long number)
+	{
+		if (number <= 0) {
+			return false;
+		}
+		Table t = this.table;
+		int slot = (int) mix(number) & t.mask;
+		while (true) {
+			long value = t.get(slot);
+			if (value == number) {
+				return true;
+			}
+			if (value == EMPTY) {
+				return false;
+			}
+			slot = (slot + 1) & t.mask;
+		}
+	}
+
+	/**
+	 * @param number Number in any format (see E164.parse())
+	 * @return true if the number has opted out
+	 */
+	public boolean contains(CharSequence number)
+	{
+		return (number != null) && contains(E164.parse(number));
+	}
+
+	/**
+	 * @param number E.164 digits as a long
+	 * @return true if it wasn't already on the list
+	 * @throws InfrastructureException If the list had to grow and couldn't
+	 */
+	public synchronized boolean add(long number) throws InfrastructureException
+	{
+		if (number <= 0) {
+			throw new IllegalArgumentException("Not an E.164 number: " + number);
+		}
+		Table t = this.table;
+		int slot = (int) mix(number) & t.mask;
+		int free = -1;
+		while (true) {
+			long value = t.get(slot);
+			if (value == number) {
+				return false;
+			}
+			if (value == EMPTY) {
+				break;
+			}
+			if ((value == TOMBSTONE) && (free < 0)) {
+				free = slot;
+			}
+			slot = (slot + 1) & t.mask;
+		}
+
+		if ((free < 0) && ((t.size + t.tombstones + 1) * 2 > t.capacity)) {
+			// Publishes the new table itself
+			rehash(t, number);
+			return true;
+		}
+		if (free >= 0) {
+			t.put(free, number);
+			t.setCounts(t.size + 1, t.tombstones - 1);
+		} else {
+			t.put(slot, number);
+			t.setCounts(t.size + 1, t.tombstones);
+		}
+		// Publish the slot write to contains() (see table)
+		this.table = t;
+		return true;
+	}
+
+	/**
+	 * @param number Number in any format
+	 * @return true if it wasn't already on the list
+	 * @throws InfrastructureException
+	 */
+	public boolean add(CharSequence number) throws InfrastructureException
+	{
+		long parsed = E164.parse(number);
+		if (parsed == E164.INVALID) {
+			logger.warn("Not suppressing invalid number: {}", number);
+			return false;
+		}
+		return add(parsed);
+	}
+
+	/**
+	 * @param number E.164 digits as a long
+	 * @return true if it was on the list
+	 */
+	public synchronized boolean remove(long number)
+	{
+		if (number <= 0) {
+			return false;
+		}
+		Table t = this.table;
+		int slot = (int) mix(number) & t.mask;
+		while (true) {
+			long value = t.get(slot);
+			if (value == number) {
+				t.put(slot, TOMBSTONE);
+				t.setCounts(t.size - 1, t.tombstones + 1);
+				// Publish the slot write to contains() (see table)
+				this.table = t;
+				return true;
+			}
+			if (value == EMPTY) {
+				return false;
+			}
+			slot = (slot + 1) & t.mask;
+		}
+	}
+
+	public boolean remove(CharSequence number)
+	{
+		return remove(E164.parse(number));
+	}
+
+	/**
+	 * Apply an inbound SMS to the list: opt-out keywords add the sender, opt-in keywords
+	 * remove it. Anything else is ignored.
+	 * @param from Who sent the SMS
+	 * @param body What they sent
+	 * @return true if the list changed
+	 * @throws InfrastructureException
+	 */
+	public boolean handleReply(String from, String body) throws InfrastructureException
+	{
+		if ((from == null) || (body == null)) {
+			return false;
+		}
+		if (isKeyword(body, OPT_OUT_KEYWORDS)) {
+			logger.info("{} opted out", from);
+			return add(from);
+		}
+		if (isKeyword(body, OPT_IN_KEYWORDS)) {
+			logger.info("{} opted back in", from);
+			return remove(from);
+		}
+		return false;
+	}
+
+	/**
+	 * @return Handler for inbound SMS that applies STOP / START replies. It answers with an
+	 * empty Response since Twilio sends its own confirmation for those keywords.
+	 */
+	public CFTwilioWebhookServer.Handler replyHandler()
+	{
+		return new CFTwilioWebhookServer.Handler() {
+			public void handle(TwilioWebhookRequest request, TwiMLWriter out) throws Exception {
+				handleReply(request.getFrom(), request.getBody());
+			}
+		};
+	}
+
+	/**
+	 * @param body SMS body
+	 * @return true if it is one of Twilio's opt-out keywords
+	 */
+	public static boolean isOptOut(CharSequence body)
+	{
+		return isKeyword(body, OPT_OUT_KEYWORDS);
+	}
+
+	/**
+	 * Add every number in a text file (one per line, any format)
+	 * @param numbers
+	 * @return Numbers added that weren't already on the list
+	 * @throws InfrastructureException
+	 */
+	public long importNumbers(File numbers) throws InfrastructureException
+	{
+		long added = 0;
+		long invalid = 0;
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(numbers), "UTF-8"), 64 * 1024);
+			String line;
+			while ((line = reader.readLine()) != null) {
+				long number = E164.parse(line);
+				if (number == E164.INVALID) {
+					if (line.trim().length() > 0) { invalid++; }
+				} else if (add(number)) {
+					added++;
+				}
+			}
+		} catch (IOException e) {
+			throw new InfrastructureException("Error importing " + numbers + ": " + e.getMessage(), e);
+		} finally {
+			if (reader != null) {
+				try { reader.close(); } catch (IOException e) { logger.warn("Error closing {}", numbers); }
+			}
+		}
+		logger.info("Imported {} numbers from {} ({} invalid)", added, numbers, invalid);
+		return added;
+	}
+
+	/**
+	 * @return Numbers on the list
+	 */
+	public int size()
+	{
+		return this.table.size;
+	}
+
+	/**
+	 * @return Slots in the table (the list grows when half of them are used)
+	 */
+	public int getCapacity()
+	{
+		return this.table.capacity;
+	}
+
+	/**
+	 * Write changes through to the file
+	 */
+	public synchronized void sync()
+	{
+		this.table.buffer.force();
+	}
+
+	public synchronized void close()
+	{
+		sync();
+		this.table.close();
+	}
+
+	private void rehash(Table old, long extra) throws InfrastructureException
+	{
+		int capacity = ((old.size + 1) * 4 > old.capacity) ? old.capacity * 2 : old.capacity;
+		if (capacity > MAX_CAPACITY) {
+			throw new InfrastructureException("Suppression list " + this.file + " is full at " + old.size + " numbers");
+		}
+		File tmp = new File(this.file.getPath() + ".tmp");
+		try {
+			Table bigger = Table.create(tmp, capacity);
+			for (int x = 0; x < old.capacity; x++) {
+				long value = old.get(x);
+				if (value > 0) {
+					bigger.insertNew(value);
+				}
+			}
+			bigger.insertNew(extra);
+			bigger.setCounts(old.size + 1, 0);
+			bigger.buffer.force();
+			Files.move(tmp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			this.table = bigger;
+			old.close();
+			logger.debug("Rehashed suppression list into {} slots", capacity);
+		} catch (IOException e) {
+			tmp.delete();
+			throw new InfrastructureException("Error growing suppression list " + this.file + ": " + e.getMessage(), e);
+		}
+	}
+
+	private static boolean isKeyword(CharSequence body, String[] keywords)
+	{
+		int start = 0;
+		int end = body.length();
+		while ((start < end) && Character.isWhitespace(body.charAt(start))) { start++; }
+		while ((end > start) && (Character.isWhitespace(body.charAt(end - 1)) || (body.charAt(end - 1) == '.') || (body.charAt(end - 1) == '!'))) { end--; }
+		for (String keyword : keywords) {
+			if (keyword.length() == end - start) {
+				boolean match = true;
+				for (int x = 0; (x < keyword.length()) && match; x++) {
+					match = Character.toUpperCase(body.charAt(start + x)) == keyword.charAt(x);
+				}
+				if (match) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static int capacityFor(int expectedNumbers)
+	{
+		int capacity = MIN_CAPACITY;
+		while ((capacity < MAX_CAPACITY) && (capacity < expectedNumbers * 2L)) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Spread the low digits (which are what vary between numbers) over every bit
+	 */
+	private static long mix(long h)
+	{
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * One mapped file of slots
+	 */
+	private static class Table
+	{
+		private final RandomAccessFile raf;
+		private final MappedByteBuffer buffer;
+		private final int capacity;
+		private final int mask;
+		private volatile int size;
+		private int tombstones;
+
+		private Table(RandomAccessFile raf, MappedByteBuffer buffer, int capacity, int size, int tombstones)
+		{
+			this.raf = raf;
+			this.buffer = buffer;
+			this.capacity = capacity;
+			this.mask = capacity - 1;
+			this.size = size;
+			this.tombstones = tombstones;
+		}
+
+		static Table create(File file, int capacity) throws IOException
+		{
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.setLength(0);
+			long length = HEADER_SIZE + (long) capacity * 8;
+			raf.setLength(length);
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			buffer.putInt(CAPACITY_OFFSET, capacity);
+			Table table = new Table(raf, buffer, capacity, 0, 0);
+			table.setCounts(0, 0);
+			return table;
+		}
+
+		static Table open(File file) throws IOException
+		{
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+				if ((raf.length() < HEADER_SIZE) || (buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != VERSION)) {
+					throw new IOException("Not a suppression list");
+				}
+				int capacity = buffer.getInt(CAPACITY_OFFSET);
+				if ((Integer.bitCount(capacity) != 1) || (raf.length() != HEADER_SIZE + (long) capacity * 8)) {
+					throw new IOException("Suppression list is truncated");
+				}
+				return new Table(raf, buffer, capacity, buffer.getInt(SIZE_OFFSET), buffer.getInt(TOMBSTONES_OFFSET));
+			} catch (IOException e) {
+				raf.close();
+				throw e;
+			}
+		}
+
+		long get(int slot)
+		{
+			return this.buffer.getLong(HEADER_SIZE + (slot << 3));
+		}
+
+		void put(int slot, long value)
+		{
+			this.buffer.putLong(HEADER_SIZE + (slot << 3), value);
+		}
+
+		/**
+		 * Add a number known not to be in the table (only used while rehashing)
+		 */
+		void insertNew(long number)
+		{
+			int slot = (int) mix(number) & this.mask;
+			while (get(slot) != EMPTY) {
+				slot = (slot + 1) & this.mask;
+			}
+			put(slot, number);
+		}
+
+		void setCounts(int size, int tombstones)
+		{
+			this.size = size;
+			this.tombstones = tombstones;
+			this.buffer.putInt(SIZE_OFFSET, size);
+			this.buffer.putInt(TOMBSTONES_OFFSET, tombstones);
+		}
+
+		void close()
+		{
+			try {
+				this.raf.close();
+			} catch (IOException e) {
+				logger.warn("Error closing suppression list: {}", e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package com.cffreedom.integrations.twilio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cffreedom.exceptions.InfrastructureException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Small embedded HTTP server for answering Twilio voice and SMS webhooks without a
+ * servlet container. It uses the JDK's NIO based com.sun.net.httpserver with one selector
+ * thread accepting connections and a fixed pool of workers (virtual threads when the JVM
+ * has them) running the handlers.
+ *
+ * Each path is routed to a Handler that streams its TwiML into a TwiMLWriter, ex:
+ * <pre>
+ * server.route("/voice", new CFTwilioWebhookServer.Handler() {
+ *     public void handle(TwilioWebhookRequest request, TwiMLWriter out) throws Exception {
+ *         CFTwiMLTemplates.twimlSayAndHangUp(out, "Thanks for calling");
+ *     }
+ * });
+ * </pre>
+ * Every worker keeps its own body buffer, response buffer and TwiMLWriter, so answering a
+ * request doesn't build any intermediate Strings. A handler that writes nothing sends
+ * an empty &lt;Response/&gt; (handy for status callbacks).
+ *
+ * The JDK server writes the headers and the body separately, so with Nagle's algorithm on
+ * every response waits for the client's delayed ACK (~40ms). Call enableNoDelay() before
+ * creating the first server, or start the JVM with -Dsun.net.httpserver.nodelay=true. It
+ * isn't done automatically because the property applies to every HttpServer in the JVM.
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ * 2026-10-17 	MarkJacobsen.net 	TCP_NODELAY is opt in through enableNoDelay()
+ */
+public class CFTwilioWebhookServer
+{
+	private static final Logger logger = LoggerFactory.getLogger(CFTwilioWebhookServer.class);
+	public static final int DEFAULT_WORKERS = 16;
+	/** Twilio webhook bodies are a few KB at most */
+	public static final int MAX_BODY = 64 * 1024;
+	public static final String CONTENT_TYPE = "text/xml; charset=utf-8";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Map<String, Handler> routes = new ConcurrentHashMap<String, Handler>();
+	private final ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+		@Override
+		protected Worker initialValue() {
+			return new Worker();
+		}
+	};
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder notFound = new LongAdder();
+
+	/**
+	 * Answers TwiML for a webhook
+	 */
+	public static interface Handler
+	{
+		/**
+		 * @param request Only valid until this returns
+		 * @param out Write the TwiML here (it is flushed for you)
+		 * @throws Exception Answered with a 500
+		 */
+		void handle(TwilioWebhookRequest request, TwiMLWriter out) throws Exception;
+	}
+
+	/**
+	 * Turn on TCP_NODELAY for every com.sun.net.httpserver server in this JVM unless
+	 * sun.net.httpserver.nodelay was already set. The JDK only reads the property when the
+	 * first server is created, so call this before that.
+	 */
+	public static void enableNoDelay()
+	{
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	/**
+	 * Listen on every interface
+	 * @param port 0 to pick a free one
+	 * @throws InfrastructureException
+	 */
+	public CFTwilioWebhookServer(int port) throws InfrastructureException
+	{
+		this(new InetSocketAddress(port), DEFAULT_WORKERS);
+	}
+
+	/**
+	 * @param address Address to listen on
+	 * @param workers Max handlers running at once
+	 * @throws InfrastructureException If the address can't be bound
+	 */
+	public CFTwilioWebhookServer(InetSocketAddress address, int workers) throws InfrastructureException
+	{
+		if (workers <= 0) { throw new IllegalArgumentException("workers must be > 0"); }
+		try {
+			this.server = HttpServer.create(address, 0);
+		} catch (IOException e) {
+			throw new InfrastructureException("Error listening on " + address + ": " + e.getMessage(), e);
+		}
+		this.executor = Executors.newFixedThreadPool(workers, CFTwilioMessenger.defaultThreadFactory());
+		this.server.setExecutor(this.executor);
+		this.server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				dispatch(exchange);
+			}
+		});
+	}
+
+	/**
+	 * Send requests for a path to a handler. Can be called while running.
+	 * @param path Exact path (ex: "/twilio/voice")
+	 * @param handler
+	 * @return this
+	 */
+	public CFTwilioWebhookServer route(String path, Handler handler)
+	{
+		this.routes.put(path, handler);
+		return this;
+	}
+
+	public void start()
+	{
+		this.server.start();
+		logger.info("Listening for Twilio webhooks on port {}", getPort());
+	}
+
+	/**
+	 * Stop accepting requests and stop the workers
+	 * @param waitSeconds Max time to let requests in progress finish
+	 */
+	public void stop(int waitSeconds)
+	{
+		this.server.stop(waitSeconds);
+		this.executor.shutdownNow();
+	}
+
+	public int getPort() { return this.server.getAddress().getPort(); }
+	/** @return Requests answered (any status) */
+	public long getRequestCount() { return this.requests.sum(); }
+	/** @return Requests answered with a 500 */
+	public long getErrorCount() { return this.errors.sum(); }
+	/** @return Requests for a path with no route */
+	public long getNotFoundCount() { return this.notFound.sum(); }
+
+	private void dispatch(HttpExchange exchange)
+	{
+		this.requests.increment();
+		try {
+			String path = exchange.getRequestURI().getPath();
+			Handler handler = this.routes.get(path);
+			if (handler == null) {
+				this.notFound.increment();
+				respond(exchange, 404, null, 0);
+				return;
+			}
+
+			Worker worker = this.workers.get();
+			TwilioWebhookRequest request;
+			if ("GET".equals(exchange.getRequestMethod())) {
+				String query = exchange.getRequestURI().getRawQuery();
+				byte[] params = (query == null) ? new byte[0] : query.getBytes(UTF8);
+				request = worker.request.reset("GET", path, params, params.length);
+			} else {
+				int length = worker.read(exchange.getRequestBody());
+				if (length < 0) {
+					respond(exchange, 413, null, 0);
+					return;
+				}
+				request = worker.request.reset(exchange.getRequestMethod(), path, worker.body, length);
+			}
+
+			worker.response.reset();
+			TwiMLWriter out = worker.writer.reset(worker.response);
+			try {
+				handler.handle(request, out);
+				out.flush();
+				if (worker.response.size() == 0) {
+					CFTwiMLTemplates.twimlEmptyResponse(out);
+					out.flush();
+				}
+			} catch (Exception e) {
+				this.errors.increment();
+				logger.error("Error handling {}: {}", request, e.getMessage(), e);
+				respond(exchange, 500, null, 0);
+				return;
+			}
+			respond(exchange, 200, worker.response.array(), worker.response.size());
+		} catch (IOException e) {
+			logger.debug("Error answering {}: {}", exchange.getRequestURI(), e.getMessage());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, byte[] body, int length) throws IOException
+	{
+		if (body == null) {
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+		exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+		exchange.sendResponseHeaders(status, length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body, 0, length);
+		out.close();
+	}
+
+	/**
+	 * Buffers reused by every request a worker thread handles
+	 */
+	private static class Worker
+	{
+		private byte[] body = new byte[4096];
+		private final ResponseBuffer response = new ResponseBuffer();
+		private final TwiMLWriter writer = TwiMLWriter.forStream(this.response);
+		private final TwilioWebhookRequest request = new TwilioWebhookRequest();
+
+		/**
+		 * @return Bytes read into body or -1 if it is bigger than MAX_BODY
+		 */
+		int read(InputStream in) throws IOException
+		{
+			int length = 0;
+			int read;
+			while ((read = in.read(this.body, length, this.body.length - length)) != -1) {
+				length += read;
+				if (length == this.body.length) {
+					if (length == MAX_BODY) {
+						return (in.read() == -1) ? length : -1;
+					}
+					byte[] bigger = new byte[Math.min(MAX_BODY, length * 2)];
+					System.arraycopy(this.body, 0, bigger, 0, length);
+					this.body = bigger;
+				}
+			}
+			return length;
+		}
+	}
+
+	/**
+	 * ByteArrayOutputStream that hands out its array instead of copying it
+	 */
+	private static class ResponseBuffer extends ByteArrayOutputStream
+	{
+		ResponseBuffer()
+		{
+			super(4096);
+		}
+
+		byte[] array()
+		{
+			return this.buf;
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package com.cffreedom.integrations.twilio;
+
+/**
+ * Class to canonicalize phone numbers to E.164 without the intermediate strings
+ * Format.phoneNumber(Format.PHONE_INT, ...) creates. A number is held as a primitive
+ * long of its E.164 digits (country code included, so +1 555 555 0100 is 15555550100).
+ * E.164 numbers never start with 0 and are at most 15 digits, so the long is unambiguous.
+ *
+ * Parsing follows the same rules as Format.PHONE_INT: everything but digits is ignored
+ * and a 10 digit number without a leading + is treated as North American (1 prepended).
+ *
+ * Instances add a small cache of formatted "+15555550100" strings for numbers that are
+ * sent to over and over (campaigns, sender pools).
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ */
+public final class E164
+{
+	/** Returned for anything that can't be an E.164 number */
+	public static final long INVALID = -1;
+	public static final int MAX_DIGITS = 15;
+	public static final int DEFAULT_CACHE_SIZE = 1024;
+	private static final long NANP_PREFIX = 10000000000L;
+
+	private final Entry[] cache;
+	private final int mask;
+
+	public E164()
+	{
+		this(DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * @param cacheSize Number of formatted strings to keep (rounded up to a power of 2)
+	 */
+	public E164(int cacheSize)
+	{
+		int size = Integer.highestOneBit(Math.max(1, cacheSize - 1)) << 1;
+		this.cache = new Entry[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * @param number Number in any format, e.g. "(555) 555-0100", "+44 20 7946 0018"
+	 * @return E.164 digits as a long or INVALID
+	 */
+	public static long parse(CharSequence number)
+	{
+		if (number == null) { return INVALID; }
+		long value = 0;
+		int digits = 0;
+		boolean plus = false;
+		int len = number.length();
+		for (int x = 0; x < len; x++) {
+			char c = number.charAt(x);
+			if ((c >= '0') && (c <= '9')) {
+				if ((digits == 0) && (c == '0')) { return INVALID; }
+				if (++digits > MAX_DIGITS) { return INVALID; }
+				value = value * 10 + (c - '0');
+			} else if ((c == '+') && (digits == 0)) {
+				plus = true;
+			}
+		}
+		if (digits == 0) { return INVALID; }
+		if (!plus && (digits == 10)) {
+			value += NANP_PREFIX;
+		}
+		return value;
+	}
+
+	/**
+	 * Parse a batch of numbers
+	 * @param numbers
+	 * @return One E.164 long (or INVALID) per number
+	 */
+	public static long[] normalize(CharSequence[] numbers)
+	{
+		long[] out = new long[numbers.length];
+		normalize(numbers, out);
+		return out;
+	}
+
+	/**
+	 * Parse a batch of numbers into an existing array so it can be reused between batches
+	 * @param numbers
+	 * @param out At least numbers.length long
+	 * @return Count of INVALID numbers
+	 */
+	public static int normalize(CharSequence[] numbers, long[] out)
+	{
+		if (out.length < numbers.length) {
+			throw new IllegalArgumentException("Output array holds " + out.length + " but there are " + numbers.length + " numbers");
+		}
+		int invalid = 0;
+		for (int x = 0; x < numbers.length; x++) {
+			long value = parse(numbers[x]);
+			out[x] = value;
+			if (value == INVALID) { invalid++; }
+		}
+		return invalid;
+	}
+
+	/**
+	 * @param e164 Value from parse()
+	 * @return "+15555550100" style string (not cached) or null for INVALID
+	 */
+	public static String toString(long e164)
+	{
+		if (e164 <= 0) { return null; }
+		char[] buf = new char[MAX_DIGITS + 1];
+		int pos = buf.length;
+		long value = e164;
+		while (value > 0) {
+			buf[--pos] = (char) ('0' + (value % 10));
+			value /= 10;
+		}
+		buf[--pos] = '+';
+		return new String(buf, pos, buf.length - pos);
+	}
+
+	/**
+	 * Same as toString(long) but reuses the string for recently formatted numbers
+	 * @param e164 Value from parse()
+	 * @return "+15555550100" style string or null for INVALID
+	 */
+	public String format(long e164)
+	{
+		if (e164 <= 0) { return null; }
+		int slot = (int) mix(e164) & this.mask;
+		Entry entry = this.cache[slot];
+		if ((entry != null) && (entry.e164 == e164)) {
+			return entry.formatted;
+		}
+		String formatted = toString(e164);
+		// Entries are immutable so a racing reader sees either the old or the new one
+		this.cache[slot] = new Entry(e164, formatted);
+		return formatted;
+	}
+
+	/**
+	 * Drop in for Format.phoneNumber(Format.PHONE_INT, number)
+	 * @param number
+	 * @return "+15555550100" style string or null if the number isn't valid
+	 */
+	public String canonicalize(CharSequence number)
+	{
+		return format(parse(number));
+	}
+
+	private static long mix(long z)
+	{
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		return z ^ (z >>> 33);
+	}
+
+	private static final class Entry
+	{
+		final long e164;
+		final String formatted;
+
+		Entry(long e164, String formatted)
+		{
+			this.e164 = e164;
+			this.formatted = formatted;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package com.cffreedom.integrations.twilio;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket used to pace requests to Twilio. Tokens refill continuously at
+ * permitsPerSecond up to burst. acquire() reserves the next token and sleeps until it
+ * is due, so waiting callers are spaced evenly instead of waking all at once.
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ */
+public final class TokenBucket
+{
+	private final double burst;
+	private final long nanosPerToken;
+	private double tokens;
+	private long lastRefill;
+
+	/**
+	 * @param permitsPerSecond Sustained rate
+	 * @param burst Max tokens that can build up while idle (>= 1)
+	 */
+	public TokenBucket(double permitsPerSecond, int burst)
+	{
+		if (permitsPerSecond <= 0) { throw new IllegalArgumentException("permitsPerSecond must be > 0"); }
+		if (burst < 1) { throw new IllegalArgumentException("burst must be >= 1"); }
+		this.burst = burst;
+		this.nanosPerToken = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+		this.tokens = burst;
+		this.lastRefill = System.nanoTime();
+	}
+
+	public double getPermitsPerSecond()
+	{
+		return TimeUnit.SECONDS.toNanos(1) / (double) this.nanosPerToken;
+	}
+
+	/**
+	 * Take a token, waiting for one if necessary
+	 * @throws InterruptedException
+	 */
+	public void acquire() throws InterruptedException
+	{
+		long waitNanos = reserve();
+		if (waitNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+
+	/**
+	 * @return true if a token was available and taken
+	 */
+	public synchronized boolean tryAcquire()
+	{
+		refill(System.nanoTime());
+		if (this.tokens >= 1) {
+			this.tokens -= 1;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return Tokens currently available (negative when callers are waiting on reserved tokens)
+	 */
+	public synchronized double getAvailable()
+	{
+		refill(System.nanoTime());
+		return this.tokens;
+	}
+
+	/**
+	 * Take the next token even if it isn't due yet
+	 * @return Nanos until the reserved token is due
+	 */
+	private synchronized long reserve()
+	{
+		refill(System.nanoTime());
+		this.tokens -= 1;
+		if (this.tokens >= 0) {
+			return 0;
+		}
+		return (long) (-this.tokens * this.nanosPerToken);
+	}
+
+	private void refill(long now)
+	{
+		long elapsed = now - this.lastRefill;
+		if (elapsed > 0) {
+			this.tokens = Math.min(this.burst, this.tokens + (elapsed / (double) this.nanosPerToken));
+			this.lastRefill = now;
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package com.cffreedom.integrations.twilio;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A TwiML document compiled once into literal segments and parameter slots. Rendering
+ * only has to XML escape the values and copy them in between the prebuilt segments.
+ *
+ * Skeletons use {0}, {1}, ... for slots. A slot can appear in an element body or an
+ * attribute value and can be used more than once.
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ * 2026-10-17 	MarkJacobsen.net 	Added render(TwiMLWriter, ...) for streaming
+ * 2026-10-17 	MarkJacobsen.net 	Segment access so CFTwiMLTemplates can stream values itself
+ * 2026-10-17 	MarkJacobsen.net 	render() checks the value count before sizing the buffer
+ */
+public final class TwiMLTemplate
+{
+	public static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final char[][] segments;
+	private final byte[][] encoded;
+	private final int[] slots;
+	private final int literalLength;
+	private final int slotCount;
+
+	private TwiMLTemplate(char[][] segments, int[] slots)
+	{
+		this.segments = segments;
+		this.slots = slots;
+		this.encoded = new byte[segments.length][];
+		int len = 0;
+		for (int x = 0; x < segments.length; x++) {
+			len += segments[x].length;
+			this.encoded[x] = new String(segments[x]).getBytes(UTF8);
+		}
+		int max = -1;
+		for (int slot : slots) {
+			max = Math.max(max, slot);
+		}
+		this.literalLength = len;
+		this.slotCount = max + 1;
+	}
+
+	/**
+	 * Compile a full TwiML document (XML header included) around the passed Response body
+	 * @param responseBody Everything that goes between &lt;Response&gt; and &lt;/Response&gt;
+	 * @return Compiled template
+	 */
+	public static TwiMLTemplate compileResponse(String responseBody)
+	{
+		return compile(XML_HEADER + "<Response>" + responseBody + "</Response>");
+	}
+
+	/**
+	 * @param skeleton XML with {n} slots
+	 * @return Compiled template
+	 */
+	public static TwiMLTemplate compile(String skeleton)
+	{
+		List<char[]> segments = new ArrayList<char[]>();
+		List<Integer> slots = new ArrayList<Integer>();
+		int start = 0;
+		int pos = 0;
+		while ((pos = skeleton.indexOf('{', pos)) != -1) {
+			int end = skeleton.indexOf('}', pos);
+			if (end == -1) { break; }
+			int slot;
+			try {
+				slot = Integer.parseInt(skeleton.substring(pos + 1, end));
+			} catch (NumberFormatException e) {
+				pos++;
+				continue;
+			}
+			segments.add(skeleton.substring(start, pos).toCharArray());
+			slots.add(slot);
+			start = end + 1;
+			pos = start;
+		}
+		segments.add(skeleton.substring(start).toCharArray());
+
+		int[] slotArray = new int[slots.size()];
+		for (int x = 0; x < slotArray.length; x++) {
+			slotArray[x] = slots.get(x);
+		}
+		return new TwiMLTemplate(segments.toArray(new char[segments.size()][]), slotArray);
+	}
+
+	public int getSlotCount()
+	{
+		return this.slotCount;
+	}
+
+	/**
+	 * @return Number of {n} holes in the skeleton (a slot can fill more than one)
+	 */
+	int getHoleCount()
+	{
+		return this.slots.length;
+	}
+
+	/**
+	 * @param hole 0 - getHoleCount() - 1
+	 * @return Slot that fills the hole
+	 */
+	int getSlot(int hole)
+	{
+		return this.slots[hole];
+	}
+
+	/**
+	 * Stream the markup in front of a hole, for callers that write the values themselves
+	 * @param out
+	 * @param hole 0 - getHoleCount() (the markup after the last hole)
+	 * @throws IOException
+	 */
+	void writeSegment(TwiMLWriter out, int hole) throws IOException
+	{
+		out.literal(this.segments[hole], this.encoded[hole]);
+	}
+
+	/**
+	 * @param values One value per slot. Null renders as an empty string.
+	 * @return Rendered TwiML
+	 */
+	public String render(String... values)
+	{
+		if (values.length < this.slotCount) {
+			throw new IllegalArgumentException("Expected " + this.slotCount + " values but got " + values.length);
+		}
+		int len = this.literalLength;
+		for (int x = 0; x < this.slots.length; x++) {
+			String value = values[this.slots[x]];
+			if (value != null) { len += value.length() + 8; }
+		}
+		StringBuilder sb = new StringBuilder(len);
+		render(sb, values);
+		return sb.toString();
+	}
+
+	/**
+	 * Append the rendered TwiML to sb
+	 * @param sb
+	 * @param values One value per slot. Null renders as an empty string.
+	 */
+	public void render(StringBuilder sb, String... values)
+	{
+		if (values.length < this.slotCount) {
+			throw new IllegalArgumentException("Expected " + this.slotCount + " values but got " + values.length);
+		}
+		int last = this.slots.length;
+		for (int x = 0; x < last; x++) {
+			sb.append(this.segments[x]);
+			escape(sb, values[this.slots[x]]);
+		}
+		sb.append(this.segments[last]);
+	}
+
+	/**
+	 * Stream the rendered TwiML to out (which may already hold other output)
+	 * @param out
+	 * @param values One value per slot. Null renders as an empty string.
+	 * @throws IOException
+	 */
+	public void render(TwiMLWriter out, String... values) throws IOException
+	{
+		if (values.length < this.slotCount) {
+			throw new IllegalArgumentException("Expected " + this.slotCount + " values but got " + values.length);
+		}
+		int last = this.slots.length;
+		for (int x = 0; x < last; x++) {
+			out.literal(this.segments[x], this.encoded[x]);
+			String value = values[this.slots[x]];
+			if (value != null) {
+				out.escape(value);
+			}
+		}
+		out.literal(this.segments[last], this.encoded[last]);
+	}
+
+	/**
+	 * XML escape a value for use in an element body or a double quoted attribute
+	 * @param sb
+	 * @param value
+	 */
+	static void escape(StringBuilder sb, String value)
+	{
+		if (value == null) { return; }
+		int len = value.length();
+		int from = 0;
+		for (int x = 0; x < len; x++) {
+			String replacement;
+			switch (value.charAt(x)) {
+				case '&': replacement = "&amp;"; break;
+				case '<': replacement = "&lt;"; break;
+				case '>': replacement = "&gt;"; break;
+				case '"': replacement = "&quot;"; break;
+				case '\'': replacement = "&apos;"; break;
+				default: continue;
+			}
+			sb.append(value, from, x).append(replacement);
+			from = x + 1;
+		}
+		sb.append(value, from, len);
+	}
+}
@@ -0,0 +1,474 @@
+package com.cffreedom.integrations.twilio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Streams TwiML straight into an OutputStream, Writer or ByteBuffer. Element text and
+ * attribute values are XML escaped (and UTF-8 encoded for the byte targets) as they are
+ * copied, so no intermediate Strings are built. A writer can be reset() onto a new target
+ * and reused, e.g. one per request thread. A surrogate without its other half can't be
+ * encoded as UTF-8, so the byte targets write '?' for it.
+ *
+ * <pre>
+ * TwiMLWriter out = TwiMLWriter.forStream(response.getOutputStream());
+ * out.startResponse().say("Hello").start("Gather").attr("action", url).attr("numDigits", 1).end().endResponse().flush();
+ * </pre>
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ * 2026-10-17 	MarkJacobsen.net 	'?' for unpaired high surrogates, number() for templates
+ */
+public final class TwiMLWriter
+{
+	private static final int BUFFER_SIZE = 4096;
+	private static final int MAX_DEPTH = 16;
+
+	private OutputStream stream;
+	private Writer writer;
+	private ByteBuffer target;
+	private final byte[] bytes;
+	private final char[] chars;
+	private int pos = 0;
+	private char highSurrogate = 0;
+	private final String[] open = new String[MAX_DEPTH];
+	private int depth = 0;
+	private boolean inStartTag = false;
+
+	private TwiMLWriter(boolean charTarget)
+	{
+		this.bytes = charTarget ? null : new byte[BUFFER_SIZE];
+		this.chars = charTarget ? new char[BUFFER_SIZE] : null;
+	}
+
+	/**
+	 * @param out Written as UTF-8. Buffered here so there is no need to wrap it.
+	 * @return Writer for out
+	 */
+	public static TwiMLWriter forStream(OutputStream out)
+	{
+		return new TwiMLWriter(false).reset(out);
+	}
+
+	/**
+	 * @param out
+	 * @return Writer for out
+	 */
+	public static TwiMLWriter forWriter(Writer out)
+	{
+		return new TwiMLWriter(true).reset(out);
+	}
+
+	/**
+	 * @param out Written as UTF-8 from its current position. flush() throws BufferOverflowException if it fills up.
+	 * @return Writer for out
+	 */
+	public static TwiMLWriter forBuffer(ByteBuffer out)
+	{
+		return new TwiMLWriter(false).reset(out);
+	}
+
+	/**
+	 * Point a writer created with forStream() or forBuffer() at another stream
+	 * @param out
+	 * @return this
+	 */
+	public TwiMLWriter reset(OutputStream out)
+	{
+		requireBytes();
+		clear();
+		this.stream = out;
+		return this;
+	}
+
+	/**
+	 * Point a writer created with forStream() or forBuffer() at another buffer
+	 * @param out
+	 * @return this
+	 */
+	public TwiMLWriter reset(ByteBuffer out)
+	{
+		requireBytes();
+		clear();
+		this.target = out;
+		return this;
+	}
+
+	/**
+	 * Point a writer created with forWriter() at another Writer
+	 * @param out
+	 * @return this
+	 */
+	public TwiMLWriter reset(Writer out)
+	{
+		if (this.chars == null) { throw new IllegalStateException("Created for bytes, not chars"); }
+		clear();
+		this.writer = out;
+		return this;
+	}
+
+	/**
+	 * XML header and &lt;Response&gt;
+	 * @return this
+	 * @throws IOException
+	 */
+	public TwiMLWriter startResponse() throws IOException
+	{
+		literal(TwiMLTemplate.XML_HEADER);
+		return start("Response");
+	}
+
+	/**
+	 * Close every open element (including Response)
+	 * @return this
+	 * @throws IOException
+	 */
+	public TwiMLWriter endResponse() throws IOException
+	{
+		while (this.depth > 0) {
+			end();
+		}
+		return this;
+	}
+
+	/**
+	 * Open an element. Add attributes with attr() before any text or child elements.
+	 * @param name Element name (not escaped)
+	 * @return this
+	 * @throws IOException
+	 */
+	public TwiMLWriter start(String name) throws IOException
+	{
+		if (this.depth == MAX_DEPTH) { throw new IllegalStateException("TwiML nested more than " + MAX_DEPTH + " deep"); }
+		closeStartTag();
+		put('<');
+		literal(name);
+		this.open[this.depth++] = name;
+		this.inStartTag = true;
+		return this;
+	}
+
+	/**
+	 * @param name Attribute name (not escaped)
+	 * @param value Escaped. Null skips the attribute.
+	 * @return this
+	 * @throws IOException
+	 */
+	public TwiMLWriter attr(String name, CharSequence value) throws IOException
+	{
+		if (!this.inStartTag) { throw new IllegalStateException("Attributes must come before text and child elements"); }
+		if (value != null) {
+			put(' ');
+			literal(name);
+			put('=');
+			put('"');
+			escape(value);
+			put('"');
+		}
+		return this;
+	}
+
+	/**
+	 * @param name Attribute name
+	 * @param value
+	 * @return this
+	 * @throws IOException
+	 */
+	public TwiMLWriter attr(String name, long value) throws IOException
+	{
+		if (!this.inStartTag) { throw new IllegalStateException("Attributes must come before text and child elements"); }
+		put(' ');
+		literal(name);
+		put('=');
+		put('"');
+		number(value);
+		put('"');
+		return this;
+	}
+
+	/**
+	 * @param value Escaped element text. Null writes nothing.
+	 * @return this
+	 * @throws IOException
+	 */
+	public TwiMLWriter text(CharSequence value) throws IOException
+	{
+		closeStartTag();
+		if (value != null) {
+			escape(value);
+		}
+		return this;
+	}
+
+	/**
+	 * Close the innermost open element
+	 * @return this
+	 * @throws IOException
+	 */
+	public TwiMLWriter end() throws IOException
+	{
+		if (this.depth == 0) { throw new IllegalStateException("No open element"); }
+		String name = this.open[--this.depth];
+		this.open[this.depth] = null;
+		if (this.inStartTag) {
+			put('/');
+			put('>');
+			this.inStartTag = false;
+		} else {
+			put('<');
+			put('/');
+			literal(name);
+			put('>');
+		}
+		return this;
+	}
+
+	/**
+	 * &lt;name&gt;text&lt;/name&gt;
+	 * @throws IOException
+	 */
+	public TwiMLWriter element(String name, CharSequence text) throws IOException
+	{
+		return start(name).text(text).end();
+	}
+
+	public TwiMLWriter say(CharSequence text) throws IOException
+	{
+		return element("Say", text);
+	}
+
+	public TwiMLWriter play(CharSequence url) throws IOException
+	{
+		return element("Play", url);
+	}
+
+	public TwiMLWriter sms(CharSequence text) throws IOException
+	{
+		return element("Sms", text);
+	}
+
+	public TwiMLWriter dial(CharSequence number) throws IOException
+	{
+		return element("Dial", number);
+	}
+
+	public TwiMLWriter redirect(CharSequence url) throws IOException
+	{
+		return start("Redirect").attr("method", "POST").text(url).end();
+	}
+
+	public TwiMLWriter hangup() throws IOException
+	{
+		return start("Hangup").end();
+	}
+
+	public TwiMLWriter reject() throws IOException
+	{
+		return start("Reject").end();
+	}
+
+	/**
+	 * Write everything buffered to the target. The target itself is not flushed or closed.
+	 * @return this
+	 * @throws IOException
+	 */
+	public TwiMLWriter flush() throws IOException
+	{
+		if (this.chars != null) {
+			this.writer.write(this.chars, 0, this.pos);
+		} else if (this.stream != null) {
+			this.stream.write(this.bytes, 0, this.pos);
+		} else {
+			if (this.target.remaining() < this.pos) {
+				throw new BufferOverflowException();
+			}
+			this.target.put(this.bytes, 0, this.pos);
+		}
+		this.pos = 0;
+		return this;
+	}
+
+	/**
+	 * Copy markup as is (no escaping)
+	 * @param markup
+	 * @throws IOException
+	 */
+	void literal(CharSequence markup) throws IOException
+	{
+		for (int x = 0, len = markup.length(); x < len; x++) {
+			put(markup.charAt(x));
+		}
+		unpaired();
+	}
+
+	/**
+	 * Copy markup that was encoded up front (TwiMLTemplate segments) in bulk
+	 * @param markup
+	 * @param utf8 markup as UTF-8
+	 * @throws IOException
+	 */
+	void literal(char[] markup, byte[] utf8) throws IOException
+	{
+		if (this.chars != null) {
+			copy(markup, markup.length);
+		} else {
+			unpaired();
+			copy(utf8, utf8.length);
+		}
+	}
+
+	/**
+	 * Same escaping as TwiMLTemplate.escape()
+	 * @param value
+	 * @throws IOException
+	 */
+	void escape(CharSequence value) throws IOException
+	{
+		for (int x = 0, len = value.length(); x < len; x++) {
+			char c = value.charAt(x);
+			switch (c) {
+				case '&': literal("&amp;"); break;
+				case '<': literal("&lt;"); break;
+				case '>': literal("&gt;"); break;
+				case '"': literal("&quot;"); break;
+				case '\'': literal("&apos;"); break;
+				default:
+					if ((c < 0x80) && (this.highSurrogate == 0) && (this.bytes != null) && (this.pos < this.bytes.length)) {
+						this.bytes[this.pos++] = (byte) c;
+					} else {
+						put(c);
+					}
+			}
+		}
+		// A surrogate pair can't be split across values
+		unpaired();
+	}
+
+	private void copy(Object src, int len) throws IOException
+	{
+		int size = (this.chars != null) ? this.chars.length : this.bytes.length;
+		int off = 0;
+		while (off < len) {
+			if (this.pos == size) { flush(); }
+			int count = Math.min(len - off, size - this.pos);
+			System.arraycopy(src, off, (this.chars != null) ? this.chars : this.bytes, this.pos, count);
+			this.pos += count;
+			off += count;
+		}
+	}
+
+	/**
+	 * Write value's digits without going through a String
+	 * @param value
+	 * @throws IOException
+	 */
+	void number(long value) throws IOException
+	{
+		if (value < 0) {
+			put('-');
+			if (value == Long.MIN_VALUE) {
+				literal("9223372036854775808");
+				return;
+			}
+			value = -value;
+		}
+		long div = 1;
+		while (value / div >= 10) {
+			div *= 10;
+		}
+		for (; div > 0; div /= 10) {
+			put((char) ('0' + ((value / div) % 10)));
+		}
+	}
+
+	private void closeStartTag() throws IOException
+	{
+		if (this.inStartTag) {
+			put('>');
+			this.inStartTag = false;
+		}
+	}
+
+	private void put(char c) throws IOException
+	{
+		if (this.chars != null) {
+			if (this.pos == this.chars.length) { flush(); }
+			this.chars[this.pos++] = c;
+			return;
+		}
+		// UTF-8 needs up to 4 bytes
+		if (this.pos > this.bytes.length - 4) { flush(); }
+		if ((this.highSurrogate != 0) && !Character.isLowSurrogate(c)) {
+			// The high surrogate before this never got its low surrogate
+			this.highSurrogate = 0;
+			this.bytes[this.pos++] = '?';
+		}
+		if (c < 0x80) {
+			this.bytes[this.pos++] = (byte) c;
+		} else if (c < 0x800) {
+			this.bytes[this.pos++] = (byte) (0xC0 | (c >> 6));
+			this.bytes[this.pos++] = (byte) (0x80 | (c & 0x3F));
+		} else if (Character.isHighSurrogate(c)) {
+			this.highSurrogate = c;
+		} else if (Character.isLowSurrogate(c)) {
+			if (this.highSurrogate == 0) {
+				this.bytes[this.pos++] = '?';
+				return;
+			}
+			int cp = Character.toCodePoint(this.highSurrogate, c);
+			this.highSurrogate = 0;
+			this.bytes[this.pos++] = (byte) (0xF0 | (cp >> 18));
+			this.bytes[this.pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+			this.bytes[this.pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+			this.bytes[this.pos++] = (byte) (0x80 | (cp & 0x3F));
+		} else {
+			this.bytes[this.pos++] = (byte) (0xE0 | (c >> 12));
+			this.bytes[this.pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			this.bytes[this.pos++] = (byte) (0x80 | (c & 0x3F));
+		}
+	}
+
+	/**
+	 * Write '?' for a high surrogate still waiting for its low surrogate
+	 */
+	private void unpaired() throws IOException
+	{
+		if (this.highSurrogate != 0) {
+			this.highSurrogate = 0;
+			put('?');
+		}
+	}
+
+	private void requireBytes()
+	{
+		if (this.bytes == null) { throw new IllegalStateException("Created for chars, not bytes"); }
+	}
+
+	private void clear()
+	{
+		this.stream = null;
+		this.writer = null;
+		this.target = null;
+		this.pos = 0;
+		this.highSurrogate = 0;
+		for (int x = 0; x < this.depth; x++) {
+			this.open[x] = null;
+		}
+		this.depth = 0;
+		this.inStartTag = false;
+	}
+}
@@ -0,0 +1,343 @@
+package com.cffreedom.integrations.twilio;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.params.CoreProtocolPNames;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cffreedom.utils.Utils;
+import com.twilio.sdk.TwilioRestClient;
+import com.twilio.sdk.resource.instance.Account;
+
+/**
+ * Process wide registry of TwilioRestClients so short lived CFTwilio instances reuse
+ * connections instead of each one building (and throwing away) its own HttpClient and
+ * connection pool.
+ *
+ * There is one client (and cached Account) per account SID + endpoint. The SDK sets the
+ * account's credentials on its HttpClient for every request so clients can't be shared
+ * between accounts, but all of them share one keep-alive connection pool. Credentials are
+ * also sent preemptively so requests don't make a second round trip after a 401 challenge.
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ * 2026-10-17 	MarkJacobsen.net 	getEntry() for a matching client and Account, IllegalArgumentException for missing credentials
+ */
+public final class TwilioClientRegistry
+{
+	private static final Logger logger = LoggerFactory.getLogger(TwilioClientRegistry.class);
+	public static final int DEFAULT_MAX_PER_ROUTE = 20;
+	public static final int DEFAULT_MAX_TOTAL = 100;
+	public static final long DEFAULT_KEEP_ALIVE_MILLIS = 60 * 1000;
+	// Same timeouts the SDK uses for the client it builds
+	private static final int CONNECTION_TIMEOUT = 10000;
+	private static final int READ_TIMEOUT = 30500;
+	private static final String DEFAULT_ENDPOINT = "https://api.twilio.com";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final TwilioClientRegistry INSTANCE = new TwilioClientRegistry(DEFAULT_MAX_PER_ROUTE, DEFAULT_MAX_TOTAL, DEFAULT_KEEP_ALIVE_MILLIS);
+
+	private final ThreadSafeClientConnManager connManager;
+	private final long keepAliveMillis;
+	private final ScheduledExecutorService evictor;
+	private final Map<String, Entry> clients = new ConcurrentHashMap<String, Entry>();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong newConnections = new AtomicLong();
+	private final AtomicLong reusedConnections = new AtomicLong();
+
+	/**
+	 * @return The registry used by CFTwilio
+	 */
+	public static TwilioClientRegistry getInstance()
+	{
+		return INSTANCE;
+	}
+
+	/**
+	 * @param maxPerRoute Max open connections to one host (api.twilio.com)
+	 * @param maxTotal Max open connections overall
+	 * @param keepAliveMillis How long an idle connection is kept when the server doesn't say
+	 */
+	public TwilioClientRegistry(int maxPerRoute, int maxTotal, long keepAliveMillis)
+	{
+		this.keepAliveMillis = keepAliveMillis;
+		this.connManager = new ThreadSafeClientConnManager(SchemeRegistryFactory.createDefault(), keepAliveMillis, TimeUnit.MILLISECONDS);
+		this.connManager.setDefaultMaxPerRoute(maxPerRoute);
+		this.connManager.setMaxTotal(maxTotal);
+
+		this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "TwilioClientRegistry-evictor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long period = Math.max(1000, keepAliveMillis / 2);
+		this.evictor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				connManager.closeExpiredConnections();
+				connManager.closeIdleConnections(TwilioClientRegistry.this.keepAliveMillis, TimeUnit.MILLISECONDS);
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param accountSID
+	 * @param authToken
+	 * @param endpoint Base URL of the Twilio API. Null for the default https://api.twilio.com
+	 * @return Shared client for the account
+	 * @throws IllegalArgumentException If accountSID or authToken is missing
+	 */
+	public TwilioRestClient getClient(String accountSID, String authToken, String endpoint)
+	{
+		return getEntry(accountSID, authToken, endpoint).client;
+	}
+
+	/**
+	 * @param accountSID
+	 * @param authToken
+	 * @param endpoint Base URL of the Twilio API. Null for the default https://api.twilio.com
+	 * @return Shared Account for the client (its properties are only fetched once)
+	 * @throws IllegalArgumentException If accountSID or authToken is missing
+	 */
+	public Account getAccount(String accountSID, String authToken, String endpoint)
+	{
+		return getEntry(accountSID, authToken, endpoint).account;
+	}
+
+	/**
+	 * Use this when both the client and the Account are needed. Calling getClient() and then
+	 * getAccount() can give a client and Account for different tokens if the token is rotated
+	 * in between.
+	 * @param accountSID
+	 * @param authToken
+	 * @param endpoint Base URL of the Twilio API. Null for the default https://api.twilio.com
+	 * @return Shared client and Account for the account
+	 * @throws IllegalArgumentException If accountSID or authToken is missing
+	 */
+	public Entry getEntry(String accountSID, String authToken, String endpoint)
+	{
+		if (!Utils.hasLength(accountSID) || !Utils.hasLength(authToken)) {
+			throw new IllegalArgumentException("An account SID and auth token are required");
+		}
+		if (!Utils.hasLength(endpoint)) {
+			endpoint = DEFAULT_ENDPOINT;
+		}
+		String key = accountSID + "@" + endpoint;
+		Entry entry = this.clients.get(key);
+		if ((entry == null) || !entry.authToken.equals(authToken)) {
+			synchronized (this.clients) {
+				entry = this.clients.get(key);
+				if ((entry == null) || !entry.authToken.equals(authToken)) {
+					// New account or the auth token was rotated
+					entry = new Entry(authToken, newClient(accountSID, authToken, endpoint));
+					this.clients.put(key, entry);
+				}
+			}
+		}
+		return entry;
+	}
+
+	public void setMaxPerRoute(int maxPerRoute)
+	{
+		this.connManager.setDefaultMaxPerRoute(maxPerRoute);
+	}
+
+	public int getMaxPerRoute()
+	{
+		return this.connManager.getDefaultMaxPerRoute();
+	}
+
+	public void setMaxTotal(int maxTotal)
+	{
+		this.connManager.setMaxTotal(maxTotal);
+	}
+
+	public int getMaxTotal()
+	{
+		return this.connManager.getMaxTotal();
+	}
+
+	/**
+	 * @return Number of accounts with a client
+	 */
+	public int getClientCount()
+	{
+		return this.clients.size();
+	}
+
+	/**
+	 * @return Request and connection counts since the registry was created
+	 */
+	public ConnectionStats getStats()
+	{
+		return new ConnectionStats(this.requests.get(), this.newConnections.get(), this.reusedConnections.get(), this.connManager.getConnectionsInPool());
+	}
+
+	/**
+	 * Close every pooled connection and forget the clients. Don't call this on getInstance().
+	 */
+	public void shutdown()
+	{
+		this.evictor.shutdownNow();
+		this.clients.clear();
+		this.connManager.shutdown();
+	}
+
+	private TwilioRestClient newClient(String accountSID, String authToken, String endpoint)
+	{
+		logger.debug("Creating shared client for {} at {}", accountSID, endpoint);
+		TwilioRestClient client = new TwilioRestClient(accountSID, authToken, endpoint);
+		// Drop the pool the SDK built for itself
+		client.getHttpClient().getConnectionManager().shutdown();
+
+		HttpParams params = new BasicHttpParams();
+		params.setParameter(CoreProtocolPNames.PROTOCOL_VERSION, HttpVersion.HTTP_1_1);
+		params.setParameter(CoreProtocolPNames.HTTP_CONTENT_CHARSET, "UTF-8");
+		params.setIntParameter(CoreConnectionPNames.SO_TIMEOUT, READ_TIMEOUT);
+		params.setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, CONNECTION_TIMEOUT);
+		DefaultHttpClient httpClient = new DefaultHttpClient(this.connManager, params);
+		httpClient.setKeepAliveStrategy(new KeepAliveStrategy(this.keepAliveMillis));
+
+		final String authorization = "Basic " + Base64.getEncoder().encodeToString((accountSID + ":" + authToken).getBytes(UTF8));
+		httpClient.addRequestInterceptor(new HttpRequestInterceptor() {
+			public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+				if (!request.containsHeader("Authorization")) {
+					request.addHeader("Authorization", authorization);
+				}
+				countRequest(context);
+			}
+		});
+		client.setHttpclient(httpClient);
+		return client;
+	}
+
+	/**
+	 * A connection that has already carried a request was reused from the pool
+	 */
+	private void countRequest(HttpContext context)
+	{
+		this.requests.incrementAndGet();
+		Object conn = context.getAttribute(ExecutionContext.HTTP_CONNECTION);
+		if ((conn instanceof HttpConnection) && (((HttpConnection) conn).getMetrics().getRequestCount() > 0)) {
+			this.reusedConnections.incrementAndGet();
+		} else {
+			this.newConnections.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Uses the server's Keep-Alive timeout when there is one, otherwise the registry default
+	 */
+	private static class KeepAliveStrategy implements ConnectionKeepAliveStrategy
+	{
+		private final ConnectionKeepAliveStrategy serverStrategy = new DefaultConnectionKeepAliveStrategy();
+		private final long keepAliveMillis;
+
+		KeepAliveStrategy(long keepAliveMillis)
+		{
+			this.keepAliveMillis = keepAliveMillis;
+		}
+
+		public long getKeepAliveDuration(HttpResponse response, HttpContext context)
+		{
+			long duration = this.serverStrategy.getKeepAliveDuration(response, context);
+			return (duration > 0) ? duration : this.keepAliveMillis;
+		}
+	}
+
+	/**
+	 * A shared client and the Account it authenticates as, made for one auth token
+	 */
+	public static final class Entry
+	{
+		final String authToken;
+		final TwilioRestClient client;
+		final Account account;
+
+		Entry(String authToken, TwilioRestClient client)
+		{
+			this.authToken = authToken;
+			this.client = client;
+			this.account = client.getAccount();
+		}
+
+		public TwilioRestClient getClient() { return this.client; }
+		public Account getAccount() { return this.account; }
+	}
+
+	/**
+	 * Point in time connection metrics
+	 */
+	public static class ConnectionStats
+	{
+		private final long requests;
+		private final long newConnections;
+		private final long reusedConnections;
+		private final int pooledConnections;
+
+		ConnectionStats(long requests, long newConnections, long reusedConnections, int pooledConnections)
+		{
+			this.requests = requests;
+			this.newConnections = newConnections;
+			this.reusedConnections = reusedConnections;
+			this.pooledConnections = pooledConnections;
+		}
+
+		public long getRequests() { return this.requests; }
+		/** @return Requests that had to open a connection (TCP + TLS handshake) */
+		public long getNewConnections() { return this.newConnections; }
+		/** @return Requests sent on a kept alive connection */
+		public long getReusedConnections() { return this.reusedConnections; }
+		/** @return Connections currently open (leased or idle) */
+		public int getPooledConnections() { return this.pooledConnections; }
+
+		/** @return Fraction of requests that reused a connection */
+		public double getReuseRatio()
+		{
+			return (this.requests == 0) ? 0 : this.reusedConnections / (double) this.requests;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "requests=" + this.requests + " new=" + this.newConnections + " reused=" + this.reusedConnections + " pooled=" + this.pooledConnections;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package com.cffreedom.integrations.twilio;
+
+import java.nio.charset.Charset;
+
+/**
+ * Compact record of one message status callback Twilio posts to a StatusCallback URL.
+ * parse() reads the form encoded body in a single pass and only keeps the fields we
+ * aggregate on. The status is held as an int code rather than a string.
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ */
+public final class TwilioStatusCallback
+{
+	public static final int STATUS_UNKNOWN = 0;
+	public static final int STATUS_ACCEPTED = 1;
+	public static final int STATUS_QUEUED = 2;
+	public static final int STATUS_SENDING = 3;
+	public static final int STATUS_SENT = 4;
+	public static final int STATUS_DELIVERED = 5;
+	public static final int STATUS_UNDELIVERED = 6;
+	public static final int STATUS_FAILED = 7;
+	public static final int STATUS_RECEIVED = 8;
+	public static final int STATUS_READ = 9;
+	/** Names Twilio uses, indexed by status code */
+	public static final String[] STATUS_NAMES = { "unknown", "accepted", "queued", "sending", "sent", "delivered", "undelivered", "failed", "received", "read" };
+	public static final int STATUS_COUNT = STATUS_NAMES.length;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String MESSAGE_SID = "MessageSid";
+	private static final String SMS_SID = "SmsSid";
+	private static final String MESSAGE_STATUS = "MessageStatus";
+	private static final String SMS_STATUS = "SmsStatus";
+	private static final String ERROR_CODE = "ErrorCode";
+	private static final String FROM = "From";
+	private static final String TO = "To";
+
+	private final String messageSid;
+	private final String from;
+	private final String to;
+	private final int status;
+	private final int errorCode;
+
+	public TwilioStatusCallback(String messageSid, String from, String to, int status, int errorCode)
+	{
+		this.messageSid = messageSid;
+		this.from = from;
+		this.to = to;
+		this.status = status;
+		this.errorCode = errorCode;
+	}
+
+	public String getMessageSid() { return this.messageSid; }
+	public String getFrom() { return this.from; }
+	public String getTo() { return this.to; }
+	/** @return One of the STATUS_ codes */
+	public int getStatus() { return this.status; }
+	public String getStatusName() { return STATUS_NAMES[this.status]; }
+	/** @return Twilio error code or 0 if there wasn't one */
+	public int getErrorCode() { return this.errorCode; }
+
+	/**
+	 * @param body Form encoded callback body (ex: MessageSid=SM...&amp;MessageStatus=delivered&amp;...)
+	 * @return Parsed callback or null if there is no message SID
+	 */
+	public static TwilioStatusCallback parse(CharSequence body)
+	{
+		String messageSid = null;
+		String from = null;
+		String to = null;
+		int status = STATUS_UNKNOWN;
+		int errorCode = 0;
+
+		int len = body.length();
+		int start = 0;
+		while (start < len) {
+			int amp = indexOf(body, '&', start, len);
+			int eq = indexOf(body, '=', start, amp);
+			if (eq < amp) {
+				int valueStart = eq + 1;
+				if (regionEquals(body, start, eq, MESSAGE_SID) || ((messageSid == null) && regionEquals(body, start, eq, SMS_SID))) {
+					messageSid = decode(body, valueStart, amp);
+				} else if (regionEquals(body, start, eq, MESSAGE_STATUS) || ((status == STATUS_UNKNOWN) && regionEquals(body, start, eq, SMS_STATUS))) {
+					status = parseStatus(body, valueStart, amp);
+				} else if (regionEquals(body, start, eq, ERROR_CODE)) {
+					errorCode = parseInt(body, valueStart, amp);
+				} else if (regionEquals(body, start, eq, FROM)) {
+					from = decode(body, valueStart, amp);
+				} else if (regionEquals(body, start, eq, TO)) {
+					to = decode(body, valueStart, amp);
+				}
+			}
+			start = amp + 1;
+		}
+
+		if (messageSid == null) {
+			return null;
+		}
+		return new TwilioStatusCallback(messageSid, from, to, status, errorCode);
+	}
+
+	/**
+	 * @param name Status as Twilio sends it (ex: "delivered")
+	 * @return STATUS_ code
+	 */
+	public static int statusCode(String name)
+	{
+		return (name == null) ? STATUS_UNKNOWN : parseStatus(name, 0, name.length());
+	}
+
+	private static int parseStatus(CharSequence s, int start, int end)
+	{
+		for (int x = 1; x < STATUS_NAMES.length; x++) {
+			if (regionEquals(s, start, end, STATUS_NAMES[x])) {
+				return x;
+			}
+		}
+		return STATUS_UNKNOWN;
+	}
+
+	private static int parseInt(CharSequence s, int start, int end)
+	{
+		int value = 0;
+		for (int x = start; x < end; x++) {
+			char c = s.charAt(x);
+			if ((c < '0') || (c > '9')) { return value; }
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static int indexOf(CharSequence s, char c, int from, int end)
+	{
+		for (int x = from; x < end; x++) {
+			if (s.charAt(x) == c) { return x; }
+		}
+		return end;
+	}
+
+	private static boolean regionEquals(CharSequence s, int start, int end, String value)
+	{
+		if (end - start != value.length()) { return false; }
+		for (int x = 0; x < value.length(); x++) {
+			if (s.charAt(start + x) != value.charAt(x)) { return false; }
+		}
+		return true;
+	}
+
+	/**
+	 * URL decode a value, only building a new string when there is something to decode
+	 */
+	private static String decode(CharSequence s, int start, int end)
+	{
+		boolean plain = true;
+		for (int x = start; (x < end) && plain; x++) {
+			char c = s.charAt(x);
+			plain = (c != '%') && (c != '+');
+		}
+		if (plain) {
+			return s.subSequence(start, end).toString();
+		}
+
+		byte[] bytes = new byte[end - start];
+		int count = 0;
+		for (int x = start; x < end; x++) {
+			char c = s.charAt(x);
+			if (c == '+') {
+				bytes[count++] = ' ';
+			} else if ((c == '%') && (x + 2 < end) && (hex(s.charAt(x + 1)) >= 0) && (hex(s.charAt(x + 2)) >= 0)) {
+				bytes[count++] = (byte) ((hex(s.charAt(x + 1)) << 4) | hex(s.charAt(x + 2)));
+				x += 2;
+			} else {
+				bytes[count++] = (byte) c;
+			}
+		}
+		return new String(bytes, 0, count, UTF8);
+	}
+
+	private static int hex(char c)
+	{
+		if ((c >= '0') && (c <= '9')) { return c - '0'; }
+		if ((c >= 'A') && (c <= 'F')) { return c - 'A' + 10; }
+		if ((c >= 'a') && (c <= 'f')) { return c - 'a' + 10; }
+		return -1;
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.messageSid + " " + getStatusName() + ((this.errorCode != 0) ? " " + this.errorCode : "") + " " + this.from + "->" + this.to;
+	}
+}
@@ -0,0 +1,176 @@
+package com.cffreedom.integrations.twilio;
+
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One webhook request Twilio made to CFTwilioWebhookServer. The parameters (form body for
+ * a POST, query string for a GET) stay as the raw bytes read off the socket and
+ * getParameter() scans them for the name, only decoding the value asked for. The bytes
+ * belong to the worker thread, so a request is only valid until its handler returns.
+ *
+ * @author markjacobsen.net (http://mjg2.net/code)
+ * Copyright: Communication Freedom, LLC - http://www.communicationfreedom.com
+ *
+ * Free to use, modify, redistribute.  Must keep full class header including
+ * copyright and note your modifications.
+ *
+ * If this helped you out or saved you time, please consider...
+ * 1) Donating: http://www.communicationfreedom.com/go/donate/
+ * 2) Shoutout on twitter: @MarkJacobsen or @cffreedom
+ * 3) Linking to: http://visit.markjacobsen.net
+ *
+ * Changes:
+ * 2026-10-17 	MarkJacobsen.net 	Created
+ */
+public final class TwilioWebhookRequest
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private String method;
+	private String path;
+	private byte[] params;
+	private int length;
+
+	TwilioWebhookRequest()
+	{
+	}
+
+	/**
+	 * @param method
+	 * @param path
+	 * @param params Form encoded parameters
+	 * @param length Bytes of params to use
+	 */
+	public TwilioWebhookRequest(String method, String path, byte[] params, int length)
+	{
+		reset(method, path, params, length);
+	}
+
+	TwilioWebhookRequest reset(String method, String path, byte[] params, int length)
+	{
+		this.method = method;
+		this.path = path;
+		this.params = params;
+		this.length = length;
+		return this;
+	}
+
+	public String getMethod() { return this.method; }
+	public String getPath() { return this.path; }
+	/** @return Form encoded body of a POST or query string of a GET */
+	public String getRawParameters() { return new String(this.params, 0, this.length, UTF8); }
+
+	/** @return Twilio CallSid or null for SMS webhooks */
+	public String getCallSid() { return getParameter("CallSid"); }
+	/** @return Twilio MessageSid (or SmsSid) or null for voice webhooks */
+	public String getMessageSid()
+	{
+		String sid = getParameter("MessageSid");
+		return (sid != null) ? sid : getParameter("SmsSid");
+	}
+	public String getFrom() { return getParameter("From"); }
+	public String getTo() { return getParameter("To"); }
+	public String getBody() { return getParameter("Body"); }
+	public String getDigits() { return getParameter("Digits"); }
+
+	/**
+	 * @param name Parameter name (ex: "From")
+	 * @return Decoded value of the first parameter with that name or null if there isn't one
+	 */
+	public String getParameter(String name)
+	{
+		int start = 0;
+		while (start < this.length) {
+			int amp = indexOf((byte) '&', start, this.length);
+			int eq = indexOf((byte) '=', start, amp);
+			if (regionEquals(start, eq, name)) {
+				return (eq < amp) ? decode(eq + 1, amp) : "";
+			}
+			start = amp + 1;
+		}
+		return null;
+	}
+
+	/**
+	 * @return Every parameter decoded, in the order sent
+	 */
+	public Map<String, String> getParameters()
+	{
+		Map<String, String> map = new LinkedHashMap<String, String>();
+		int start = 0;
+		while (start < this.length) {
+			int amp = indexOf((byte) '&', start, this.length);
+			int eq = indexOf((byte) '=', start, amp);
+			if (eq > start) {
+				String name = decode(start, eq);
+				if (!map.containsKey(name)) {
+					map.put(name, (eq < amp) ? decode(eq + 1, amp) : "");
+				}
+			}
+			start = amp + 1;
+		}
+		return map;
+	}
+
+	private int indexOf(byte b, int from, int end)
+	{
+		for (int x = from; x < end; x++) {
+			if (this.params[x] == b) { return x; }
+		}
+		return end;
+	}
+
+	/**
+	 * Compare an undecoded name with the one asked for. Names Twilio sends are plain ASCII.
+	 */
+	private boolean regionEquals(int start, int end, String value)
+	{
+		if (end - start != value.length()) { return false; }
+		for (int x = 0; x < value.length(); x++) {
+			if (this.params[start + x] != value.charAt(x)) { return false; }
+		}
+		return true;
+	}
+
+	private String decode(int start, int end)
+	{
+		boolean plain = true;
+		for (int x = start; (x < end) && plain; x++) {
+			plain = (this.params[x] != '%') && (this.params[x] != '+');
+		}
+		if (plain) {
+			return new String(this.params, start, end - start, UTF8);
+		}
+
+		byte[] bytes = new byte[end - start];
+		int count = 0;
+		for (int x = start; x < end; x++) {
+			byte b = this.params[x];
+			if (b == '+') {
+				bytes[count++] = ' ';
+			} else if ((b == '%') && (x + 2 < end) && (hex(this.params[x + 1]) >= 0) && (hex(this.params[x + 2]) >= 0)) {
+				bytes[count++] = (byte) ((hex(this.params[x + 1]) << 4) | hex(this.params[x + 2]));
+				x += 2;
+			} else {
+				bytes[count++] = b;
+			}
+		}
+		return new String(bytes, 0, count, UTF8);
+	}
+
+	private static int hex(byte b)
+	{
+		if ((b >= '0') && (b <= '9')) { return b - '0'; }
+		if ((b >= 'A') && (b <= 'F')) { return b - 'A' + 10; }
+		if ((b >= 'a') && (b <= 'f')) { return b - 'a' + 10; }
+		return -1;
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.method + " " + this.path;
+	}
+}
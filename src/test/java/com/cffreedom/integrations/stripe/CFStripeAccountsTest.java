@@ -0,0 +1,136 @@
+package com.cffreedom.integrations.stripe;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.stripe.Stripe;
+import com.stripe.exception.InvalidRequestException;
+import com.stripe.model.Charge;
+
+public class CFStripeAccountsTest
+{
+	private static final int ACCOUNTS = 4;
+	private static final int CUSTOMERS = 5;
+	private static final int THREADS_PER_ACCOUNT = 2;
+	private static final int CHARGES_PER_THREAD = 40;
+	private StripeStandIn standIn;
+
+	@Before
+	public void setUp()
+	{
+		this.standIn = StripeStandIn.install();
+		// Nothing should depend on the global key
+		Stripe.apiKey = null;
+	}
+
+	@After
+	public void tearDown()
+	{
+		this.standIn.uninstall();
+	}
+
+	private static String apiKey(int account)
+	{
+		return "sk_test_account" + account;
+	}
+
+	@Test
+	public void testAccountsInParallel() throws Exception
+	{
+		final List<List<String>> custCodes = new ArrayList<List<String>>();
+		final List<CFStripe> stripes = new ArrayList<CFStripe>();
+		for (int a = 0; a < ACCOUNTS; a++) {
+			List<String> codes = new ArrayList<String>();
+			for (int c = 0; c < CUSTOMERS; c++) {
+				codes.add(standIn.addCustomerFor(apiKey(a), "cust" + c + "@account" + a + ".com"));
+			}
+			custCodes.add(codes);
+			stripes.add(new CFStripe(apiKey(a), ((a % 2) == 0) ? new CFStripeCache() : null));
+		}
+		assertNull(Stripe.apiKey);
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final Queue<Throwable> errors = new ConcurrentLinkedQueue<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < ACCOUNTS * THREADS_PER_ACCOUNT; t++) {
+			final int account = t % ACCOUNTS;
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+						CFStripe stripe = stripes.get(account);
+						for (int x = 0; x < CHARGES_PER_THREAD; x++) {
+							String custCode = custCodes.get(account).get(ThreadLocalRandom.current().nextInt(CUSTOMERS));
+							assertTrue(stripe.getCustomer(custCode).getEmail().endsWith("@account" + account + ".com"));
+							Charge charge = stripe.chargeCustomer(custCode, "Account " + account, 100 + account);
+							assertEquals(custCode, charge.getCustomer());
+							for (Charge recent : stripe.getCustomerCharges(custCode, 5)) {
+								assertEquals(Integer.valueOf(100 + account), recent.getAmount());
+							}
+						}
+					} catch (Throwable e) {
+						errors.add(e);
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join(TimeUnit.SECONDS.toMillis(30));
+		}
+		if (!errors.isEmpty()) {
+			throw new AssertionError(errors.peek());
+		}
+
+		int[] charges = new int[ACCOUNTS];
+		for (JsonObject charge : standIn.getCharges()) {
+			int account = charge.get("amount").getAsInt() - 100;
+			assertEquals(apiKey(account), standIn.getAccount(charge.get("id").getAsString()));
+			assertEquals(apiKey(account), standIn.getAccount(charge.get("customer").getAsString()));
+			charges[account]++;
+		}
+		for (int a = 0; a < ACCOUNTS; a++) {
+			assertEquals(THREADS_PER_ACCOUNT * CHARGES_PER_THREAD, charges[a]);
+			assertEquals(THREADS_PER_ACCOUNT * CHARGES_PER_THREAD, stripes.get(a).getRoundTrips().get("chargeCustomer"));
+		}
+	}
+
+	@Test
+	public void testAccountsAreSeparate() throws Exception
+	{
+		String custCode = standIn.addCustomerFor(apiKey(1), "jsmith@example.com");
+		CFStripe other = new CFStripe(apiKey(2));
+		try {
+			other.chargeCustomer(custCode, "Widget", 500);
+			fail("Expected an InvalidRequestException");
+		} catch (InvalidRequestException e) {
+			assertTrue(e.getMessage().contains(custCode));
+		}
+		assertEquals("jsmith@example.com", new CFStripe(apiKey(1)).getCustomer(custCode).getEmail());
+		assertEquals(apiKey(1), new CFStripe(apiKey(1)).getApiKey());
+
+		CFStripeCache cache = new CFStripeCache();
+		new CFStripe(apiKey(1), cache);
+		new CFStripe(apiKey(1), cache);
+		try {
+			new CFStripe(apiKey(2), cache);
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("another account"));
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package com.cffreedom.integrations.stripe;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+public class CFStripeBatchChargerTest
+{
+	private static final String BATCH = "usage-2026-10";
+	private StripeStandIn standIn;
+	private CFStripe stripe;
+
+	@Before
+	public void setUp()
+	{
+		this.standIn = StripeStandIn.install();
+		this.stripe = new CFStripe(StripeStandIn.API_KEY);
+	}
+
+	@After
+	public void tearDown()
+	{
+		this.standIn.uninstall();
+	}
+
+	private int paidCharges()
+	{
+		int paid = 0;
+		for (JsonObject charge : standIn.getCharges()) {
+			if (charge.get("paid").getAsBoolean()) {
+				paid++;
+			}
+		}
+		return paid;
+	}
+
+	@Test
+	public void testBatchAndRerun() throws Exception
+	{
+		List<CFStripeBatchCharger.ChargeRequest> requests = new ArrayList<CFStripeBatchCharger.ChargeRequest>();
+		for (int x = 0; x < 20; x++) {
+			requests.add(new CFStripeBatchCharger.ChargeRequest(standIn.addCustomer("cust" + x + "@example.com"), 100 + x, "October usage"));
+		}
+		String declined = standIn.addCustomer("declined@example.com", CFStripe.TEST_CC_DECLINE);
+		requests.add(new CFStripeBatchCharger.ChargeRequest(declined, 500, "October usage"));
+
+		CFStripeBatchCharger charger = new CFStripeBatchCharger(stripe, 4, 3, 1);
+		List<CFStripeBatchCharger.ChargeResult> results = charger.charge(BATCH, requests);
+		assertEquals(21, results.size());
+		for (int x = 0; x < 20; x++) {
+			assertEquals(CFStripeBatchCharger.CHARGED, results.get(x).getOutcome());
+			assertSame(requests.get(x), results.get(x).getRequest());
+			assertTrue(results.get(x).isPaid());
+		}
+		assertEquals(CFStripeBatchCharger.DECLINED, results.get(20).getOutcome());
+		assertFalse(results.get(20).isPaid());
+		assertEquals(20, paidCharges());
+		for (JsonObject charge : standIn.getCharges()) {
+			if (charge.get("id").getAsString().equals(results.get(0).getChargeId())) {
+				assertEquals(results.get(0).getIdempotencyKey(), charge.getAsJsonObject("metadata").get(CFStripeBatchCharger.METADATA_KEY).getAsString());
+			}
+		}
+
+		// Running it again only retries the decline
+		results = charger.charge(BATCH, requests);
+		for (int x = 0; x < 20; x++) {
+			assertEquals(CFStripeBatchCharger.ALREADY_CHARGED, results.get(x).getOutcome());
+			assertEquals(0, results.get(x).getAttempts());
+		}
+		assertEquals(CFStripeBatchCharger.DECLINED, results.get(20).getOutcome());
+		assertEquals(20, paidCharges());
+		assertEquals(22, standIn.getCharges().size());
+
+		// A different batch charges everyone again
+		results = charger.charge("usage-2026-11", requests.subList(0, 2));
+		assertEquals(CFStripeBatchCharger.CHARGED, results.get(1).getOutcome());
+		assertEquals(22, paidCharges());
+	}
+
+	@Test
+	public void testLostResponses() throws Exception
+	{
+		String custCode = standIn.addCustomer("jsmith@example.com");
+		List<CFStripeBatchCharger.ChargeRequest> requests = Arrays.asList(new CFStripeBatchCharger.ChargeRequest(custCode, 500, "Widget"));
+		CFStripeBatchCharger charger = new CFStripeBatchCharger(stripe, 1, 3, 1);
+
+		// Charged, but the response never came back
+		standIn.failNext("POST /v1/charges", 1, true);
+		CFStripeBatchCharger.ChargeResult result = charger.charge(BATCH, requests).get(0);
+		assertEquals(CFStripeBatchCharger.RECONCILED, result.getOutcome());
+		assertEquals(1, result.getAttempts());
+		assertNotNull(result.getError());
+		assertEquals(standIn.getCharges().get(0).get("id").getAsString(), result.getChargeId());
+		assertEquals(1, standIn.getCharges().size());
+
+		// Never reached Stripe
+		standIn.failNext("POST /v1/charges", 1, false);
+		result = charger.charge("retry", requests).get(0);
+		assertEquals(CFStripeBatchCharger.CHARGED, result.getOutcome());
+		assertEquals(2, result.getAttempts());
+		assertEquals(2, standIn.getCharges().size());
+
+		// Out of attempts
+		standIn.failNext("POST /v1/charges", 3, false);
+		result = charger.charge("down", requests).get(0);
+		assertEquals(CFStripeBatchCharger.FAILED, result.getOutcome());
+		assertEquals(3, result.getAttempts());
+		assertEquals(2, standIn.getCharges().size());
+
+		// Bad customer isn't retried
+		result = charger.charge(BATCH, Arrays.asList(new CFStripeBatchCharger.ChargeRequest("cus_missing", 500, "Widget"))).get(0);
+		assertEquals(CFStripeBatchCharger.FAILED, result.getOutcome());
+		assertEquals(1 + 2 + 3 + 1, standIn.getRequestCount("POST /v1/charges"));
+	}
+
+	@Test
+	public void testEarlierDeclineIsNotThisRuns() throws Exception
+	{
+		String custCode = standIn.addCustomer("declined@example.com", CFStripe.TEST_CC_DECLINE);
+		List<CFStripeBatchCharger.ChargeRequest> requests = Arrays.asList(new CFStripeBatchCharger.ChargeRequest(custCode, 500, "October usage"));
+		CFStripeBatchCharger charger = new CFStripeBatchCharger(stripe, 1, 3, 1);
+		assertEquals(CFStripeBatchCharger.DECLINED, charger.charge(BATCH, requests).get(0).getOutcome());
+
+		// New card, and the rerun's first try never reaches Stripe
+		stripe.addCreditCardToCust(stripe.getCreditCardToken("J Smith", CFStripe.TEST_CC_NUMBER, "123", 12, 2030), custCode, true);
+		standIn.failNext("POST /v1/charges", 1, false);
+		CFStripeBatchCharger.ChargeResult result = charger.charge(BATCH, requests).get(0);
+		assertEquals(CFStripeBatchCharger.CHARGED, result.getOutcome());
+		assertEquals(2, result.getAttempts());
+		assertEquals(1, paidCharges());
+
+		// Same without the check before the first try
+		charger.setCheckFirst(false);
+		String other = standIn.addCustomer("declined2@example.com", CFStripe.TEST_CC_DECLINE);
+		requests = Arrays.asList(new CFStripeBatchCharger.ChargeRequest(other, 500, "October usage"));
+		assertEquals(CFStripeBatchCharger.DECLINED, charger.charge(BATCH, requests).get(0).getOutcome());
+		Thread.sleep(1100);
+		stripe.addCreditCardToCust(stripe.getCreditCardToken("J Smith", CFStripe.TEST_CC_NUMBER, "123", 12, 2030), other, true);
+		standIn.failNext("POST /v1/charges", 1, false);
+		assertEquals(CFStripeBatchCharger.CHARGED, charger.charge(BATCH, requests).get(0).getOutcome());
+		assertEquals(2, paidCharges());
+	}
+
+	@Test
+	public void testRerunForBusyCustomer() throws Exception
+	{
+		String custCode = standIn.addCustomer("busy@example.com");
+		List<CFStripeBatchCharger.ChargeRequest> requests = Arrays.asList(new CFStripeBatchCharger.ChargeRequest(custCode, 500, "October usage"));
+		CFStripeBatchCharger charger = new CFStripeBatchCharger(stripe, 1, 3, 1);
+		Date batchStart = new Date(System.currentTimeMillis() - 60000);
+		assertEquals(CFStripeBatchCharger.CHARGED, charger.charge(BATCH, requests).get(0).getOutcome());
+		// Well over a page of newer charges before the rerun
+		for (int x = 0; x < 150; x++) {
+			stripe.chargeCustomer(custCode, "Widget " + x, 100);
+		}
+
+		assertEquals(CFStripeBatchCharger.ALREADY_CHARGED, charger.charge(BATCH, requests).get(0).getOutcome());
+		charger.setChargedSince(batchStart);
+		assertEquals(CFStripeBatchCharger.ALREADY_CHARGED, charger.charge(BATCH, requests).get(0).getOutcome());
+		charger.setChargedSince(new Date(System.currentTimeMillis() + 60000));
+		assertEquals(CFStripeBatchCharger.CHARGED, charger.charge(BATCH, requests).get(0).getOutcome());
+		assertEquals(152, standIn.getCharges().size());
+	}
+
+	@Test
+	public void testIdempotencyKeys()
+	{
+		List<CFStripeBatchCharger.ChargeRequest> requests = Arrays.asList(
+				new CFStripeBatchCharger.ChargeRequest("cus_1", 500, "Widget"),
+				new CFStripeBatchCharger.ChargeRequest("cus_1", 500, "Widget"),
+				new CFStripeBatchCharger.ChargeRequest("cus_1", 501, "Widget"),
+				new CFStripeBatchCharger.ChargeRequest("cus_2", 500, "Widget"));
+		List<String> keys = CFStripeBatchCharger.getIdempotencyKeys(BATCH, requests);
+		assertEquals(keys, CFStripeBatchCharger.getIdempotencyKeys(BATCH, requests));
+		assertEquals(4, new HashSet<String>(keys).size());
+		assertEquals(32, keys.get(0).length());
+		assertFalse(keys.equals(CFStripeBatchCharger.getIdempotencyKeys("other", requests)));
+	}
+}
@@ -0,0 +1,143 @@
+package com.cffreedom.integrations.stripe;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CFStripeCacheTest
+{
+	private static final String GET_CUSTOMER = "GET /v1/customers/{id}";
+	private static final String GET_PLAN = "GET /v1/plans/{id}";
+	private final AtomicLong now = new AtomicLong();
+	private final LongSupplier clock = new LongSupplier() {
+		public long getAsLong() {
+			return now.get();
+		}
+	};
+	private StripeStandIn standIn;
+
+	@Before
+	public void setUp()
+	{
+		this.standIn = StripeStandIn.install();
+	}
+
+	@After
+	public void tearDown()
+	{
+		this.standIn.uninstall();
+	}
+
+	@Test
+	public void testReadThrough() throws Exception
+	{
+		String custCode = standIn.addCustomer("jsmith@example.com");
+		standIn.addPlan("gold", "Gold", 2000);
+		CFStripeCache cache = new CFStripeCache(100, 60000, clock);
+		CFStripe stripe = new CFStripe(StripeStandIn.API_KEY, cache);
+
+		assertEquals("jsmith@example.com", stripe.getCustomer(custCode).getEmail());
+		stripe.getCustomer(custCode);
+		stripe.getCustomerCards(custCode);
+		stripe.getCustomerCard(custCode, stripe.getCustomer(custCode).getDefaultCard());
+		assertEquals(1, standIn.getRequestCount(GET_CUSTOMER));
+		assertEquals(2000, stripe.getPlan("gold").getAmount().intValue());
+		assertEquals("Gold", stripe.getPlan("gold").getName());
+		assertEquals(1, standIn.getRequestCount(GET_PLAN));
+		assertEquals(5, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(5.0 / 7, cache.getHitRate(), 0.0001);
+
+		// Changes made through CFStripe drop the entry
+		stripe.updateOrderPlan(custCode, "gold");
+		assertEquals("gold", stripe.getCustomer(custCode).getSubscription().getPlan().getId());
+		assertEquals(2, standIn.getRequestCount(GET_CUSTOMER));
+		stripe.cancelOrder(custCode);
+		assertNull(stripe.getCustomer(custCode).getSubscription());
+
+		// Without a cache every lookup is a round trip
+		standIn.resetCounts();
+		CFStripe uncached = new CFStripe(StripeStandIn.API_KEY);
+		assertNull(uncached.getCache());
+		uncached.getCustomer(custCode);
+		uncached.getCustomer(custCode);
+		assertEquals(2, standIn.getRequestCount(GET_CUSTOMER));
+	}
+
+	@Test
+	public void testWebHookInvalidation() throws Exception
+	{
+		String custCode = standIn.addCustomer("jsmith@example.com");
+		String other = standIn.addCustomer("jdoe@example.com");
+		standIn.addPlan("gold", "Gold", 2000);
+		CFStripeCache cache = new CFStripeCache(100, 60000, clock);
+		cache.getCustomer(custCode);
+		cache.getCustomer(other);
+		cache.getPlan("gold");
+
+		standIn.setCustomerEmail(custCode, "john@example.com");
+		assertEquals("jsmith@example.com", cache.getCustomer(custCode).getEmail());
+		assertTrue(cache.invalidate(CFStripeWebHook.getWebHook(event("customer.updated", "{\"id\": \"" + custCode + "\", \"object\": \"customer\"}"))));
+		assertEquals("john@example.com", cache.getCustomer(custCode).getEmail());
+
+		// Sub objects point back at their customer
+		assertTrue(cache.invalidate(CFStripeWebHook.getWebHook(event("customer.subscription.deleted", "{\"id\": \"sub_1\", \"object\": \"subscription\", \"customer\": \"" + other + "\"}"))));
+		assertTrue(cache.invalidate(CFStripeWebHook.getWebHook(event("plan.updated", "{\"id\": \"gold\", \"object\": \"plan\"}"))));
+		// Charges aren't cached, and only the customer the event is about is dropped
+		assertFalse(cache.invalidate(CFStripeWebHook.getWebHook(event("charge.succeeded", "{\"id\": \"ch_1\", \"object\": \"charge\", \"customer\": \"" + custCode + "\"}"))));
+		assertFalse(cache.invalidate(CFStripeWebHook.getWebHook(event("customer.card.created", "{\"id\": \"card_1\", \"object\": \"card\", \"customer\": \"cus_unknown\"}"))));
+		assertEquals(1, cache.size());
+		assertEquals(3, cache.getInvalidatedCount());
+
+		standIn.resetCounts();
+		cache.getCustomer(custCode);
+		cache.getCustomer(other);
+		cache.getPlan("gold");
+		assertEquals(1, standIn.getRequestCount(GET_CUSTOMER));
+		assertEquals(1, standIn.getRequestCount(GET_PLAN));
+	}
+
+	@Test
+	public void testTtlAndBound() throws Exception
+	{
+		CFStripeCache cache = new CFStripeCache(10, 1000, clock);
+		String[] custCodes = new String[20];
+		for (int x = 0; x < custCodes.length; x++) {
+			custCodes[x] = standIn.addCustomer("cust" + x + "@example.com");
+		}
+		cache.getCustomer(custCodes[0]);
+		now.addAndGet(TimeUnit.MILLISECONDS.toNanos(800));
+		cache.getCustomer(custCodes[0]);
+		assertEquals(1, standIn.getRequestCount(GET_CUSTOMER));
+		now.addAndGet(TimeUnit.MILLISECONDS.toNanos(400));
+		// Age is from when it was loaded, not last used
+		cache.getCustomer(custCodes[0]);
+		assertEquals(2, standIn.getRequestCount(GET_CUSTOMER));
+		assertEquals(1, cache.getExpiredCount());
+
+		for (int x = 1; x < custCodes.length; x++) {
+			cache.getCustomer(custCodes[x]);
+			cache.getCustomer(custCodes[0]);
+		}
+		assertEquals(10, cache.size());
+		assertEquals(10, cache.getEvictedCount());
+		// Recently used entries survive
+		standIn.resetCounts();
+		cache.getCustomer(custCodes[0]);
+		cache.getCustomer(custCodes[19]);
+		assertEquals(0, standIn.getRequestCount());
+		cache.getCustomer(custCodes[1]);
+		assertEquals(1, standIn.getRequestCount());
+	}
+
+	private static String event(String type, String object)
+	{
+		return "{\"id\": \"evt_1\", \"created\": 1385705053, \"livemode\": false, \"type\": \"" + type + "\", \"data\": {\"object\": " + object + "}}";
+	}
+}
@@ -0,0 +1,163 @@
+package com.cffreedom.integrations.stripe;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CFStripeEventFilterTest
+{
+	private static final long WINDOW = 60000;
+	private final AtomicLong now = new AtomicLong(1385705053000L);
+	private final LongSupplier clock = new LongSupplier() {
+		public long getAsLong() {
+			return now.get();
+		}
+	};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRepeatsAndRestart() throws Exception
+	{
+		File file = new File(folder.getRoot(), "events.dat");
+		CFStripeEventFilter events = new CFStripeEventFilter(file, WINDOW, clock);
+		assertTrue(events.isFirstDelivery(CFStripeWebHook.getWebHook(CFStripeWebHookTest.chargeSucceeded)));
+		assertFalse(events.isFirstDelivery("evt_asdfwe34SDkl43"));
+		assertTrue(events.isFirstDelivery("evt_2"));
+		assertTrue(events.isFirstDelivery("evt_3"));
+		assertFalse(events.isFirstDelivery("evt_3"));
+		assertTrue(events.forget("evt_2"));
+		assertFalse(events.forget("evt_2"));
+		assertEquals(2, events.size());
+		assertEquals(2, events.getDuplicateCount());
+		events.sync();
+		events.close();
+
+		events = new CFStripeEventFilter(file, WINDOW, clock);
+		assertEquals(2, events.size());
+		assertTrue(events.contains("evt_asdfwe34SDkl43"));
+		assertFalse(events.contains("evt_2"));
+		assertFalse(events.isFirstDelivery("evt_3"));
+		// A forgotten event is processed when Stripe retries it
+		assertTrue(events.isFirstDelivery("evt_2"));
+		events.close();
+
+		// Half a record from a crash mid write is dropped
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() + 7);
+		raf.close();
+		events = new CFStripeEventFilter(file, WINDOW, clock);
+		assertEquals(3, events.size());
+		assertTrue(events.isFirstDelivery("evt_4"));
+		events.close();
+		events = new CFStripeEventFilter(file, WINDOW, clock);
+		assertTrue(events.contains("evt_4"));
+		assertEquals((file.length() - 8) % 16, 0);
+		events.close();
+	}
+
+	@Test
+	public void testWindow() throws Exception
+	{
+		File file = new File(folder.getRoot(), "events.dat");
+		CFStripeEventFilter events = new CFStripeEventFilter(file, WINDOW, clock);
+		events.isFirstDelivery("evt_1");
+		now.addAndGet(40000);
+		events.isFirstDelivery("evt_2");
+		now.addAndGet(30000);
+		// evt_1 was 70s ago, evt_2 30s ago
+		assertFalse(events.contains("evt_1"));
+		assertFalse(events.isFirstDelivery("evt_2"));
+		assertTrue(events.isFirstDelivery("evt_1"));
+		assertEquals(1, events.getExpiredCount());
+		events.close();
+
+		now.addAndGet(40000);
+		events = new CFStripeEventFilter(file, WINDOW, clock);
+		// Only evt_1's second delivery (40s ago) is still in the window
+		assertEquals(1, events.size());
+		assertTrue(events.contains("evt_1"));
+		assertTrue(events.isFirstDelivery("evt_2"));
+		events.close();
+	}
+
+	@Test
+	public void testGrowthAndCompaction() throws Exception
+	{
+		File file = new File(folder.getRoot(), "events.dat");
+		CFStripeEventFilter events = new CFStripeEventFilter(file, WINDOW, clock);
+		for (int x = 0; x < 20000; x++) {
+			assertTrue(events.isFirstDelivery("evt_" + x));
+			now.addAndGet(100);
+		}
+		// 600 events per 60s window (the oldest just aged out), so the file has been rewritten along the way
+		int live = events.size();
+		assertEquals(599, live);
+		assertTrue(file.length() <= 8 + 16L * Math.max(CFStripeEventFilter.COMPACT_MIN_RECORDS, 2 * live + 1));
+		for (int x = 20000 - live; x < 20000; x++) {
+			assertFalse(events.isFirstDelivery("evt_" + x));
+		}
+		assertTrue(events.isFirstDelivery("evt_" + (20000 - live - 1)));
+		events.close();
+
+		events = new CFStripeEventFilter(file, WINDOW, clock);
+		assertEquals(live + 1, events.size());
+		for (int x = 20000 - live - 1; x < 20000; x++) {
+			assertTrue(events.contains("evt_" + x));
+		}
+		events.close();
+	}
+
+	@Test
+	public void testCompactionFailure() throws Exception
+	{
+		File file = new File(folder.getRoot(), "events.dat");
+		// Compaction can't create its temp file while this is in the way
+		File blocker = new File(folder.newFolder("events.dat.tmp"), "blocker");
+		assertTrue(blocker.createNewFile());
+		CFStripeEventFilter events = new CFStripeEventFilter(file, WINDOW, clock);
+		for (int x = 0; x < 3000; x++) {
+			assertTrue(events.isFirstDelivery("evt_" + x));
+			now.addAndGet(100);
+		}
+		assertEquals(8 + 16L * 3000, file.length());
+		assertFalse(events.isFirstDelivery("evt_2999"));
+
+		assertTrue(blocker.delete());
+		assertTrue(blocker.getParentFile().delete());
+		for (int x = 3000; x < 5000; x++) {
+			assertTrue(events.isFirstDelivery("evt_" + x));
+			now.addAndGet(100);
+		}
+		assertTrue(file.length() < 8 + 16L * 3000);
+		events.close();
+
+		events = new CFStripeEventFilter(file, WINDOW, clock);
+		assertTrue(events.contains("evt_4999"));
+		events.close();
+	}
+
+	@Test
+	public void testNotAFilterFile() throws Exception
+	{
+		File file = folder.newFile("other.dat");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.writeLong(42);
+		raf.writeLong(42);
+		raf.close();
+		try {
+			new CFStripeEventFilter(file, WINDOW, clock);
+			fail("Expected an InfrastructureException");
+		} catch (com.cffreedom.exceptions.InfrastructureException e) {
+			assertTrue(e.getMessage().contains("other.dat"));
+		}
+	}
+}
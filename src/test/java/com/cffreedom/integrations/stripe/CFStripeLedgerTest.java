@@ -0,0 +1,164 @@
+package com.cffreedom.integrations.stripe;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.cffreedom.beans.Payment;
+import com.cffreedom.exceptions.InfrastructureException;
+
+public class CFStripeLedgerTest
+{
+	private static final long DAY = 86400;
+	// 2026-10-01 00:00:00 UTC
+	private static final long OCT_1 = 1790812800L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRollups() throws Exception
+	{
+		CFStripeLedger ledger = new CFStripeLedger();
+		ledger.append(CFStripeWebHook.getPayment(CFStripeWebHook.getWebHook(CFStripeWebHookTest.chargeSucceeded)));
+		ledger.append(OCT_1 + 10, "cus_1", "usd", 1000, 59, true, false);
+		ledger.append(OCT_1 + DAY - 1, "cus_1", "usd", 2000, 88, true, true);
+		ledger.append(OCT_1 + DAY, "cus_2", "eur", 500, 30, true, false);
+		ledger.append(OCT_1 + DAY + 5, "cus_2", "eur", 700, 0, false, false);
+		ledger.append(OCT_1 + 3 * DAY, null, "usd", 100, 3, true, false);
+		ledger.append(OCT_1 + 40 * DAY, "cus_1", "usd", 9999, 0, true, false);
+		assertEquals(7, ledger.size());
+		assertEquals(3, ledger.getCustomerCount());
+		assertEquals(2, ledger.getCurrencyCount());
+
+		long from = OCT_1;
+		long to = OCT_1 + 31 * DAY;
+		assertEquals(new CFStripeLedger.Totals(4, 3600, 180, 1), ledger.sum(from, to));
+		assertEquals(3420, ledger.sum(from, to).getNetCents());
+
+		Map<Long, CFStripeLedger.Totals> byDay = ledger.sumByDay(from, to);
+		assertEquals(3, byDay.size());
+		assertEquals(new CFStripeLedger.Totals(2, 3000, 147, 1), byDay.get(OCT_1));
+		assertEquals(new CFStripeLedger.Totals(1, 500, 30, 0), byDay.get(OCT_1 + DAY));
+		assertEquals(new CFStripeLedger.Totals(1, 100, 3, 0), byDay.get(OCT_1 + 3 * DAY));
+
+		Map<String, CFStripeLedger.Totals> byCustomer = ledger.sumByCustomer(from, to);
+		assertEquals(3, byCustomer.size());
+		assertEquals(new CFStripeLedger.Totals(2, 3000, 147, 1), byCustomer.get("cus_1"));
+		assertEquals(new CFStripeLedger.Totals(1, 500, 30, 0), byCustomer.get("cus_2"));
+		assertEquals(new CFStripeLedger.Totals(1, 100, 3, 0), byCustomer.get(null));
+
+		Map<String, CFStripeLedger.Totals> byCurrency = ledger.sumByCurrency(from, to);
+		assertEquals(new CFStripeLedger.Totals(3, 3100, 150, 1), byCurrency.get("usd"));
+		assertEquals(new CFStripeLedger.Totals(1, 500, 30, 0), byCurrency.get("eur"));
+
+		// The web hook payment from 2013
+		Payment payment = CFStripeWebHook.getPayment(CFStripeWebHook.getWebHook(CFStripeWebHookTest.chargeSucceeded));
+		long when = payment.getPaymentDate().getTime() / 1000;
+		assertEquals(payment.getGross().movePointRight(2).longValue(), ledger.sum(when, when + 1).getGrossCents());
+		assertTrue(ledger.sumByDay(to, from).isEmpty());
+	}
+
+	@Test
+	public void testParallelMatchesSerial() throws Exception
+	{
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			CFStripeLedger ledger = new CFStripeLedger(pool);
+			Random random = new Random(42);
+			String[] currencies = { "usd", "eur", "gbp" };
+			int rows = 10 * CFStripeLedger.MIN_LEAF_ROWS + 7;
+			long from = OCT_1 + 5 * DAY;
+			long to = OCT_1 + 25 * DAY;
+			long count = 0;
+			long gross = 0;
+			Map<Long, Long> grossByDay = new TreeMap<Long, Long>();
+			Map<String, Long> grossByCustomer = new HashMap<String, Long>();
+			for (int x = 0; x < rows; x++) {
+				long when = OCT_1 + (long) (random.nextDouble() * 30 * DAY);
+				String custCode = "cus_" + random.nextInt(5000);
+				long cents = 100 + random.nextInt(10000);
+				boolean paid = random.nextInt(10) != 0;
+				ledger.append(when, custCode, currencies[random.nextInt(3)], cents, cents / 30, paid, false);
+				if (paid && (when >= from) && (when < to)) {
+					count++;
+					gross += cents;
+					long day = when - ((when - OCT_1) % DAY);
+					grossByDay.put(day, (grossByDay.containsKey(day) ? grossByDay.get(day) : 0) + cents);
+					grossByCustomer.put(custCode, (grossByCustomer.containsKey(custCode) ? grossByCustomer.get(custCode) : 0) + cents);
+				}
+			}
+
+			assertEquals(count, ledger.sum(from, to).getCount());
+			assertEquals(gross, ledger.sum(from, to).getGrossCents());
+			Map<Long, CFStripeLedger.Totals> byDay = ledger.sumByDay(from, to);
+			assertEquals(grossByDay.keySet(), byDay.keySet());
+			for (Map.Entry<Long, Long> day : grossByDay.entrySet()) {
+				assertEquals(day.getValue().longValue(), byDay.get(day.getKey()).getGrossCents());
+			}
+			Map<String, CFStripeLedger.Totals> byCustomer = ledger.sumByCustomer(from, to);
+			assertEquals(grossByCustomer.size(), byCustomer.size());
+			for (Map.Entry<String, Long> customer : grossByCustomer.entrySet()) {
+				assertEquals(customer.getValue().longValue(), byCustomer.get(customer.getKey()).getGrossCents());
+			}
+			long byCurrency = 0;
+			for (CFStripeLedger.Totals totals : ledger.sumByCurrency(from, to).values()) {
+				byCurrency += totals.getGrossCents();
+			}
+			assertEquals(gross, byCurrency);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testSnapshot() throws Exception
+	{
+		File file = new File(folder.getRoot(), "ledger.dat");
+		CFStripeLedger ledger = CFStripeLedger.load(file);
+		assertEquals(0, ledger.size());
+		for (int x = 0; x < 3000; x++) {
+			ledger.append(OCT_1 + x * 600, "cus_" + (x % 70), ((x % 2) == 0) ? "usd" : "eur", 100 + x, x % 7, (x % 11) != 0, (x % 13) == 0);
+		}
+		ledger.append(OCT_1, null, null, 5, 0, true, false);
+		ledger.snapshot(file);
+		assertFalse(new File(folder.getRoot(), "ledger.dat.tmp").exists());
+
+		CFStripeLedger loaded = CFStripeLedger.load(file);
+		assertEquals(ledger.size(), loaded.size());
+		assertEquals(ledger.getCustomerCount(), loaded.getCustomerCount());
+		long to = OCT_1 + 3000 * 600;
+		assertEquals(ledger.sum(OCT_1, to), loaded.sum(OCT_1, to));
+		assertEquals(ledger.sumByDay(OCT_1, to), loaded.sumByDay(OCT_1, to));
+		assertEquals(ledger.sumByCustomer(OCT_1, to), loaded.sumByCustomer(OCT_1, to));
+		assertEquals(ledger.sumByCurrency(OCT_1, to), loaded.sumByCurrency(OCT_1, to));
+
+		// Keeps interning where the snapshot left off
+		loaded.append(OCT_1, "cus_3", "usd", 1, 0, true, false);
+		loaded.append(OCT_1, "cus_new", "usd", 1, 0, true, false);
+		assertEquals(ledger.getCustomerCount() + 1, loaded.getCustomerCount());
+		assertEquals(ledger.sumByCustomer(OCT_1, to).get("cus_3").getCount() + 1, loaded.sumByCustomer(OCT_1, to).get("cus_3").getCount());
+		loaded.snapshot(file);
+		assertEquals(loaded.sum(OCT_1, to), CFStripeLedger.load(file).sum(OCT_1, to));
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(100);
+		raf.close();
+		try {
+			CFStripeLedger.load(file);
+			fail("Expected an InfrastructureException");
+		} catch (InfrastructureException e) {
+			assertTrue(e.getMessage().contains("ledger.dat"));
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package com.cffreedom.integrations.stripe;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.stripe.exception.APIConnectionException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Card;
+import com.stripe.model.Charge;
+import com.stripe.model.Customer;
+
+public class CFStripePagesTest
+{
+	private StripeStandIn standIn;
+	private CFStripe stripe;
+
+	@Before
+	public void setUp()
+	{
+		this.standIn = StripeStandIn.install();
+		this.stripe = new CFStripe(StripeStandIn.API_KEY);
+	}
+
+	@After
+	public void tearDown()
+	{
+		this.standIn.uninstall();
+	}
+
+	@Test
+	public void testCustomers() throws Exception
+	{
+		List<String> custCodes = new ArrayList<String>();
+		for (int x = 0; x < 25; x++) {
+			custCodes.add(standIn.addCustomer("cust" + x + "@example.com"));
+		}
+
+		CFStripePages<Customer> customers = stripe.listCustomers(10);
+		List<String> seen = new ArrayList<String>();
+		while (customers.hasNext()) {
+			seen.add(customers.next().getId());
+		}
+		assertEquals(25, seen.size());
+		assertEquals(custCodes.get(24), seen.get(0));
+		assertEquals(custCodes.get(0), seen.get(24));
+		assertEquals(25, new HashSet<String>(seen).size());
+		assertEquals(3, customers.getPageCount());
+		assertEquals(3, standIn.getRequestCount("GET /v1/customers"));
+		assertEquals(3, stripe.getRoundTrips().get("listCustomers"));
+		assertFalse(customers.hasNext());
+		try {
+			customers.next();
+			fail("Expected a NoSuchElementException");
+		} catch (NoSuchElementException e) {
+		}
+
+		// The total Stripe reports saves asking for an empty page
+		standIn.resetCounts();
+		assertEquals(25, stripe.listCustomers(5).stream().count());
+		assertEquals(5, standIn.getRequestCount("GET /v1/customers"));
+	}
+
+	@Test
+	public void testPrefetch() throws Exception
+	{
+		String custCode = standIn.addCustomer("jsmith@example.com");
+		for (int x = 0; x < 7; x++) {
+			stripe.chargeCustomer(custCode, "Widget " + x, 100 + x);
+		}
+		stripe.chargeCustomer(standIn.addCustomer("other@example.com"), "Other", 999);
+		standIn.resetCounts();
+
+		CFStripePages<Charge> charges = stripe.listCharges(custCode, 3);
+		assertEquals(Integer.valueOf(106), charges.next().getAmount());
+		// The second page is on its way before the first is used up
+		long deadline = System.currentTimeMillis() + 5000;
+		while ((standIn.getRequestCount("GET /v1/charges") < 2) && (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(5);
+		}
+		assertEquals(2, standIn.getRequestCount("GET /v1/charges"));
+		Set<Integer> amounts = new HashSet<Integer>();
+		while (charges.hasNext()) {
+			amounts.add(charges.next().getAmount());
+		}
+		assertEquals(6, amounts.size());
+		assertFalse(amounts.contains(999));
+		assertEquals(3, standIn.getRequestCount("GET /v1/charges"));
+
+		charges = stripe.listCharges(null, 3);
+		charges.next();
+		charges.close();
+		assertFalse(charges.hasNext());
+		assertEquals(8, stripe.listCharges(null, 100).stream().count());
+	}
+
+	@Test
+	public void testCardsAndErrors() throws Exception
+	{
+		String custCode = standIn.addCustomer("jsmith@example.com");
+		for (int x = 0; x < 3; x++) {
+			stripe.addCreditCardToCust(stripe.getCreditCardToken("John Smith", CFStripe.TEST_CC_NUMBER, "123", 12, 2030), custCode, false);
+		}
+		CFStripePages<Card> cards = stripe.listCustomerCards(custCode, 2);
+		int count = 0;
+		while (cards.hasNext()) {
+			assertEquals("4242", cards.next().getLast4());
+			count++;
+		}
+		assertEquals(4, count);
+		assertEquals(2, cards.getPageCount());
+		assertEquals(4, stripe.getCustomerCards(custCode).size());
+
+		standIn.failNext("GET /v1/plans", 1, false);
+		try {
+			stripe.listPlans(10).hasNext();
+			fail("Expected a PageException");
+		} catch (CFStripePages.PageException e) {
+			assertTrue(e.getCause() instanceof APIConnectionException);
+		}
+		standIn.addPlan("gold", "Gold", 2000);
+		assertEquals("gold", stripe.listPlans(10).next().getId());
+
+		try {
+			stripe.listPlans(101);
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testInterrupted() throws Exception
+	{
+		final CountDownLatch never = new CountDownLatch(1);
+		CFStripePages<String> pages = new CFStripePages<String>(new CFStripePages.Source<String>() {
+			public CFStripePages.Page<String> fetch(int offset, int count) {
+				try {
+					never.await();
+				} catch (InterruptedException e) {
+				}
+				return new CFStripePages.Page<String>(null, 0);
+			}
+		}, 10);
+		Thread.currentThread().interrupt();
+		try {
+			pages.hasNext();
+			fail("Expected a PageException");
+		} catch (CFStripePages.PageException e) {
+			assertTrue(e.getCause() instanceof InterruptedException);
+			Thread.interrupted();
+			StripeException stripeException = e.toStripeException();
+			assertTrue(stripeException instanceof APIConnectionException);
+			assertSame(e.getCause(), stripeException.getCause());
+			assertTrue(Thread.interrupted());
+		} finally {
+			pages.close();
+		}
+	}
+}
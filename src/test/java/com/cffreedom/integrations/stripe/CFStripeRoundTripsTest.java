@@ -0,0 +1,126 @@
+package com.cffreedom.integrations.stripe;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.stripe.exception.InvalidRequestException;
+import com.stripe.model.Card;
+import com.stripe.model.Customer;
+import com.stripe.model.Token;
+
+public class CFStripeRoundTripsTest
+{
+	private StripeStandIn standIn;
+	private CFStripe stripe;
+	private String custCode;
+
+	@Before
+	public void setUp()
+	{
+		this.standIn = StripeStandIn.install();
+		this.stripe = new CFStripe(StripeStandIn.API_KEY);
+	}
+
+	@After
+	public void tearDown()
+	{
+		this.standIn.uninstall();
+	}
+
+	@Test
+	public void testRoundTripsPerMethod() throws Exception
+	{
+		standIn.addPlan("gold", "Gold", 2000);
+		standIn.addPlan("silver", "Silver", 1000);
+		this.custCode = standIn.addCustomer("jsmith@example.com");
+
+		assertEquals(1, roundTrips("chargeCustomer", new Call() {
+			public void run() throws Exception { stripe.chargeCustomer(custCode, "Widget", 500); }
+		}));
+		assertEquals(1, roundTrips("updateOrderPlan", new Call() {
+			public void run() throws Exception { stripe.updateOrderPlan(custCode, "gold"); }
+		}));
+		assertEquals(1, roundTrips("cancelOrder", new Call() {
+			public void run() throws Exception { stripe.cancelOrder(custCode); }
+		}));
+		assertEquals(1, roundTrips("getCustomerCards", new Call() {
+			public void run() throws Exception { assertEquals(1, stripe.getCustomerCards(custCode).size()); }
+		}));
+		assertEquals(1, roundTrips("getCustomerCard", new Call() {
+			public void run() throws Exception {
+				String cardCode = stripe.getCustomer(custCode).getDefaultCard();
+				stripe.getRoundTrips().reset();
+				standIn.resetCounts();
+				assertEquals("4242", stripe.getCustomerCard(custCode, cardCode).getLast4());
+			}
+		}));
+
+		final Token token = stripe.getCreditCardToken("John Smith", CFStripe.TEST_CC_NUMBER, "123", 12, 2030);
+		assertEquals(1, roundTrips("addCreditCardToCust", new Call() {
+			public void run() throws Exception { stripe.addCreditCardToCust(token, custCode, false); }
+		}));
+		final Token other = stripe.getCreditCardToken("John Smith", "5555555555554444", "123", 12, 2030);
+		assertEquals(2, roundTrips("addCreditCardToCust", new Call() {
+			public void run() throws Exception { stripe.addCreditCardToCust(other, custCode, true); }
+		}));
+		Customer customer = stripe.getCustomer(custCode);
+		assertEquals(3, customer.getCards().getCount().intValue());
+		final String newDefault = customer.getDefaultCard();
+		assertEquals("4444", stripe.getCustomerCard(custCode, newDefault).getLast4());
+
+		assertEquals(1, roundTrips("deleteCreditCardForCust", new Call() {
+			public void run() throws Exception { assertTrue(stripe.deleteCreditCardForCust(newDefault, custCode)); }
+		}));
+		// Not found, plus the customer lookup that says it was the card that's missing
+		assertEquals(2, roundTrips("deleteCreditCardForCust", new Call() {
+			public void run() throws Exception { assertFalse(stripe.deleteCreditCardForCust(newDefault, custCode)); }
+		}));
+		assertEquals(2, stripe.getCustomerCards(custCode).size());
+		try {
+			stripe.deleteCreditCardForCust(customer.getCards().getData().get(0).getId(), "cus_missing");
+			fail("Expected an InvalidRequestException");
+		} catch (InvalidRequestException e) {
+			assertTrue(e.getMessage().startsWith("No such customer"));
+		}
+		assertEquals(1, roundTrips("deletePlan", new Call() {
+			public void run() throws Exception { stripe.deletePlan("silver"); }
+		}));
+	}
+
+	@Test
+	public void testCachedLookupsAreNotCounted() throws Exception
+	{
+		String custCode = standIn.addCustomer("jsmith@example.com");
+		CFStripe cached = new CFStripe(StripeStandIn.API_KEY, new CFStripeCache());
+		Card card = cached.getCustomerCards(custCode).get(0);
+		cached.getCustomerCard(custCode, card.getId());
+		cached.getCustomer(custCode);
+		assertEquals(1, standIn.getRequestCount());
+		assertEquals(1, cached.getRoundTrips().getTotal());
+		assertEquals(1, cached.getRoundTrips().get("getCustomerCards"));
+		assertEquals(0, cached.getRoundTrips().get("getCustomer"));
+		assertEquals("{getCustomerCards=1}", cached.getRoundTrips().getCounts().toString());
+	}
+
+	/**
+	 * Run call and check the CFStripe counter agrees with what the stand in saw
+	 * @return Round trips method made
+	 */
+	private int roundTrips(String method, Call call) throws Exception
+	{
+		this.stripe.getRoundTrips().reset();
+		this.standIn.resetCounts();
+		call.run();
+		assertEquals(method, this.standIn.getRequestCount(), this.stripe.getRoundTrips().getTotal());
+		assertEquals(method, this.standIn.getRequestCount(), this.stripe.getRoundTrips().get(method));
+		return this.standIn.getRequestCount();
+	}
+
+	private static interface Call
+	{
+		void run() throws Exception;
+	}
+}
@@ -0,0 +1,231 @@
+package com.cffreedom.integrations.stripe;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+public class CFStripeWebHookDispatcherTest
+{
+	private static JSONObject event(String type, String custCode, long seq) throws Exception
+	{
+		return CFStripeWebHook.getWebHook("{\"id\": \"evt_" + custCode + "_" + seq + "\", \"type\": \"" + type + "\", "
+				+ "\"data\": {\"object\": {\"id\": \"ch_" + seq + "\", \"object\": \"charge\", \"customer\": \"" + custCode + "\"}}}");
+	}
+
+	private static long seq(JSONObject webHook)
+	{
+		return Long.parseLong(CFStripeWebHook.getObjectId(webHook).substring(3));
+	}
+
+	private static void waitFor(CFStripeWebHookDispatcher dispatcher, long processed) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 10000;
+		while ((dispatcher.getProcessedCount() < processed) && (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(5);
+		}
+		assertEquals(processed, dispatcher.getProcessedCount());
+	}
+
+	@Test
+	public void testPerCustomerOrder() throws Exception
+	{
+		final Map<String, List<Long>> seen = new ConcurrentHashMap<String, List<Long>>();
+		CFStripeWebHookDispatcher dispatcher = new CFStripeWebHookDispatcher(4, 100000);
+		dispatcher.on("charge.*", new CFStripeWebHookDispatcher.Handler() {
+			public void handle(JSONObject webHook) throws Exception {
+				String custCode = CFStripeWebHook.getCustomerCode(webHook);
+				List<Long> list = seen.get(custCode);
+				if (list == null) {
+					seen.putIfAbsent(custCode, Collections.synchronizedList(new ArrayList<Long>()));
+					list = seen.get(custCode);
+				}
+				list.add(seq(webHook));
+				if (seq(webHook) % 7 == 0) {
+					Thread.sleep(1);
+				}
+			}
+		});
+
+		int customers = 25;
+		int perCustomer = 200;
+		for (int x = 0; x < perCustomer; x++) {
+			for (int c = 0; c < customers; c++) {
+				assertTrue(dispatcher.dispatch(event("charge.succeeded", "cus_" + c, x)));
+			}
+		}
+		waitFor(dispatcher, customers * perCustomer);
+		assertTrue(dispatcher.close(5, TimeUnit.SECONDS));
+
+		assertEquals(customers, seen.size());
+		for (List<Long> list : seen.values()) {
+			assertEquals(perCustomer, list.size());
+			for (int x = 0; x < perCustomer; x++) {
+				assertEquals(x, list.get(x).longValue());
+			}
+		}
+		assertEquals(customers * perCustomer, dispatcher.getDispatchedCount());
+		assertEquals(0, dispatcher.getQueueDepth());
+		assertEquals(customers * perCustomer, dispatcher.getHandlerLatency().getCount());
+		assertTrue(dispatcher.getMaxQueueDepth() > 0);
+	}
+
+	@Test
+	public void testCustomersInParallel() throws Exception
+	{
+		final CFStripeWebHookDispatcher dispatcher = new CFStripeWebHookDispatcher(4, 100);
+		String first = "cus_a";
+		String second = null;
+		for (int x = 0; second == null; x++) {
+			if (dispatcher.laneFor("cus_" + x) != dispatcher.laneFor(first)) {
+				second = "cus_" + x;
+			}
+		}
+
+		// The first customer's event can only finish once the second customer's has run
+		final CountDownLatch secondRan = new CountDownLatch(1);
+		final AtomicInteger timedOut = new AtomicInteger();
+		final String firstCode = first;
+		dispatcher.on("charge.succeeded", new CFStripeWebHookDispatcher.Handler() {
+			public void handle(JSONObject webHook) throws Exception {
+				if (firstCode.equals(CFStripeWebHook.getCustomerCode(webHook))) {
+					if (!secondRan.await(5, TimeUnit.SECONDS)) {
+						timedOut.incrementAndGet();
+					}
+				} else {
+					secondRan.countDown();
+				}
+			}
+		});
+		assertTrue(dispatcher.dispatch(event("charge.succeeded", first, 1)));
+		assertTrue(dispatcher.dispatch(event("charge.succeeded", second, 1)));
+		waitFor(dispatcher, 2);
+		assertEquals(0, timedOut.get());
+		assertTrue(dispatcher.close(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testFullQueueAndFailures() throws Exception
+	{
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		CFStripeWebHookDispatcher dispatcher = new CFStripeWebHookDispatcher(1, 2);
+		dispatcher.on("charge.succeeded", new CFStripeWebHookDispatcher.Handler() {
+			public void handle(JSONObject webHook) throws Exception {
+				started.countDown();
+				release.await();
+				if (seq(webHook) == 2) {
+					throw new IllegalStateException("Handler failed");
+				}
+			}
+		});
+
+		assertTrue(dispatcher.dispatch(event("charge.succeeded", "cus_1", 1)));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		assertTrue(dispatcher.dispatch(event("charge.succeeded", "cus_1", 2)));
+		assertTrue(dispatcher.dispatch(event("charge.succeeded", "cus_2", 3)));
+		assertEquals(2, dispatcher.getQueueDepth());
+		// Full, Stripe will deliver it again
+		assertFalse(dispatcher.dispatch(event("charge.succeeded", "cus_3", 4)));
+		// Nothing handles these so they are acknowledged without taking space
+		assertTrue(dispatcher.dispatch(event("customer.created", "cus_3", 5)));
+		assertEquals(1, dispatcher.getRejectedCount());
+		assertEquals(1, dispatcher.getUnhandledCount());
+
+		release.countDown();
+		waitFor(dispatcher, 3);
+		assertEquals(1, dispatcher.getFailedCount());
+		assertEquals(2, dispatcher.getMaxQueueDepth());
+		assertTrue(dispatcher.close(5, TimeUnit.SECONDS));
+		try {
+			dispatcher.dispatch(event("charge.succeeded", "cus_1", 6));
+			fail("Expected an InfrastructureException");
+		} catch (com.cffreedom.exceptions.InfrastructureException e) {
+			assertTrue(e.getMessage().contains("closed"));
+		}
+	}
+
+	@Test
+	public void testDispatchWhileClosing() throws Exception
+	{
+		final CFStripeWebHookDispatcher dispatcher = new CFStripeWebHookDispatcher(1);
+		dispatcher.on("charge.succeeded", new CFStripeWebHookDispatcher.Handler() {
+			public void handle(JSONObject webHook) { }
+		});
+		assertTrue(dispatcher.dispatch(event("charge.succeeded", "cus_1", 1)));
+		waitFor(dispatcher, 1);
+
+		// close() runs, and the lane's worker exits, after dispatch() checked it was open
+		JSONObject racing = new JSONObject() {
+			private boolean closed = false;
+			@Override
+			public Object get(Object key) {
+				if ("type".equals(key) && !this.closed) {
+					this.closed = true;
+					assertTrue(dispatcher.close(5, TimeUnit.SECONDS));
+				}
+				return super.get(key);
+			}
+		};
+		racing.putAll(event("charge.succeeded", "cus_1", 2));
+		// Not acknowledged, so Stripe delivers it again instead of it sitting in a dead lane
+		assertFalse(dispatcher.dispatch(racing));
+		assertEquals(0, dispatcher.getQueueDepth());
+		assertEquals(1, dispatcher.getRejectedCount());
+		assertEquals(1, dispatcher.getDispatchedCount());
+	}
+
+	@Test
+	public void testHandlerLookup() throws Exception
+	{
+		CFStripeWebHookDispatcher.Handler all = new CFStripeWebHookDispatcher.Handler() {
+			public void handle(JSONObject webHook) { }
+		};
+		CFStripeWebHookDispatcher.Handler charges = new CFStripeWebHookDispatcher.Handler() {
+			public void handle(JSONObject webHook) { }
+		};
+		CFStripeWebHookDispatcher.Handler disputes = new CFStripeWebHookDispatcher.Handler() {
+			public void handle(JSONObject webHook) { }
+		};
+		CFStripeWebHookDispatcher.Handler succeeded = new CFStripeWebHookDispatcher.Handler() {
+			public void handle(JSONObject webHook) { }
+		};
+		CFStripeWebHookDispatcher dispatcher = new CFStripeWebHookDispatcher(1);
+		assertNull(dispatcher.getHandler("charge.succeeded"));
+		dispatcher.on("charge.*", charges).on(CFStripeWebHookDispatcher.ALL_TYPES, all)
+				.on("charge.dispute.*", disputes).on("charge.succeeded", succeeded);
+		assertSame(succeeded, dispatcher.getHandler("charge.succeeded"));
+		assertSame(charges, dispatcher.getHandler("charge.failed"));
+		assertSame(disputes, dispatcher.getHandler("charge.dispute.created"));
+		assertSame(all, dispatcher.getHandler("invoice.created"));
+		assertSame(all, dispatcher.getHandler(null));
+		dispatcher.close(1, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testLatency()
+	{
+		CFStripeWebHookDispatcher.Latency latency = new CFStripeWebHookDispatcher.Latency();
+		assertEquals(0, latency.getPercentileMicros(99));
+		for (int x = 1; x <= 100; x++) {
+			latency.record(TimeUnit.MICROSECONDS.toNanos(x * 10));
+		}
+		assertEquals(100, latency.getCount());
+		assertEquals(505, latency.getMeanMicros());
+		assertEquals(1000, latency.getMaxMicros());
+		// Within a quarter of the exact value
+		long p50 = latency.getPercentileMicros(50);
+		assertTrue(String.valueOf(p50), (p50 >= 500) && (p50 <= 625));
+		long p99 = latency.getPercentileMicros(99);
+		assertTrue(String.valueOf(p99), (p99 >= 990) && (p99 <= 1000));
+	}
+}
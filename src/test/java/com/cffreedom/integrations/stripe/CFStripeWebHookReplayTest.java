@@ -0,0 +1,129 @@
+package com.cffreedom.integrations.stripe;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.simple.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.cffreedom.exceptions.InfrastructureException;
+
+public class CFStripeWebHookReplayTest
+{
+	private static final int CUSTOMERS = 40;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testOrderPerCustomer() throws Exception
+	{
+		File archive = folder.newFile("events.ndjson");
+		Writer out = new OutputStreamWriter(new FileOutputStream(archive), StandardCharsets.UTF_8);
+		int events = 5000;
+		for (int x = 0; x < events; x++) {
+			out.write(event(x, "cus_" + (x % CUSTOMERS), "Caf\u00e9 #" + x));
+			out.write(((x % 7) == 0) ? "\r\n" : "\n");
+			if ((x % 1000) == 0) {
+				out.write("\n   \nnot json\n[1,2]\n");
+			}
+		}
+		out.write(event(events, "cus_0", "last line, no newline"));
+		out.close();
+		events++;
+
+		final Map<String, List<Long>> seen = new ConcurrentHashMap<String, List<Long>>();
+		final AtomicInteger descriptions = new AtomicInteger();
+		CFStripeWebHookDispatcher dispatcher = new CFStripeWebHookDispatcher(4, 50);
+		dispatcher.on("charge.*", new CFStripeWebHookDispatcher.Handler() {
+			public void handle(JSONObject webHook) {
+				String custCode = CFStripeWebHook.getCustomerCode(webHook);
+				List<Long> created = seen.get(custCode);
+				if (created == null) {
+					seen.put(custCode, created = new ArrayList<Long>());
+				}
+				created.add(CFStripeWebHook.getCreated(webHook).getTime());
+				if (((String) CFStripeWebHook.getObject(webHook).get("description")).startsWith("Caf\u00e9 #")) {
+					descriptions.incrementAndGet();
+				}
+			}
+		});
+
+		// Windows and batches much smaller than the file so lines straddle both
+		CFStripeWebHookReplay.Result result = new CFStripeWebHookReplay(dispatcher, 3, 64 * 1024, 3000).replay(archive);
+		assertEquals(events, result.getEvents());
+		assertEquals(10, result.getMalformed());
+		assertEquals(archive.length(), result.getBytes());
+		assertTrue(result.getEventsPerSecond() > 0);
+		// Handlers are done when replay() returns
+		assertEquals(events, dispatcher.getProcessedCount());
+		assertEquals(0, dispatcher.getFailedCount());
+		assertEquals(events - 1, descriptions.get());
+
+		assertEquals(CUSTOMERS, seen.size());
+		int total = 0;
+		for (List<Long> created : seen.values()) {
+			for (int x = 1; x < created.size(); x++) {
+				assertTrue(created.get(x - 1) < created.get(x));
+			}
+			total += created.size();
+		}
+		assertEquals(events, total);
+		assertTrue(dispatcher.close(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testErrors() throws Exception
+	{
+		CFStripeWebHookDispatcher dispatcher = new CFStripeWebHookDispatcher(1);
+		CFStripeWebHookReplay replay = new CFStripeWebHookReplay(dispatcher, 1, 100, 10);
+		try {
+			replay.replay(new File(folder.getRoot(), "missing.ndjson"));
+			fail("Expected an InfrastructureException");
+		} catch (InfrastructureException e) {
+			assertTrue(e.getMessage().contains("missing.ndjson"));
+		}
+
+		File empty = folder.newFile("empty.ndjson");
+		assertEquals(0, replay.replay(empty).getEvents());
+
+		File longLine = folder.newFile("long.ndjson");
+		Writer out = new OutputStreamWriter(new FileOutputStream(longLine), StandardCharsets.UTF_8);
+		out.write(event(1, "cus_1", "This line is longer than the window") + "\n" + event(2, "cus_1", "") + "\n");
+		out.close();
+		try {
+			replay.replay(longLine);
+			fail("Expected an InfrastructureException");
+		} catch (InfrastructureException e) {
+			assertTrue(e.getMessage().contains("longer than 100 bytes"));
+		}
+
+		dispatcher.close(1, TimeUnit.SECONDS);
+		try {
+			new CFStripeWebHookReplay(dispatcher).replay(longLine);
+			fail("Expected an InfrastructureException");
+		} catch (InfrastructureException e) {
+			assertTrue(e.getMessage().contains("closed"));
+		}
+	}
+
+	private static String event(int x, String custCode, String description)
+	{
+		return "{\"id\":\"evt_" + x + "\",\"type\":\"charge.succeeded\",\"created\":" + (1790812800L + x) + ",\"livemode\":false,"
+				+ "\"data\":{\"object\":{\"id\":\"ch_" + x + "\",\"object\":\"charge\",\"customer\":\"" + custCode + "\",\"amount\":" + (100 + x)
+				+ ",\"description\":\"" + description + "\"}}}";
+	}
+}
@@ -11,7 +11,7 @@ import com.cffreedom.utils.Convert;
 
 public class CFStripeWebHookTest
 {
-	private static String chargeSucceeded = "{" +
+	static final String chargeSucceeded = "{" +
 			"  \"id\": \"evt_asdfwe34SDkl43\",                      " +
 			"  \"created\": 1385705053,                             " +
 			"  \"livemode\": true,                                  " +
@@ -76,7 +76,7 @@ public class CFStripeWebHookTest
 			"  \"request\": null                                    " +
 			"}";
 	
-	private static String transferCreated = "{" +
+	static final String transferCreated = "{" +
 			"  \"id\": \"evt_33xASHjHeSEfIw\",                                  " +
 			"  \"created\": 1385948990,                                         " +
 			"  \"livemode\": false,                                             " +
@@ -0,0 +1,91 @@
+package com.cffreedom.integrations.stripe;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.cffreedom.beans.Payment;
+
+/**
+ * A month's revenue per customer from a million payments: looping over the Payment objects
+ * (what a rollup over CFStripeWebHook.getPayment() results looks like) vs CFStripeLedger's
+ * column scan split over the common ForkJoinPool. Run with:
+ * java -cp target/test-classes:target/classes:&lt;test classpath&gt; com.cffreedom.integrations.stripe.StripeLedgerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+public class StripeLedgerBenchmark
+{
+	private static final int PAYMENTS = 1000000;
+	private static final long START = 1790812800L;
+	private static final long MONTH = TimeUnit.DAYS.toSeconds(31);
+
+	private final List<Payment> payments = new ArrayList<Payment>(PAYMENTS);
+	private final CFStripeLedger ledger = new CFStripeLedger();
+
+	@Setup
+	public void setUp()
+	{
+		Random random = new Random(42);
+		for (int x = 0; x < PAYMENTS; x++) {
+			Payment payment = new Payment();
+			payment.setPaymentDate(new Date(TimeUnit.SECONDS.toMillis(START + (long) (random.nextDouble() * 3 * MONTH))));
+			payment.setCustomerCode("cus_" + random.nextInt(50000));
+			payment.setCurrency("usd");
+			payment.setGross(BigDecimal.valueOf(100 + random.nextInt(10000), 2));
+			payment.setFees(BigDecimal.valueOf(30, 2));
+			payment.setPaid(true);
+			this.payments.add(payment);
+			this.ledger.append(payment);
+		}
+	}
+
+	@Benchmark
+	public Map<String, BigDecimal> paymentObjects()
+	{
+		Date from = new Date(TimeUnit.SECONDS.toMillis(START + MONTH));
+		Date to = new Date(TimeUnit.SECONDS.toMillis(START + 2 * MONTH));
+		Map<String, BigDecimal> byCustomer = new HashMap<String, BigDecimal>();
+		for (Payment payment : this.payments) {
+			if (payment.isPaid() && !payment.getPaymentDate().before(from) && payment.getPaymentDate().before(to)) {
+				BigDecimal total = byCustomer.get(payment.getCustomerCode());
+				byCustomer.put(payment.getCustomerCode(), (total == null) ? payment.getGross() : total.add(payment.getGross()));
+			}
+		}
+		return byCustomer;
+	}
+
+	@Benchmark
+	public Map<String, CFStripeLedger.Totals> ledger()
+	{
+		return this.ledger.sumByCustomer(START + MONTH, START + 2 * MONTH);
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		new Runner(new OptionsBuilder().include(StripeLedgerBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,235 @@
+package com.cffreedom.integrations.stripe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.stripe.exception.StripeException;
+import com.stripe.model.Token;
+
+/**
+ * Closed loop load generator for the CFStripe calls that matter at checkout: order,
+ * orderOneTime, chargeCustomer and updateOrderPlan. Each client thread makes its calls back to
+ * back and every call is timed on its own. Card tokens and the customers that chargeCustomer
+ * and updateOrderPlan work on are set up before the clock starts, so ops/sec only covers the
+ * operation being measured. Without a key it runs against StripeStandIn with the given latency
+ * and error rate.
+ * Run with: java -cp target/test-classes:target/classes:&lt;test classpath&gt; com.cffreedom.integrations.stripe.StripeLoadHarness [threads] [opsPerThread] [latencyMillis] [errorRate] [apiKey]
+ */
+public class StripeLoadHarness
+{
+	public static final String[] OPERATIONS = { "order", "orderOneTime", "chargeCustomer", "updateOrderPlan" };
+	/** Plans the account needs: orders are for PLAN, updateOrderPlan switches between the two */
+	public static final String PLAN = "gold";
+	public static final String OTHER_PLAN = "silver";
+	private static final int SETUP_ATTEMPTS = 10;
+
+	/**
+	 * Call operation opsPerThread times from each of threads threads
+	 * @param stripe
+	 * @param operation One of OPERATIONS
+	 * @param threads
+	 * @param opsPerThread
+	 * @return Latencies and counts
+	 */
+	public static Report run(final CFStripe stripe, final String operation, int threads, final int opsPerThread) throws InterruptedException
+	{
+		if (!Arrays.asList(OPERATIONS).contains(operation)) {
+			throw new IllegalArgumentException("Unknown operation: " + operation);
+		}
+		final long[] latencies = new long[threads * opsPerThread];
+		Arrays.fill(latencies, -1);
+		final AtomicInteger errors = new AtomicInteger();
+		final AtomicReference<Exception> setupError = new AtomicReference<Exception>();
+		final CountDownLatch ready = new CountDownLatch(threads);
+		final CountDownLatch go = new CountDownLatch(1);
+
+		List<Thread> clients = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			final int first = t * opsPerThread;
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					Token[] tokens = new Token[opsPerThread];
+					String custCode = null;
+					try {
+						if ("order".equals(operation) || "orderOneTime".equals(operation)) {
+							for (int x = 0; x < opsPerThread; x++) {
+								tokens[x] = newToken(stripe);
+							}
+						} else {
+							custCode = newCustomer(stripe, "load" + first + "@example.com");
+						}
+					} catch (Exception e) {
+						setupError.compareAndSet(null, e);
+					} finally {
+						ready.countDown();
+					}
+					try {
+						go.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					if (setupError.get() != null) {
+						return;
+					}
+					for (int x = 0; x < opsPerThread; x++) {
+						long begin = System.nanoTime();
+						try {
+							call(stripe, operation, tokens[x], custCode, x);
+						} catch (StripeException e) {
+							errors.incrementAndGet();
+						}
+						latencies[first + x] = System.nanoTime() - begin;
+					}
+				}
+			}, "StripeLoadHarness-" + t);
+			thread.setDaemon(true);
+			clients.add(thread);
+			thread.start();
+		}
+		ready.await();
+		long start = System.nanoTime();
+		go.countDown();
+		for (Thread thread : clients) {
+			thread.join();
+		}
+		long elapsed = System.nanoTime() - start;
+		if (setupError.get() != null) {
+			throw new IllegalStateException("Couldn't set up " + operation + ": " + setupError.get().getMessage(), setupError.get());
+		}
+		return new Report(operation, threads, latencies, errors.get(), elapsed);
+	}
+
+	private static void call(CFStripe stripe, String operation, Token token, String custCode, int x) throws StripeException
+	{
+		if ("order".equals(operation)) {
+			stripe.order(token, "order" + x + "@example.com", "Load test", PLAN);
+		} else if ("orderOneTime".equals(operation)) {
+			stripe.orderOneTime(token, "onetime" + x + "@example.com", "Load test", 1000 + x);
+		} else if ("chargeCustomer".equals(operation)) {
+			stripe.chargeCustomer(custCode, "Load test " + x, 1000 + x);
+		} else {
+			stripe.updateOrderPlan(custCode, ((x % 2) == 0) ? OTHER_PLAN : PLAN);
+		}
+	}
+
+	private static Token newToken(CFStripe stripe) throws StripeException
+	{
+		for (int attempt = 1; ; attempt++) {
+			try {
+				return stripe.getCreditCardToken("Load Test", CFStripe.TEST_CC_NUMBER, "123", 12, 2030);
+			} catch (StripeException e) {
+				if (attempt >= SETUP_ATTEMPTS) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	private static String newCustomer(CFStripe stripe, String email) throws StripeException
+	{
+		for (int attempt = 1; ; attempt++) {
+			try {
+				return stripe.order(newToken(stripe), email, "Load test", PLAN).getId();
+			} catch (StripeException e) {
+				if (attempt >= SETUP_ATTEMPTS) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	public static class Report
+	{
+		private final String operation;
+		private final int threads;
+		private final int ops;
+		private final int errors;
+		private final double opsPerSecond;
+		private final long p50Micros;
+		private final long p90Micros;
+		private final long p99Micros;
+		private final long maxMicros;
+
+		Report(String operation, int threads, long[] latencies, int errors, long elapsedNanos)
+		{
+			long[] sorted = latencies.clone();
+			Arrays.sort(sorted);
+			// Calls that never ran (interrupted) are still -1 and sort to the front
+			int skipped = 0;
+			while ((skipped < sorted.length) && (sorted[skipped] < 0)) {
+				skipped++;
+			}
+			sorted = Arrays.copyOfRange(sorted, skipped, sorted.length);
+			this.operation = operation;
+			this.threads = threads;
+			this.ops = sorted.length;
+			this.errors = errors;
+			this.opsPerSecond = sorted.length / (elapsedNanos / 1e9);
+			this.p50Micros = percentile(sorted, 0.50) / 1000;
+			this.p90Micros = percentile(sorted, 0.90) / 1000;
+			this.p99Micros = percentile(sorted, 0.99) / 1000;
+			this.maxMicros = (sorted.length == 0) ? 0 : sorted[sorted.length - 1] / 1000;
+		}
+
+		private static long percentile(long[] sorted, double p)
+		{
+			return (sorted.length == 0) ? 0 : sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+		}
+
+		public String getOperation() { return this.operation; }
+		public int getOps() { return this.ops; }
+		public int getErrors() { return this.errors; }
+		public double getOpsPerSecond() { return this.opsPerSecond; }
+		public long getP50Micros() { return this.p50Micros; }
+		public long getP90Micros() { return this.p90Micros; }
+		public long getP99Micros() { return this.p99Micros; }
+		public long getMaxMicros() { return this.maxMicros; }
+
+		@Override
+		public String toString()
+		{
+			return String.format("%-16s threads=%d ops=%d errors=%d rate=%.0f/s p50=%dus p90=%dus p99=%dus max=%dus", this.operation, this.threads, this.ops, this.errors, this.opsPerSecond, this.p50Micros, this.p90Micros, this.p99Micros, this.maxMicros);
+		}
+	}
+
+	/**
+	 * @param args Client threads (default 16), calls per thread (default 100), stand in latency in
+	 * millis (default 50), stand in error rate (default 0) and an optional test mode API key.
+	 * With a key the calls go to Stripe, which needs PLAN and OTHER_PLAN set up on the account.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 16;
+		int opsPerThread = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+		long latencyMillis = (args.length > 2) ? Long.parseLong(args[2]) : 50;
+		double errorRate = (args.length > 3) ? Double.parseDouble(args[3]) : 0;
+		String apiKey = (args.length > 4) ? args[4] : null;
+
+		StripeStandIn standIn = null;
+		if (apiKey == null) {
+			standIn = StripeStandIn.install();
+			standIn.addPlan(PLAN, "Gold", 2000);
+			standIn.addPlan(OTHER_PLAN, "Silver", 1000);
+			apiKey = StripeStandIn.API_KEY;
+		}
+		CFStripe stripe = new CFStripe(apiKey);
+
+		for (String operation : OPERATIONS) {
+			run(stripe, operation, 2, 20); // warm up
+		}
+		if (standIn != null) {
+			standIn.setLatencyMillis(latencyMillis);
+			standIn.setErrorRate(errorRate);
+		}
+		for (String operation : OPERATIONS) {
+			System.out.println(run(stripe, operation, threads, opsPerThread));
+		}
+		if (standIn != null) {
+			standIn.uninstall();
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package com.cffreedom.integrations.stripe;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.stripe.exception.APIException;
+
+public class StripeLoadHarnessTest
+{
+	private StripeStandIn standIn;
+	private CFStripe stripe;
+
+	@Before
+	public void setUp()
+	{
+		this.standIn = StripeStandIn.install();
+		this.standIn.addPlan(StripeLoadHarness.PLAN, "Gold", 2000);
+		this.standIn.addPlan(StripeLoadHarness.OTHER_PLAN, "Silver", 1000);
+		this.stripe = new CFStripe(StripeStandIn.API_KEY);
+	}
+
+	@After
+	public void tearDown()
+	{
+		this.standIn.uninstall();
+	}
+
+	@Test
+	public void testLoadHarness() throws Exception
+	{
+		standIn.setLatencyMillis(5);
+		standIn.setErrorRate(0.25);
+		int errors = 0;
+		for (String operation : StripeLoadHarness.OPERATIONS) {
+			StripeLoadHarness.Report report = StripeLoadHarness.run(stripe, operation, 2, 10);
+			assertEquals(operation, report.getOperation());
+			assertEquals(20, report.getOps());
+			assertTrue(report.getErrors() <= 20);
+			assertTrue(report.getOpsPerSecond() > 0);
+			// Every call waits out the latency, even the ones that fail
+			assertTrue(report.getP50Micros() >= 5000);
+			assertTrue(report.getP99Micros() >= report.getP50Micros());
+			assertTrue(report.getMaxMicros() >= report.getP99Micros());
+			errors += report.getErrors();
+		}
+		assertTrue(errors > 0);
+	}
+
+	@Test
+	public void testErrorInjection() throws Exception
+	{
+		String custCode = standIn.addCustomer("jsmith@example.com");
+		standIn.setErrorRate(1);
+		try {
+			stripe.chargeCustomer(custCode, "Widget", 500);
+			fail("Expected an APIException");
+		} catch (APIException e) {
+		}
+		assertEquals(0, standIn.getCharges().size());
+		standIn.setErrorRate(0);
+		stripe.chargeCustomer(custCode, "Widget", 500);
+		assertEquals(1, standIn.getCharges().size());
+
+		try {
+			standIn.setErrorRate(1.5);
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			StripeLoadHarness.run(stripe, "refund", 1, 1);
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
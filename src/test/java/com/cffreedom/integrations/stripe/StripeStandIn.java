@@ -0,0 +1,773 @@
+package com.cffreedom.integrations.stripe;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.net.URLStreamHandler;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.stripe.Stripe;
+
+/**
+ * In process stand in for api.stripe.com. stripe-java opens its connections through the
+ * URLStreamHandler named by the com.stripe.net.customURLStreamHandler system property, so
+ * install() points that at Handler and every request the SDK makes is answered from the
+ * in memory customers, cards, plans, tokens and charges below without touching the network.
+ * Requests are counted per route ("GET /v1/customers/{id}") so tests can assert round trips.
+ * Everything created belongs to the account (API key) of the request that created it, and
+ * other accounts get a 404 for it like they would from Stripe.
+ * setLatencyMillis() and setErrorRate() make it behave more like the real service for load
+ * testing (see StripeLoadHarness). The wait happens outside the stand in's lock so concurrent
+ * requests overlap the way they would over the network.
+ */
+public class StripeStandIn
+{
+	public static final String API_KEY = "sk_test_standin";
+	public static final String DECLINED_LAST4 = "0002";
+	private static final String HANDLER_PROPERTY = "com.stripe.net.customURLStreamHandler";
+	private static volatile StripeStandIn current;
+
+	private final Map<String, JsonObject> customers = new LinkedHashMap<String, JsonObject>();
+	private final Map<String, JsonObject> plans = new LinkedHashMap<String, JsonObject>();
+	private final Map<String, JsonObject> tokens = new LinkedHashMap<String, JsonObject>();
+	private final Map<String, JsonObject> charges = new LinkedHashMap<String, JsonObject>();
+	private final ConcurrentMap<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+	private final AtomicInteger requestCount = new AtomicInteger();
+	private final ConcurrentMap<String, int[]> failures = new ConcurrentHashMap<String, int[]>();
+	private final Map<String, String> owners = new HashMap<String, String>();
+	private volatile long latencyMillis = 0;
+	private volatile double errorRate = 0;
+	private String account = API_KEY;
+	private int ids = 0;
+
+	/**
+	 * Route all stripe-java requests to a fresh stand in
+	 */
+	public static StripeStandIn install()
+	{
+		StripeStandIn standIn = new StripeStandIn();
+		current = standIn;
+		System.setProperty(HANDLER_PROPERTY, Handler.class.getName());
+		Stripe.apiKey = API_KEY;
+		return standIn;
+	}
+
+	public void uninstall()
+	{
+		if (current == this) {
+			System.clearProperty(HANDLER_PROPERTY);
+			current = null;
+		}
+	}
+
+	public int getRequestCount()
+	{
+		return this.requestCount.get();
+	}
+
+	/**
+	 * @param route e.g. "GET /v1/customers/{id}"
+	 */
+	public int getRequestCount(String route)
+	{
+		AtomicInteger count = this.requests.get(route);
+		return (count == null) ? 0 : count.get();
+	}
+
+	public void resetCounts()
+	{
+		this.requests.clear();
+		this.requestCount.set(0);
+	}
+
+	/**
+	 * @param latencyMillis Time every request takes before it is answered
+	 */
+	public void setLatencyMillis(long latencyMillis)
+	{
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * Answer a random share of requests with a 500 api_error without applying them. The SDK
+	 * reports these as APIException.
+	 * @param errorRate 0 (none, the default) - 1 (every request)
+	 */
+	public void setErrorRate(double errorRate)
+	{
+		if ((errorRate < 0) || (errorRate > 1)) {
+			throw new IllegalArgumentException("errorRate must be 0 - 1");
+		}
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * Drop the connection on the next requests to route, as if the network failed. The SDK
+	 * reports these as APIConnectionException.
+	 * @param route e.g. "POST /v1/charges"
+	 * @param times How many requests to fail
+	 * @param applied true to make the change before dropping the response (the client can't
+	 * tell whether the request went through), false to drop it before it arrives
+	 */
+	public void failNext(String route, int times, boolean applied)
+	{
+		this.failures.put(route, new int[] { times, applied ? 1 : 0 });
+	}
+
+	/**
+	 * Add a customer with a working card directly (not counted as a request)
+	 * @return Customer id
+	 */
+	public String addCustomer(String email)
+	{
+		return addCustomer(email, CFStripe.TEST_CC_NUMBER);
+	}
+
+	/**
+	 * @param cardNum CFStripe.TEST_CC_DECLINE gives a customer whose charges are declined
+	 * @return Customer id
+	 */
+	public synchronized String addCustomer(String email, String cardNum)
+	{
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		params.put("email", email);
+		params.put("card[number]", cardNum);
+		return createCustomer(params).get("id").getAsString();
+	}
+
+	/**
+	 * Add a customer with a working card to another account directly (not counted as a request)
+	 * @return Customer id
+	 */
+	public synchronized String addCustomerFor(String apiKey, String email)
+	{
+		this.account = apiKey;
+		try {
+			return addCustomer(email);
+		} finally {
+			this.account = API_KEY;
+		}
+	}
+
+	/**
+	 * @param id Customer, charge, plan, etc. id
+	 * @return API key of the account it belongs to
+	 */
+	public synchronized String getAccount(String id)
+	{
+		return this.owners.get(id);
+	}
+
+	/**
+	 * Add a plan directly (not counted as a request)
+	 */
+	public synchronized void addPlan(String planCode, String name, int amountInCents)
+	{
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		params.put("id", planCode);
+		params.put("name", name);
+		params.put("amount", String.valueOf(amountInCents));
+		params.put("currency", "usd");
+		params.put("interval", "month");
+		createPlan(params);
+	}
+
+	/**
+	 * Change a customer behind the client's back, as if done from the dashboard
+	 */
+	public synchronized void setCustomerEmail(String custCode, String email)
+	{
+		this.customers.get(custCode).addProperty("email", email);
+	}
+
+	public synchronized List<JsonObject> getCharges()
+	{
+		return new ArrayList<JsonObject>(this.charges.values());
+	}
+
+	Response handle(String method, String path, Map<String, String> params, String apiKey) throws IOException
+	{
+		String[] parts = path.substring(1).split("/");
+		StringBuilder route = new StringBuilder(method).append(" /").append(parts[0]).append('/').append(parts.length > 1 ? parts[1] : "");
+		for (int x = 2; x < parts.length; x++) {
+			route.append('/').append(((x % 2) == 0) ? "{id}" : parts[x]);
+		}
+		String key = route.toString();
+		this.requestCount.incrementAndGet();
+		AtomicInteger count = this.requests.get(key);
+		if (count == null) {
+			AtomicInteger added = this.requests.putIfAbsent(key, count = new AtomicInteger());
+			if (added != null) { count = added; }
+		}
+		count.incrementAndGet();
+		if ((apiKey == null) || !apiKey.startsWith("sk_")) {
+			return new Response(401, error("invalid_request_error", null, "Invalid API Key provided: " + apiKey, null));
+		}
+		pause();
+		double errorRate = this.errorRate;
+		if ((errorRate > 0) && (ThreadLocalRandom.current().nextDouble() < errorRate)) {
+			return new Response(500, error("api_error", null, "Injected error", null));
+		}
+		synchronized (this) {
+			this.account = apiKey;
+			try {
+				int[] failure = this.failures.get(key);
+				if ((failure == null) || (failure[0] <= 0)) {
+					return route(method, parts, params);
+				}
+				failure[0]--;
+				if (failure[1] == 1) {
+					route(method, parts, params);
+				}
+				throw new IOException("Connection reset");
+			} finally {
+				this.account = API_KEY;
+			}
+		}
+	}
+
+	private void pause()
+	{
+		long latency = this.latencyMillis;
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private Response route(String method, String[] parts, Map<String, String> params)
+	{
+		String resource = parts[1];
+		String id = (parts.length > 2) ? parts[2] : null;
+		String sub = (parts.length > 3) ? parts[3] : null;
+		String subId = (parts.length > 4) ? parts[4] : null;
+
+		if ("customers".equals(resource)) {
+			if (id == null) {
+				return "POST".equals(method) ? ok(createCustomer(params)) : ok(list("/v1/customers", newestFirst(this.customers), params));
+			}
+			JsonObject customer = visible(id) ? this.customers.get(id) : null;
+			if (customer == null) {
+				return notFound("customer", id);
+			}
+			if (sub == null) {
+				if ("GET".equals(method)) {
+					return ok(customer);
+				}
+				if ("DELETE".equals(method)) {
+					this.customers.remove(id);
+					JsonObject deleted = new JsonObject();
+					deleted.addProperty("id", id);
+					deleted.addProperty("deleted", true);
+					return ok(deleted);
+				}
+				return ok(updateCustomer(customer, params));
+			}
+			if ("cards".equals(sub)) {
+				return cards(method, customer, subId, params);
+			}
+			if ("subscription".equals(sub)) {
+				return subscription(method, customer, params);
+			}
+		}
+		if ("plans".equals(resource)) {
+			if (id == null) {
+				return "POST".equals(method) ? ok(createPlan(params)) : ok(list("/v1/plans", newestFirst(this.plans), params));
+			}
+			JsonObject plan = visible(id) ? this.plans.get(id) : null;
+			if (plan == null) {
+				return notFound("plan", id);
+			}
+			if ("DELETE".equals(method)) {
+				this.plans.remove(id);
+				JsonObject deleted = new JsonObject();
+				deleted.addProperty("id", id);
+				deleted.addProperty("deleted", true);
+				return ok(deleted);
+			}
+			return ok(plan);
+		}
+		if ("tokens".equals(resource) && "POST".equals(method)) {
+			JsonObject token = new JsonObject();
+			token.addProperty("id", nextId("tok"));
+			token.addProperty("object", "token");
+			token.addProperty("livemode", false);
+			token.addProperty("used", false);
+			token.addProperty("created", now());
+			token.add("card", card(params, "card[", null));
+			this.tokens.put(token.get("id").getAsString(), token);
+			return ok(token);
+		}
+		if ("charges".equals(resource)) {
+			if (id != null) {
+				JsonObject charge = visible(id) ? this.charges.get(id) : null;
+				return (charge == null) ? notFound("charge", id) : ok(charge);
+			}
+			if ("POST".equals(method)) {
+				return createCharge(params);
+			}
+			return listCharges(params);
+		}
+		return new Response(404, error("invalid_request_error", null, "Unrecognized request URL", null));
+	}
+
+	private JsonObject createCustomer(Map<String, String> params)
+	{
+		String id = nextId("cus");
+		JsonObject customer = new JsonObject();
+		customer.addProperty("id", id);
+		customer.addProperty("object", "customer");
+		customer.addProperty("created", now());
+		customer.addProperty("livemode", false);
+		customer.addProperty("delinquent", false);
+		customer.addProperty("account_balance", 0);
+		customer.add("default_card", JsonNull.INSTANCE);
+		customer.add("subscription", JsonNull.INSTANCE);
+		customer.add("metadata", new JsonObject());
+		JsonObject cards = new JsonObject();
+		cards.addProperty("object", "list");
+		cards.addProperty("count", 0);
+		cards.addProperty("url", "/v1/customers/" + id + "/cards");
+		cards.add("data", new JsonArray());
+		customer.add("cards", cards);
+		this.customers.put(id, customer);
+		updateCustomer(customer, params);
+		if (params.containsKey("plan")) {
+			subscription("POST", customer, params);
+		}
+		return customer;
+	}
+
+	private JsonObject updateCustomer(JsonObject customer, Map<String, String> params)
+	{
+		for (Map.Entry<String, String> param : params.entrySet()) {
+			String name = param.getKey();
+			if ("email".equals(name) || "description".equals(name) || "default_card".equals(name)) {
+				customer.addProperty(name, param.getValue());
+			} else if (name.startsWith("metadata[")) {
+				customer.getAsJsonObject("metadata").addProperty(name.substring(9, name.length() - 1), param.getValue());
+			}
+		}
+		if (params.containsKey("card") || params.containsKey("card[number]")) {
+			JsonObject card = addCard(customer, params);
+			customer.addProperty("default_card", card.get("id").getAsString());
+		}
+		return customer;
+	}
+
+	private JsonObject addCard(JsonObject customer, Map<String, String> params)
+	{
+		JsonObject card;
+		String token = params.get("card");
+		if (token != null) {
+			card = this.tokens.get(token).getAsJsonObject("card");
+		} else {
+			card = card(params, "card[", null);
+		}
+		card = copy(card);
+		card.addProperty("customer", customer.get("id").getAsString());
+		JsonObject cards = customer.getAsJsonObject("cards");
+		cards.getAsJsonArray("data").add(card);
+		cards.addProperty("count", cards.getAsJsonArray("data").size());
+		if (customer.get("default_card").isJsonNull()) {
+			customer.addProperty("default_card", card.get("id").getAsString());
+		}
+		return card;
+	}
+
+	private JsonObject card(Map<String, String> params, String prefix, String customer)
+	{
+		String number = params.get(prefix + "number]");
+		JsonObject card = new JsonObject();
+		card.addProperty("id", nextId("card"));
+		card.addProperty("object", "card");
+		card.addProperty("last4", (number == null) ? "4242" : number.substring(number.length() - 4));
+		card.addProperty("type", "Visa");
+		card.addProperty("exp_month", toInt(params.get(prefix + "exp_month]"), 12));
+		card.addProperty("exp_year", toInt(params.get(prefix + "exp_year]"), 2030));
+		card.addProperty("name", params.get(prefix + "name]"));
+		card.addProperty("fingerprint", "fp" + ((number == null) ? "4242" : number));
+		card.addProperty("country", "US");
+		card.addProperty("customer", customer);
+		return card;
+	}
+
+	private Response cards(String method, JsonObject customer, String cardId, Map<String, String> params)
+	{
+		JsonArray data = customer.getAsJsonObject("cards").getAsJsonArray("data");
+		if (cardId == null) {
+			if ("POST".equals(method)) {
+				return ok(addCard(customer, params));
+			}
+			return ok(list("/v1/customers/" + customer.get("id").getAsString() + "/cards", data, params));
+		}
+		for (int x = 0; x < data.size(); x++) {
+			JsonObject card = data.get(x).getAsJsonObject();
+			if (cardId.equals(card.get("id").getAsString())) {
+				if ("DELETE".equals(method)) {
+					JsonArray remaining = new JsonArray();
+					for (int y = 0; y < data.size(); y++) {
+						if (y != x) { remaining.add(data.get(y)); }
+					}
+					customer.getAsJsonObject("cards").add("data", remaining);
+					customer.getAsJsonObject("cards").addProperty("count", remaining.size());
+					JsonObject deleted = new JsonObject();
+					deleted.addProperty("id", cardId);
+					deleted.addProperty("deleted", true);
+					return ok(deleted);
+				}
+				return ok(card);
+			}
+		}
+		return notFound("card", cardId);
+	}
+
+	private Response subscription(String method, JsonObject customer, Map<String, String> params)
+	{
+		JsonElement existing = customer.get("subscription");
+		if ("DELETE".equals(method)) {
+			if (existing.isJsonNull()) {
+				return new Response(400, error("invalid_request_error", null, "Customer has no active subscription", null));
+			}
+			JsonObject canceled = copy(existing.getAsJsonObject());
+			canceled.addProperty("status", "canceled");
+			canceled.addProperty("canceled_at", now());
+			customer.add("subscription", JsonNull.INSTANCE);
+			return ok(canceled);
+		}
+		JsonObject plan = visible(params.get("plan")) ? this.plans.get(params.get("plan")) : null;
+		if (plan == null) {
+			return notFound("plan", params.get("plan"));
+		}
+		if (params.containsKey("card")) {
+			JsonObject card = addCard(customer, params);
+			customer.addProperty("default_card", card.get("id").getAsString());
+		}
+		JsonObject subscription = new JsonObject();
+		subscription.addProperty("id", nextId("sub"));
+		subscription.addProperty("object", "subscription");
+		subscription.addProperty("status", "active");
+		subscription.addProperty("customer", customer.get("id").getAsString());
+		subscription.addProperty("start", now());
+		subscription.addProperty("current_period_start", now());
+		subscription.addProperty("current_period_end", now() + 30L * 86400);
+		subscription.addProperty("cancel_at_period_end", false);
+		subscription.addProperty("quantity", 1);
+		subscription.add("plan", copy(plan));
+		customer.add("subscription", subscription);
+		return ok(subscription);
+	}
+
+	private JsonObject createPlan(Map<String, String> params)
+	{
+		JsonObject plan = new JsonObject();
+		plan.addProperty("id", params.get("id"));
+		plan.addProperty("object", "plan");
+		plan.addProperty("name", params.get("name"));
+		plan.addProperty("amount", toInt(params.get("amount"), 0));
+		plan.addProperty("currency", params.get("currency"));
+		plan.addProperty("interval", params.get("interval"));
+		plan.addProperty("interval_count", 1);
+		plan.addProperty("livemode", false);
+		this.plans.put(params.get("id"), plan);
+		this.owners.put(params.get("id"), this.account);
+		return plan;
+	}
+
+	private Response createCharge(Map<String, String> params)
+	{
+		JsonObject card = null;
+		String custCode = params.get("customer");
+		if (custCode != null) {
+			JsonObject customer = visible(custCode) ? this.customers.get(custCode) : null;
+			if (customer == null) {
+				return notFound("customer", custCode);
+			}
+			JsonArray data = customer.getAsJsonObject("cards").getAsJsonArray("data");
+			for (int x = 0; x < data.size(); x++) {
+				if (data.get(x).getAsJsonObject().get("id").getAsString().equals(customer.get("default_card").getAsString())) {
+					card = data.get(x).getAsJsonObject();
+				}
+			}
+		} else if (params.containsKey("card")) {
+			card = this.tokens.get(params.get("card")).getAsJsonObject("card");
+		}
+		if (card == null) {
+			return new Response(400, error("invalid_request_error", null, "Cannot charge a customer that has no active card", "card"));
+		}
+		JsonObject charge = new JsonObject();
+		charge.addProperty("id", nextId("ch"));
+		charge.addProperty("object", "charge");
+		charge.addProperty("created", now());
+		charge.addProperty("livemode", false);
+		charge.addProperty("amount", toInt(params.get("amount"), 0));
+		charge.addProperty("currency", params.get("currency"));
+		charge.addProperty("description", params.get("description"));
+		charge.addProperty("customer", custCode);
+		charge.addProperty("refunded", false);
+		charge.addProperty("captured", true);
+		charge.addProperty("amount_refunded", 0);
+		charge.add("card", copy(card));
+		JsonObject metadata = new JsonObject();
+		for (Map.Entry<String, String> param : params.entrySet()) {
+			if (param.getKey().startsWith("metadata[")) {
+				metadata.addProperty(param.getKey().substring(9, param.getKey().length() - 1), param.getValue());
+			}
+		}
+		charge.add("metadata", metadata);
+		boolean declined = DECLINED_LAST4.equals(card.get("last4").getAsString());
+		charge.addProperty("paid", !declined);
+		if (declined) {
+			charge.addProperty("failure_code", "card_declined");
+			charge.addProperty("failure_message", "Your card was declined.");
+			this.charges.put(charge.get("id").getAsString(), charge);
+			return new Response(402, error("card_error", "card_declined", "Your card was declined.", null));
+		}
+		this.charges.put(charge.get("id").getAsString(), charge);
+		return ok(charge);
+	}
+
+	private Response listCharges(Map<String, String> params)
+	{
+		JsonArray data = new JsonArray();
+		List<JsonObject> all = new ArrayList<JsonObject>(this.charges.values());
+		// Newest first like Stripe
+		for (int x = all.size() - 1; x >= 0; x--) {
+			JsonObject charge = all.get(x);
+			String custCode = params.get("customer");
+			if (!visible(charge.get("id").getAsString())) {
+				continue;
+			}
+			if ((params.get("created[gte]") != null) && (charge.get("created").getAsLong() < Long.parseLong(params.get("created[gte]")))) {
+				continue;
+			}
+			if ((custCode == null) || (!charge.get("customer").isJsonNull() && custCode.equals(charge.get("customer").getAsString()))) {
+				data.add(charge);
+			}
+		}
+		return ok(list("/v1/charges", data, params));
+	}
+
+	/**
+	 * @return The account's objects, newest first like Stripe lists them
+	 */
+	private JsonArray newestFirst(Map<String, JsonObject> objects)
+	{
+		JsonArray data = new JsonArray();
+		List<Map.Entry<String, JsonObject>> all = new ArrayList<Map.Entry<String, JsonObject>>(objects.entrySet());
+		for (int x = all.size() - 1; x >= 0; x--) {
+			if (visible(all.get(x).getKey())) {
+				data.add(all.get(x).getValue());
+			}
+		}
+		return data;
+	}
+
+	private static JsonObject list(String url, JsonArray all, Map<String, String> params)
+	{
+		int count = toInt(params.get("count"), 10);
+		int offset = toInt(params.get("offset"), 0);
+		JsonArray data = new JsonArray();
+		for (int x = offset; (x < all.size()) && (x < offset + count); x++) {
+			data.add(all.get(x));
+		}
+		JsonObject list = new JsonObject();
+		list.addProperty("object", "list");
+		list.addProperty("url", url);
+		list.addProperty("count", all.size());
+		list.add("data", data);
+		return list;
+	}
+
+	private String nextId(String prefix)
+	{
+		String id = prefix + "_" + (++this.ids);
+		this.owners.put(id, this.account);
+		return id;
+	}
+
+	/**
+	 * @return true if id belongs to the account making the request (or doesn't exist)
+	 */
+	private boolean visible(String id)
+	{
+		String owner = this.owners.get(id);
+		return (owner == null) || owner.equals(this.account);
+	}
+
+	private static long now()
+	{
+		return System.currentTimeMillis() / 1000;
+	}
+
+	private static int toInt(String value, int dflt)
+	{
+		return (value == null) ? dflt : Integer.parseInt(value);
+	}
+
+	private static JsonObject copy(JsonObject obj)
+	{
+		JsonObject copy = new JsonObject();
+		for (Map.Entry<String, JsonElement> entry : obj.entrySet()) {
+			copy.add(entry.getKey(), entry.getValue());
+		}
+		return copy;
+	}
+
+	private static Response ok(JsonObject body)
+	{
+		return new Response(200, body);
+	}
+
+	private static Response notFound(String type, String id)
+	{
+		return new Response(404, error("invalid_request_error", null, "No such " + type + ": " + id, "id"));
+	}
+
+	private static JsonObject error(String type, String code, String message, String param)
+	{
+		JsonObject error = new JsonObject();
+		error.addProperty("type", type);
+		error.addProperty("message", message);
+		if (code != null) { error.addProperty("code", code); }
+		if (param != null) { error.addProperty("param", param); }
+		JsonObject body = new JsonObject();
+		body.add("error", error);
+		return body;
+	}
+
+	static Map<String, String> parseForm(String form) throws UnsupportedEncodingException
+	{
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		if ((form == null) || (form.length() == 0)) {
+			return params;
+		}
+		for (String pair : form.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0) {
+				params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+			}
+		}
+		return params;
+	}
+
+	static final class Response
+	{
+		final int status;
+		final byte[] body;
+
+		Response(int status, JsonObject body)
+		{
+			this.status = status;
+			try {
+				this.body = body.toString().getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * Named by the com.stripe.net.customURLStreamHandler property, so it needs a public no arg constructor
+	 */
+	public static class Handler extends URLStreamHandler
+	{
+		@Override
+		protected URLConnection openConnection(URL url) throws IOException
+		{
+			StripeStandIn standIn = current;
+			if (standIn == null) {
+				throw new IOException("StripeStandIn is not installed");
+			}
+			return new Connection(url, standIn);
+		}
+	}
+
+	private static class Connection extends HttpsURLConnection
+	{
+		private final StripeStandIn standIn;
+		private final ByteArrayOutputStream requestBody = new ByteArrayOutputStream();
+		private Response response;
+
+		Connection(URL url, StripeStandIn standIn)
+		{
+			super(url);
+			this.standIn = standIn;
+		}
+
+		private Response respond() throws IOException
+		{
+			if (this.response == null) {
+				String form = "POST".equals(this.method) ? this.requestBody.toString("UTF-8") : this.url.getQuery();
+				String authorization = getRequestProperty("Authorization");
+				String apiKey = ((authorization != null) && authorization.startsWith("Bearer ")) ? authorization.substring(7) : null;
+				this.response = this.standIn.handle(this.method, this.url.getPath(), parseForm(form), apiKey);
+			}
+			return this.response;
+		}
+
+		@Override
+		public OutputStream getOutputStream() { return this.requestBody; }
+
+		@Override
+		public int getResponseCode() throws IOException { return respond().status; }
+
+		@Override
+		public InputStream getInputStream() throws IOException
+		{
+			Response response = respond();
+			if (response.status >= 400) {
+				throw new IOException("Server returned HTTP response code: " + response.status);
+			}
+			return new ByteArrayInputStream(response.body);
+		}
+
+		@Override
+		public InputStream getErrorStream()
+		{
+			return ((this.response != null) && (this.response.status >= 400)) ? new ByteArrayInputStream(this.response.body) : null;
+		}
+
+		@Override
+		public void connect() { }
+
+		@Override
+		public void disconnect() { }
+
+		@Override
+		public boolean usingProxy() { return false; }
+
+		@Override
+		public String getCipherSuite() { return null; }
+
+		@Override
+		public Certificate[] getLocalCertificates() { return null; }
+
+		@Override
+		public Certificate[] getServerCertificates() { return new Certificate[0]; }
+	}
+}
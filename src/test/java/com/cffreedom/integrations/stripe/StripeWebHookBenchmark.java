@@ -0,0 +1,73 @@
+package com.cffreedom.integrations.stripe;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.cffreedom.beans.Payment;
+
+/**
+ * Getting the type and Payment out of a web hook: CFStripeWebHook (parse the body String into
+ * a JSONObject tree, then look fields up) vs StripeWebHookReader (one pass over the body bytes
+ * into a reused Payment), using the CFStripeWebHookTest events. Run with -prof gc to see the
+ * allocation difference. Run with:
+ * java -cp target/test-classes:target/classes:&lt;test classpath&gt; com.cffreedom.integrations.stripe.StripeWebHookBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StripeWebHookBenchmark
+{
+	@Param({ "chargeSucceeded", "transferCreated" })
+	public String event;
+
+	private String json;
+	private byte[] bytes;
+	private final StripeWebHookReader reader = new StripeWebHookReader();
+	private final Payment payment = new Payment();
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		this.json = "chargeSucceeded".equals(this.event) ? CFStripeWebHookTest.chargeSucceeded : CFStripeWebHookTest.transferCreated;
+		this.bytes = this.json.getBytes("UTF-8");
+	}
+
+	@Benchmark
+	public Payment jsonTree() throws ParseException
+	{
+		JSONObject webHook = CFStripeWebHook.getWebHook(this.json);
+		CFStripeWebHook.getType(webHook);
+		return CFStripeWebHook.getPayment(webHook);
+	}
+
+	@Benchmark
+	public Payment streamingReader() throws ParseException
+	{
+		this.reader.read(this.bytes).getType();
+		return this.reader.getPayment(this.payment);
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		new Runner(new OptionsBuilder().include(StripeWebHookBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,96 @@
+package com.cffreedom.integrations.stripe;
+
+import static org.junit.Assert.*;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+import org.junit.Test;
+
+import com.cffreedom.beans.Payment;
+
+public class StripeWebHookReaderTest
+{
+	@Test
+	public void testMatchesTreePath() throws Exception
+	{
+		StripeWebHookReader reader = new StripeWebHookReader();
+		Payment payment = new Payment();
+		for (String json : new String[] { CFStripeWebHookTest.chargeSucceeded, CFStripeWebHookTest.transferCreated, CFStripeWebHookTest.chargeSucceeded }) {
+			JSONObject webHook = CFStripeWebHook.getWebHook(json);
+			reader.read(json.getBytes("UTF-8"));
+			assertEquals(CFStripeWebHook.getId(webHook), reader.getId());
+			assertEquals(CFStripeWebHook.getType(webHook), reader.getType());
+			assertEquals(CFStripeWebHook.getIsLive(webHook), reader.getIsLive());
+			assertEquals(CFStripeWebHook.getCreated(webHook), reader.getCreated());
+			assertEquals(CFStripeWebHook.getObjectId(webHook), reader.getObjectId());
+			assertEquals(CFStripeWebHook.getCustomerCode(webHook), reader.getCustomerCode());
+			assertSame(payment, reader.getPayment(payment));
+			assertSamePayment(CFStripeWebHook.getPayment(webHook), payment);
+		}
+		assertEquals("charge", reader.getObjectType());
+		assertEquals("ch_34sdrfljdslSDF", payment.getPaymentCode());
+		assertEquals(59, payment.getFees().movePointRight(2).intValue());
+	}
+
+	@Test
+	public void testEscapesAndMissingFields() throws Exception
+	{
+		String json = "{\"type\":\"customer.updated\",\"data\":{\"previous_attributes\":{\"id\":\"ignored\"},"
+				+ "\"object\":{\"object\":\"customer\",\"id\":\"cus_1\",\"description\":\"Caf\u00e9 \\\"Zo\\u00eb\\\" \\ud83d\\ude00 \ud83d\ude01 \u20ac\\/\","
+				+ "\"amount\":1.9e3,\"metadata\":{\"amount\":[1,{\"fee\":2}]},\"paid\":null}},\"created\":-1}";
+		StripeWebHookReader reader = new StripeWebHookReader().read(json.getBytes("UTF-8"));
+		assertNull(reader.getId());
+		assertFalse(reader.getIsLive());
+		assertEquals(-1, reader.getCreatedSeconds());
+		assertEquals("cus_1", reader.getObjectId());
+		assertEquals("cus_1", reader.getCustomerCode());
+
+		Payment payment = reader.getPayment(new Payment());
+		assertEquals("Caf\u00e9 \"Zo\u00eb\" \ud83d\ude00 \ud83d\ude01 \u20ac/", payment.getMemo());
+		assertEquals(1900, payment.getGross().movePointRight(2).intValue());
+		assertEquals(0, payment.getFees().signum());
+		assertNull(payment.getCustomerCode());
+		assertFalse(payment.isPaid());
+		JSONObject webHook = CFStripeWebHook.getWebHook(json);
+		assertEquals(CFStripeWebHook.getPayment(webHook).getMemo(), payment.getMemo());
+
+		// A body in the middle of a bigger buffer
+		byte[] padded = ("xx" + CFStripeWebHookTest.chargeSucceeded + "yy").getBytes("UTF-8");
+		assertEquals("charge.succeeded", reader.read(padded, 2, padded.length - 4).getType());
+		assertEquals("cus_jasfklWESD345D", reader.getCustomerCode());
+	}
+
+	@Test
+	public void testMalformed() throws Exception
+	{
+		StripeWebHookReader reader = new StripeWebHookReader();
+		String[] bad = {
+			"", "[]", "{\"id\":\"evt_1\"", "{\"id\":\"evt_1\",}", "{\"id\" \"evt_1\"}", "{\"livemode\":tru}",
+			"{\"created\":\"1385705053\"}", "{\"data\":{\"object\":{\"id\":\"bad\\q\"}}}", "{\"x\":[1,2}", "{\"id\":\"evt_1\"} {}",
+			"{\"data\":{\"object\":{\"amount\":-}}}", "{\"x\":\"unterminated}"
+		};
+		for (String json : bad) {
+			try {
+				reader.read(json.getBytes("UTF-8"));
+				fail("Expected ParseException for " + json);
+			} catch (ParseException e) {
+				assertTrue(e.getPosition() >= 0);
+			}
+		}
+		// Still usable after a failure
+		assertEquals("evt_asdfwe34SDkl43", reader.read(CFStripeWebHookTest.chargeSucceeded.getBytes("UTF-8")).getId());
+	}
+
+	private static void assertSamePayment(Payment expected, Payment actual)
+	{
+		assertEquals(expected.getPaymentDate(), actual.getPaymentDate());
+		assertEquals(expected.getPaymentCode(), actual.getPaymentCode());
+		assertEquals(expected.getCustomerCode(), actual.getCustomerCode());
+		assertEquals(expected.getMemo(), actual.getMemo());
+		assertEquals(expected.getCurrency(), actual.getCurrency());
+		assertEquals(expected.getGross(), actual.getGross());
+		assertEquals(expected.getFees(), actual.getFees());
+		assertEquals(expected.isPaid(), actual.isPaid());
+		assertEquals(expected.isRefunded(), actual.isRefunded());
+	}
+}
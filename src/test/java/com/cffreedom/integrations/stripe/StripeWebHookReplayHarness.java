@@ -0,0 +1,36 @@
+package com.cffreedom.integrations.stripe;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Replays a web hook archive through CFStripeWebHookReplay with handlers that do nothing and
+ * reports the rate, so only reading, parsing and dispatching are measured.
+ * Run with: java -cp target/test-classes:target/classes:&lt;test classpath&gt; com.cffreedom.integrations.stripe.StripeWebHookReplayHarness &lt;archive.ndjson&gt; [lanes] [parsers]
+ */
+public class StripeWebHookReplayHarness
+{
+	/**
+	 * @param args Archive of web hook bodies (one per line), lanes (default processors), parsers (default processors)
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		if ((args.length < 1) || (args.length > 3)) {
+			System.out.println("Usage: StripeWebHookReplayHarness <archive.ndjson> [lanes] [parsers]");
+			return;
+		}
+		int processors = Runtime.getRuntime().availableProcessors();
+		int lanes = (args.length > 1) ? Integer.parseInt(args[1]) : processors;
+		int parsers = (args.length > 2) ? Integer.parseInt(args[2]) : processors;
+		CFStripeWebHookDispatcher dispatcher = new CFStripeWebHookDispatcher(lanes);
+		dispatcher.on(CFStripeWebHookDispatcher.ALL_TYPES, new CFStripeWebHookDispatcher.Handler() {
+			public void handle(JSONObject webHook) {
+			}
+		});
+		System.out.println(new CFStripeWebHookReplay(dispatcher, parsers).replay(new File(args[0])));
+		System.out.println("Queue latency: " + dispatcher.getQueueLatency());
+		dispatcher.close(1, TimeUnit.MINUTES);
+	}
+}
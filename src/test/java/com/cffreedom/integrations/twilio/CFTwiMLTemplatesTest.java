@@ -0,0 +1,112 @@
+package com.cffreedom.integrations.twilio;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.TreeMap;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+public class CFTwiMLTemplatesTest
+{
+	private CFTwilio twilio = new CFTwilio(TwilioStandIn.ACCOUNT_SID, TwilioStandIn.AUTH_TOKEN);
+
+	@Test
+	public void testSimpleVerbs() throws Exception
+	{
+		assertSameTwiML(twilio.twimlEmptyResponse(), CFTwiMLTemplates.twimlEmptyResponse());
+		assertSameTwiML(twilio.twimlRejectCall(), CFTwiMLTemplates.twimlRejectCall());
+		assertSameTwiML(twilio.twimlSayAndHangUp("Goodbye"), CFTwiMLTemplates.twimlSayAndHangUp("Goodbye"));
+		assertSameTwiML(twilio.twimlSms("Got it"), CFTwiMLTemplates.twimlSms("Got it"));
+		assertSameTwiML(twilio.twimlDial("+15555550100"), CFTwiMLTemplates.twimlDial("+15555550100"));
+		assertSameTwiML(twilio.twimlRecord("http://example.com/rec", null), CFTwiMLTemplates.twimlRecord("http://example.com/rec", null));
+	}
+
+	@Test
+	public void testGetInput() throws Exception
+	{
+		assertSameTwiML(twilio.twimlGetInput(null, "Press 1", 1, 5, "http://example.com/in", -1),
+						CFTwiMLTemplates.twimlGetInput(null, "Press 1", 1, 5, "http://example.com/in", -1));
+		assertSameTwiML(twilio.twimlGetInput("http://example.com/menu.mp3", null, 0, 10, "http://example.com/in", -1),
+						CFTwiMLTemplates.twimlGetInput("http://example.com/menu.mp3", null, 0, 10, "http://example.com/in", -1));
+
+		String xml = CFTwiMLTemplates.twimlGetInput(null, "Press 1", 1, 5, "http://example.com/in?id=7", 1);
+		assertTrue(xml.contains("<Redirect method=\"POST\">http://example.com/in?id=7&amp;Digits=1</Redirect>"));
+		assertEquals("http://example.com/in?id=7&Digits=1", parse(xml).getElementsByTagName("Redirect").item(0).getTextContent());
+	}
+
+	@Test
+	public void testForwarding() throws Exception
+	{
+		assertSameTwiML(twilio.twimlForwardWithVoicemail("5555550100", null, null, "http://example.com/vm", 0, 0),
+						CFTwiMLTemplates.twimlForwardWithVoicemail("5555550100", null, null, "http://example.com/vm", 0, 0));
+		assertSameTwiML(twilio.twimlForwardWithVoicemail(null, "http://example.com/vm.mp3", null, "http://example.com/vm", 20, 60),
+						CFTwiMLTemplates.twimlForwardWithVoicemail(null, "http://example.com/vm.mp3", null, "http://example.com/vm", 20, 60));
+		assertSameTwiML(twilio.twiml("http://example.com/hi.mp3", null, "5555550100", 0, null, "Leave a msg", 120, "http://example.com/vm", true),
+						CFTwiMLTemplates.twiml("http://example.com/hi.mp3", null, "5555550100", 0, null, "Leave a msg", 120, "http://example.com/vm", true));
+		assertSameTwiML(twilio.twimlVoicemailOnly(null, "Leave a msg", 0, "http://example.com/vm", false),
+						CFTwiMLTemplates.twimlVoicemailOnly(null, "Leave a msg", 0, "http://example.com/vm", false));
+	}
+
+	@Test
+	public void testTemplateSlots()
+	{
+		TwiMLTemplate template = TwiMLTemplate.compile("<Say voice=\"{1}\">{0}</Say><Say>{0}</Say>");
+		assertEquals(2, template.getSlotCount());
+		assertEquals("<Say voice=\"a&apos;b\">x&lt;y</Say><Say>x&lt;y</Say>", template.render("x<y", "a'b"));
+		assertEquals("<Say voice=\"\"></Say><Say></Say>", template.render(new String[] { null, null }));
+		try {
+			template.render("x<y");
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Expected 2 values but got 1", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testEscaping() throws Exception
+	{
+		String msg = "Goodbye & \"thanks\" <for> calling";
+		assertEquals(msg, parse(CFTwiMLTemplates.twimlSayAndHangUp(msg)).getElementsByTagName("Say").item(0).getTextContent());
+		String url = "http://example.com/rec?a=1&b=2";
+		assertEquals(url, ((Element) parse(CFTwiMLTemplates.twimlRecord(url, null)).getElementsByTagName("Record").item(0)).getAttribute("action"));
+	}
+
+	private static void assertSameTwiML(String expected, String actual) throws Exception
+	{
+		assertTrue(actual.startsWith(TwiMLTemplate.XML_HEADER));
+		assertEquals(canonical(parse(expected).getDocumentElement()), canonical(parse(actual).getDocumentElement()));
+	}
+
+	private static org.w3c.dom.Document parse(String xml) throws Exception
+	{
+		return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+	}
+
+	private static String canonical(Element element)
+	{
+		StringBuilder sb = new StringBuilder("<").append(element.getTagName());
+		NamedNodeMap attrs = element.getAttributes();
+		TreeMap<String, String> sorted = new TreeMap<String, String>();
+		for (int x = 0; x < attrs.getLength(); x++) {
+			sorted.put(attrs.item(x).getNodeName(), attrs.item(x).getNodeValue());
+		}
+		sb.append(sorted).append('>');
+		NodeList children = element.getChildNodes();
+		for (int x = 0; x < children.getLength(); x++) {
+			Node child = children.item(x);
+			if (child instanceof Element) {
+				sb.append(canonical((Element) child));
+			} else {
+				sb.append(child.getNodeValue());
+			}
+		}
+		return sb.append("</").append(element.getTagName()).append('>').toString();
+	}
+}
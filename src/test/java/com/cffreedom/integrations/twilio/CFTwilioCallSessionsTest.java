@@ -0,0 +1,128 @@
+package com.cffreedom.integrations.twilio;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.junit.Test;
+
+public class CFTwilioCallSessionsTest
+{
+	private final AtomicLong now = new AtomicLong();
+	private final LongSupplier clock = new LongSupplier() {
+		public long getAsLong() {
+			return now.get();
+		}
+	};
+
+	@Test
+	public void testIvrFlow() throws Exception
+	{
+		CFTwilioCallSessions sessions = new CFTwilioCallSessions(100, 4, 60000, clock);
+		CFTwilioWebhookServer.Handler menu = sessions.handler(new CFTwilioCallSessions.SessionHandler() {
+			public void handle(TwilioWebhookRequest request, CFTwilioCallSessions.CallSession session, TwiMLWriter out) throws Exception {
+				if (request.getDigits() == null) {
+					CFTwiMLTemplates.twimlGetInput(out, null, "Press 1 for sales", 1, 5, "http://example.com/ivr/menu", -1);
+				} else if (session.getString("department") == null) {
+					session.setAttribute("department", request.getDigits());
+					CFTwiMLTemplates.twimlGetInput(out, null, "Enter your PIN", 4, 5, "http://example.com/ivr/menu", -1);
+				} else {
+					session.increment("pinAttempts", 1);
+					CFTwiMLTemplates.twimlDial(out, "department-" + session.getString("department"));
+				}
+			}
+		});
+
+		assertTrue(call(menu, "CallSid=CA1&CallStatus=in-progress").contains("Press 1 for sales"));
+		assertTrue(call(menu, "CallSid=CA1&CallStatus=in-progress&Digits=1").contains("Enter your PIN"));
+		assertTrue(call(menu, "CallSid=CA2&CallStatus=in-progress").contains("Press 1 for sales"));
+		assertTrue(call(menu, "CallSid=CA1&CallStatus=in-progress&Digits=1234").contains("department-1"));
+		assertEquals(1, sessions.getIfPresent("CA1").increment("pinAttempts", 0));
+		assertNull(sessions.getIfPresent("CA2").getString("department"));
+		assertEquals(2, sessions.getCreatedCount());
+
+		call(sessions.statusCallbackHandler(), "CallSid=CA1&CallStatus=ringing");
+		assertNotNull(sessions.getIfPresent("CA1"));
+		call(sessions.statusCallbackHandler(), "CallSid=CA1&CallStatus=completed");
+		assertNull(sessions.getIfPresent("CA1"));
+		assertEquals(1, sessions.getEndedCount());
+		assertEquals(1, sessions.size());
+	}
+
+	@Test
+	public void testTtl()
+	{
+		CFTwilioCallSessions sessions = new CFTwilioCallSessions(100, 4, 1000, clock);
+		sessions.getSession("CA1").setAttribute("step", "menu");
+		sessions.getSession("CA2");
+
+		now.addAndGet(TimeUnit.MILLISECONDS.toNanos(800));
+		assertEquals("menu", sessions.getIfPresent("CA1").getString("step"));
+		now.addAndGet(TimeUnit.MILLISECONDS.toNanos(800));
+		// CA1 was touched 800ms ago, CA2 1600ms ago
+		assertNotNull(sessions.getIfPresent("CA1"));
+		assertNull(sessions.getIfPresent("CA2"));
+		assertNull(sessions.getSession("CA2").getString("step"));
+
+		now.addAndGet(TimeUnit.MILLISECONDS.toNanos(2000));
+		assertEquals(2, sessions.evictExpired());
+		assertEquals(0, sessions.size());
+		assertEquals(3, sessions.getExpiredCount());
+	}
+
+	@Test
+	public void testBounded()
+	{
+		CFTwilioCallSessions sessions = new CFTwilioCallSessions(64, 8, 60000, clock);
+		assertEquals(64, sessions.getMaxSessions());
+		sessions.getSession("CA-keep");
+		for (int x = 0; x < 1000; x++) {
+			sessions.getSession("CA" + x);
+			sessions.getIfPresent("CA-keep");
+		}
+		assertTrue(sessions.size() <= 64);
+		assertEquals(1001 - sessions.size(), sessions.getEvictedCount());
+		// Recently used sessions survive
+		assertNotNull(sessions.getIfPresent("CA-keep"));
+		assertNotNull(sessions.getIfPresent("CA999"));
+	}
+
+	@Test
+	public void testConcurrentSteps() throws Exception
+	{
+		final CFTwilioCallSessions sessions = new CFTwilioCallSessions();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					for (int x = 0; x < 5000; x++) {
+						sessions.getSession("CA" + (x % 50)).increment("hits", 1);
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		for (int x = 0; x < 50; x++) {
+			assertEquals(800, sessions.getIfPresent("CA" + x).increment("hits", 0));
+		}
+	}
+
+	private static String call(CFTwilioWebhookServer.Handler handler, String body) throws Exception
+	{
+		byte[] bytes = body.getBytes("UTF-8");
+		StringWriter xml = new StringWriter();
+		TwiMLWriter out = TwiMLWriter.forWriter(xml);
+		handler.handle(new TwilioWebhookRequest("POST", "/ivr", bytes, bytes.length), out);
+		out.flush();
+		return xml.toString();
+	}
+}
@@ -0,0 +1,91 @@
+package com.cffreedom.integrations.twilio;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CFTwilioDeliveryStatsTest
+{
+	private static final String DELIVERED = "SmsSid=SM0001&SmsStatus=delivered&MessageStatus=delivered&To=%2B15555550100&MessageSid=SM0001&AccountSid=" + TwilioStandIn.ACCOUNT_SID + "&From=%2B15555550199&ApiVersion=2010-04-01";
+	private static final String FAILED = "MessageSid=SM0002&MessageStatus=failed&ErrorCode=30003&To=%2B15555550101&From=%2B15555550198";
+	private static final String UNDELIVERED = "MessageSid=SM0003&MessageStatus=undelivered&ErrorCode=30005&To=%2B15555550102&From=%2B15555550199";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testParse()
+	{
+		TwilioStatusCallback callback = TwilioStatusCallback.parse(DELIVERED);
+		assertEquals("SM0001", callback.getMessageSid());
+		assertEquals(TwilioStatusCallback.STATUS_DELIVERED, callback.getStatus());
+		assertEquals("+15555550199", callback.getFrom());
+		assertEquals("+15555550100", callback.getTo());
+		assertEquals(0, callback.getErrorCode());
+
+		callback = TwilioStatusCallback.parse(FAILED);
+		assertEquals(TwilioStatusCallback.STATUS_FAILED, callback.getStatus());
+		assertEquals(30003, callback.getErrorCode());
+
+		assertEquals(TwilioStatusCallback.STATUS_UNKNOWN, TwilioStatusCallback.parse("MessageSid=SM1&MessageStatus=bogus").getStatus());
+		assertNull(TwilioStatusCallback.parse("CallSid=CA1&CallStatus=completed"));
+		assertNull(TwilioStatusCallback.parse(""));
+	}
+
+	@Test
+	public void testConcurrentAggregation() throws Exception
+	{
+		final CFTwilioDeliveryStats stats = new CFTwilioDeliveryStats();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					for (int x = 0; x < 10000; x++) {
+						stats.accept(DELIVERED);
+						stats.accept(FAILED);
+						stats.accept(UNDELIVERED);
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(40000, stats.getTotal(TwilioStatusCallback.STATUS_DELIVERED));
+		assertEquals(40000, stats.getTotal(TwilioStatusCallback.STATUS_FAILED));
+		assertEquals(40000, stats.getCount("+15555550199", TwilioStatusCallback.STATUS_UNDELIVERED));
+		assertEquals(0, stats.getCount("+15555550198", TwilioStatusCallback.STATUS_DELIVERED));
+		assertEquals(Long.valueOf(40000), stats.getErrorCounts().get(30003));
+		assertEquals(Long.valueOf(40000), stats.getSenderCounts().get("+15555550199").get("delivered"));
+	}
+
+	@Test
+	public void testReplay() throws Exception
+	{
+		File file = folder.newFile("callbacks.txt");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		for (int x = 0; x < 1000; x++) {
+			writer.write(DELIVERED + "\n" + UNDELIVERED + "\n");
+		}
+		writer.write("\nCallSid=CA1&CallStatus=completed\n");
+		writer.close();
+
+		CFTwilioDeliveryStats stats = new CFTwilioDeliveryStats();
+		assertEquals(2001, stats.replay(file));
+		assertEquals(1000, stats.getTotal(TwilioStatusCallback.STATUS_DELIVERED));
+		assertEquals(Long.valueOf(1000), stats.getErrorCounts().get(30005));
+		assertEquals(1, stats.getIgnored());
+	}
+}
@@ -0,0 +1,135 @@
+package com.cffreedom.integrations.twilio;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CFTwilioDialerTest
+{
+	private static final String URL = "http://example.com/ivr/campaign";
+	private TwilioStandIn standIn;
+	private CFTwilioDialer dialer;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		standIn = new TwilioStandIn();
+		dialer = new CFTwilioDialer(new CFTwilio(TwilioStandIn.ACCOUNT_SID, TwilioStandIn.AUTH_TOKEN, standIn.getEndpoint()), 20, 3);
+	}
+
+	@After
+	public void tearDown()
+	{
+		dialer.close();
+		standIn.stop();
+	}
+
+	@Test
+	public void testPacing() throws Exception
+	{
+		standIn.setLatencyMillis(100);
+		CFTwilioDialer.Campaign campaign = dialer.dial("5555550199", recipients(20).iterator(), URL);
+		assertTrue(campaign.await(10, TimeUnit.SECONDS));
+
+		assertEquals(20, campaign.getPlaced());
+		assertEquals(0, campaign.getFailed());
+		assertEquals(0, campaign.getInFlight());
+		assertTrue(standIn.getMaxInFlight() <= 3);
+
+		// 20 cps is 50ms apart, but only 3 calls of 100ms can be in flight so it's held to ~30 cps max anyway
+		List<Long> times = standIn.getCallTimes();
+		assertEquals(20, times.size());
+		// Arrival times jitter a little, so check for bursts and the overall rate rather than exact gaps
+		for (int x = 1; x < times.size(); x++) {
+			long gapMillis = TimeUnit.NANOSECONDS.toMillis(times.get(x) - times.get(x - 1));
+			assertTrue("Gap of " + gapMillis + "ms", gapMillis >= 20);
+		}
+		long spanMillis = TimeUnit.NANOSECONDS.toMillis(times.get(times.size() - 1) - times.get(0));
+		assertTrue("Span of " + spanMillis + "ms", spanMillis >= 19 * 45);
+		Map<String, String> call = standIn.getCalls().get(0);
+		assertEquals("5555550199", call.get("From"));
+		assertEquals(URL, call.get("Url"));
+		assertNull(call.get("StatusCallback"));
+	}
+
+	@Test
+	public void testHoldUntilEnded() throws Exception
+	{
+		CFTwilioDialer.Campaign campaign = dialer.dial("5555550199", recipients(5).stream(), URL, "http://example.com/ivr/status");
+		long deadline = System.currentTimeMillis() + 10000;
+		while ((campaign.getPlaced() < 3) && (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(20);
+		}
+		Thread.sleep(200);
+		// Only 3 can be live until the status callbacks come in
+		assertEquals(3, campaign.getPlaced());
+		assertEquals(3, campaign.getInFlight());
+		assertFalse(campaign.isDone());
+		assertFalse(dialer.callEnded("CAnotours"));
+
+		List<String> ended = new ArrayList<String>();
+		while (!campaign.isDone() && (System.currentTimeMillis() < deadline)) {
+			// Play the status callback handler for every call the stand-in created
+			for (Map<String, String> call : standIn.getCalls()) {
+				assertEquals("http://example.com/ivr/status", call.get("StatusCallback"));
+				if (!ended.contains(call.get("CallSid")) && dialer.callEnded(call.get("CallSid"))) {
+					ended.add(call.get("CallSid"));
+				}
+			}
+			Thread.sleep(20);
+		}
+		assertTrue(campaign.isDone());
+		assertEquals(5, campaign.getPlaced());
+		assertEquals(5, campaign.getEnded());
+		assertEquals(0, dialer.getInFlight());
+	}
+
+	@Test
+	public void testEndedBeforeMakeCallReturns() throws Exception
+	{
+		standIn.setCallListener(new TwilioStandIn.CallListener() {
+			public void created(String callSid) {
+				// Status callback comes in before Twilio answers the create request
+				assertFalse(dialer.callEnded(callSid));
+			}
+		});
+		CFTwilioDialer.Campaign campaign = dialer.dial("5555550199", recipients(6).stream(), URL, "http://example.com/ivr/status");
+		assertTrue(campaign.await(10, TimeUnit.SECONDS));
+		assertEquals(6, campaign.getPlaced());
+		assertEquals(6, campaign.getEnded());
+		assertEquals(0, campaign.getInFlight());
+		assertEquals(0, dialer.getInFlight());
+	}
+
+	@Test
+	public void testCloseFinishesCampaigns() throws Exception
+	{
+		CFTwilioDialer.Campaign campaign = dialer.dial("5555550199", recipients(10).stream(), URL, "http://example.com/ivr/status");
+		long deadline = System.currentTimeMillis() + 10000;
+		while ((campaign.getPlaced() < 3) && (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(20);
+		}
+		// Stuck waiting for status callbacks that never come
+		assertFalse(campaign.await(100, TimeUnit.MILLISECONDS));
+		dialer.close();
+		assertTrue(campaign.await(1, TimeUnit.SECONDS));
+		assertTrue(campaign.isCancelled());
+		assertEquals("Dialer closed", campaign.getLastError());
+	}
+
+	private static List<String> recipients(int count)
+	{
+		List<String> recipients = new ArrayList<String>();
+		for (int x = 0; x < count; x++) {
+			recipients.add("555555" + (1000 + x));
+		}
+		return recipients;
+	}
+}
@@ -0,0 +1,124 @@
+package com.cffreedom.integrations.twilio;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cffreedom.exceptions.InfrastructureException;
+
+public class CFTwilioMessengerTest
+{
+	private TwilioStandIn standIn;
+	private CFTwilio twilio;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		standIn = new TwilioStandIn();
+		twilio = new CFTwilio(TwilioStandIn.ACCOUNT_SID, TwilioStandIn.AUTH_TOKEN, standIn.getEndpoint());
+	}
+
+	@After
+	public void tearDown()
+	{
+		standIn.stop();
+	}
+
+	@Test
+	public void testSendAll() throws Exception
+	{
+		standIn.setLatencyMillis(5);
+		CFTwilioMessenger messenger = new CFTwilioMessenger(twilio, 8, 50);
+		List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>();
+		for (int x = 0; x < 200; x++) {
+			futures.add(messenger.sendTextMsg("5555550100", "555555" + (1000 + x), "Msg " + x, null));
+		}
+
+		Set<String> sids = new HashSet<String>();
+		for (CompletableFuture<String> future : futures) {
+			String sid = future.get(30, TimeUnit.SECONDS);
+			assertTrue(sid.startsWith("SM"));
+			sids.add(sid);
+		}
+		assertEquals(200, sids.size());
+		assertEquals(200, standIn.getMessageCount());
+		assertEquals(200, messenger.getSentCount());
+		assertEquals(0, messenger.getFailedCount());
+		assertTrue(messenger.close(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testBackpressure() throws Exception
+	{
+		standIn.setLatencyMillis(500);
+		CFTwilioMessenger messenger = new CFTwilioMessenger(twilio, 1, 1);
+		messenger.sendTextMsg("5555550100", "5555551000", "first", null);
+		messenger.sendTextMsg("5555550100", "5555551001", "second", null);
+		try {
+			messenger.sendTextMsg("5555550100", "5555551002", "third", null, 10, TimeUnit.MILLISECONDS);
+			fail("Expected the full queue to reject the msg");
+		} catch (InfrastructureException e) {
+			assertEquals(1, messenger.getQueueDepth());
+		}
+		messenger.close(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testQueuedWhileClosing() throws Exception
+	{
+		standIn.setLatencyMillis(2000);
+		final CFTwilioMessenger messenger = new CFTwilioMessenger(twilio, 1, 1);
+		messenger.sendTextMsg("5555550100", "5555551000", "in flight", null);
+		while (messenger.getQueueDepth() > 0) {
+			Thread.sleep(5);
+		}
+		messenger.sendTextMsg("5555550100", "5555551001", "queued", null);
+
+		// Blocked on the full queue until close() drains it
+		final AtomicReference<Object> outcome = new AtomicReference<Object>();
+		Thread caller = new Thread(new Runnable() {
+			public void run() {
+				try {
+					outcome.set(messenger.sendTextMsg("5555550100", "5555551002", "racing close", null));
+				} catch (InfrastructureException e) {
+					outcome.set(e);
+				}
+			}
+		});
+		caller.start();
+		while (caller.getState() != Thread.State.WAITING) {
+			Thread.sleep(5);
+		}
+		assertFalse(messenger.close(100, TimeUnit.MILLISECONDS));
+		caller.join(5000);
+
+		// Either turned away or accepted by something that completes it, never left hanging
+		if (outcome.get() instanceof CompletableFuture) {
+			try {
+				((CompletableFuture<?>) outcome.get()).get(5, TimeUnit.SECONDS);
+			} catch (ExecutionException e) {
+			}
+		} else {
+			assertTrue(outcome.get() instanceof InfrastructureException);
+		}
+	}
+
+	@Test(expected = InfrastructureException.class)
+	public void testClosed() throws Exception
+	{
+		CFTwilioMessenger messenger = new CFTwilioMessenger(twilio, 1, 1);
+		messenger.close(1, TimeUnit.SECONDS);
+		messenger.sendTextMsg("5555550100", "5555551000", "after close", null);
+	}
+}
@@ -0,0 +1,72 @@
+package com.cffreedom.integrations.twilio;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cffreedom.beans.PhoneNumber;
+
+public class CFTwilioNumberSearchTest
+{
+	private TwilioStandIn standIn;
+	private CFTwilioNumberSearch search;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		standIn = new TwilioStandIn();
+		search = new CFTwilioNumberSearch(new CFTwilio(TwilioStandIn.ACCOUNT_SID, TwilioStandIn.AUTH_TOKEN, standIn.getEndpoint()));
+	}
+
+	@After
+	public void tearDown()
+	{
+		search.close();
+		standIn.stop();
+	}
+
+	@Test
+	public void testIteratesAllPages()
+	{
+		standIn.setAvailableNumberCount(120);
+		Iterator<PhoneNumber> it = search.iterator(CFTwilioNumberSearch.TYPE_LOCAL, "US", null);
+		int count = 0;
+		while (it.hasNext()) {
+			assertEquals("US", it.next().getIsoCountry());
+			count++;
+		}
+		assertEquals(120, count);
+		assertEquals(120, search.stream(CFTwilioNumberSearch.TYPE_LOCAL, "US", null).count());
+	}
+
+	@Test
+	public void testCache() throws Exception
+	{
+		standIn.setAvailableNumberCount(10);
+		List<PhoneNumber> first = search.search(CFTwilioNumberSearch.TYPE_LOCAL, "US", "42");
+		int requests = standIn.getRequestCount();
+		List<PhoneNumber> second = search.search(CFTwilioNumberSearch.TYPE_LOCAL, "US", "42");
+		assertSame(first, second);
+		assertEquals(requests, standIn.getRequestCount());
+		assertEquals(1, search.getCacheHits());
+
+		search.search(CFTwilioNumberSearch.TYPE_LOCAL, "US", "43");
+		assertEquals(2, search.getCacheMisses());
+	}
+
+	@Test
+	public void testAreaCodeFanOut() throws Exception
+	{
+		standIn.setAvailableNumberCount(10);
+		List<PhoneNumber> numbers = search.searchAreaCodes("US", Arrays.asList("212", "312", "212"));
+		assertEquals(20, numbers.size());
+		assertTrue(numbers.get(0).getCode().startsWith("+1212"));
+		assertTrue(numbers.get(19).getCode().startsWith("+1312"));
+	}
+}
@@ -0,0 +1,149 @@
+package com.cffreedom.integrations.twilio;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.cffreedom.exceptions.InfrastructureException;
+import com.twilio.sdk.TwilioRestException;
+
+public class CFTwilioOutboxTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private TwilioStandIn standIn;
+	private CFTwilio twilio;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		standIn = new TwilioStandIn();
+		twilio = new CFTwilio(TwilioStandIn.ACCOUNT_SID, TwilioStandIn.AUTH_TOKEN, standIn.getEndpoint());
+	}
+
+	@After
+	public void tearDown()
+	{
+		standIn.stop();
+	}
+
+	@Test
+	public void testReplayAfterRestart() throws Exception
+	{
+		File dir = folder.newFolder("outbox");
+		CFTwilioOutbox outbox = new CFTwilioOutbox(twilio, dir, 64 * 1024, 1, 0);
+		String sid = outbox.sendTextMsg("5555550199", "5555550100", "Sent", null);
+		assertTrue(sid.startsWith("SM"));
+		long unsent1 = outbox.append("5555550199", "5555550101", "Never sent 1", null);
+		long unsent2 = outbox.append("5555550199", "5555550102", "Never sent 2", "http://example.com/a.png");
+		assertEquals(2, outbox.getPendingCount());
+		// Simulate a crash: no close()
+
+		outbox = new CFTwilioOutbox(twilio, dir, 64 * 1024, 1, 0);
+		List<CFTwilioOutbox.PendingMsg> pending = outbox.getPending();
+		assertEquals(2, pending.size());
+		assertEquals(unsent1, pending.get(0).getId());
+		assertEquals(unsent2, pending.get(1).getId());
+		assertEquals("Never sent 2", pending.get(1).getMsg());
+		assertEquals("http://example.com/a.png", pending.get(1).getImageUrl());
+		assertNull(pending.get(0).getImageUrl());
+
+		assertEquals(2, outbox.replay());
+		assertEquals(0, outbox.getPendingCount());
+		assertEquals(3, standIn.getMessageCount());
+		assertTrue(unsent2 < outbox.append("5555550199", "5555550103", "New id", null));
+		outbox.close();
+	}
+
+	@Test
+	public void testTransientErrorsStayPending() throws Exception
+	{
+		File dir = folder.newFolder("outbox");
+		CFTwilioOutbox outbox = new CFTwilioOutbox(twilio, dir, 64 * 1024, 1, 0);
+		// The SDK retries 5xx answers itself, so those only reach us once it gives up
+		assertTrue(CFTwilio.isTransient(new TwilioRestException("Internal Server Error", 20500)));
+		assertTrue(CFTwilio.isTransient(new TwilioRestException("Service Unavailable", 20503)));
+		assertFalse(CFTwilio.isTransient(new TwilioRestException("Invalid To number", 21211)));
+
+		standIn.failNextMessage(20429);
+		try {
+			outbox.sendTextMsg("5555550199", "5555550100", "Rate limited", null);
+			fail("Expected an InfrastructureException");
+		} catch (InfrastructureException e) {
+		}
+		assertEquals(1, outbox.getPendingCount());
+		outbox.append("5555550199", "5555550101", "Bad number", null);
+
+		// Rate limited: replay stops and everything stays for the next one
+		standIn.failNextMessage(20429);
+		try {
+			outbox.replay();
+			fail("Expected an InfrastructureException");
+		} catch (InfrastructureException e) {
+		}
+		assertEquals(2, outbox.getPendingCount());
+
+		// Refused for good: acknowledged as REJECTED and skipped
+		standIn.failNextMessage(21211);
+		assertEquals(1, outbox.replay());
+		assertEquals(0, outbox.getPendingCount());
+		assertEquals(1, standIn.getMessageCount());
+		outbox.close();
+	}
+
+	@Test
+	public void testTornTail() throws Exception
+	{
+		File dir = folder.newFolder("outbox");
+		CFTwilioOutbox outbox = new CFTwilioOutbox(twilio, dir, 64 * 1024, 1, 0);
+		outbox.append("5555550199", "5555550100", "Good", null);
+		outbox.close();
+
+		// Half written record after the good one
+		File segment = dir.listFiles()[0];
+		RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+		long end = 8 + 1 + 8 + (4 + 10) + (4 + 10) + (4 + 4) + 4;
+		raf.seek(end);
+		raf.writeInt(40);
+		raf.writeInt(12345);
+		raf.write(new byte[] { 1, 0, 0 });
+		raf.close();
+
+		outbox = new CFTwilioOutbox(twilio, dir, 64 * 1024, 1, 0);
+		assertEquals(1, outbox.getPendingCount());
+		outbox.append("5555550199", "5555550101", "After crash", null);
+		outbox.close();
+		outbox = new CFTwilioOutbox(twilio, dir, 64 * 1024, 1, 0);
+		assertEquals(2, outbox.getPendingCount());
+		assertEquals("After crash", outbox.getPending().get(1).getMsg());
+		outbox.close();
+	}
+
+	@Test
+	public void testSegmentRotation() throws Exception
+	{
+		File dir = folder.newFolder("outbox");
+		CFTwilioOutbox outbox = new CFTwilioOutbox(twilio, dir, 1024, 0, 50);
+		long first = outbox.append("5555550199", "5555550100", "Held", null);
+		for (int x = 0; x < 100; x++) {
+			outbox.sendTextMsg("5555550199", "5555550100", "Msg " + x, null);
+		}
+		assertTrue(outbox.getSegmentCount() > 1);
+		outbox.ack(first, "SMmanual");
+		assertEquals(1, outbox.getSegmentCount());
+		assertEquals(1, dir.listFiles().length);
+		outbox.close();
+
+		outbox = new CFTwilioOutbox(twilio, dir, 1024, 0, 50);
+		assertEquals(0, outbox.getPendingCount());
+		outbox.close();
+	}
+}
@@ -0,0 +1,82 @@
+package com.cffreedom.integrations.twilio;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CFTwilioProvisionerTest
+{
+	private TwilioStandIn standIn;
+	private CFTwilio twilio;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		standIn = new TwilioStandIn();
+		twilio = new CFTwilio(TwilioStandIn.ACCOUNT_SID, TwilioStandIn.AUTH_TOKEN, standIn.getEndpoint());
+	}
+
+	@After
+	public void tearDown()
+	{
+		standIn.stop();
+	}
+
+	@Test
+	public void testProvision() throws Exception
+	{
+		List<CFTwilioProvisioner.NumberRequest> requests = new ArrayList<CFTwilioProvisioner.NumberRequest>();
+		for (int x = 0; x < 50; x++) {
+			requests.add(new CFTwilioProvisioner.NumberRequest("555555" + (1000 + x), "Line " + x, "http://example.com/voice", "http://example.com/sms", false));
+		}
+		String owned = standIn.addIncomingNumber("+15555551000");
+		standIn.failTransiently("+15555551001", 2);
+		standIn.failTransiently("+15555551002", 10);
+		standIn.loseResponse("+15555551003");
+
+		List<CFTwilioProvisioner.ProvisionResult> results = new CFTwilioProvisioner(twilio, 10, 3, 10).provision(requests);
+
+		assertEquals(50, results.size());
+		assertEquals(CFTwilioProvisioner.ALREADY_OWNED, results.get(0).getOutcome());
+		assertEquals(owned, results.get(0).getSid());
+		assertEquals(CFTwilioProvisioner.PROVISIONED, results.get(1).getOutcome());
+		assertEquals(3, results.get(1).getAttempts());
+		assertEquals(CFTwilioProvisioner.FAILED, results.get(2).getOutcome());
+		assertEquals(3, results.get(2).getAttempts());
+		assertFalse(results.get(2).isOnAccount());
+		assertEquals(CFTwilioProvisioner.RECONCILED, results.get(3).getOutcome());
+		assertEquals(standIn.getIncomingNumbers().get("+15555551003"), results.get(3).getSid());
+		for (int x = 4; x < 50; x++) {
+			assertEquals(results.get(x).toString(), CFTwilioProvisioner.PROVISIONED, results.get(x).getOutcome());
+			assertEquals("+1555555" + (1000 + x), results.get(x).getNumber());
+		}
+		assertEquals(49, standIn.getIncomingNumbers().size());
+	}
+
+	@Test
+	public void testParallelism() throws Exception
+	{
+		standIn.setLatencyMillis(20);
+		long serial = timeProvision(new CFTwilioProvisioner(twilio, 1, 1, 0), 2000);
+		long parallel = timeProvision(new CFTwilioProvisioner(twilio), 3000);
+		assertTrue("Serial " + serial + "ms, parallel " + parallel + "ms", parallel * 3 < serial);
+	}
+
+	private long timeProvision(CFTwilioProvisioner provisioner, int firstLine) throws Exception
+	{
+		List<CFTwilioProvisioner.NumberRequest> requests = new ArrayList<CFTwilioProvisioner.NumberRequest>();
+		for (int x = 0; x < 40; x++) {
+			requests.add(new CFTwilioProvisioner.NumberRequest("555555" + (firstLine + x), null, null, null, false));
+		}
+		long start = System.currentTimeMillis();
+		for (CFTwilioProvisioner.ProvisionResult result : provisioner.provision(requests)) {
+			assertTrue(result.isOnAccount());
+		}
+		return System.currentTimeMillis() - start;
+	}
+}
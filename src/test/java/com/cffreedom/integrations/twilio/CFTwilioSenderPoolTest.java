@@ -0,0 +1,106 @@
+package com.cffreedom.integrations.twilio;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cffreedom.exceptions.InfrastructureException;
+
+public class CFTwilioSenderPoolTest
+{
+	private TwilioStandIn standIn;
+	private CFTwilio twilio;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		standIn = new TwilioStandIn();
+		twilio = new CFTwilio(TwilioStandIn.ACCOUNT_SID, TwilioStandIn.AUTH_TOKEN, standIn.getEndpoint());
+	}
+
+	@After
+	public void tearDown()
+	{
+		standIn.stop();
+	}
+
+	@Test
+	public void testStickyAndPaced() throws Exception
+	{
+		List<String> senderNumbers = Arrays.asList("5555550100", "5555550101", "5555550102");
+		CFTwilioSenderPool pool = new CFTwilioSenderPool(twilio, senderNumbers, 10, 100);
+
+		long start = System.nanoTime();
+		List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>();
+		for (int x = 0; x < 30; x++) {
+			futures.add(pool.sendTextMsg("555555" + (1000 + (x % 10)), "Msg " + x, null));
+		}
+		for (CompletableFuture<String> future : futures) {
+			future.get(30, TimeUnit.SECONDS);
+		}
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		Map<String, String> senderFor = new HashMap<String, String>();
+		for (Map<String, String> msg : standIn.getMessages()) {
+			String previous = senderFor.put(msg.get("To"), msg.get("From"));
+			assertTrue(previous == null || previous.equals(msg.get("From")));
+			assertEquals(pool.getSenderNumberFor(msg.get("To")), msg.get("From"));
+		}
+		assertEquals(10, senderFor.size());
+
+		// Busiest sender has at least 10 msgs (30 over 3 senders) paced at 10/sec with a burst of 1
+		long busiest = 0;
+		long sent = 0;
+		for (CFTwilioSenderPool.SenderStats stats : pool.getStats()) {
+			busiest = Math.max(busiest, stats.getSent());
+			sent += stats.getSent();
+		}
+		assertEquals(30, sent);
+		assertTrue("Finished in " + elapsedMillis + "ms", elapsedMillis >= (busiest - 1) * 100 - 50);
+		assertTrue(pool.close(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testQueuedWhileClosing() throws Exception
+	{
+		standIn.setLatencyMillis(2000);
+		final CFTwilioSenderPool pool = new CFTwilioSenderPool(twilio, Arrays.asList("5555550100"), 100, 1);
+		pool.sendTextMsg("5555551000", "in flight", null);
+		while (pool.getStats().get(0).getQueueDepth() > 0) {
+			Thread.sleep(5);
+		}
+		CompletableFuture<String> queued = pool.sendTextMsg("5555551001", "queued", null);
+
+		// Blocked on the full queue until close() drains it
+		final AtomicReference<Object> outcome = new AtomicReference<Object>();
+		Thread caller = new Thread(new Runnable() {
+			public void run() {
+				try {
+					outcome.set(pool.sendTextMsg("5555551002", "racing close", null));
+				} catch (InfrastructureException e) {
+					outcome.set(e);
+				}
+			}
+		});
+		caller.start();
+		while (caller.getState() != Thread.State.WAITING) {
+			Thread.sleep(5);
+		}
+		assertFalse(pool.close(100, TimeUnit.MILLISECONDS));
+		caller.join(5000);
+		assertTrue(queued.isCompletedExceptionally());
+		// Landed after close() drained the queue, so it's turned away instead of left hanging
+		assertTrue(String.valueOf(outcome.get()), outcome.get() instanceof InfrastructureException);
+	}
+}
@@ -0,0 +1,180 @@
+package com.cffreedom.integrations.twilio;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CFTwilioSuppressionListTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testAddRemoveAndReopen() throws Exception
+	{
+		File file = new File(folder.getRoot(), "optout.dat");
+		CFTwilioSuppressionList list = new CFTwilioSuppressionList(file, 10);
+		assertTrue(list.add("(555) 555-0100"));
+		assertFalse(list.add("+1 555 555 0100"));
+		assertFalse(list.add("not a number"));
+		assertTrue(list.contains("5555550100"));
+		assertTrue(list.contains(15555550100L));
+		assertFalse(list.contains("5555550101"));
+		assertFalse(list.contains((String) null));
+
+		// Enough to force a couple of rehashes
+		for (long x = 0; x < 5000; x++) {
+			list.add(447700900000L + x);
+		}
+		assertTrue(list.remove("5555550100"));
+		assertFalse(list.remove("5555550100"));
+		assertTrue(list.remove(447700900007L));
+		assertEquals(4999, list.size());
+		assertTrue(list.getCapacity() >= 4999 * 2);
+		list.close();
+
+		list = new CFTwilioSuppressionList(file);
+		assertEquals(4999, list.size());
+		assertFalse(list.contains("5555550100"));
+		assertFalse(list.contains(447700900007L));
+		for (long x = 0; x < 5000; x++) {
+			assertEquals(x != 7, list.contains(447700900000L + x));
+		}
+		// Tombstones get reused
+		assertTrue(list.add(447700900007L));
+		assertEquals(5000, list.size());
+		list.close();
+	}
+
+	@Test
+	public void testImportAndReplies() throws Exception
+	{
+		File numbers = folder.newFile("numbers.txt");
+		FileWriter writer = new FileWriter(numbers);
+		writer.write("5555550100\n(555) 555-0101\n\n+44 7700 900123\njunk\n5555550100\n");
+		writer.close();
+
+		CFTwilioSuppressionList list = new CFTwilioSuppressionList(new File(folder.getRoot(), "optout.dat"));
+		assertEquals(3, list.importNumbers(numbers));
+
+		assertTrue(CFTwilioSuppressionList.isOptOut(" stop "));
+		assertTrue(CFTwilioSuppressionList.isOptOut("Unsubscribe!"));
+		assertFalse(CFTwilioSuppressionList.isOptOut("don't stop"));
+
+		assertEquals("", reply(list, "From=%2B15555550199&Body=Stop"));
+		assertTrue(list.contains("5555550199"));
+		reply(list, "From=%2B15555550199&Body=Thanks");
+		assertTrue(list.contains("5555550199"));
+		reply(list, "From=%2B15555550199&Body=START");
+		assertFalse(list.contains("5555550199"));
+		list.close();
+	}
+
+	@Test
+	public void testSendsSkipped() throws Exception
+	{
+		TwilioStandIn standIn = new TwilioStandIn();
+		try {
+			CFTwilio twilio = new CFTwilio(TwilioStandIn.ACCOUNT_SID, TwilioStandIn.AUTH_TOKEN, standIn.getEndpoint());
+			CFTwilioSuppressionList list = new CFTwilioSuppressionList(new File(folder.getRoot(), "optout.dat"));
+			list.add("5555550100");
+			twilio.setSuppressionList(list);
+
+			assertEquals(CFTwilio.SUPPRESSED, twilio.sendTextMsg("5555550199", "555-555-0100", "Hi", null));
+			assertEquals(CFTwilio.SUPPRESSED, twilio.makeCall("5555550199", "5555550100", "http://example.com/call"));
+			assertEquals(0, standIn.getMessageCount());
+			assertEquals(0, standIn.getCalls().size());
+
+			assertNotEquals(CFTwilio.SUPPRESSED, twilio.sendTextMsg("5555550199", "5555550101", "Hi", null));
+			assertEquals(1, standIn.getMessageCount());
+
+			CFTwilioDialer dialer = new CFTwilioDialer(twilio, 100, 2);
+			List<String> recipients = new ArrayList<String>();
+			recipients.add("5555550100");
+			recipients.add("5555550102");
+			CFTwilioDialer.Campaign campaign = dialer.dial("5555550199", recipients.iterator(), "http://example.com/call", "http://example.com/status");
+			while (campaign.getPlaced() + campaign.getSuppressed() < 2) {
+				Thread.sleep(10);
+			}
+			// Only the call that was placed waits on its status callback
+			assertEquals(1, campaign.getSuppressed());
+			assertEquals(1, campaign.getInFlight());
+			assertTrue(dialer.callEnded(standIn.getCalls().get(0).get("CallSid")));
+			assertTrue(campaign.await(10, TimeUnit.SECONDS));
+			dialer.close();
+			list.close();
+		} finally {
+			standIn.stop();
+		}
+	}
+
+	@Test
+	public void testConcurrentAddsAndReads() throws Exception
+	{
+		final CFTwilioSuppressionList list = new CFTwilioSuppressionList(new File(folder.getRoot(), "optout.dat"), 100);
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicInteger misses = new AtomicInteger();
+		list.add(19995550000L);
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				while (!done.get()) {
+					if (!list.contains(19995550000L)) {
+						misses.incrementAndGet();
+					}
+				}
+			}
+		});
+		reader.start();
+
+		List<Thread> writers = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			final long base = 15550000000L + t * 1000000L;
+			Thread writer = new Thread(new Runnable() {
+				public void run() {
+					try {
+						for (long x = 0; x < 20000; x++) {
+							list.add(base + x);
+						}
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+			writers.add(writer);
+			writer.start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		done.set(true);
+		reader.join();
+
+		assertEquals(0, misses.get());
+		assertEquals(80001, list.size());
+		for (int t = 0; t < 4; t++) {
+			assertTrue(list.contains(15550000000L + t * 1000000L + 19999));
+		}
+		list.close();
+	}
+
+	private static String reply(CFTwilioSuppressionList list, String body) throws Exception
+	{
+		byte[] bytes = body.getBytes("UTF-8");
+		StringWriter xml = new StringWriter();
+		TwiMLWriter out = TwiMLWriter.forWriter(xml);
+		list.replyHandler().handle(new TwilioWebhookRequest("POST", "/sms", bytes, bytes.length), out);
+		out.flush();
+		return xml.toString();
+	}
+}
@@ -0,0 +1,135 @@
+package com.cffreedom.integrations.twilio;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CFTwilioWebhookServerTest
+{
+	private CFTwilioWebhookServer server;
+	private String base;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		server = new CFTwilioWebhookServer(new InetSocketAddress("127.0.0.1", 0), 4);
+		server.route("/voice", new CFTwilioWebhookServer.Handler() {
+			public void handle(TwilioWebhookRequest request, TwiMLWriter out) throws Exception {
+				CFTwiMLTemplates.twimlSayAndHangUp(out, "Hi " + request.getFrom() + " " + request.getParameter("Note"));
+			}
+		});
+		server.route("/status", new CFTwilioWebhookServer.Handler() {
+			public void handle(TwilioWebhookRequest request, TwiMLWriter out) {
+			}
+		});
+		server.route("/broken", new CFTwilioWebhookServer.Handler() {
+			public void handle(TwilioWebhookRequest request, TwiMLWriter out) {
+				throw new IllegalStateException("boom");
+			}
+		});
+		server.start();
+		base = "http://127.0.0.1:" + server.getPort();
+	}
+
+	@After
+	public void tearDown()
+	{
+		server.stop(0);
+	}
+
+	@Test
+	public void testRouting() throws Exception
+	{
+		assertEquals(CFTwiMLTemplates.twimlSayAndHangUp("Hi +15555550100 a&b <c>"), post("/voice", "CallSid=CA1&From=%2B15555550100&Note=a%26b+%3Cc%3E", 200));
+		assertEquals(CFTwiMLTemplates.twimlSayAndHangUp("Hi +15555550100 caf\u00e9"), get("/voice?From=%2B15555550100&Note=caf%C3%A9"));
+		assertEquals(CFTwiMLTemplates.twimlEmptyResponse(), post("/status", "MessageSid=SM1&MessageStatus=delivered", 200));
+		post("/missing", "", 404);
+		post("/broken", "CallSid=CA1", 500);
+
+		assertEquals(5, server.getRequestCount());
+		assertEquals(1, server.getErrorCount());
+		assertEquals(1, server.getNotFoundCount());
+	}
+
+	@Test
+	public void testLargeBody() throws Exception
+	{
+		StringBuilder body = new StringBuilder("From=x&Note=");
+		while (body.length() < 20000) {
+			body.append("abcdefghij");
+		}
+		assertTrue(post("/voice", body.toString(), 200).contains("abcdefghij"));
+
+		while (body.length() <= CFTwilioWebhookServer.MAX_BODY) {
+			body.append("abcdefghij");
+		}
+		post("/voice", body.toString(), 413);
+	}
+
+	@Test
+	public void testParameters()
+	{
+		byte[] body = "CallSid=CA1&Digits=&Flag&From=%2B1555&From=dup".getBytes();
+		TwilioWebhookRequest request = new TwilioWebhookRequest("POST", "/voice", body, body.length);
+		assertEquals("CA1", request.getCallSid());
+		assertEquals("", request.getDigits());
+		assertEquals("", request.getParameter("Flag"));
+		assertEquals("+1555", request.getFrom());
+		assertNull(request.getTo());
+		Map<String, String> params = request.getParameters();
+		assertEquals(4, params.size());
+		assertEquals("+1555", params.get("From"));
+	}
+
+	@Test
+	public void testLoadHarness() throws Exception
+	{
+		TwilioWebhookLoadHarness.Report report = TwilioWebhookLoadHarness.run(base + "/voice", TwilioWebhookLoadHarness.SAMPLE_BODY, 200, 1, 8);
+		assertEquals(200, report.getRequests());
+		assertEquals(0, report.getErrors());
+		assertTrue(report.getP99Micros() >= report.getP50Micros());
+	}
+
+	private String post(String path, String body, int expectedStatus) throws Exception
+	{
+		HttpURLConnection conn = (HttpURLConnection) new URL(base + path).openConnection();
+		conn.setRequestMethod("POST");
+		conn.setDoOutput(true);
+		OutputStream out = conn.getOutputStream();
+		out.write(body.getBytes("UTF-8"));
+		out.close();
+		assertEquals(expectedStatus, conn.getResponseCode());
+		return (expectedStatus == 200) ? read(conn) : null;
+	}
+
+	private String get(String pathAndQuery) throws Exception
+	{
+		HttpURLConnection conn = (HttpURLConnection) new URL(base + pathAndQuery).openConnection();
+		assertEquals(200, conn.getResponseCode());
+		assertEquals(CFTwilioWebhookServer.CONTENT_TYPE, conn.getContentType());
+		return read(conn);
+	}
+
+	private static String read(HttpURLConnection conn) throws Exception
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		InputStream in = conn.getInputStream();
+		byte[] buf = new byte[4096];
+		int read;
+		while ((read = in.read(buf)) != -1) {
+			bytes.write(buf, 0, read);
+		}
+		in.close();
+		return bytes.toString("UTF-8");
+	}
+}
@@ -0,0 +1,83 @@
+package com.cffreedom.integrations.twilio;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.cffreedom.utils.Format;
+
+/**
+ * Compares Format.phoneNumber(Format.PHONE_INT, ...) with E164 over a batch of 1000 numbers
+ * in mixed formats. Run with: java -cp target/test-classes:target/classes:&lt;test classpath&gt; com.cffreedom.integrations.twilio.E164Benchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class E164Benchmark
+{
+	private static final int BATCH = 1000;
+	private String[] numbers;
+	private long[] out;
+	private E164 e164;
+
+	@Setup
+	public void setUp()
+	{
+		numbers = new String[BATCH];
+		for (int x = 0; x < BATCH; x++) {
+			int line = x % 250;
+			switch (x % 4) {
+				case 0: numbers[x] = String.format("(555) 555-%04d", line); break;
+				case 1: numbers[x] = String.format("+1 555 555 %04d", line); break;
+				case 2: numbers[x] = String.format("555.555.%04d", line); break;
+				default: numbers[x] = String.format("5555555%03d", line); break;
+			}
+		}
+		out = new long[BATCH];
+		e164 = new E164();
+	}
+
+	@Benchmark
+	public void formatPhoneInt(Blackhole bh)
+	{
+		for (String number : numbers) {
+			bh.consume(Format.phoneNumber(Format.PHONE_INT, number));
+		}
+	}
+
+	@Benchmark
+	public long[] normalize()
+	{
+		E164.normalize(numbers, out);
+		return out;
+	}
+
+	@Benchmark
+	public void canonicalize(Blackhole bh)
+	{
+		for (String number : numbers) {
+			bh.consume(e164.canonicalize(number));
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		new Runner(new OptionsBuilder().include(E164Benchmark.class.getSimpleName()).build()).run();
+	}
+}
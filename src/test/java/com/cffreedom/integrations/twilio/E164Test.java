@@ -0,0 +1,58 @@
+package com.cffreedom.integrations.twilio;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.cffreedom.utils.Format;
+
+public class E164Test
+{
+	@Test
+	public void testParse()
+	{
+		assertEquals(15555550100L, E164.parse("(555) 555-0100"));
+		assertEquals(15555550100L, E164.parse("555.555.0100"));
+		assertEquals(15555550100L, E164.parse("+1 555 555 0100"));
+		assertEquals(15555550100L, E164.parse("15555550100"));
+		assertEquals(442079460018L, E164.parse("+44 20 7946 0018"));
+		assertEquals(E164.INVALID, E164.parse(null));
+		assertEquals(E164.INVALID, E164.parse(""));
+		assertEquals(E164.INVALID, E164.parse("abc"));
+		assertEquals(E164.INVALID, E164.parse("0207 946 0018"));
+		assertEquals(E164.INVALID, E164.parse("+1234567890123456"));
+	}
+
+	@Test
+	public void testMatchesFormat()
+	{
+		E164 e164 = new E164(16);
+		String[] numbers = { "(555) 555-0100", "+1 555 555 0100", "555-555-0199", "+44 20 7946 0018" };
+		for (String number : numbers) {
+			assertEquals(number, Format.phoneNumber(Format.PHONE_INT, number), e164.canonicalize(number));
+		}
+	}
+
+	@Test
+	public void testNormalize()
+	{
+		long[] out = new long[4];
+		int invalid = E164.normalize(new CharSequence[] { "5555550100", "bad", new StringBuilder("+44 20 7946 0018") }, out);
+		assertEquals(1, invalid);
+		assertEquals(15555550100L, out[0]);
+		assertEquals(E164.INVALID, out[1]);
+		assertEquals(442079460018L, out[2]);
+		assertArrayEquals(new long[] { 15555550100L }, E164.normalize(new CharSequence[] { "555 555 0100" }));
+	}
+
+	@Test
+	public void testFormatCache()
+	{
+		E164 e164 = new E164(16);
+		String first = e164.format(15555550100L);
+		assertEquals("+15555550100", first);
+		assertSame(first, e164.format(15555550100L));
+		assertNull(e164.format(E164.INVALID));
+		assertEquals("+442079460018", E164.toString(442079460018L));
+	}
+}
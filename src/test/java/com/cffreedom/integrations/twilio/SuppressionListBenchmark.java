@@ -0,0 +1,100 @@
+package com.cffreedom.integrations.twilio;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.cffreedom.exceptions.InfrastructureException;
+
+/**
+ * Membership checks against 1M opted out numbers: a HashSet of formatted Strings vs
+ * CFTwilioSuppressionList (half of the lookups hit). Run with:
+ * java -cp target/test-classes:target/classes:&lt;test classpath&gt; com.cffreedom.integrations.twilio.SuppressionListBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SuppressionListBenchmark
+{
+	private static final int NUMBERS = 1000000;
+	private static final int LOOKUPS = 4096;
+	private Set<String> hashSet;
+	private CFTwilioSuppressionList list;
+	private File file;
+	private String[] formatted;
+	private long[] parsed;
+	private int next = 0;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		Random random = new Random(42);
+		this.hashSet = new HashSet<String>();
+		this.file = File.createTempFile("optout", ".dat");
+		this.file.delete();
+		this.list = new CFTwilioSuppressionList(this.file, NUMBERS);
+		this.formatted = new String[LOOKUPS];
+		this.parsed = new long[LOOKUPS];
+		for (int x = 0; x < NUMBERS; x++) {
+			long number = 12000000000L + (random.nextLong() >>> 1) % 8000000000L;
+			this.hashSet.add(E164.toString(number));
+			this.list.add(number);
+			if (x < LOOKUPS) {
+				// Every other lookup is a miss
+				long lookup = ((x & 1) == 0) ? number : number + 1;
+				this.formatted[x] = E164.toString(lookup);
+				this.parsed[x] = lookup;
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		this.list.close();
+		this.file.delete();
+	}
+
+	@Benchmark
+	public boolean hashSetContains()
+	{
+		return this.hashSet.contains(this.formatted[this.next++ & (LOOKUPS - 1)]);
+	}
+
+	@Benchmark
+	public boolean suppressionListContains()
+	{
+		return this.list.contains(this.parsed[this.next++ & (LOOKUPS - 1)]);
+	}
+
+	@Benchmark
+	public boolean suppressionListContainsString()
+	{
+		return this.list.contains(this.formatted[this.next++ & (LOOKUPS - 1)]);
+	}
+
+	public static void main(String[] args) throws RunnerException, InfrastructureException
+	{
+		new Runner(new OptionsBuilder().include(SuppressionListBenchmark.class.getSimpleName()).build()).run();
+	}
+}
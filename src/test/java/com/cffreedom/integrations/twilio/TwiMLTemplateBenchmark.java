@@ -0,0 +1,132 @@
+package com.cffreedom.integrations.twilio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.cffreedom.exceptions.InfrastructureException;
+
+/**
+ * Compares the CFTwilio verb tree builders with the precompiled CFTwiMLTemplates, both as
+ * Strings and streamed through a reused TwiMLWriter.
+ * Run with: java -cp target/test-classes:target/classes:&lt;test classpath&gt; com.cffreedom.integrations.twilio.TwiMLTemplateBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TwiMLTemplateBenchmark
+{
+	private static final String URL = "http://example.com/ivr/menu?id=42";
+	private static final String MP3 = "http://example.com/audio/menu.mp3";
+	private CFTwilio twilio = new CFTwilio(TwilioStandIn.ACCOUNT_SID, TwilioStandIn.AUTH_TOKEN);
+	private ByteBuffer buffer = ByteBuffer.allocate(8192);
+	private TwiMLWriter writer = TwiMLWriter.forBuffer(buffer);
+
+	@Benchmark
+	public String sayAndHangUpBuilder() throws InfrastructureException
+	{
+		return twilio.twimlSayAndHangUp("Thanks for calling. Goodbye.");
+	}
+
+	@Benchmark
+	public String sayAndHangUpTemplate()
+	{
+		return CFTwiMLTemplates.twimlSayAndHangUp("Thanks for calling. Goodbye.");
+	}
+
+	@Benchmark
+	public String getInputBuilder() throws InfrastructureException
+	{
+		return twilio.twimlGetInput(null, "Press 1 for sales or 2 for support", 1, 5, URL, -1);
+	}
+
+	@Benchmark
+	public String getInputTemplate()
+	{
+		return CFTwiMLTemplates.twimlGetInput(null, "Press 1 for sales or 2 for support", 1, 5, URL, -1);
+	}
+
+	@Benchmark
+	public String forwardWithVoicemailBuilder() throws InfrastructureException
+	{
+		return twilio.twimlForwardWithVoicemail("5555550100", MP3, null, URL, 20, 120);
+	}
+
+	@Benchmark
+	public String forwardWithVoicemailTemplate()
+	{
+		return CFTwiMLTemplates.twimlForwardWithVoicemail("5555550100", MP3, null, URL, 20, 120);
+	}
+
+	@Benchmark
+	public String twimlBuilder() throws InfrastructureException
+	{
+		return twilio.twiml(MP3, null, "5555550100", 20, null, "Please leave a message", 120, URL, false);
+	}
+
+	@Benchmark
+	public String twimlTemplate()
+	{
+		return CFTwiMLTemplates.twiml(MP3, null, "5555550100", 20, null, "Please leave a message", 120, URL, false);
+	}
+
+	@Benchmark
+	public int getInputStreamed() throws IOException
+	{
+		this.buffer.clear();
+		CFTwiMLTemplates.twimlGetInput(this.writer.reset(this.buffer), null, "Press 1 for sales or 2 for support", 1, 5, URL, -1);
+		this.writer.flush();
+		return this.buffer.position();
+	}
+
+	@Benchmark
+	public int twimlTemplateBytes() throws IOException
+	{
+		this.buffer.clear();
+		this.buffer.put(CFTwiMLTemplates.twiml(MP3, null, "5555550100", 20, null, "Please leave a message", 120, URL, false).getBytes("UTF-8"));
+		return this.buffer.position();
+	}
+
+	@Benchmark
+	public int twimlStreamed() throws IOException
+	{
+		this.buffer.clear();
+		CFTwiMLTemplates.twiml(this.writer.reset(this.buffer), MP3, null, "5555550100", 20, null, "Please leave a message", 120, URL, false);
+		this.writer.flush();
+		return this.buffer.position();
+	}
+
+	@Benchmark
+	public int twimlBuilderApiStreamed() throws IOException
+	{
+		this.buffer.clear();
+		this.writer.reset(this.buffer).startResponse()
+			.play(MP3)
+			.start("Dial").attr("timeout", 20).text("5555550100").end()
+			.say("Please leave a message")
+			.start("Record").attr("action", URL).attr("maxLength", 120).end()
+			.endResponse().flush();
+		return this.buffer.position();
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		new Runner(new OptionsBuilder().include(TwiMLTemplateBenchmark.class.getSimpleName()).build()).run();
+	}
+}
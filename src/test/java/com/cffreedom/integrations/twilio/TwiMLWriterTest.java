@@ -0,0 +1,148 @@
+package com.cffreedom.integrations.twilio;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class TwiMLWriterTest
+{
+	@Test
+	public void testTemplatesStreamSameAsStrings() throws Exception
+	{
+		String expected = CFTwiMLTemplates.twiml("http://example.com/hi.mp3", null, "5555550100", 0, null, "Leave a msg", 120, "http://example.com/vm?a=1&b=2", true);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TwiMLWriter out = TwiMLWriter.forStream(bytes);
+		CFTwiMLTemplates.twiml(out, "http://example.com/hi.mp3", null, "5555550100", 0, null, "Leave a msg", 120, "http://example.com/vm?a=1&b=2", true);
+		out.flush();
+		assertEquals(expected, bytes.toString("UTF-8"));
+
+		StringWriter chars = new StringWriter();
+		out = TwiMLWriter.forWriter(chars);
+		CFTwiMLTemplates.twimlGetInput(out, null, "Press 1", 1, 5, "http://example.com/in?id=7", 1);
+		out.flush();
+		assertEquals(CFTwiMLTemplates.twimlGetInput(null, "Press 1", 1, 5, "http://example.com/in?id=7", 1), chars.toString());
+
+		ByteBuffer buffer = ByteBuffer.allocate(1024);
+		out = TwiMLWriter.forBuffer(buffer);
+		CFTwiMLTemplates.twimlForwardWithVoicemail(out, "5555550100", null, null, "http://example.com/vm", 0, 0);
+		out.flush();
+		assertEquals(CFTwiMLTemplates.twimlForwardWithVoicemail("5555550100", null, null, "http://example.com/vm", 0, 0), new String(buffer.array(), 0, buffer.position(), "UTF-8"));
+	}
+
+	@Test
+	public void testEveryShapeStreamsSameAsString() throws Exception
+	{
+		String[] mp3s = { null, "http://example.com/hi.mp3" };
+		String[] ttss = { null, "Hello & welcome" };
+		String[] numbers = { null, "5555550100" };
+		for (String mp3 : mp3s) {
+			for (String tts : ttss) {
+				for (int digits = 0; digits <= 4; digits += 4) {
+					for (int defaultInput = -1; defaultInput <= 7; defaultInput += 8) {
+						StringWriter chars = new StringWriter();
+						TwiMLWriter out = TwiMLWriter.forWriter(chars);
+						CFTwiMLTemplates.twimlGetInput(out, mp3, tts, digits, 10, "http://example.com/in?id=7", defaultInput);
+						out.flush();
+						assertEquals(CFTwiMLTemplates.twimlGetInput(mp3, tts, digits, 10, "http://example.com/in?id=7", defaultInput), chars.toString());
+					}
+				}
+				for (String number : numbers) {
+					StringWriter chars = new StringWriter();
+					TwiMLWriter out = TwiMLWriter.forWriter(chars);
+					CFTwiMLTemplates.twimlForwardWithVoicemail(out, number, mp3, tts, "http://example.com/vm", 20, 0);
+					out.flush();
+					assertEquals(CFTwiMLTemplates.twimlForwardWithVoicemail(number, mp3, tts, "http://example.com/vm", 20, 0), chars.toString());
+
+					for (String vmMp3 : mp3s) {
+						for (boolean transcribe : new boolean[] { false, true }) {
+							chars = new StringWriter();
+							out = TwiMLWriter.forWriter(chars);
+							CFTwiMLTemplates.twiml(out, mp3, tts, number, 0, vmMp3, "Leave a msg", 60, "http://example.com/vm?a=1&b=2", transcribe);
+							out.flush();
+							assertEquals(CFTwiMLTemplates.twiml(mp3, tts, number, 0, vmMp3, "Leave a msg", 60, "http://example.com/vm?a=1&b=2", transcribe), chars.toString());
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testUnpairedSurrogates() throws Exception
+	{
+		// Same '?' that String.getBytes() writes, whether ASCII, another high surrogate or the end of the value follows
+		String[] msgs = { "a\ud83db", "\ud83d\ud83d\ude00", "x\ud83d", "\ude00 & \ud83d&", "\ud83d" };
+		for (String msg : msgs) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			TwiMLWriter out = TwiMLWriter.forStream(bytes);
+			CFTwiMLTemplates.twimlSayAndHangUp(out, msg);
+			out.flush();
+			assertArrayEquals(msg, CFTwiMLTemplates.twimlSayAndHangUp(msg).getBytes("UTF-8"), bytes.toByteArray());
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TwiMLWriter out = TwiMLWriter.forStream(bytes);
+		out.startResponse().say("x\ud83d").say("\ude00").endResponse().flush();
+		assertEquals(TwiMLTemplate.XML_HEADER + "<Response><Say>x?</Say><Say>?</Say></Response>", bytes.toString("UTF-8"));
+	}
+
+	@Test
+	public void testBuilder() throws Exception
+	{
+		String msg = "Caf\u00e9 \u20ac5 \ud83d\ude00 & <bye>";
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TwiMLWriter out = TwiMLWriter.forStream(bytes);
+		out.startResponse()
+			.start("Gather").attr("action", "http://example.com/in?a=1&b=2").attr("numDigits", 1).attr("finishOnKey", null).say(msg).end()
+			.hangup()
+			.endResponse()
+			.flush();
+		assertEquals(TwiMLTemplate.XML_HEADER + "<Response><Gather action=\"http://example.com/in?a=1&amp;b=2\" numDigits=\"1\">"
+						+ "<Say>Caf\u00e9 \u20ac5 \ud83d\ude00 &amp; &lt;bye&gt;</Say></Gather><Hangup/></Response>", bytes.toString("UTF-8"));
+		assertEquals(CFTwiMLTemplates.twimlSayAndHangUp(msg), render(msg));
+	}
+
+	@Test
+	public void testReuseAndOverflow() throws Exception
+	{
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		TwiMLWriter out = TwiMLWriter.forStream(first);
+		out.startResponse().start("Say");
+		ByteArrayOutputStream second = new ByteArrayOutputStream();
+		out.reset(second);
+		CFTwiMLTemplates.twimlRejectCall(out);
+		out.flush();
+		assertEquals(0, first.size());
+		assertEquals(CFTwiMLTemplates.twimlRejectCall(), second.toString("UTF-8"));
+
+		// More than the internal buffer
+		StringBuilder longMsg = new StringBuilder();
+		for (int x = 0; x < 2000; x++) {
+			longMsg.append("a&");
+		}
+		assertEquals(CFTwiMLTemplates.twimlSayAndHangUp(longMsg.toString()), render(longMsg.toString()));
+
+		out = TwiMLWriter.forBuffer(ByteBuffer.allocate(16));
+		CFTwiMLTemplates.twimlEmptyResponse(out);
+		try {
+			out.flush();
+			fail("Expected overflow");
+		} catch (BufferOverflowException e) {
+			// expected
+		}
+	}
+
+	private static String render(String msg) throws Exception
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TwiMLWriter out = TwiMLWriter.forStream(bytes);
+		CFTwiMLTemplates.twimlSayAndHangUp(out, msg);
+		out.flush();
+		return bytes.toString("UTF-8");
+	}
+}
@@ -0,0 +1,84 @@
+package com.cffreedom.integrations.twilio;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twilio.sdk.TwilioRestClient;
+
+public class TwilioClientRegistryTest
+{
+	private TwilioStandIn standIn;
+	private TwilioClientRegistry registry;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		standIn = new TwilioStandIn();
+		registry = new TwilioClientRegistry(5, 10, 30000);
+	}
+
+	@After
+	public void tearDown()
+	{
+		registry.shutdown();
+		standIn.stop();
+	}
+
+	@Test
+	public void testSharedClient()
+	{
+		TwilioRestClient client = registry.getClient(TwilioStandIn.ACCOUNT_SID, TwilioStandIn.AUTH_TOKEN, standIn.getEndpoint());
+		assertSame(client, registry.getClient(TwilioStandIn.ACCOUNT_SID, TwilioStandIn.AUTH_TOKEN, standIn.getEndpoint()));
+		assertSame(registry.getAccount(TwilioStandIn.ACCOUNT_SID, TwilioStandIn.AUTH_TOKEN, standIn.getEndpoint()), client.getAccount());
+		assertEquals(1, registry.getClientCount());
+
+		// A rotated auth token gets a new client
+		String rotated = TwilioStandIn.AUTH_TOKEN.replace('0', '1');
+		assertNotSame(client, registry.getClient(TwilioStandIn.ACCOUNT_SID, rotated, standIn.getEndpoint()));
+		assertEquals(1, registry.getClientCount());
+		TwilioClientRegistry.Entry entry = registry.getEntry(TwilioStandIn.ACCOUNT_SID, rotated, standIn.getEndpoint());
+		assertSame(entry.getAccount(), entry.getClient().getAccount());
+	}
+
+	@Test
+	public void testMissingCredentials()
+	{
+		try {
+			registry.getClient(TwilioStandIn.ACCOUNT_SID, null, standIn.getEndpoint());
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new CFTwilio(null, TwilioStandIn.AUTH_TOKEN, standIn.getEndpoint());
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(0, registry.getClientCount());
+	}
+
+	@Test
+	public void testConnectionReuse() throws Exception
+	{
+		for (int x = 0; x < 20; x++) {
+			TwilioRestClient client = registry.getClient(TwilioStandIn.ACCOUNT_SID, TwilioStandIn.AUTH_TOKEN, standIn.getEndpoint());
+			client.getAccount().getMessageFactory().create(Arrays.<NameValuePair>asList(
+					new BasicNameValuePair("To", "+15555550100"),
+					new BasicNameValuePair("From", "+15555550199"),
+					new BasicNameValuePair("Body", "Msg " + x)));
+		}
+		TwilioClientRegistry.ConnectionStats stats = registry.getStats();
+		assertEquals(20, stats.getRequests());
+		assertEquals(1, stats.getNewConnections());
+		assertEquals(19, stats.getReusedConnections());
+		assertEquals(1, stats.getPooledConnections());
+		assertEquals(20, standIn.getMessageCount());
+		assertEquals(0, standIn.getChallengeCount());
+	}
+}
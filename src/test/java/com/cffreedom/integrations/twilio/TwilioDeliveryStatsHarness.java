@@ -0,0 +1,32 @@
+package com.cffreedom.integrations.twilio;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Replays a file of recorded status callbacks through CFTwilioDeliveryStats and reports the
+ * rate and the totals.
+ * Run with: java -cp target/test-classes:target/classes:&lt;test classpath&gt; com.cffreedom.integrations.twilio.TwilioDeliveryStatsHarness &lt;file of callback bodies&gt;
+ */
+public class TwilioDeliveryStatsHarness
+{
+	/**
+	 * @param args File of callback bodies (one per line)
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length != 1) {
+			System.out.println("Usage: TwilioDeliveryStatsHarness <file of callback bodies>");
+			return;
+		}
+		CFTwilioDeliveryStats stats = new CFTwilioDeliveryStats();
+		long start = System.nanoTime();
+		long lines = stats.replay(new File(args[0]));
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Replayed %d callbacks in %.3f sec (%.0f/sec)", lines, seconds, lines / seconds));
+		System.out.println(stats);
+		for (Map.Entry<String, Map<String, Long>> sender : stats.getSenderCounts().entrySet()) {
+			System.out.println(sender.getKey() + " " + sender.getValue());
+		}
+	}
+}
@@ -0,0 +1,485 @@
+package com.cffreedom.integrations.twilio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the parts of the Twilio REST API used by CFTwilio so tests
+ * (and load tests) can run offline. Point CFTwilio at getEndpoint().
+ */
+public class TwilioStandIn
+{
+	public static final String ACCOUNT_SID = "AC00000000000000000000000000000000";
+	public static final String AUTH_TOKEN = "00000000000000000000000000000000";
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final AtomicInteger messageCount = new AtomicInteger();
+	private final Queue<Map<String, String>> messages = new ConcurrentLinkedQueue<Map<String, String>>();
+	private final AtomicInteger requestCount = new AtomicInteger();
+	private final AtomicInteger challengeCount = new AtomicInteger();
+	private volatile long latencyMillis = 0;
+	private volatile int availableNumberCount = 120;
+	private final Map<String, String> incomingNumbers = new LinkedHashMap<String, String>();
+	private final Map<String, AtomicInteger> transientFailures = new ConcurrentHashMap<String, AtomicInteger>();
+	private final Set<String> lostResponses = ConcurrentHashMap.newKeySet();
+	private final Queue<Integer> messageFailures = new ConcurrentLinkedQueue<Integer>();
+	private final Queue<Map<String, String>> calls = new ConcurrentLinkedQueue<Map<String, String>>();
+	private final Queue<Long> callTimes = new ConcurrentLinkedQueue<Long>();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+	private volatile CallListener callListener = null;
+
+	/**
+	 * Told about each call as it is created, before the create request is answered
+	 */
+	public interface CallListener
+	{
+		void created(String callSid);
+	}
+
+	public TwilioStandIn() throws IOException
+	{
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.executor = Executors.newCachedThreadPool();
+		this.server.setExecutor(this.executor);
+		this.server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					route(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		this.server.start();
+	}
+
+	public String getEndpoint()
+	{
+		return "http://127.0.0.1:" + this.server.getAddress().getPort();
+	}
+
+	/**
+	 * @param latencyMillis Time every request takes before it is answered
+	 */
+	public void setLatencyMillis(long latencyMillis)
+	{
+		this.latencyMillis = latencyMillis;
+	}
+
+	public int getMessageCount()
+	{
+		return this.messageCount.get();
+	}
+
+	/**
+	 * @return Every request answered, of any kind
+	 */
+	public int getRequestCount()
+	{
+		return this.requestCount.get();
+	}
+
+	/**
+	 * @return Requests sent without credentials and answered with a 401 challenge (as Twilio does)
+	 */
+	public int getChallengeCount()
+	{
+		return this.challengeCount.get();
+	}
+
+	/**
+	 * @param availableNumberCount Results for any AvailablePhoneNumbers search (served 50 per page)
+	 */
+	public void setAvailableNumberCount(int availableNumberCount)
+	{
+		this.availableNumberCount = availableNumberCount;
+	}
+
+	/**
+	 * @return Form parameters (plus the CallSid handed back) of every call created, in the order they arrived
+	 */
+	public List<Map<String, String>> getCalls()
+	{
+		return new ArrayList<Map<String, String>>(this.calls);
+	}
+
+	/**
+	 * @param callListener Called with each new CallSid before the response goes back, e.g. to
+	 * deliver a status callback before the client knows the SID
+	 */
+	public void setCallListener(CallListener callListener)
+	{
+		this.callListener = callListener;
+	}
+
+	/**
+	 * @return System.nanoTime() each call create request arrived
+	 */
+	public List<Long> getCallTimes()
+	{
+		return new ArrayList<Long>(this.callTimes);
+	}
+
+	/**
+	 * @return Most requests that were being handled at the same time
+	 */
+	public int getMaxInFlight()
+	{
+		return this.maxInFlight.get();
+	}
+
+	/**
+	 * Put a number on the account as if it was bought earlier
+	 * @param number E.164 number
+	 * @return Its SID
+	 */
+	public String addIncomingNumber(String number)
+	{
+		synchronized (this.incomingNumbers) {
+			String sid = newSid("PN");
+			this.incomingNumbers.put(number, sid);
+			return sid;
+		}
+	}
+
+	/**
+	 * @return Numbers on the account mapped to their SIDs
+	 */
+	public Map<String, String> getIncomingNumbers()
+	{
+		synchronized (this.incomingNumbers) {
+			return new LinkedHashMap<String, String>(this.incomingNumbers);
+		}
+	}
+
+	/**
+	 * Answer the next purchases of the number with 429 Too Many Requests
+	 * @param number E.164 number
+	 * @param times How many purchases to refuse
+	 */
+	public void failTransiently(String number, int times)
+	{
+		this.transientFailures.put(number, new AtomicInteger(times));
+	}
+
+	/**
+	 * Buy the number on the next purchase but answer with a 500, as if the response was lost
+	 * @param number E.164 number
+	 */
+	public void loseResponse(String number)
+	{
+		this.lostResponses.add(number);
+	}
+
+	/**
+	 * Answer the next message create with a Twilio error instead of sending it
+	 * @param code Twilio error code (ex: 20429 rate limited, 21211 invalid To number)
+	 */
+	public void failNextMessage(int code)
+	{
+		this.messageFailures.add(code);
+	}
+
+	/**
+	 * @return Form parameters of every message created, in the order they arrived
+	 */
+	public List<Map<String, String>> getMessages()
+	{
+		return new ArrayList<Map<String, String>>(this.messages);
+	}
+
+	public void stop()
+	{
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+
+	protected void route(HttpExchange exchange) throws IOException
+	{
+		int current = this.inFlight.incrementAndGet();
+		int max;
+		while ((max = this.maxInFlight.get()) < current && !this.maxInFlight.compareAndSet(max, current)) { }
+		try {
+			handle(exchange);
+		} finally {
+			this.inFlight.decrementAndGet();
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		if (exchange.getRequestURI().getPath().endsWith("/Calls.json")) {
+			this.callTimes.add(System.nanoTime());
+		}
+		pause();
+		this.requestCount.incrementAndGet();
+		String path = exchange.getRequestURI().getPath();
+		String method = exchange.getRequestMethod();
+		Map<String, String> form = readForm(exchange);
+
+		if (exchange.getRequestHeaders().getFirst("Authorization") == null) {
+			this.challengeCount.incrementAndGet();
+			exchange.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"Twilio API\"");
+			Map<String, Object> error = new LinkedHashMap<String, Object>();
+			error.put("status", 401);
+			error.put("message", "Authenticate");
+			respond(exchange, 401, error);
+		} else if ("POST".equals(method) && path.endsWith("/Messages.json") && !this.messageFailures.isEmpty()) {
+			int code = this.messageFailures.remove();
+			respondError(exchange, ((code >= 20400) && (code < 20600)) ? code - 20000 : 400, code, "Error " + code);
+		} else if ("POST".equals(method) && path.endsWith("/Messages.json")) {
+			this.messageCount.incrementAndGet();
+			this.messages.add(form);
+			Map<String, Object> msg = new LinkedHashMap<String, Object>();
+			msg.put("sid", newSid("SM"));
+			msg.put("account_sid", ACCOUNT_SID);
+			msg.put("to", form.get("To"));
+			msg.put("from", form.get("From"));
+			msg.put("body", form.get("Body"));
+			msg.put("status", "queued");
+			respond(exchange, 201, msg);
+		} else if ("POST".equals(method) && path.endsWith("/Calls.json")) {
+			String sid = newSid("CA");
+			form.put("CallSid", sid);
+			this.calls.add(form);
+			CallListener listener = this.callListener;
+			if (listener != null) {
+				listener.created(sid);
+			}
+			Map<String, Object> call = new LinkedHashMap<String, Object>();
+			call.put("sid", sid);
+			call.put("account_sid", ACCOUNT_SID);
+			call.put("to", form.get("To"));
+			call.put("from", form.get("From"));
+			call.put("status", "queued");
+			respond(exchange, 201, call);
+		} else if ("POST".equals(method) && path.endsWith("/IncomingPhoneNumbers.json")) {
+			buyNumber(exchange, form);
+		} else if ("GET".equals(method) && path.endsWith("/IncomingPhoneNumbers.json")) {
+			List<Map<String, Object>> numbers = new ArrayList<Map<String, Object>>();
+			for (Map.Entry<String, String> entry : getIncomingNumbers().entrySet()) {
+				numbers.add(incomingNumber(entry.getValue(), entry.getKey()));
+			}
+			Map<String, Object> list = new LinkedHashMap<String, Object>();
+			list.put("uri", path);
+			list.put("page", 0);
+			list.put("page_size", 50);
+			list.put("next_page_uri", null);
+			list.put("incoming_phone_numbers", numbers);
+			respond(exchange, 200, list);
+		} else if ("GET".equals(method) && path.contains("/AvailablePhoneNumbers/")) {
+			respond(exchange, 200, availableNumbers(path, form));
+		} else {
+			respondNotFound(exchange);
+		}
+	}
+
+	private void buyNumber(HttpExchange exchange, Map<String, String> form) throws IOException
+	{
+		String number = form.get("PhoneNumber");
+		AtomicInteger failures = this.transientFailures.get(number);
+		if ((failures != null) && (failures.getAndDecrement() > 0)) {
+			respondError(exchange, 429, 20429, "Too Many Requests");
+			return;
+		}
+		String sid;
+		synchronized (this.incomingNumbers) {
+			if (this.incomingNumbers.containsKey(number)) {
+				respondError(exchange, 400, 21422, "PhoneNumber " + number + " is not available");
+				return;
+			}
+			sid = newSid("PN");
+			this.incomingNumbers.put(number, sid);
+		}
+		if (this.lostResponses.remove(number)) {
+			respondError(exchange, 500, 20500, "Internal Server Error");
+			return;
+		}
+		Map<String, Object> pn = incomingNumber(sid, number);
+		pn.put("friendly_name", form.get("FriendlyName"));
+		pn.put("voice_url", form.get("VoiceUrl"));
+		pn.put("sms_url", form.get("SmsUrl"));
+		respond(exchange, 201, pn);
+	}
+
+	private static Map<String, Object> incomingNumber(String sid, String number)
+	{
+		Map<String, Object> pn = new LinkedHashMap<String, Object>();
+		pn.put("sid", sid);
+		pn.put("account_sid", ACCOUNT_SID);
+		pn.put("phone_number", number);
+		return pn;
+	}
+
+	private Map<String, Object> availableNumbers(String path, Map<String, String> form)
+	{
+		int pageSize = 50;
+		int page = form.containsKey("Page") ? Integer.parseInt(form.get("Page")) : 0;
+		int total = this.availableNumberCount;
+		String areaCode = form.containsKey("AreaCode") ? form.get("AreaCode") : "555";
+		String contains = form.containsKey("Contains") ? form.get("Contains") : "";
+
+		List<Map<String, Object>> numbers = new ArrayList<Map<String, Object>>();
+		for (int x = page * pageSize; (x < total) && (x < (page + 1) * pageSize); x++) {
+			String number = "+1" + areaCode + String.format("%07d", x);
+			if (contains.length() > 0) {
+				number = number.substring(0, number.length() - contains.length()) + contains;
+			}
+			Map<String, Object> num = new LinkedHashMap<String, Object>();
+			num.put("friendly_name", "(" + areaCode + ") " + number.substring(5, 8) + "-" + number.substring(8));
+			num.put("phone_number", number);
+			num.put("iso_country", "US");
+			numbers.add(num);
+		}
+
+		Map<String, Object> list = new LinkedHashMap<String, Object>();
+		list.put("uri", path);
+		list.put("page", page);
+		list.put("page_size", pageSize);
+		list.put("num_pages", (total + pageSize - 1) / pageSize);
+		list.put("total", total);
+		list.put("start", page * pageSize);
+		list.put("end", page * pageSize + numbers.size() - 1);
+		String next = null;
+		if ((page + 1) * pageSize < total) {
+			next = path + "?Page=" + (page + 1) + (form.containsKey("AreaCode") ? "&AreaCode=" + areaCode : "") + (contains.length() > 0 ? "&Contains=" + contains : "");
+		}
+		list.put("next_page_uri", next);
+		list.put("available_phone_numbers", numbers);
+		return list;
+	}
+
+	protected void pause()
+	{
+		long latency = this.latencyMillis;
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	protected static String newSid(String prefix)
+	{
+		return prefix + UUID.randomUUID().toString().replace("-", "");
+	}
+
+	protected static Map<String, String> readForm(HttpExchange exchange) throws IOException
+	{
+		Map<String, String> form = new LinkedHashMap<String, String>();
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query != null) {
+			parseForm(query, form);
+		}
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int read;
+		while ((read = in.read(buf)) != -1) {
+			body.write(buf, 0, read);
+		}
+		if (body.size() > 0) {
+			parseForm(body.toString("UTF-8"), form);
+		}
+		return form;
+	}
+
+	private static void parseForm(String encoded, Map<String, String> form) throws IOException
+	{
+		for (String pair : encoded.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0) {
+				form.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+			}
+		}
+	}
+
+	protected static void respondNotFound(HttpExchange exchange) throws IOException
+	{
+		Map<String, Object> error = new LinkedHashMap<String, Object>();
+		error.put("status", 404);
+		error.put("message", "The requested resource " + exchange.getRequestURI().getPath() + " was not found");
+		error.put("code", 20404);
+		respond(exchange, 404, error);
+	}
+
+	protected static void respondError(HttpExchange exchange, int status, int code, String message) throws IOException
+	{
+		Map<String, Object> error = new LinkedHashMap<String, Object>();
+		error.put("status", status);
+		error.put("message", message);
+		error.put("code", code);
+		respond(exchange, status, error);
+	}
+
+	protected static void respond(HttpExchange exchange, int status, Object json) throws IOException
+	{
+		byte[] body = toJson(json).getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	@SuppressWarnings("unchecked")
+	protected static String toJson(Object value)
+	{
+		if (value == null) {
+			return "null";
+		} else if (value instanceof Number || value instanceof Boolean) {
+			return value.toString();
+		} else if (value instanceof Map) {
+			StringBuilder sb = new StringBuilder("{");
+			for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+				if (sb.length() > 1) { sb.append(','); }
+				sb.append(toJson(entry.getKey())).append(':').append(toJson(entry.getValue()));
+			}
+			return sb.append('}').toString();
+		} else if (value instanceof Iterable) {
+			StringBuilder sb = new StringBuilder("[");
+			for (Object item : (Iterable<Object>) value) {
+				if (sb.length() > 1) { sb.append(','); }
+				sb.append(toJson(item));
+			}
+			return sb.append(']').toString();
+		}
+		String s = value.toString();
+		StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+		for (int x = 0; x < s.length(); x++) {
+			char c = s.charAt(x);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
@@ -0,0 +1,164 @@
+package com.cffreedom.integrations.twilio;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open loop load generator for CFTwilioWebhookServer. Requests are scheduled at a fixed
+ * rate and latency is measured from when each request was due rather than when it was
+ * actually sent, so a stalled server shows up in the percentiles instead of just slowing
+ * the senders down.
+ * Run with: java -cp target/test-classes:target/classes:&lt;test classpath&gt; com.cffreedom.integrations.twilio.TwilioWebhookLoadHarness [rates] [seconds] [url]
+ */
+public class TwilioWebhookLoadHarness
+{
+	public static final String SAMPLE_BODY = "AccountSid=" + TwilioStandIn.ACCOUNT_SID + "&CallSid=CA0123456789abcdef0123456789abcdef&From=%2B15555550100&To=%2B15555550199&CallStatus=ringing&Direction=inbound";
+
+	/**
+	 * POST body to url at a fixed rate
+	 * @param url Webhook URL
+	 * @param body Form encoded body
+	 * @param requestsPerSecond
+	 * @param seconds
+	 * @param connections Client threads (each keeps a connection alive)
+	 * @return Latencies and counts
+	 */
+	public static Report run(final String url, String body, int requestsPerSecond, int seconds, int connections) throws InterruptedException
+	{
+		final int total = requestsPerSecond * seconds;
+		final long intervalNanos = 1000000000L / requestsPerSecond;
+		final long[] latencies = new long[total];
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicInteger errors = new AtomicInteger();
+		final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		final long start = System.nanoTime() + 10000000L;
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < connections; t++) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					byte[] drain = new byte[8192];
+					int x;
+					while ((x = next.getAndIncrement()) < total) {
+						long due = start + x * intervalNanos;
+						long wait = due - System.nanoTime();
+						if (wait > 0) {
+							LockSupport.parkNanos(wait);
+						}
+						try {
+							HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+							conn.setRequestMethod("POST");
+							conn.setDoOutput(true);
+							conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+							conn.setFixedLengthStreamingMode(bytes.length);
+							OutputStream out = conn.getOutputStream();
+							out.write(bytes);
+							out.close();
+							if (conn.getResponseCode() != 200) {
+								errors.incrementAndGet();
+							}
+							InputStream in = (conn.getResponseCode() < 400) ? conn.getInputStream() : conn.getErrorStream();
+							if (in != null) {
+								while (in.read(drain) != -1) { }
+								in.close();
+							}
+						} catch (Exception e) {
+							errors.incrementAndGet();
+						}
+						latencies[x] = System.nanoTime() - due;
+					}
+				}
+			});
+			thread.setDaemon(true);
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return new Report(requestsPerSecond, latencies, errors.get(), System.nanoTime() - start);
+	}
+
+	public static class Report
+	{
+		private final int targetRate;
+		private final int requests;
+		private final int errors;
+		private final double actualRate;
+		private final long p50Micros;
+		private final long p99Micros;
+		private final long maxMicros;
+
+		Report(int targetRate, long[] latencies, int errors, long elapsedNanos)
+		{
+			long[] sorted = latencies.clone();
+			Arrays.sort(sorted);
+			this.targetRate = targetRate;
+			this.requests = sorted.length;
+			this.errors = errors;
+			this.actualRate = sorted.length / (elapsedNanos / 1e9);
+			this.p50Micros = percentile(sorted, 0.50) / 1000;
+			this.p99Micros = percentile(sorted, 0.99) / 1000;
+			this.maxMicros = (sorted.length == 0) ? 0 : sorted[sorted.length - 1] / 1000;
+		}
+
+		private static long percentile(long[] sorted, double p)
+		{
+			return (sorted.length == 0) ? 0 : sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+		}
+
+		public int getRequests() { return this.requests; }
+		public int getErrors() { return this.errors; }
+		public double getActualRate() { return this.actualRate; }
+		public long getP50Micros() { return this.p50Micros; }
+		public long getP99Micros() { return this.p99Micros; }
+		public long getMaxMicros() { return this.maxMicros; }
+
+		@Override
+		public String toString()
+		{
+			return String.format("target=%d/s actual=%.0f/s requests=%d errors=%d p50=%dus p99=%dus max=%dus", this.targetRate, this.actualRate, this.requests, this.errors, this.p50Micros, this.p99Micros, this.maxMicros);
+		}
+	}
+
+	/**
+	 * @param args Comma separated rates (default 500,1000,2000), seconds per rate (default 5) and an
+	 * optional URL. Without a URL a local server answering with twimlGetInput() is started.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		String[] rates = ((args.length > 0) ? args[0] : "500,1000,2000").split(",");
+		int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+		String url = (args.length > 2) ? args[2] : null;
+
+		CFTwilioWebhookServer server = null;
+		if (url == null) {
+			CFTwilioWebhookServer.enableNoDelay();
+			server = new CFTwilioWebhookServer(new InetSocketAddress("127.0.0.1", 0), CFTwilioWebhookServer.DEFAULT_WORKERS);
+			server.route("/voice", new CFTwilioWebhookServer.Handler() {
+				public void handle(TwilioWebhookRequest request, TwiMLWriter out) throws Exception {
+					CFTwiMLTemplates.twimlGetInput(out, null, "Thanks for calling " + request.getTo() + ". Press 1 for sales or 2 for support", 1, 5, "http://example.com/ivr/menu?id=42", -1);
+				}
+			});
+			server.start();
+			url = "http://127.0.0.1:" + server.getPort() + "/voice";
+		}
+
+		run(url, SAMPLE_BODY, 200, 2, 16); // warm up
+		for (String rate : rates) {
+			System.out.println(run(url, SAMPLE_BODY, Integer.parseInt(rate.trim()), seconds, 64));
+		}
+		if (server != null) {
+			server.stop(0);
+		}
+	}
+}